@@ -0,0 +1,125 @@
+package health.ere.ps.model.idp.client.token;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import health.ere.ps.model.idp.client.authentication.JwtBuilder;
+import health.ere.ps.model.idp.client.brainPoolExtension.BrainpoolCurves;
+import health.ere.ps.model.idp.client.field.ClaimName;
+import health.ere.ps.model.idp.crypto.PkiIdentity;
+import health.ere.ps.service.idp.crypto.CryptoLoader;
+import health.ere.ps.service.idp.crypto.X509ClaimExtraction;
+
+/**
+ * Measures the JOSE operations of an IDP login with the brainpoolP256r1 keys
+ * of the test certificates:
+ * <ul>
+ * <li>the challenge and the key verifier are encrypted with the ECDH-ES key of the IDP</li>
+ * <li>the access and id token are decrypted with the AES token key</li>
+ * <li>the IDP signs and the client verifies tokens with BP256R1</li>
+ * <li>the discovery document and the certificates are parsed for their claims</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class IdpJoseBenchmark {
+
+    static final String IDP_IDENTITY = "src/test/resources/certs/109500969_X114428530_c.ch.aut-ecc.p12";
+
+    PkiIdentity idpIdentity;
+    SecretKey tokenKey;
+    String payload;
+    IdpJwe ecdhEsJwe;
+    IdpJwe directJwe;
+    JwtBuilder jwtBuilder;
+    JsonWebToken signedJwt;
+    byte[] certificateBytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        BrainpoolCurves.init();
+        try (InputStream inputStream = new FileInputStream(IDP_IDENTITY)) {
+            idpIdentity = CryptoLoader.getIdentityFromP12(inputStream, "00");
+        }
+        tokenKey = new SecretKeySpec("01234567890123456789012345678901".getBytes(StandardCharsets.UTF_8), "AES");
+
+        jwtBuilder = new JwtBuilder()
+                .setIdentity(idpIdentity)
+                .includeSignerCertificateInHeader(true)
+                .addHeaderClaim(ClaimName.TYPE, "at+JWT")
+                .addBodyClaim(ClaimName.ISSUER, "https://idp.zentral.idp.splitdns.ti-dienste.de")
+                .addBodyClaim(ClaimName.SUBJECT, "X114428530")
+                .addBodyClaim(ClaimName.CLIENT_ID, "eRezeptApp")
+                .addBodyClaim(ClaimName.SCOPE, "openid e-rezept")
+                .expiresAt(ZonedDateTime.now().plusYears(1));
+        signedJwt = jwtBuilder.buildJwt();
+        payload = "{\"njwt\":\"" + signedJwt.getRawString() + "\"}";
+
+        ecdhEsJwe = IdpJwe.createWithPayloadAndEncryptWithKey(payload, idpIdentity.getCertificate().getPublicKey(), "NJWT");
+        directJwe = IdpJwe.createWithPayloadAndEncryptWithKey(payload, tokenKey, "NJWT");
+        certificateBytes = idpIdentity.getCertificate().getEncoded();
+    }
+
+    @Benchmark
+    public IdpJwe jweEncryptEcdhEs() {
+        return IdpJwe.createWithPayloadAndEncryptWithKey(payload, idpIdentity.getCertificate().getPublicKey(), "NJWT");
+    }
+
+    @Benchmark
+    public String jweDecryptEcdhEs() throws Exception {
+        return ecdhEsJwe.decryptJweAndReturnPayloadString(idpIdentity.getPrivateKey());
+    }
+
+    @Benchmark
+    public IdpJwe jweEncryptDirect() {
+        return IdpJwe.createWithPayloadAndEncryptWithKey(payload, tokenKey, "NJWT");
+    }
+
+    @Benchmark
+    public JsonWebToken jweDecryptDirect() {
+        return new IdpJwe(directJwe.getRawString()).decryptNestedJwt(tokenKey);
+    }
+
+    @Benchmark
+    public JsonWebToken jwsSignBrainpool() throws Exception {
+        return jwtBuilder.buildJwt();
+    }
+
+    @Benchmark
+    public JsonWebToken jwsVerifyBrainpool() throws Exception {
+        signedJwt.verify(idpIdentity.getCertificate().getPublicKey());
+        return signedJwt;
+    }
+
+    @Benchmark
+    public Map<String, Object> tokenClaimExtraction() throws Exception {
+        return TokenClaimExtraction.extractClaimsFromJwtBody(signedJwt.getRawString());
+    }
+
+    @Benchmark
+    public Map<String, Object> x509ClaimExtraction() {
+        return X509ClaimExtraction.extractClaimsFromCertificate(certificateBytes);
+    }
+}
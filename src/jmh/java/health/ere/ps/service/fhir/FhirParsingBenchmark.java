@@ -0,0 +1,93 @@
+package health.ere.ps.service.fhir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Measures parsing and encoding the KBV example bundle:
+ * <ul>
+ * <li>with a new FhirContext for each bundle, as the resources did with their own parsers</li>
+ * <li>with a new parser of a shared FhirContext for each bundle, as the services did</li>
+ * <li>with the parsers of the current thread from {@link FhirContextProducer}</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class FhirParsingBenchmark {
+
+    static final String SAMPLE = "src/main/resources/bundle-samples/kbv-pf-example";
+
+    FhirContext sharedContext;
+    String json;
+    String xml;
+    Bundle bundle;
+
+    @Setup
+    public void setUp() throws IOException {
+        sharedContext = FhirContextProducer.getFhirContext();
+        json = Files.readString(Path.of(SAMPLE + ".json"), StandardCharsets.UTF_8);
+        xml = Files.readString(Path.of(SAMPLE + ".xml"), StandardCharsets.UTF_8);
+        bundle = FhirContextProducer.jsonParser().parseResource(Bundle.class, json);
+    }
+
+    @Benchmark
+    public Bundle parseJsonNewContext() {
+        return FhirContext.forR4().newJsonParser().parseResource(Bundle.class, json);
+    }
+
+    @Benchmark
+    public Bundle parseJsonNewParser() {
+        return sharedContext.newJsonParser().parseResource(Bundle.class, json);
+    }
+
+    @Benchmark
+    public Bundle parseJsonSharedParser() {
+        return FhirContextProducer.jsonParser().parseResource(Bundle.class, json);
+    }
+
+    @Benchmark
+    public Bundle parseXmlNewContext() {
+        return FhirContext.forR4().newXmlParser().parseResource(Bundle.class, xml);
+    }
+
+    @Benchmark
+    public Bundle parseXmlNewParser() {
+        return sharedContext.newXmlParser().parseResource(Bundle.class, xml);
+    }
+
+    @Benchmark
+    public Bundle parseXmlSharedParser() {
+        return FhirContextProducer.xmlParser().parseResource(Bundle.class, xml);
+    }
+
+    @Benchmark
+    public String encodeXmlNewParser() {
+        return sharedContext.newXmlParser().encodeResourceToString(bundle);
+    }
+
+    @Benchmark
+    public String encodeXmlSharedParser() {
+        return FhirContextProducer.xmlParser().encodeResourceToString(bundle);
+    }
+}
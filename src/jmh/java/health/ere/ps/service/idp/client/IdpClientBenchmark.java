@@ -0,0 +1,113 @@
+package health.ere.ps.service.idp.client;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.jboss.logging.Logger;
+import org.jose4j.jws.JsonWebSignature;
+import org.jose4j.lang.JoseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import health.ere.ps.model.idp.client.DiscoveryDocumentResponse;
+import health.ere.ps.model.idp.client.authentication.JwtBuilder;
+import health.ere.ps.model.idp.client.brainPoolExtension.BrainpoolCurves;
+import health.ere.ps.model.idp.crypto.PkiIdentity;
+import health.ere.ps.service.idp.crypto.CryptoLoader;
+import health.ere.ps.service.idp.crypto.KeyAnalysis;
+
+/**
+ * Measures {@link IdpClient#signServerChallenge}: the challenge of the IDP is
+ * signed by the SMC-B and the signed challenge is encrypted for the IDP. The
+ * card is replaced by a software key, so the result is the JOSE overhead of the
+ * client without the connector call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class IdpClientBenchmark {
+
+    static final String IDP_IDENTITY = "src/test/resources/certs/109500969_X114428530_c.ch.aut-ecc.p12";
+    static final String SMCB_RSA_IDENTITY = "src/test/resources/certs/1-2-ARZT-WaltrautDrombusch01-80276001011699910223-C_SMCB_AUT_R2048_X509.p12";
+    static final String SMCB_ECC_IDENTITY = "src/test/resources/certs/833621999741600_c.hci.aut-apo-ecc.p12";
+
+    @Param({ "rsa", "ecc" })
+    String smcbKey;
+
+    IdpClient idpClient;
+    PkiIdentity smcbIdentity;
+    Function<Pair<String, String>, String> contentSigner;
+    String challenge;
+
+    static PkiIdentity loadIdentity(String file) throws Exception {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return CryptoLoader.getIdentityFromP12(inputStream, "00");
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        BrainpoolCurves.init();
+        PkiIdentity idpIdentity = loadIdentity(IDP_IDENTITY);
+        smcbIdentity = loadIdentity("ecc".equals(smcbKey) ? SMCB_ECC_IDENTITY : SMCB_RSA_IDENTITY);
+
+        idpClient = new IdpClient();
+        idpClient.logger = Logger.getLogger(IdpClient.class);
+        idpClient.authenticatorClient = new AuthenticatorClient() {
+            @Override
+            public DiscoveryDocumentResponse retrieveDiscoveryDocument(String discoveryDocumentUrl) {
+                return DiscoveryDocumentResponse.builder()
+                        .authorizationEndpoint("https://idp/auth")
+                        .tokenEndpoint("https://idp/token")
+                        .idpSig(idpIdentity.getCertificate())
+                        .idpEnc(idpIdentity.getCertificate().getPublicKey())
+                        .build();
+            }
+        };
+        idpClient.init("eRezeptApp", "https://redirect", "https://idp/discovery", false);
+        idpClient.initializeClient();
+
+        challenge = new JwtBuilder()
+                .setIdentity(idpIdentity)
+                .buildJwt()
+                .getRawString();
+
+        // the same JWS the connector creates with ExternalAuthenticate
+        contentSigner = jwtPair -> {
+            JsonWebSignature jws = new JsonWebSignature();
+            jws.setPayload(new String(Base64.getUrlDecoder().decode(jwtPair.getRight())));
+            jws.setKey(smcbIdentity.getPrivateKey());
+            if (KeyAnalysis.isEcKey(smcbIdentity.getCertificate().getPublicKey())) {
+                jws.setProviderContext(BrainpoolCurves.signatureProviderContext());
+            }
+            try {
+                jws.getHeaders().setFullHeaderAsJsonString(new String(Base64.getUrlDecoder().decode(jwtPair.getLeft())));
+                jws.setCertificateChainHeaderValue(smcbIdentity.getCertificate());
+                return jws.getCompactSerialization();
+            } catch (JoseException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    @Benchmark
+    public String signServerChallenge() throws Exception {
+        return idpClient.signServerChallenge(challenge, smcbIdentity.getCertificate(), contentSigner);
+    }
+}
@@ -0,0 +1,61 @@
+package health.ere.ps.service.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import health.ere.ps.model.gematik.BundleWithAccessCodeOrThrowable;
+import health.ere.ps.service.fhir.FhirContextProducer;
+
+/**
+ * Measures the prescription receipts per second for one bundle:
+ * <ul>
+ * <li>with the stylesheet compiled once by the DocumentService</li>
+ * <li>with the stylesheet compiled again for every receipt, as before</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(3)
+public class DocumentServiceBenchmark {
+
+    DocumentService documentService;
+    List<BundleWithAccessCodeOrThrowable> bundles;
+
+    @Setup
+    public void setUp() throws Exception {
+        documentService = new DocumentService();
+        documentService.init();
+        try (InputStream inputStream = getClass().getResourceAsStream("/examples_erezept/Erezept_template_1.xml")) {
+            Bundle bundle = FhirContextProducer.xmlParser().parseResource(Bundle.class, inputStream);
+            bundles = List.of(new BundleWithAccessCodeOrThrowable(bundle, "MOCK_ACCESS_CODE"));
+        }
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream receiptWithCompiledStylesheet() throws Exception {
+        return documentService.generateERezeptPdf(bundles);
+    }
+
+    @Benchmark
+    public ByteArrayOutputStream receiptCompilingStylesheet() throws Exception {
+        documentService.eRezeptTemplates = DocumentService.compileERezeptTemplates();
+        return documentService.generateERezeptPdf(bundles);
+    }
+}
@@ -62,6 +62,32 @@ public class RuntimeConfig extends UserConfig {
         }
     }
 
+    /**
+     * Creates a copy of the given config that talks to another connector. All other
+     * values, e.g. the mandant and the card handles, are kept.
+     *
+     * @param userConfig the config to copy, this can also be a runtime config
+     * @param connectorBaseURL the base url of the connector to use
+     */
+    public static RuntimeConfig copyWithConnectorBaseURL(UserConfig userConfig, String connectorBaseURL) {
+        RuntimeConfig runtimeConfig = new RuntimeConfig(connectorBaseURL);
+        runtimeConfig.copyValuesFromUserConfig(userConfig);
+        if(userConfig instanceof RuntimeConfig) {
+            RuntimeConfig other = (RuntimeConfig) userConfig;
+            runtimeConfig.eHBAHandle = other.eHBAHandle;
+            runtimeConfig.SMCBHandle = other.SMCBHandle;
+            runtimeConfig.idpBaseURL = other.idpBaseURL;
+            runtimeConfig.idpAuthRequestRedirectURL = other.idpAuthRequestRedirectURL;
+            runtimeConfig.idpClientId = other.idpClientId;
+            runtimeConfig.prescriptionServerURL = other.prescriptionServerURL;
+        }
+        UserConfigurations configurations = new UserConfigurations(userConfig.getConfigurations());
+        configurations.setConnectorBaseURL(connectorBaseURL);
+        runtimeConfig.updateProperties(configurations);
+        runtimeConfig.defaultConnectorBaseURI = connectorBaseURL;
+        return runtimeConfig;
+    }
+
     public RuntimeConfig(String eHBAHandle, String SMCBHandle) {
         this.eHBAHandle = eHBAHandle;
         this.SMCBHandle = SMCBHandle;
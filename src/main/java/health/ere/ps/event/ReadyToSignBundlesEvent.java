@@ -3,33 +3,21 @@ package health.ere.ps.event;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.json.JsonArray;
 import javax.json.JsonObject;
-import javax.json.JsonValue;
 import javax.websocket.Session;
 
 import org.hl7.fhir.r4.model.Bundle;
 
-import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.IParser;
+import health.ere.ps.model.gematik.ParsedBundle;
+import health.ere.ps.service.fhir.BundleParser;
 
 public class ReadyToSignBundlesEvent extends AbstractEvent {
 
     public List<List<Bundle>> listOfListOfBundles = new ArrayList<>();
 
     public ReadyToSignBundlesEvent(JsonObject jsonObject) {
-        for (JsonValue jsonValue : jsonObject.getJsonArray("payload")) {
-            List<Bundle> bundles = new ArrayList<>();
-
-            if (jsonValue instanceof JsonArray) {
-                for (JsonValue singleBundle : (JsonArray) jsonValue) {
-                    IParser jsonParser = FhirContext.forR4().newJsonParser();
-
-                    Bundle bundle = jsonParser.parseResource(Bundle.class, singleBundle.toString());
-                    bundles.add(bundle);
-                }
-            }
-            listOfListOfBundles.add(bundles);
+        for (List<ParsedBundle> parsedBundles : ParsedBundle.fromPayload(jsonObject)) {
+            listOfListOfBundles.add(BundleParser.getBundles(parsedBundles));
         }
     }
     
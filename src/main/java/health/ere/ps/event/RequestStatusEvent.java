@@ -5,8 +5,11 @@ import javax.websocket.Session;
 
 public class RequestStatusEvent extends AbstractEvent {
 
+    private boolean forceRefresh;
+
     public RequestStatusEvent(JsonObject jsonObject) {
         parseRuntimeConfig(jsonObject);
+        forceRefresh = jsonObject != null && jsonObject.getBoolean("forceRefresh", false);
     }
 
     public RequestStatusEvent(JsonObject jsonObject, Session replyTo, String id) {
@@ -14,4 +17,11 @@ public class RequestStatusEvent extends AbstractEvent {
         this.replyTo = replyTo;
         this.id = id;
     }    
+
+    /**
+     * @return true if the status should be probed again instead of using the cached one
+     */
+    public boolean isForceRefresh() {
+        return this.forceRefresh;
+    }
 }
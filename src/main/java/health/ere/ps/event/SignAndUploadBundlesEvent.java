@@ -4,34 +4,29 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import javax.json.JsonArray;
 import javax.json.JsonObject;
-import javax.json.JsonValue;
 import javax.websocket.Session;
 
 import org.hl7.fhir.r4.model.Bundle;
 
-import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.IParser;
+import health.ere.ps.model.gematik.ParsedBundle;
+import health.ere.ps.service.fhir.BundleParser;
 
 public class SignAndUploadBundlesEvent extends AbstractEvent {
 
     public List<List<Bundle>> listOfListOfBundles = new ArrayList<>();
 
     public SignAndUploadBundlesEvent(JsonObject jsonObject) {
+        this(jsonObject, ParsedBundle.fromPayload(jsonObject));
+    }
+
+    /**
+     * @param listOfListOfParsedBundles the bundles of the payload that were already parsed for the validation
+     */
+    public SignAndUploadBundlesEvent(JsonObject jsonObject, List<List<ParsedBundle>> listOfListOfParsedBundles) {
         parseRuntimeConfig(jsonObject);
-        for (JsonValue jsonValue : jsonObject.getJsonArray("payload")) {
-            List<Bundle> bundles = new ArrayList<>();
-
-            if (jsonValue instanceof JsonArray) {
-                for (JsonValue singleBundle : (JsonArray) jsonValue) {
-                    IParser jsonParser = FhirContext.forR4().newJsonParser();
-
-                    Bundle bundle = jsonParser.parseResource(Bundle.class, singleBundle.toString());
-                    bundles.add(bundle);
-                }
-            }
-            listOfListOfBundles.add(bundles);
+        for (List<ParsedBundle> parsedBundles : listOfListOfParsedBundles) {
+            listOfListOfBundles.add(BundleParser.getBundles(parsedBundles));
         }
     }
 
@@ -41,6 +36,13 @@ public class SignAndUploadBundlesEvent extends AbstractEvent {
         this.id = id;
     }
 
+    public SignAndUploadBundlesEvent(JsonObject jsonObject, List<List<ParsedBundle>> listOfListOfParsedBundles,
+                                     Session replyTo, String id) {
+        this(jsonObject, listOfListOfParsedBundles);
+        this.replyTo = replyTo;
+        this.id = id;
+    }
+
     public SignAndUploadBundlesEvent(List<Bundle> bundles) {
         listOfListOfBundles.add(bundles);
     }
@@ -1,7 +1,6 @@
 package health.ere.ps.jsonb;
 
-import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.IParser;
+import health.ere.ps.service.fhir.FhirContextProducer;
 import org.hl7.fhir.r4.model.Bundle;
 
 import javax.json.Json;
@@ -11,15 +10,13 @@ import java.io.StringReader;
 
 public class BundleAdapter implements JsonbAdapter<Bundle, JsonObject> {
 
-    IParser iParser = FhirContext.forR4().newJsonParser();
-    
     @Override
     public JsonObject adaptToJson(Bundle b) {
-        return Json.createReader(new StringReader(iParser.encodeResourceToString(b))).readObject();
+        return Json.createReader(new StringReader(FhirContextProducer.jsonParser().encodeResourceToString(b))).readObject();
     }
 
     @Override
     public Bundle adaptFromJson(JsonObject adapted) {
-        return iParser.parseResource(Bundle.class, adapted.toString());
+        return FhirContextProducer.jsonParser().parseResource(Bundle.class, adapted.toString());
     }
 }
\ No newline at end of file
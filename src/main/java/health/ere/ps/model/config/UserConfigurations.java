@@ -125,6 +125,17 @@ public class UserConfigurations {
         }
     }
 
+    public UserConfigurations(UserConfigurations userConfigurations) {
+        fillValues((s) -> {
+            try {
+                return UserConfigurations.class.getDeclaredField(s).get(userConfigurations);
+            } catch (NoSuchFieldException | SecurityException | IllegalAccessException e) {
+                log.log(Level.SEVERE, "Could not copy property", e);
+                return null;
+            }
+        });
+    }
+
     private void fillValues(Function<String, Object> getValue) {
         for(PropertyDescriptor pd : beanInfo.getPropertyDescriptors()) {
             try {
@@ -0,0 +1,149 @@
+package health.ere.ps.model.gematik;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.hl7.fhir.r4.model.Bundle;
+
+/**
+ * A bundle received from the front-end on its way through validation, signing
+ * and rendering. It holds the JSON of the bundle and what was created from it
+ * once: the content hash, the parsed {@link Bundle}, the XML encoding and the
+ * canonical bytes that are shared by the XSLT rendering and the signature. The
+ * services create them, e.g. with BundleParser.
+ *
+ * The parsed bundle is attached to the {@link Bundle} as user data, so services
+ * that only get the {@link Bundle} find it with {@link #of(Bundle)}. Code that
+ * changes the bundle after the XML was created has to call {@link #modified()}.
+ */
+public class ParsedBundle {
+
+    private static final String USER_DATA_KEY = ParsedBundle.class.getName();
+
+    private final JsonValue json;
+    private String jsonString;
+    private String contentHash;
+    private Bundle bundle;
+    private JsonObject validationResult;
+    private String xml;
+    private byte[] canonicalXmlBytes;
+
+    public ParsedBundle(JsonValue json) {
+        this.json = json;
+    }
+
+    /**
+     * Splits the payload of a SignAndUploadBundles or ValidateBundles message into
+     * its bundles, the lists are in the order of the payload.
+     */
+    public static List<List<ParsedBundle>> fromPayload(JsonObject jsonObject) {
+        List<List<ParsedBundle>> listOfListOfBundles = new ArrayList<>();
+        for (JsonValue jsonValue : jsonObject.getJsonArray("payload")) {
+            List<ParsedBundle> bundles = new ArrayList<>();
+            if (jsonValue instanceof JsonArray) {
+                for (JsonValue singleBundle : (JsonArray) jsonValue) {
+                    bundles.add(new ParsedBundle(singleBundle));
+                }
+            }
+            listOfListOfBundles.add(bundles);
+        }
+        return listOfListOfBundles;
+    }
+
+    /**
+     * @return the parsed bundle the given bundle was created from or null
+     */
+    public static ParsedBundle of(Bundle bundle) {
+        Object parsedBundle = bundle.getUserData(USER_DATA_KEY);
+        return parsedBundle instanceof ParsedBundle ? (ParsedBundle) parsedBundle : null;
+    }
+
+    public JsonValue getJson() {
+        return json;
+    }
+
+    public synchronized String getJsonString() {
+        if (jsonString == null) {
+            jsonString = json.toString();
+        }
+        return jsonString;
+    }
+
+    /**
+     * @return the hash of the normalized JSON or null if it was not computed yet
+     */
+    public synchronized String getContentHash() {
+        return contentHash;
+    }
+
+    public synchronized void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * @return the bundle or null if it was not parsed yet
+     */
+    public synchronized Bundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     * Sets the bundle parsed from the JSON and attaches this parsed bundle to it.
+     */
+    public synchronized void setBundle(Bundle bundle) {
+        this.bundle = bundle;
+        bundle.setUserData(USER_DATA_KEY, this);
+    }
+
+    /**
+     * @return the result of the validation as it is sent in the BundlesValidationResult
+     * message or null if the bundle was not validated
+     */
+    public synchronized JsonObject getValidationResult() {
+        return validationResult;
+    }
+
+    public synchronized void setValidationResult(JsonObject validationResult) {
+        this.validationResult = validationResult;
+    }
+
+    public synchronized boolean isValid() {
+        return validationResult != null && validationResult.getBoolean("valid", false);
+    }
+
+    /**
+     * @return the XML encoding of the bundle in its current state or null if it
+     * was not created yet
+     */
+    public synchronized String getXml() {
+        return xml;
+    }
+
+    public synchronized void setXml(String xml) {
+        this.xml = xml;
+    }
+
+    /**
+     * @return the canonical XML bytes or null if they were not created yet
+     */
+    public synchronized byte[] getCanonicalXmlBytes() {
+        return canonicalXmlBytes;
+    }
+
+    public synchronized void setCanonicalXmlBytes(byte[] canonicalXmlBytes) {
+        this.canonicalXmlBytes = canonicalXmlBytes;
+    }
+
+    /**
+     * Drops the XML and the canonical bytes after the bundle was changed,
+     * e.g. when the prescription id of the task was added.
+     */
+    public synchronized void modified() {
+        xml = null;
+        canonicalXmlBytes = null;
+    }
+}
@@ -6,6 +6,7 @@ import java.security.cert.X509Certificate;
 public class DiscoveryDocumentResponse {
     private String authorizationEndpoint;
     private String tokenEndpoint;
+    private String ssoEndpoint;
     private X509Certificate idpSig;
     private PublicKey idpEnc;
     private X509Certificate discSig;
@@ -39,6 +40,14 @@ public class DiscoveryDocumentResponse {
         this.tokenEndpoint = tokenEndpoint;
     }
 
+    public String getSsoEndpoint() {
+        return ssoEndpoint;
+    }
+
+    public void setSsoEndpoint(String ssoEndpoint) {
+        this.ssoEndpoint = ssoEndpoint;
+    }
+
     public X509Certificate getIdpSig() {
         return idpSig;
     }
@@ -87,6 +96,12 @@ public class DiscoveryDocumentResponse {
             return this;
         }
 
+        public DiscoveryDocumentResponseBuilder ssoEndpoint(String ssoEndpoint) {
+            discoveryDocumentResponse.setSsoEndpoint(ssoEndpoint);
+
+            return this;
+        }
+
         public DiscoveryDocumentResponseBuilder idpSig(X509Certificate idpSig) {
             discoveryDocumentResponse.setIdpSig(idpSig);
 
@@ -5,6 +5,7 @@ import org.jose4j.jwt.JwtClaims;
 import org.jose4j.lang.JoseException;
 
 import health.ere.ps.model.idp.client.brainPoolExtension.BrainpoolAlgorithmSuiteIdentifiers;
+import health.ere.ps.model.idp.client.brainPoolExtension.BrainpoolCurves;
 import health.ere.ps.model.idp.client.field.ClaimName;
 import health.ere.ps.model.idp.client.token.JsonWebToken;
 import health.ere.ps.model.idp.crypto.PkiIdentity;
@@ -25,6 +26,7 @@ public class AuthenticationResponseBuilder {
 
         if (KeyAnalysis.isEcKey(clientIdentity.getCertificate().getPublicKey())) {
             jsonWebSignature.setAlgorithmHeaderValue(BrainpoolAlgorithmSuiteIdentifiers.BRAINPOOL256_USING_SHA256);
+            jsonWebSignature.setProviderContext(BrainpoolCurves.signatureProviderContext());
         } else {
             jsonWebSignature.setAlgorithmHeaderValue(RSA_PSS_USING_SHA256);
         }
@@ -3,6 +3,7 @@ package health.ere.ps.model.idp.client.authentication;
 import health.ere.ps.exception.idp.crypto.IdpCryptoException;
 import health.ere.ps.model.idp.crypto.PkiIdentity;
 import health.ere.ps.exception.idp.IdpJoseException;
+import health.ere.ps.model.idp.client.brainPoolExtension.BrainpoolCurves;
 import health.ere.ps.model.idp.client.field.ClaimName;
 import health.ere.ps.model.idp.client.token.JsonWebToken;
 
@@ -103,6 +104,9 @@ public class JwtBuilder {
         jws.setPayload(claims.toJson());
         jws.setKey(signerKey);
         jws.setAlgorithmHeaderValue(determineAlgorithm());
+        if (signerKey instanceof ECPrivateKey) {
+            jws.setProviderContext(BrainpoolCurves.signatureProviderContext());
+        }
 
         headerClaims.keySet().forEach(key -> jws.setHeader(key, headerClaims.get(key)));
 
@@ -1,11 +1,14 @@
 package health.ere.ps.model.idp.client.brainPoolExtension;
 
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jose4j.jca.ProviderContext;
 import org.jose4j.jwa.AlgorithmFactoryFactory;
 import org.jose4j.keys.EllipticCurves;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
+import java.security.Security;
 import java.security.spec.ECFieldFp;
 import java.security.spec.ECParameterSpec;
 import java.security.spec.ECPoint;
@@ -70,11 +73,27 @@ public class BrainpoolCurves {
         }
     }
 
+    /**
+     * SunEC does not support the brainpool curves since Java 15, signatures
+     * with brainpool keys have to be created and verified by BouncyCastle.
+     */
+    public static ProviderContext signatureProviderContext() {
+        init();
+        final ProviderContext providerContext = new ProviderContext();
+        providerContext.getSuppliedKeyProviderContext().setSignatureProvider(BouncyCastleProvider.PROVIDER_NAME);
+        return providerContext;
+    }
+
     public static void init() {
         if (initialized) {
             return;
         }
 
+        // the brainpool signatures and key agreements are computed by BouncyCastle
+        if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
         addCurve(BP_256, BP256);
         addCurve(BP_384, BP384);
         addCurve(BP_512, BP512);
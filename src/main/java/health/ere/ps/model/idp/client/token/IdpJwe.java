@@ -103,6 +103,10 @@ public class IdpJwe extends IdpJoseObject {
             new AlgorithmConstraints(ConstraintType.PERMIT,
                 ContentEncryptionAlgorithmIdentifiers.AES_256_GCM));
 
+        ProviderContext providerCtx = new ProviderContext();
+        providerCtx.getSuppliedKeyProviderContext().setKeyAgreementProvider("BC");
+        receiverJwe.setProviderContext(providerCtx);
+
         try {
             receiverJwe.setCompactSerialization(getRawString());
             receiverJwe.setKey(key);
@@ -8,6 +8,7 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import health.ere.ps.exception.idp.IdpJoseException;
 import health.ere.ps.exception.idp.IdpJwtExpiredException;
 import health.ere.ps.exception.idp.IdpJwtSignatureInvalidException;
+import health.ere.ps.model.idp.client.brainPoolExtension.BrainpoolCurves;
 import health.ere.ps.model.idp.client.field.ClaimName;
 import org.jose4j.jwt.consumer.ErrorCodes;
 import org.jose4j.jwt.consumer.InvalidJwtException;
@@ -17,6 +18,7 @@ import org.jose4j.jwt.consumer.JwtConsumerBuilder;
 import java.io.IOException;
 import java.security.Key;
 import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
 import java.time.ZonedDateTime;
 import java.util.Map;
 import java.util.Optional;
@@ -30,10 +32,13 @@ public class JsonWebToken extends IdpJoseObject {
     }
 
     public void verify(final PublicKey publicKey) throws IdpJoseException {
-        final JwtConsumer jwtConsumer = new JwtConsumerBuilder()
+        final JwtConsumerBuilder jwtConsumerBuilder = new JwtConsumerBuilder()
             .setVerificationKey(publicKey)
-            .setSkipDefaultAudienceValidation()
-            .build();
+            .setSkipDefaultAudienceValidation();
+        if (publicKey instanceof ECPublicKey) {
+            jwtConsumerBuilder.setJwsProviderContext(BrainpoolCurves.signatureProviderContext());
+        }
+        final JwtConsumer jwtConsumer = jwtConsumerBuilder.build();
 
         try {
             jwtConsumer.process(getRawString());
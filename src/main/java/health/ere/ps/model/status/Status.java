@@ -20,6 +20,8 @@ public class Status implements Serializable{
     private String comfortsignatureInformation;
     private boolean fachdienstReachable;
     private String fachdienstInformation;
+    private boolean validatorReady;
+    private String validatorInformation;
 
     public void setConnectorReachable(boolean isOK, String statusDescription) {
         this.connectorReachable = isOK;
@@ -66,6 +68,11 @@ public class Status implements Serializable{
         this.fachdienstInformation = statusDescription;
     }
 
+    public void setValidatorReady(boolean isOK, String statusDescription) {
+        this.validatorReady = isOK;
+        this.validatorInformation = statusDescription;
+    }
+
     // the following GET-ers are needed in JsonbBuilder...toJson
     // in Websocket to create a JSON string from this object
     public boolean getConnectorReachable() {
@@ -124,6 +131,12 @@ public class Status implements Serializable{
     public String getFachdienstInformation() {
         return this.fachdienstInformation;
     }
+    public boolean getValidatorReady() {
+        return this.validatorReady;
+    }
+    public String getValidatorInformation() {
+        return this.validatorInformation;
+    }
     public String getBearerToken() {
         return this.bearerToken;
     }
@@ -21,14 +21,13 @@ import javax.ws.rs.core.Response;
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Task;
 
-import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.DataFormatException;
-import ca.uhn.fhir.parser.IParser;
 import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
 import de.gematik.ws.conn.eventservice.wsdl.v7.FaultMessage;
 import de.gematik.ws.conn.signatureservice.v7.SignResponse;
 import health.ere.ps.config.RuntimeConfig;
 import health.ere.ps.exception.gematik.ERezeptWorkflowException;
+import health.ere.ps.service.fhir.FhirContextProducer;
 import health.ere.ps.service.gematik.ERezeptWorkflowService;
 
 @Path("/workflow")
@@ -37,9 +36,6 @@ public class ERezeptWorkflowResource {
     @Inject
     ERezeptWorkflowService eRezeptWorkflowService;
 
-    IParser jsonParser = FhirContext.forR4().newJsonParser();
-    IParser xmlParser = FhirContext.forR4().newXmlParser();
-
     @Context
     HttpServletRequest httpServletRequest;
 
@@ -48,9 +44,9 @@ public class ERezeptWorkflowResource {
     public Response createERezeptTask(@HeaderParam("accept") String accept) {
         Task task = eRezeptWorkflowService.createERezeptTask(extractRuntimeConfigFromHeaders());
         if("application/xml".equals(accept)) {
-            return Response.ok().entity(xmlParser.encodeResourceToString(task)).type(MediaType.APPLICATION_XML).build();
+            return Response.ok().entity(FhirContextProducer.xmlParser().encodeResourceToString(task)).type(MediaType.APPLICATION_XML).build();
         } else {
-            return Response.ok().entity(jsonParser.encodeResourceToString(task)).type(MediaType.APPLICATION_JSON).build();
+            return Response.ok().entity(FhirContextProducer.jsonParser().encodeResourceToString(task)).type(MediaType.APPLICATION_JSON).build();
         }
     }
 
@@ -77,7 +73,7 @@ public class ERezeptWorkflowResource {
     }
 
     Bundle string2bundle(String contentType, String bundle) {
-        Bundle bundleObject = "application/xml".equals(contentType) ? xmlParser.parseResource(Bundle.class, bundle) : jsonParser.parseResource(Bundle.class, bundle);
+        Bundle bundleObject = "application/xml".equals(contentType) ? FhirContextProducer.xmlParser().parseResource(Bundle.class, bundle) : FhirContextProducer.jsonParser().parseResource(Bundle.class, bundle);
         return bundleObject;
     }
 
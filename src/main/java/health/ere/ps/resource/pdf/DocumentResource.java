@@ -21,9 +21,8 @@ import javax.xml.transform.TransformerException;
 import org.apache.fop.apps.FOPException;
 import org.hl7.fhir.r4.model.Bundle;
 
-import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.IParser;
 import health.ere.ps.model.gematik.BundleWithAccessCodeOrThrowable;
+import health.ere.ps.service.fhir.FhirContextProducer;
 import health.ere.ps.service.pdf.DocumentService;
 
 @Path("/document")
@@ -31,9 +30,6 @@ public class DocumentResource {
     @Inject
     DocumentService documentService;
 
-    IParser jsonParser = FhirContext.forR4().newJsonParser();
-    IParser xmlParser = FhirContext.forR4().newXmlParser();
-
     @POST
     @Path("/bundles")
     public Response createAndSendPrescriptions(String bundlesString) {
@@ -62,9 +58,9 @@ public class DocumentResource {
             }
             String mimeType = jo.getString("mimeType", "application/json");
             if("application/xml".equals(mimeType)) {
-                bt.setBundle(xmlParser.parseResource(Bundle.class, jo.getJsonString("bundle").getString()));
+                bt.setBundle(FhirContextProducer.xmlParser().parseResource(Bundle.class, jo.getJsonString("bundle").getString()));
             } else {
-                bt.setBundle(jsonParser.parseResource(Bundle.class, jo.getJsonObject("bundle").toString()));
+                bt.setBundle(FhirContextProducer.jsonParser().parseResource(Bundle.class, jo.getJsonObject("bundle").toString()));
             }
         }
         return bt;
@@ -9,26 +9,67 @@ import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import health.ere.ps.config.RuntimeConfig;
+import health.ere.ps.service.idp.client.AuthenticatorClient;
 import health.ere.ps.service.status.StatusService;
+import health.ere.ps.validation.fhir.bundle.PrescriptionBundleValidator;
+import health.ere.ps.validation.fhir.bundle.ValidatorWarmUp;
 
 @Path("/status")
 public class StatusResource {
     @Inject
     StatusService statusService;
 
+    @Inject
+    AuthenticatorClient authenticatorClient;
+
+    @Inject
+    PrescriptionBundleValidator prescriptionBundleValidator;
+
+    @Inject
+    ValidatorWarmUp validatorWarmUp;
+
     @Context
     HttpServletRequest httpServletRequest;
   
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     @Blocking
-    public Response status() {
-        return Response.ok(statusService.getStatus(extractRuntimeConfigFromHeaders())).build();
+    public Response status(@QueryParam("forceRefresh") boolean forceRefresh) {
+        return Response.ok(statusService.getStatus(extractRuntimeConfigFromHeaders(), forceRefresh)).build();
+    }
+
+    @GET
+    @Path("/statistics")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response statistics() {
+        return Response.ok(statusService.getStatistics(extractRuntimeConfigFromHeaders())).build();
+    }
+
+    @GET
+    @Path("/statistics/idp-http")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response idpHttpStatistics() {
+        return Response.ok(authenticatorClient.getStatistics()).build();
+    }
+
+    @GET
+    @Path("/statistics/validation-cache")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response validationCacheStatistics() {
+        return Response.ok(prescriptionBundleValidator.getValidationResultCache()).build();
+    }
+
+    @GET
+    @Path("/validation-warm-up")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response validationWarmUp() {
+        return Response.ok(validatorWarmUp.getStatus()).build();
     }
 
     RuntimeConfig extractRuntimeConfigFromHeaders() {
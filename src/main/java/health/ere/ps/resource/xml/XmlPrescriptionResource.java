@@ -5,12 +5,12 @@ import javax.inject.Inject;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.core.Response;
-import org.hl7.fhir.r4.model.Bundle;
 
 import health.ere.ps.event.BundlesEvent;
 import health.ere.ps.service.fhir.XmlPrescriptionProcessor;
 
-import java.util.Arrays;
+import java.io.InputStream;
+import java.util.List;
 
 @Path("xmlPrescription")
 public class XmlPrescriptionResource {
@@ -19,9 +19,9 @@ public class XmlPrescriptionResource {
     Event<BundlesEvent> bundleEvent;
 
     @POST
-    public Response post(String xml) {
-        Bundle[] bundle = XmlPrescriptionProcessor.parseFromString(xml);
-        bundleEvent.fireAsync(new BundlesEvent(Arrays.asList(bundle)));
+    public Response post(InputStream xml) {
+        // each bundle is sent to the front-end as soon as it was read
+        XmlPrescriptionProcessor.parseFromStream(xml, bundle -> bundleEvent.fireAsync(new BundlesEvent(List.of(bundle))));
         return Response.ok().build();
     }
 }
@@ -25,7 +25,6 @@ import org.jose4j.lang.JoseException;
 import org.jose4j.lang.StringUtil;
 
 import de.gematik.ws.conn.authsignatureservice.wsdl.v7.FaultMessage;
-import de.gematik.ws.conn.cardservicecommon.v2.PinResultEnum;
 import de.gematik.ws.conn.connectorcommon.v5.Status;
 import de.gematik.ws.conn.connectorcontext.v2.ContextType;
 import de.gematik.ws.conn.signatureservice.v7.BinaryDocumentType;
@@ -46,9 +45,13 @@ public class SmcbAuthenticatorService {
     @Inject
     ConnectorCardsService connectorCardsService;
 
-    private X509Certificate x509Certificate;
-
-    public String signIdpChallenge(Pair<String, String> jwtPair, RuntimeConfig runtimeConfig) {
+    /**
+     * Signs the challenge of the IDP with the SMC-B. The certificate is passed
+     * with every call, the service is shared by concurrent logins of different
+     * SMC-Bs.
+     */
+    public String signIdpChallenge(Pair<String, String> jwtPair, X509Certificate x509Certificate,
+                                   RuntimeConfig runtimeConfig) {
         JsonWebSignatureWithExternalAuthentication jws = new JsonWebSignatureWithExternalAuthentication(runtimeConfig);
         jws.setPayload(new String(Base64.getUrlDecoder().decode(jwtPair.getRight())));
 
@@ -69,10 +72,6 @@ public class SmcbAuthenticatorService {
         }
     }
 
-    public void setX509Certificate(X509Certificate x509Certificate) {
-        this.x509Certificate = x509Certificate;
-    }
-
     /**
      * This extension for the jose4j JsonWebSignature signs the payload
      * with the function ExternalAuthenticate from the AuthSignatureServicePortType.
@@ -113,7 +112,7 @@ public class SmcbAuthenticatorService {
                 try {
                     String smcbCardHandle = (this.runtimeConfig != null && this.runtimeConfig.getSMCBHandle() != null) ?
                         this.runtimeConfig.getSMCBHandle() : connectorCardsService.getConnectorCardHandle(
-                        ConnectorCardsService.CardHandleType.SMC_B);
+                        ConnectorCardsService.CardHandleType.SMC_B, this.runtimeConfig);
 
                     signatureBytes = externalAuthenticate(encodedhash,
                             smcbCardHandle);
@@ -200,20 +199,25 @@ public class SmcbAuthenticatorService {
         Holder<SignatureObject> signatureObjectHolder = new Holder<>();
         ExternalAuthenticateResponse response = new ExternalAuthenticateResponse();
 
+        // verify the PIN first instead of letting the connector answer with 4085
+        try {
+            connectorCardsService.ensurePinVerified(cardHandle, runtimeConfig);
+        } catch (ConnectorCardsException e) {
+            throw new RuntimeException("Could not verify pin", e);
+        }
+
         try {
             connectorServicesProvider.getAuthSignatureServicePortType(runtimeConfig).externalAuthenticate(cardHandle, contextType, optionalInputs,
                     binaryDocumentType, statusHolder, signatureObjectHolder);
         } catch (FaultMessage faultMessage) {
-            // Zugriffsbedingungen nicht erfüllt
+            // Zugriffsbedingungen nicht erfüllt, the remembered PIN status was outdated
             boolean code4085 = faultMessage.getFaultInfo().getTrace().stream().anyMatch(t ->
                     t.getCode().equals(BigInteger.valueOf(4085L)));
 
             if (code4085) {
-                Holder<Status> status = new Holder<>();
-                Holder<PinResultEnum> pinResultEnum = new Holder<>();
-                Holder<BigInteger> error = new Holder<>();
+                connectorCardsService.invalidatePinStatus(cardHandle, runtimeConfig);
                 try {
-                    connectorServicesProvider.getCardServicePortType(runtimeConfig).verifyPin(contextType, cardHandle, "PIN.SMC", status, pinResultEnum, error);
+                    connectorCardsService.verifyPin(cardHandle, runtimeConfig);
                     connectorServicesProvider.getAuthSignatureServicePortType(runtimeConfig).externalAuthenticate(cardHandle, contextType, optionalInputs,
                             binaryDocumentType, statusHolder, signatureObjectHolder);
                 } catch (de.gematik.ws.conn.cardservice.wsdl.v8.FaultMessage e) {
@@ -2,10 +2,15 @@ package health.ere.ps.service.connector.cards;
 
 import java.math.BigInteger;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
@@ -14,9 +19,11 @@ import javax.inject.Inject;
 import javax.xml.ws.Holder;
 
 import org.apache.commons.collections4.CollectionUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import de.gematik.ws.conn.cardservice.v8.CardInfoType;
 import de.gematik.ws.conn.cardservice.v8.Cards;
+import de.gematik.ws.conn.cardservice.v8.PinStatusEnum;
 import de.gematik.ws.conn.cardservicecommon.v2.PinResultEnum;
 import de.gematik.ws.conn.connectorcommon.v5.Status;
 import de.gematik.ws.conn.eventservice.v7.GetCards;
@@ -30,6 +37,8 @@ import health.ere.ps.event.VerifyPinEvent;
 import health.ere.ps.exception.connector.ConnectorCardCertificateReadException;
 import health.ere.ps.exception.connector.ConnectorCardsException;
 import health.ere.ps.model.gematik.ChangePinResponse;
+import health.ere.ps.service.connector.provider.ConnectorPool;
+import health.ere.ps.service.connector.provider.ConnectorSession;
 import health.ere.ps.service.connector.provider.MultiConnectorServicesProvider;
 import health.ere.ps.websocket.ExceptionWithReplyToExcetion;
 
@@ -44,26 +53,42 @@ public class ConnectorCardsService {
     @Inject
     MultiConnectorServicesProvider connectorServicesProvider;
 
+    @Inject
+    ConnectorPool connectorPool;
+
     @Inject
     Event<ChangePinResponseEvent> changePinResponseEvent;
 
     @Inject
     Event<Exception> exceptionEvent;
 
+    @ConfigProperty(name = "connector.pin-status.ttl-seconds", defaultValue = "300")
+    long pinStatusTtlSeconds = 300;
+
+    public static final String PIN_SMC = "PIN.SMC";
+
+    // verified PINs by connector base url and card handle
+    final Map<String, Long> pinVerifiedAt = new ConcurrentHashMap<>();
+    final Map<String, Object> pinStatusLocks = new ConcurrentHashMap<>();
+
 
-    private GetCardsResponse getConnectorCards(RuntimeConfig runtimeConfig) throws ConnectorCardsException {
+    private GetCardsResponse getConnectorCards(ConnectorSession session) throws ConnectorCardsException {
         GetCards parameter = new GetCards();
-        parameter.setContext(connectorServicesProvider.getContextType(runtimeConfig));
+        parameter.setContext(session.getContextType());
 
         try {
-            return connectorServicesProvider.getEventServicePortType(runtimeConfig).getCards(parameter);
+            long start = System.currentTimeMillis();
+            GetCardsResponse getCardsResponse = session.getEventServicePortType().getCards(parameter);
+            connectorPool.reportSuccess(session.getRuntimeConfig(), System.currentTimeMillis() - start);
+            forgetRemovedCards(getCardsResponse, session.getRuntimeConfig());
+            return getCardsResponse;
         } catch (FaultMessage e) {
             throw new ConnectorCardsException("Error getting connector card handles.", e);
         }
     }
 
-    private Optional<List<CardInfoType>> getConnectorCardsInfo(RuntimeConfig runtimeConfig) throws ConnectorCardsException {
-        GetCardsResponse response = getConnectorCards(runtimeConfig);
+    private Optional<List<CardInfoType>> getConnectorCardsInfo(ConnectorSession session) throws ConnectorCardsException {
+        GetCardsResponse response = getConnectorCards(session);
         List<CardInfoType> cardHandleTypeList = null;
 
         if (response != null) {
@@ -80,14 +105,19 @@ public class ConnectorCardsService {
 
     public String getConnectorCardHandle(CardHandleType cardHandleType)
             throws ConnectorCardsException {
-        return getConnectorCardHandle(cardHandleType, null);
+        return getConnectorCardHandle(cardHandleType, (RuntimeConfig) null);
     }
 
     public String getConnectorCardHandle(CardHandleType cardHandleType, RuntimeConfig runtimeConfig)
             throws ConnectorCardsException {
+        return getConnectorCardHandle(cardHandleType, connectorServicesProvider.openSession(runtimeConfig));
+    }
+
+    public String getConnectorCardHandle(CardHandleType cardHandleType, ConnectorSession session)
+            throws ConnectorCardsException {
         return getConnectorCardHandle(ch ->
                             ch.getCardType().value().equalsIgnoreCase(
-                                    cardHandleType.getCardHandleType()), runtimeConfig);
+                                    cardHandleType.getCardHandleType()), session);
     }
 
     public String getConnectorCardHandle(String cardHolderName, RuntimeConfig runtimeConfig)
@@ -98,7 +128,12 @@ public class ConnectorCardsService {
 
     public String  getConnectorCardHandle(Predicate<? super CardInfoType> filter, RuntimeConfig runtimeConfig)
             throws ConnectorCardsException {
-        Optional<List<CardInfoType>> cardsInfoList = getConnectorCardsInfo(runtimeConfig);
+        return getConnectorCardHandle(filter, connectorServicesProvider.openSession(runtimeConfig));
+    }
+
+    public String getConnectorCardHandle(Predicate<? super CardInfoType> filter, ConnectorSession session)
+            throws ConnectorCardsException {
+        Optional<List<CardInfoType>> cardsInfoList = getConnectorCardsInfo(session);
         String cardHandle = null;
 
         if (cardsInfoList.isPresent()) {
@@ -116,6 +151,7 @@ public class ConnectorCardsService {
 
 
     public void onChangePinEvent(@ObservesAsync ChangePinEvent changePinEvent) {
+        invalidatePinStatus(changePinEvent.getCardHandle(), changePinEvent.getRuntimeConfig());
         try {
             ChangePinResponse changePinResponse = changePin(changePinEvent.getCardHandle(), changePinEvent.getPinType(), changePinEvent.getRuntimeConfig());
             changePinResponseEvent.fireAsync(new ChangePinResponseEvent(changePinResponse, changePinEvent.getReplyTo(), changePinEvent.getId()));
@@ -141,15 +177,116 @@ public class ConnectorCardsService {
         Holder<Status> holder1 = new Holder<>();
         Holder<PinResultEnum> holder2 = new Holder<>();
         Holder<BigInteger> holder3 = new Holder<>();
-        connectorServicesProvider.getCardServicePortType(runtimeConfig).changePin(connectorServicesProvider.getContextType(runtimeConfig), cardHandle, pinType, holder1, holder2, holder3);
+        ConnectorSession session = connectorServicesProvider.openSession(runtimeConfig);
+        session.getCardServicePortType().changePin(session.getContextType(), cardHandle, pinType, holder1, holder2, holder3);
         return new ChangePinResponse(holder1.value, holder2.value, holder3.value);
     }
     
     public void verifyPin(String cardHandle, RuntimeConfig runtimeConfig) throws de.gematik.ws.conn.cardservice.wsdl.v8.FaultMessage {
+        verifyPin(cardHandle, connectorServicesProvider.openSession(runtimeConfig));
+    }
+
+    public void verifyPin(String cardHandle, ConnectorSession session) throws de.gematik.ws.conn.cardservice.wsdl.v8.FaultMessage {
     	Holder<Status> status = new Holder<>();
         Holder<PinResultEnum> pinResultEnum = new Holder<>();
         Holder<BigInteger> error = new Holder<>();
-        connectorServicesProvider.getCardServicePortType(runtimeConfig).verifyPin(connectorServicesProvider.getContextType(runtimeConfig), cardHandle, "PIN.SMC", status, pinResultEnum, error);
+        session.getCardServicePortType().verifyPin(session.getContextType(), cardHandle, PIN_SMC, status, pinResultEnum, error);
+        if (pinResultEnum.value == PinResultEnum.OK) {
+            pinVerifiedAt.put(pinStatusKey(cardHandle, session.getRuntimeConfig()), System.currentTimeMillis());
+        } else {
+            invalidatePinStatus(cardHandle, session.getRuntimeConfig());
+        }
+    }
+
+    public PinStatusEnum getPinStatus(String cardHandle, RuntimeConfig runtimeConfig) throws de.gematik.ws.conn.cardservice.wsdl.v8.FaultMessage {
+        return getPinStatus(cardHandle, connectorServicesProvider.openSession(runtimeConfig));
+    }
+
+    public PinStatusEnum getPinStatus(String cardHandle, ConnectorSession session) throws de.gematik.ws.conn.cardservice.wsdl.v8.FaultMessage {
+        Holder<Status> status = new Holder<>();
+        Holder<PinStatusEnum> pinStatusEnum = new Holder<>();
+        Holder<BigInteger> leftTries = new Holder<>();
+        session.getCardServicePortType().getPinStatus(session.getContextType(), cardHandle, PIN_SMC, status, pinStatusEnum, leftTries);
+        return pinStatusEnum.value;
+    }
+
+    /**
+     * Makes sure that the PIN of the card is verified before a protected operation
+     * is sent to the connector. A verified PIN is remembered for
+     * connector.pin-status.ttl-seconds, so only the first operation on a card asks
+     * the connector for the PIN status.
+     *
+     * @throws ConnectorCardsException if the PIN can not be verified, e.g. because it is blocked
+     */
+    public void ensurePinVerified(String cardHandle, RuntimeConfig runtimeConfig) throws ConnectorCardsException {
+        ensurePinVerified(cardHandle, connectorServicesProvider.openSession(runtimeConfig));
+    }
+
+    public void ensurePinVerified(String cardHandle, ConnectorSession session) throws ConnectorCardsException {
+        String key = pinStatusKey(cardHandle, session.getRuntimeConfig());
+        if (isPinVerified(key)) {
+            return;
+        }
+        // only one thread per card asks for the PIN, the others wait for the result
+        Object pinStatusLock = pinStatusLocks.computeIfAbsent(key, k -> new Object());
+        synchronized (pinStatusLock) {
+            if (isPinVerified(key)) {
+                return;
+            }
+            boolean verified = false;
+            try {
+                PinStatusEnum pinStatus = getPinStatus(cardHandle, session);
+                if (pinStatus == PinStatusEnum.VERIFIED) {
+                    pinVerifiedAt.put(key, System.currentTimeMillis());
+                } else if (pinStatus == PinStatusEnum.VERIFIABLE) {
+                    verifyPin(cardHandle, session);
+                    if (!isPinVerified(key)) {
+                        throw new ConnectorCardsException("PIN of card " + cardHandle + " was not verified.");
+                    }
+                } else {
+                    throw new ConnectorCardsException("PIN of card " + cardHandle + " can not be verified, status: " + pinStatus);
+                }
+                verified = true;
+            } catch (de.gematik.ws.conn.cardservice.wsdl.v8.FaultMessage e) {
+                throw new ConnectorCardsException("Could not verify PIN of card " + cardHandle, e);
+            } finally {
+                if (!verified) {
+                    // e.g. an unknown card handle, its lock would never be evicted by getCards
+                    pinStatusLocks.remove(key, pinStatusLock);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the PIN status of a card, e.g. because the connector answered that
+     * the security state is not reached anymore (fault 4085).
+     */
+    public void invalidatePinStatus(String cardHandle, RuntimeConfig runtimeConfig) {
+        pinVerifiedAt.remove(pinStatusKey(cardHandle, runtimeConfig));
+    }
+
+    private boolean isPinVerified(String key) {
+        Long verifiedAt = pinVerifiedAt.get(key);
+        return verifiedAt != null && System.currentTimeMillis() - verifiedAt < TimeUnit.SECONDS.toMillis(pinStatusTtlSeconds);
+    }
+
+    private void forgetRemovedCards(GetCardsResponse getCardsResponse, RuntimeConfig runtimeConfig) {
+        if (getCardsResponse == null || getCardsResponse.getCards() == null) {
+            return;
+        }
+        // a card gets a new handle when it is inserted again, so the PIN status of missing handles is stale
+        String prefix = pinStatusKey("", runtimeConfig);
+        Set<String> currentKeys = getCardsResponse.getCards().getCard().stream()
+                .map(card -> pinStatusKey(card.getCardHandle(), runtimeConfig))
+                .collect(Collectors.toSet());
+        pinVerifiedAt.keySet().removeIf(key -> key.startsWith(prefix) && !currentKeys.contains(key));
+        pinStatusLocks.keySet().removeIf(key -> key.startsWith(prefix) && !currentKeys.contains(key));
+    }
+
+    private String pinStatusKey(String cardHandle, RuntimeConfig runtimeConfig) {
+        String connectorBaseURL = runtimeConfig != null ? runtimeConfig.getConnectorBaseURL() : userConfig.getConnectorBaseURL();
+        return connectorBaseURL + "|" + cardHandle;
     }
 
     public enum CardHandleType {
@@ -13,7 +13,6 @@ import javax.xml.ws.Holder;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.lang3.ArrayUtils;
 
-import de.gematik.ws.conn.cardservicecommon.v2.PinResultEnum;
 import de.gematik.ws.conn.certificateservice.v6.ReadCardCertificate;
 import de.gematik.ws.conn.certificateservice.v6.ReadCardCertificateResponse;
 import de.gematik.ws.conn.certificateservice.wsdl.v6.FaultMessage;
@@ -22,6 +21,10 @@ import de.gematik.ws.conn.certificateservicecommon.v2.X509DataInfoListType;
 import de.gematik.ws.conn.connectorcommon.v5.Status;
 import health.ere.ps.config.RuntimeConfig;
 import health.ere.ps.exception.connector.ConnectorCardCertificateReadException;
+import health.ere.ps.exception.connector.ConnectorCardsException;
+import health.ere.ps.service.connector.cards.ConnectorCardsService;
+import health.ere.ps.service.connector.provider.ConnectorPool;
+import health.ere.ps.service.connector.provider.ConnectorSession;
 import health.ere.ps.service.connector.provider.MultiConnectorServicesProvider;
 import health.ere.ps.service.idp.crypto.CryptoLoader;
 
@@ -34,10 +37,16 @@ public class CardCertificateReaderService {
     @Inject
     MultiConnectorServicesProvider connectorServicesProvider;
 
+    @Inject
+    ConnectorCardsService connectorCardsService;
+
+    @Inject
+    ConnectorPool connectorPool;
+
 
     public X509Certificate retrieveSmcbCardCertificate(String cardHandle)
         throws ConnectorCardCertificateReadException {
-        return retrieveSmcbCardCertificate(cardHandle, null);
+        return retrieveSmcbCardCertificate(cardHandle, (RuntimeConfig) null);
     }
 
     /**
@@ -48,11 +57,22 @@ public class CardCertificateReaderService {
      */
     public X509Certificate retrieveSmcbCardCertificate(String cardHandle, RuntimeConfig runtimeConfig)
             throws ConnectorCardCertificateReadException {
+        return retrieveSmcbCardCertificate(cardHandle, connectorServicesProvider.openSession(runtimeConfig));
+    }
+
+    /**
+     * Reads the AUT certificate of a card with the connector of the session.
+     *
+     * @param cardHandle The handle of the card.
+     * @return The card's AUT certificate.
+     */
+    public X509Certificate retrieveSmcbCardCertificate(String cardHandle, ConnectorSession session)
+            throws ConnectorCardCertificateReadException {
 
         byte[] connector_cert_auth = new byte[0];
 
         ReadCardCertificateResponse readCardCertificateResponse =
-                doReadCardCertificate(cardHandle, runtimeConfig);
+                doReadCardCertificate(cardHandle, session);
 
         Status status = readCardCertificateResponse.getStatus();
         if (status != null && status.getResult().equals(STATUS_OK)) {
@@ -88,6 +108,11 @@ public class CardCertificateReaderService {
      */
     public ReadCardCertificateResponse doReadCardCertificate(String cardHandle, RuntimeConfig runtimeConfig)
             throws ConnectorCardCertificateReadException {
+        return doReadCardCertificate(cardHandle, connectorServicesProvider.openSession(runtimeConfig));
+    }
+
+    public ReadCardCertificateResponse doReadCardCertificate(String cardHandle, ConnectorSession session)
+            throws ConnectorCardCertificateReadException {
 
         ReadCardCertificate.CertRefList certRefList = new ReadCardCertificate.CertRefList();
         certRefList.getCertRef().add(CertRefEnum.C_AUT);
@@ -95,22 +120,30 @@ public class CardCertificateReaderService {
         Holder<Status> statusHolder = new Holder<>();
         Holder<X509DataInfoListType> certHolder = new Holder<>();
 
+        // verify the PIN first instead of letting the connector answer with 4085
+        try {
+            connectorCardsService.ensurePinVerified(cardHandle, session);
+        } catch (ConnectorCardsException e) {
+            throw new ConnectorCardCertificateReadException("Could not verify pin", e);
+        }
+
         try {
-            connectorServicesProvider.getCertificateServicePortType(runtimeConfig).readCardCertificate(cardHandle, connectorServicesProvider.getContextType(runtimeConfig), certRefList,
+            long start = System.currentTimeMillis();
+            session.getCertificateServicePortType().readCardCertificate(cardHandle, session.getContextType(), certRefList,
                     statusHolder, certHolder);
+            connectorPool.reportSuccess(session.getRuntimeConfig(), System.currentTimeMillis() - start);
         } catch (FaultMessage faultMessage) {
-            // Zugriffsbedingungen nicht erfüllt
+            // Zugriffsbedingungen nicht erfüllt, the remembered PIN status was outdated
             boolean code4085 = faultMessage.getFaultInfo().getTrace().stream()
                     .anyMatch(t -> t.getCode().equals(BigInteger.valueOf(4085L)));
 
             if (code4085) {
-                Holder<Status> status = new Holder<>();
-                Holder<PinResultEnum> pinResultEnum = new Holder<>();
-                Holder<BigInteger> error = new Holder<>();
+                connectorCardsService.invalidatePinStatus(cardHandle, session.getRuntimeConfig());
                 try {
-                    connectorServicesProvider.getCardServicePortType(runtimeConfig).verifyPin(connectorServicesProvider.getContextType(runtimeConfig), cardHandle, "PIN.SMC", status, pinResultEnum, error);
-                    doReadCardCertificate(cardHandle, runtimeConfig);
-                } catch (de.gematik.ws.conn.cardservice.wsdl.v8.FaultMessage e) {
+                    connectorCardsService.verifyPin(cardHandle, session);
+                    session.getCertificateServicePortType().readCardCertificate(cardHandle, session.getContextType(), certRefList,
+                            statusHolder, certHolder);
+                } catch (de.gematik.ws.conn.cardservice.wsdl.v8.FaultMessage | FaultMessage e) {
                     throw new ConnectorCardCertificateReadException("Could not get certificate", faultMessage);
                 }
             } else {
@@ -195,13 +195,8 @@ public abstract class AbstractConnectorServicesProvider {
     }
 
     private void initializeContextType() {
-        ContextType contextType = new ContextType();
-        contextType.setMandantId(getUserConfig().getMandantId());
-        contextType.setClientSystemId(getUserConfig().getClientSystemId());
-        contextType.setWorkplaceId(getUserConfig().getWorkplaceId());
-        contextType.setUserId(getUserConfig().getUserId());
-
-        this.contextType = contextType;
+        // the context is shared by all callers, so it must not be changed
+        this.contextType = ImmutableContextType.of(getUserConfig());
     }
 
     private void configureBindingProvider(BindingProvider bindingProvider) {
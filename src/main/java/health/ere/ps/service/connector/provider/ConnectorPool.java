@@ -0,0 +1,293 @@
+package health.ere.ps.service.connector.provider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.xml.ws.WebServiceException;
+import javax.xml.ws.http.HTTPException;
+import javax.xml.ws.soap.SOAPFaultException;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import de.gematik.ws.conn.cardservice.v8.CardInfoType;
+import de.gematik.ws.conn.eventservice.v7.GetCards;
+import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
+import health.ere.ps.config.RuntimeConfig;
+import health.ere.ps.config.UserConfig;
+import health.ere.ps.model.config.UserConfigurations;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+
+/**
+ * Pool of connectors that serve the same mandant and card set. Every operation
+ * that needs several connector calls, e.g. looking up a card handle and signing
+ * with it, pins a connector with {@link #pin(RuntimeConfig)} and uses the returned
+ * config for all of its calls.
+ *
+ * The pool prefers the connector with the lowest latency, ejects connectors that
+ * failed several times in a row and readmits them after a back-off. Card handles
+ * are only valid on the connector they were read from, so requests that carry a
+ * card handle are always sent to that connector.
+ */
+@ApplicationScoped
+public class ConnectorPool {
+    private final static Logger log = Logger.getLogger(ConnectorPool.class.getName());
+
+    @Inject
+    UserConfig userConfig;
+
+    @Inject
+    MultiConnectorServicesProvider connectorServicesProvider;
+
+    @ConfigProperty(name = "connector.pool.base-uris")
+    Optional<List<String>> poolBaseURIs = Optional.empty();
+
+    @ConfigProperty(name = "connector.pool.ejection-threshold", defaultValue = "3")
+    int ejectionThreshold = 3;
+
+    @ConfigProperty(name = "connector.pool.ejection-seconds", defaultValue = "30")
+    long ejectionSeconds = 30;
+
+    @ConfigProperty(name = "connector.pool.max-ejection-seconds", defaultValue = "300")
+    long maxEjectionSeconds = 300;
+
+    final Map<String, Member> members = new LinkedHashMap<>();
+
+    // card handle to base url of the connector that knows the card
+    final Map<String, String> cardAffinity = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        addMember(userConfig.getConnectorBaseURL());
+        poolBaseURIs.ifPresent(baseURIs -> baseURIs.forEach(this::addMember));
+        if (isEnabled()) {
+            log.info("Connector pool with members: " + members.keySet());
+        }
+    }
+
+    void addMember(String baseURL) {
+        if (baseURL != null && !baseURL.isEmpty()) {
+            members.putIfAbsent(baseURL, new Member(baseURL));
+        }
+    }
+
+    public boolean isEnabled() {
+        return members.size() > 1;
+    }
+
+    /**
+     * Selects a connector for the given config. The returned config must be used
+     * for all calls of one operation, so card handles stay on their connector.
+     *
+     * @param runtimeConfig the requested config, null for the default config
+     * @return a config for the selected connector, this is the given config if the
+     *         pool is disabled or the config does not use a pooled connector
+     */
+    public RuntimeConfig pin(RuntimeConfig runtimeConfig) {
+        if (!isEnabled()) {
+            return runtimeConfig;
+        }
+        String baseURL = runtimeConfig != null ? runtimeConfig.getConnectorBaseURL() : userConfig.getConnectorBaseURL();
+        if (!members.containsKey(baseURL)) {
+            return runtimeConfig;
+        }
+        Member member = select(runtimeConfig);
+        if (member.baseURL.equals(baseURL)) {
+            return runtimeConfig;
+        }
+        return runtimeConfig != null ? RuntimeConfig.copyWithConnectorBaseURL(runtimeConfig, member.baseURL)
+                : member.getDefaultConfig();
+    }
+
+    Member select(RuntimeConfig runtimeConfig) {
+        if (runtimeConfig != null) {
+            Member affine = affineMember(runtimeConfig.getEHBAHandle());
+            if (affine == null) {
+                affine = affineMember(runtimeConfig.getSMCBHandle());
+            }
+            if (affine != null) {
+                return affine;
+            }
+        }
+        long now = System.currentTimeMillis();
+        Member best = null;
+        Member soonestReadmitted = null;
+        for (Member member : members.values()) {
+            if (member.isAvailable(now)) {
+                if (best == null || member.getLatencyMillis() < best.getLatencyMillis()) {
+                    best = member;
+                }
+            } else if (soonestReadmitted == null || member.ejectedUntil < soonestReadmitted.ejectedUntil) {
+                soonestReadmitted = member;
+            }
+        }
+        // when every connector is ejected the one that comes back first is tried
+        return best != null ? best : soonestReadmitted;
+    }
+
+    private Member affineMember(String cardHandle) {
+        if (cardHandle == null) {
+            return null;
+        }
+        String baseURL = cardAffinity.get(cardHandle);
+        return baseURL != null ? members.get(baseURL) : null;
+    }
+
+    public void reportSuccess(RuntimeConfig pinnedConfig, long latencyMillis) {
+        Member member = memberFor(pinnedConfig);
+        if (member != null) {
+            member.recordSuccess(latencyMillis);
+        }
+    }
+
+    public void reportFailure(RuntimeConfig pinnedConfig) {
+        Member member = memberFor(pinnedConfig);
+        if (member != null) {
+            member.recordFailure();
+        }
+    }
+
+    /**
+     * @return true if the connector could not be reached or did not answer, e.g. a
+     *         timeout, an IO error or an HTTP 5xx status. A fault of the connector,
+     *         e.g. a missing card or a blocked PIN, is an answer and says nothing
+     *         about the health of the connector.
+     */
+    public static boolean isTransportFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof HTTPException) {
+                return ((HTTPException) cause).getStatusCode() >= 500;
+            } else if (cause instanceof SOAPFaultException) {
+                return false;
+            } else if (cause instanceof WebServiceException || cause instanceof IOException
+                    || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Member memberFor(RuntimeConfig runtimeConfig) {
+        return members.get(runtimeConfig != null ? runtimeConfig.getConnectorBaseURL() : userConfig.getConnectorBaseURL());
+    }
+
+    /**
+     * Probes every connector of the pool with a getCards call. This measures the
+     * latency, readmits ejected connectors and refreshes the card affinity.
+     */
+    @Scheduled(every = "{connector.pool.probe-interval}", concurrentExecution = ConcurrentExecution.SKIP)
+    void probe() {
+        if (!isEnabled()) {
+            return;
+        }
+        for (Member member : members.values()) {
+            RuntimeConfig memberConfig = member.baseURL.equals(userConfig.getConnectorBaseURL()) ? null
+                    : member.getDefaultConfig();
+            long start = System.currentTimeMillis();
+            try {
+                GetCards parameter = new GetCards();
+                parameter.setContext(connectorServicesProvider.getContextType(memberConfig));
+                GetCardsResponse getCardsResponse = connectorServicesProvider.getEventServicePortType(memberConfig)
+                        .getCards(parameter);
+                member.recordSuccess(System.currentTimeMillis() - start);
+                updateCardAffinity(member, getCardsResponse);
+            } catch (Exception e) {
+                log.log(Level.FINE, "Connector " + member.baseURL + " did not answer the probe", e);
+                member.recordFailure();
+            }
+        }
+    }
+
+    void updateCardAffinity(Member member, GetCardsResponse getCardsResponse) {
+        List<String> cardHandles = new ArrayList<>();
+        if (getCardsResponse != null && getCardsResponse.getCards() != null) {
+            for (CardInfoType card : getCardsResponse.getCards().getCard()) {
+                cardHandles.add(card.getCardHandle());
+            }
+        }
+        cardAffinity.values().removeIf(baseURL -> baseURL.equals(member.baseURL));
+        cardHandles.forEach(cardHandle -> cardAffinity.put(cardHandle, member.baseURL));
+    }
+
+    public Map<String, Member> getMembers() {
+        return Collections.unmodifiableMap(members);
+    }
+
+    public class Member {
+        final String baseURL;
+        private double latencyMillis = 0;
+        private boolean measured = false;
+        private int consecutiveFailures = 0;
+        private int ejections = 0;
+        private volatile long ejectedUntil = 0;
+        private RuntimeConfig defaultConfig;
+        private UserConfigurations defaultConfigSource;
+
+        Member(String baseURL) {
+            this.baseURL = baseURL;
+        }
+
+        public String getBaseURL() {
+            return baseURL;
+        }
+
+        /**
+         * @return exponentially weighted moving average of the latency
+         */
+        public synchronized double getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        public boolean isAvailable(long now) {
+            return ejectedUntil <= now;
+        }
+
+        public boolean isEjected() {
+            return !isAvailable(System.currentTimeMillis());
+        }
+
+        synchronized void recordSuccess(long latency) {
+            latencyMillis = measured ? 0.8 * latencyMillis + 0.2 * latency : latency;
+            measured = true;
+            if (ejections > 0) {
+                log.info("Connector " + baseURL + " readmitted to the pool");
+            }
+            consecutiveFailures = 0;
+            ejections = 0;
+            ejectedUntil = 0;
+        }
+
+        synchronized void recordFailure() {
+            consecutiveFailures++;
+            // a connector that fails after being readmitted is ejected again at once
+            if (consecutiveFailures >= ejectionThreshold || ejections > 0) {
+                long backOff = Math.min(maxEjectionSeconds, ejectionSeconds << Math.min(ejections, 10));
+                ejectedUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(backOff);
+                ejections++;
+                log.warning("Connector " + baseURL + " ejected from the pool for " + backOff + " seconds");
+            }
+        }
+
+        synchronized RuntimeConfig getDefaultConfig() {
+            // the config is cached so the services provider for this connector is reused
+            if (defaultConfig == null || defaultConfigSource != userConfig.getConfigurations()) {
+                defaultConfigSource = userConfig.getConfigurations();
+                defaultConfig = RuntimeConfig.copyWithConnectorBaseURL(userConfig, baseURL);
+            }
+            return defaultConfig;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package health.ere.ps.service.connector.provider;
+
+import de.gematik.ws.conn.authsignatureservice.wsdl.v7.AuthSignatureServicePortType;
+import de.gematik.ws.conn.cardservice.wsdl.v8.CardServicePortType;
+import de.gematik.ws.conn.certificateservice.wsdl.v6.CertificateServicePortType;
+import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+import de.gematik.ws.conn.eventservice.wsdl.v7.EventServicePortType;
+import de.gematik.ws.conn.signatureservice.wsdl.v7.SignatureServicePortTypeV740;
+import de.gematik.ws.conn.signatureservice.wsdl.v7.SignatureServicePortTypeV755;
+import de.gematik.ws.conn.vsds.vsdservice.v5.VSDServicePortType;
+import health.ere.ps.config.RuntimeConfig;
+import health.ere.ps.config.UserConfig;
+
+/**
+ * Everything one request needs to talk to the connector of its tenant: the
+ * ports, the context, the card handles from the request and the signature
+ * mode. A session is opened once per request with
+ * {@link MultiConnectorServicesProvider#openSession(RuntimeConfig)} and passed
+ * down, so the hot paths do not look up the provider again for every call.
+ */
+public class ConnectorSession {
+
+    private final RuntimeConfig runtimeConfig;
+    private final EventServicePortType eventServicePortType;
+    private final CardServicePortType cardServicePortType;
+    private final CertificateServicePortType certificateServicePortType;
+    private final AuthSignatureServicePortType authSignatureServicePortType;
+    private final SignatureServicePortTypeV740 signatureServicePortType;
+    private final SignatureServicePortTypeV755 signatureServicePortTypeV755;
+    private final VSDServicePortType vsdServicePortType;
+    private final ImmutableContextType contextType;
+    private final String eHBAHandle;
+    private final String smcbHandle;
+    private final String connectorVersion;
+    private final String tvMode;
+
+    /**
+     * @param runtimeConfig the config of the request, null for the default config
+     * @param servicesProvider the provider of the tenant of the request
+     * @param defaultUserConfig the config for the values that the request does not set
+     */
+    ConnectorSession(RuntimeConfig runtimeConfig, AbstractConnectorServicesProvider servicesProvider,
+            UserConfig defaultUserConfig) {
+        this.runtimeConfig = runtimeConfig;
+        this.eventServicePortType = servicesProvider.getEventServicePortType();
+        this.cardServicePortType = servicesProvider.getCardServicePortType();
+        this.certificateServicePortType = servicesProvider.getCertificateService();
+        this.authSignatureServicePortType = servicesProvider.getAuthSignatureServicePortType();
+        this.signatureServicePortType = servicesProvider.getSignatureServicePortType();
+        this.signatureServicePortTypeV755 = servicesProvider.getSignatureServicePortTypeV755();
+        this.vsdServicePortType = servicesProvider.getVSDServicePortType();
+
+        ContextType providedContextType = servicesProvider.getContextType();
+        UserConfig userConfig = runtimeConfig != null ? runtimeConfig : defaultUserConfig;
+        if(providedContextType != null) {
+            this.contextType = ImmutableContextType.copyOf(providedContextType);
+        } else {
+            this.contextType = userConfig != null ? ImmutableContextType.of(userConfig) : null;
+        }
+
+        this.eHBAHandle = runtimeConfig != null ? runtimeConfig.getEHBAHandle() : null;
+        this.smcbHandle = runtimeConfig != null ? runtimeConfig.getSMCBHandle() : null;
+
+        // the endpoint discovery stores the detected version in the config of the provider,
+        // it wins over the version of the request like it did when every request ran the discovery
+        UserConfig providerUserConfig = servicesProvider.getUserConfig();
+        this.connectorVersion = firstNonNull(providerUserConfig != null ? providerUserConfig.getConnectorVersion() : null,
+                runtimeConfig != null ? runtimeConfig.getConnectorVersion() : null,
+                defaultUserConfig != null ? defaultUserConfig.getConnectorVersion() : null);
+        this.tvMode = firstNonNull(runtimeConfig != null ? runtimeConfig.getTvMode() : null,
+                defaultUserConfig != null ? defaultUserConfig.getTvMode() : null);
+    }
+
+    private static String firstNonNull(String... values) {
+        for (String value : values) {
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the config of the request, null for the default config
+     */
+    public RuntimeConfig getRuntimeConfig() {
+        return runtimeConfig;
+    }
+
+    public EventServicePortType getEventServicePortType() {
+        return eventServicePortType;
+    }
+
+    public CardServicePortType getCardServicePortType() {
+        return cardServicePortType;
+    }
+
+    public CertificateServicePortType getCertificateServicePortType() {
+        return certificateServicePortType;
+    }
+
+    public AuthSignatureServicePortType getAuthSignatureServicePortType() {
+        return authSignatureServicePortType;
+    }
+
+    public SignatureServicePortTypeV740 getSignatureServicePortType() {
+        return signatureServicePortType;
+    }
+
+    public SignatureServicePortTypeV755 getSignatureServicePortTypeV755() {
+        return signatureServicePortTypeV755;
+    }
+
+    public VSDServicePortType getVSDServicePortType() {
+        return vsdServicePortType;
+    }
+
+    public ContextType getContextType() {
+        return contextType;
+    }
+
+    /**
+     * @param userId the user id for the comfort signature, null keeps the configured one
+     * @return the context of the session with the given user id
+     */
+    public ContextType getContextType(String userId) {
+        if(userId == null || contextType == null) {
+            return contextType;
+        }
+        return contextType.withUserId(userId);
+    }
+
+    /**
+     * @return the eHBA handle of the request or null if it has to be looked up
+     */
+    public String getEHBAHandle() {
+        return eHBAHandle;
+    }
+
+    /**
+     * @return the SMC-B handle of the request or null if it has to be looked up
+     */
+    public String getSMCBHandle() {
+        return smcbHandle;
+    }
+
+    public String getConnectorVersion() {
+        return connectorVersion;
+    }
+
+    /**
+     * @return true if the connector supports the SignatureService V7.5.5
+     */
+    public boolean isPtv4Plus() {
+        return "PTV4+".equals(connectorVersion);
+    }
+
+    public String getTvMode() {
+        return tvMode;
+    }
+}
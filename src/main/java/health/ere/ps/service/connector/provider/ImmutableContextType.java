@@ -0,0 +1,65 @@
+package health.ere.ps.service.connector.provider;
+
+import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+import health.ere.ps.config.UserConfig;
+
+/**
+ * A connector context that can not be changed after it was created. The
+ * providers hand out the same context to all callers, so a caller that needs
+ * e.g. another user id for the comfort signature gets a copy with
+ * {@link #withUserId(String)}.
+ *
+ * JAXB marshals the object like its super class.
+ */
+public class ImmutableContextType extends ContextType {
+
+    public ImmutableContextType(String mandantId, String clientSystemId, String workplaceId, String userId) {
+        this.mandantId = mandantId;
+        this.clientSystemId = clientSystemId;
+        this.workplaceId = workplaceId;
+        this.userId = userId;
+    }
+
+    public static ImmutableContextType of(UserConfig userConfig) {
+        return new ImmutableContextType(userConfig.getMandantId(), userConfig.getClientSystemId(),
+                userConfig.getWorkplaceId(), userConfig.getUserId());
+    }
+
+    public static ImmutableContextType copyOf(ContextType contextType) {
+        if(contextType instanceof ImmutableContextType) {
+            return (ImmutableContextType) contextType;
+        }
+        return new ImmutableContextType(contextType.getMandantId(), contextType.getClientSystemId(),
+                contextType.getWorkplaceId(), contextType.getUserId());
+    }
+
+    /**
+     * @return this context if the user id is the same, otherwise a copy with the given user id
+     */
+    public ImmutableContextType withUserId(String userId) {
+        if(userId == null ? this.userId == null : userId.equals(this.userId)) {
+            return this;
+        }
+        return new ImmutableContextType(mandantId, clientSystemId, workplaceId, userId);
+    }
+
+    @Override
+    public void setMandantId(String value) {
+        throw new UnsupportedOperationException("ContextType is immutable");
+    }
+
+    @Override
+    public void setClientSystemId(String value) {
+        throw new UnsupportedOperationException("ContextType is immutable");
+    }
+
+    @Override
+    public void setWorkplaceId(String value) {
+        throw new UnsupportedOperationException("ContextType is immutable");
+    }
+
+    @Override
+    public void setUserId(String value) {
+        throw new UnsupportedOperationException("ContextType is immutable");
+    }
+}
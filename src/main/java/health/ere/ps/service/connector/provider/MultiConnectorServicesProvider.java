@@ -1,22 +1,51 @@
 package health.ere.ps.service.connector.provider;
 
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
 import javax.inject.Inject;
+import javax.xml.ws.Holder;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import de.gematik.ws.conn.authsignatureservice.wsdl.v7.AuthSignatureServicePortType;
 import de.gematik.ws.conn.cardservice.wsdl.v8.CardServicePortType;
+import de.gematik.ws.conn.certificateservice.v6.ReadCardCertificate;
+import de.gematik.ws.conn.certificateservice.v6.ReadCardCertificateResponse;
 import de.gematik.ws.conn.certificateservice.wsdl.v6.CertificateServicePortType;
+import de.gematik.ws.conn.certificateservicecommon.v2.X509DataInfoListType;
+import de.gematik.ws.conn.connectorcommon.v5.Status;
 import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+import de.gematik.ws.conn.eventservice.v7.GetCards;
+import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
 import de.gematik.ws.conn.eventservice.wsdl.v7.EventServicePortType;
+import de.gematik.ws.conn.signatureservice.v7.BinaryDocumentType;
+import de.gematik.ws.conn.signatureservice.v7.ExternalAuthenticate;
+import de.gematik.ws.conn.signatureservice.v7.ExternalAuthenticateResponse;
+import de.gematik.ws.conn.signatureservice.v7.SignRequest;
+import de.gematik.ws.conn.signatureservice.v7.SignResponse;
 import de.gematik.ws.conn.signatureservice.wsdl.v7.SignatureServicePortTypeV740;
 import de.gematik.ws.conn.signatureservice.wsdl.v7.SignatureServicePortTypeV755;
+import de.gematik.ws.conn.vsds.vsdservice.v5.ReadVSDResponse;
 import de.gematik.ws.conn.vsds.vsdservice.v5.VSDServicePortType;
+import de.gematik.ws.conn.vsds.vsdservice.v5.VSDStatusType;
+import health.ere.ps.config.RuntimeConfig;
 import health.ere.ps.config.UserConfig;
+import oasis.names.tc.dss._1_0.core.schema.SignatureObject;
 
 @ApplicationScoped
 public class MultiConnectorServicesProvider {
@@ -28,8 +57,23 @@ public class MultiConnectorServicesProvider {
     @Inject
     Event<Exception> eventException;
 
+    @ConfigProperty(name = "connector.async.max-threads", defaultValue = "8")
+    int asyncMaxThreads = 8;
+
+    @ConfigProperty(name = "connector.async.queue-size", defaultValue = "64")
+    int asyncQueueSize = 64;
+
+    Map<TenantKey,SingleConnectorServicesProvider> singleConnectorServicesProvider = new ConcurrentHashMap<>();
+
+    private volatile ExecutorService connectorExecutor;
 
-    Map<UserConfig,SingleConnectorServicesProvider> singleConnectorServicesProvider = new HashMap<>();
+    /**
+     * A blocking connector call, e.g. a SOAP operation on one of the port types.
+     */
+    @FunctionalInterface
+    public interface ConnectorCall<T> {
+        T call() throws Exception;
+    }
 
     public CardServicePortType getCardServicePortType(UserConfig userConfig) {
         CardServicePortType cardServicePortType = getSingleConnectorServicesProvider(userConfig).getCardServicePortType();
@@ -40,13 +84,24 @@ public class MultiConnectorServicesProvider {
         if(userConfig == null) {
             return defaultConnectorServicesProvider;
         } else {
-            if(!singleConnectorServicesProvider.containsKey(userConfig)) {
-                singleConnectorServicesProvider.put(userConfig, new SingleConnectorServicesProvider(userConfig, eventException));
-            }
-            return singleConnectorServicesProvider.get(userConfig);
+            // every request brings its own config object, so the providers are shared
+            // by all configs that talk to the same connector with the same identity
+            return singleConnectorServicesProvider.computeIfAbsent(TenantKey.of(userConfig),
+                    key -> new SingleConnectorServicesProvider(userConfig, eventException));
         }
     }
 
+    /**
+     * Resolves the ports and the context of the tenant of the given config once,
+     * the returned session can be used for all connector calls of one request.
+     *
+     * @param runtimeConfig the config of the request, null for the default config
+     */
+    public ConnectorSession openSession(RuntimeConfig runtimeConfig) {
+        return new ConnectorSession(runtimeConfig, getSingleConnectorServicesProvider(runtimeConfig),
+                defaultConnectorServicesProvider.getUserConfig());
+    }
+
     public CertificateServicePortType getCertificateServicePortType(UserConfig userConfig) {
         CertificateServicePortType certificateService = getSingleConnectorServicesProvider(userConfig).getCertificateService();
         return certificateService;
@@ -77,19 +132,225 @@ public class MultiConnectorServicesProvider {
         return vsdServicePortType;
     }
 
+    /**
+     * @return the immutable context of the tenant, it is shared by all callers
+     */
     public ContextType getContextType(UserConfig userConfig) {
-        if(userConfig == null) {
-            return defaultConnectorServicesProvider.getContextType();
+        ContextType contextType = getSingleConnectorServicesProvider(userConfig).getContextType();
+        if(contextType == null && userConfig != null) {
+            return ImmutableContextType.of(userConfig);
         }
-        ContextType contextType = new ContextType();
-        contextType.setMandantId(userConfig.getMandantId());
-        contextType.setClientSystemId(userConfig.getClientSystemId());
-        contextType.setWorkplaceId(userConfig.getWorkplaceId());
-        contextType.setUserId(userConfig.getUserId());
         return contextType;
     }
 
     public void clearAll() {
-        singleConnectorServicesProvider = new HashMap<>();
+        singleConnectorServicesProvider = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Runs the given connector call on the bounded connector executor. When all
+     * threads are busy and the queue is full the call is executed by the calling
+     * thread, so callers are slowed down instead of rejected.
+     *
+     * @param connectorCall the blocking call
+     * @return a future that completes with the result of the call or with a
+     *         {@link CompletionException} that wraps the fault
+     */
+    public <T> CompletableFuture<T> supplyAsync(ConnectorCall<T> connectorCall) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return connectorCall.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, getConnectorExecutor());
+    }
+
+    public CompletableFuture<GetCardsResponse> getCardsAsync(GetCards parameter, UserConfig userConfig) {
+        EventServicePortType eventServicePortType = getEventServicePortType(userConfig);
+        return supplyAsync(() -> eventServicePortType.getCards(parameter));
+    }
+
+    public CompletableFuture<ReadCardCertificateResponse> readCardCertificateAsync(String cardHandle,
+            ContextType contextType, ReadCardCertificate.CertRefList certRefList, UserConfig userConfig) {
+        CertificateServicePortType certificateServicePortType = getCertificateServicePortType(userConfig);
+        return supplyAsync(() -> {
+            Holder<Status> statusHolder = new Holder<>();
+            Holder<X509DataInfoListType> certHolder = new Holder<>();
+            certificateServicePortType.readCardCertificate(cardHandle, contextType, certRefList, statusHolder, certHolder);
+
+            ReadCardCertificateResponse response = new ReadCardCertificateResponse();
+            response.setStatus(statusHolder.value);
+            response.setX509DataInfoList(certHolder.value);
+            return response;
+        });
+    }
+
+    public CompletableFuture<ExternalAuthenticateResponse> externalAuthenticateAsync(String cardHandle,
+            ContextType contextType, ExternalAuthenticate.OptionalInputs optionalInputs,
+            BinaryDocumentType binaryDocumentType, UserConfig userConfig) {
+        AuthSignatureServicePortType authSignatureServicePortType = getAuthSignatureServicePortType(userConfig);
+        return supplyAsync(() -> {
+            Holder<Status> statusHolder = new Holder<>();
+            Holder<SignatureObject> signatureObjectHolder = new Holder<>();
+            authSignatureServicePortType.externalAuthenticate(cardHandle, contextType, optionalInputs,
+                    binaryDocumentType, statusHolder, signatureObjectHolder);
+
+            ExternalAuthenticateResponse response = new ExternalAuthenticateResponse();
+            response.setStatus(statusHolder.value);
+            response.setSignatureObject(signatureObjectHolder.value);
+            return response;
+        });
+    }
+
+    public CompletableFuture<String> getJobNumberAsync(ContextType contextType, UserConfig userConfig) {
+        SignatureServicePortTypeV740 signatureServicePortType = getSignatureServicePortType(userConfig);
+        return supplyAsync(() -> signatureServicePortType.getJobNumber(contextType));
+    }
+
+    public CompletableFuture<String> getJobNumberV755Async(ContextType contextType, UserConfig userConfig) {
+        SignatureServicePortTypeV755 signatureServicePortTypeV755 = getSignatureServicePortTypeV755(userConfig);
+        return supplyAsync(() -> signatureServicePortTypeV755.getJobNumber(contextType));
+    }
+
+    public CompletableFuture<List<SignResponse>> signDocumentAsync(String cardHandle, ContextType contextType,
+            String tvMode, String jobNumber, List<SignRequest> signRequests, UserConfig userConfig) {
+        SignatureServicePortTypeV740 signatureServicePortType = getSignatureServicePortType(userConfig);
+        return supplyAsync(() -> signatureServicePortType.signDocument(cardHandle, contextType, tvMode, jobNumber,
+                signRequests));
+    }
+
+    public CompletableFuture<List<de.gematik.ws.conn.signatureservice.v7_5_5.SignResponse>> signDocumentV755Async(
+            String cardHandle, String crypt, ContextType contextType, String tvMode, String jobNumber,
+            List<de.gematik.ws.conn.signatureservice.v7_5_5.SignRequest> signRequests, UserConfig userConfig) {
+        SignatureServicePortTypeV755 signatureServicePortTypeV755 = getSignatureServicePortTypeV755(userConfig);
+        return supplyAsync(() -> signatureServicePortTypeV755.signDocument(cardHandle, crypt, contextType, tvMode,
+                jobNumber, signRequests));
+    }
+
+    public CompletableFuture<ReadVSDResponse> readVSDAsync(String ehcHandle, String hpcHandle,
+            boolean performOnlineCheck, boolean readOnlineReceipt, ContextType contextType, UserConfig userConfig) {
+        VSDServicePortType vsdServicePortType = getVSDServicePortType(userConfig);
+        return supplyAsync(() -> {
+            Holder<byte[]> persoenlicheVersichertendaten = new Holder<>();
+            Holder<byte[]> allgemeineVersicherungsdaten = new Holder<>();
+            Holder<byte[]> geschuetzteVersichertendaten = new Holder<>();
+            Holder<VSDStatusType> vSD_Status = new Holder<>();
+            Holder<byte[]> pruefungsnachweis = new Holder<>();
+            vsdServicePortType.readVSD(ehcHandle, hpcHandle, performOnlineCheck, readOnlineReceipt, contextType,
+                    persoenlicheVersichertendaten, allgemeineVersicherungsdaten, geschuetzteVersichertendaten,
+                    vSD_Status, pruefungsnachweis);
+
+            ReadVSDResponse response = new ReadVSDResponse();
+            response.setPersoenlicheVersichertendaten(persoenlicheVersichertendaten.value);
+            response.setAllgemeineVersicherungsdaten(allgemeineVersicherungsdaten.value);
+            response.setGeschuetzteVersichertendaten(geschuetzteVersichertendaten.value);
+            response.setVSDStatus(vSD_Status.value);
+            response.setPruefungsnachweis(pruefungsnachweis.value);
+            return response;
+        });
+    }
+
+    /**
+     * Waits for the given future and rethrows the checked connector fault of the
+     * given type, so callers can keep their existing fault handling.
+     */
+    public static <T, E extends Exception> T await(CompletableFuture<T> future, Class<E> faultType) throws E {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (faultType.isInstance(cause)) {
+                throw faultType.cast(cause);
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    ExecutorService getConnectorExecutor() {
+        if (connectorExecutor == null) {
+            synchronized (this) {
+                if (connectorExecutor == null) {
+                    log.info("Starting connector executor with " + asyncMaxThreads + " threads");
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(asyncMaxThreads, asyncMaxThreads,
+                            60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(asyncQueueSize),
+                            new ConnectorThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy());
+                    executor.allowCoreThreadTimeOut(true);
+                    connectorExecutor = executor;
+                }
+            }
+        }
+        return connectorExecutor;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (connectorExecutor != null) {
+            connectorExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Identifies a connector and the identity that is used to talk to it. The
+     * connector version is not part of the key because the endpoint discovery
+     * changes it.
+     */
+    public static final class TenantKey {
+        private final String connectorBaseURL;
+        private final String mandantId;
+        private final String clientSystemId;
+        private final String workplaceId;
+        private final String userId;
+        private final String basicAuthUsername;
+        private final String basicAuthPassword;
+        private final String clientCertificate;
+        private final String clientCertificatePassword;
+
+        private TenantKey(UserConfig userConfig) {
+            this.connectorBaseURL = userConfig.getConnectorBaseURL();
+            this.mandantId = userConfig.getMandantId();
+            this.clientSystemId = userConfig.getClientSystemId();
+            this.workplaceId = userConfig.getWorkplaceId();
+            this.userId = userConfig.getUserId();
+            this.basicAuthUsername = userConfig.getConfigurations().getBasicAuthUsername();
+            this.basicAuthPassword = userConfig.getConfigurations().getBasicAuthPassword();
+            this.clientCertificate = userConfig.getConfigurations().getClientCertificate();
+            this.clientCertificatePassword = userConfig.getConfigurations().getClientCertificatePassword();
+        }
+
+        public static TenantKey of(UserConfig userConfig) {
+            return new TenantKey(userConfig);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof TenantKey)) {
+                return false;
+            }
+            TenantKey tenantKey = (TenantKey) o;
+            return Objects.equals(connectorBaseURL, tenantKey.connectorBaseURL) && Objects.equals(mandantId, tenantKey.mandantId) && Objects.equals(clientSystemId, tenantKey.clientSystemId) && Objects.equals(workplaceId, tenantKey.workplaceId) && Objects.equals(userId, tenantKey.userId) && Objects.equals(basicAuthUsername, tenantKey.basicAuthUsername) && Objects.equals(basicAuthPassword, tenantKey.basicAuthPassword) && Objects.equals(clientCertificate, tenantKey.clientCertificate) && Objects.equals(clientCertificatePassword, tenantKey.clientCertificatePassword);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(connectorBaseURL, mandantId, clientSystemId, workplaceId, userId, basicAuthUsername, basicAuthPassword, clientCertificate, clientCertificatePassword);
+        }
+    }
+
+    private static class ConnectorThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "connector-async-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 }
@@ -0,0 +1,51 @@
+package health.ere.ps.service.fhir;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.hl7.fhir.r4.model.Bundle;
+
+import health.ere.ps.model.gematik.ParsedBundle;
+
+/**
+ * Parses and encodes the bundles received from the front-end once and keeps
+ * the results in their {@link ParsedBundle}.
+ */
+public class BundleParser {
+
+    private BundleParser() {
+    }
+
+    /**
+     * @return the bundle, it is parsed from the JSON on the first call
+     */
+    public static Bundle getBundle(ParsedBundle parsedBundle) {
+        synchronized (parsedBundle) {
+            if (parsedBundle.getBundle() == null) {
+                parsedBundle.setBundle(FhirContextProducer.jsonParser()
+                        .parseResource(Bundle.class, parsedBundle.getJsonString()));
+            }
+            return parsedBundle.getBundle();
+        }
+    }
+
+    /**
+     * @return the bundles of the lists, in the same order
+     */
+    public static List<Bundle> getBundles(List<ParsedBundle> parsedBundles) {
+        return parsedBundles.stream().map(BundleParser::getBundle).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the XML encoding of the bundle in its current state, it is created
+     * on the first call after the bundle was parsed or modified
+     */
+    public static String getXml(ParsedBundle parsedBundle) {
+        synchronized (parsedBundle) {
+            if (parsedBundle.getXml() == null) {
+                parsedBundle.setXml(FhirContextProducer.xmlParser().encodeResourceToString(getBundle(parsedBundle)));
+            }
+            return parsedBundle.getXml();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package health.ere.ps.service.fhir;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.parser.IParser;
+
+/**
+ * The R4 FhirContext of the application. Creating a FhirContext scans the
+ * model classes, it is created once and shared through {@link #getFhirContext()},
+ * so beans, events and static helpers use the same context.
+ *
+ * A parser must not be used by two threads at the same time, {@link #jsonParser()}
+ * and {@link #xmlParser()} return a parser of the current thread. Their settings
+ * must not be changed, create a new parser with the context for that.
+ */
+public class FhirContextProducer {
+
+    private static final FhirContext fhirContext = FhirContext.forR4();
+    private static final ThreadLocal<IParser> jsonParser = ThreadLocal.withInitial(fhirContext::newJsonParser);
+    private static final ThreadLocal<IParser> xmlParser = ThreadLocal.withInitial(fhirContext::newXmlParser);
+
+    private FhirContextProducer() {
+    }
+
+    public static FhirContext getFhirContext() {
+        return fhirContext;
+    }
+
+    /**
+     * @return the JSON parser of the current thread
+     */
+    public static IParser jsonParser() {
+        return jsonParser.get();
+    }
+
+    /**
+     * @return the XML parser of the current thread
+     */
+    public static IParser xmlParser() {
+        return xmlParser.get();
+    }
+}
@@ -1,15 +1,32 @@
 package health.ere.ps.service.fhir;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response.Status;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.hl7.fhir.r4.model.Bundle;
 import org.hl7.fhir.r4.model.Bundle.BundleEntryComponent;
@@ -27,37 +44,143 @@ import org.hl7.fhir.r4.model.Practitioner;
 import org.hl7.fhir.r4.model.Practitioner.PractitionerQualificationComponent;
 import org.hl7.fhir.r4.model.Quantity;
 
-import ca.uhn.fhir.context.FhirContext;
+import com.ctc.wstx.api.WstxInputProperties;
+import com.ctc.wstx.stax.WstxInputFactory;
+
 import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
 
 public class XmlPrescriptionProcessor {
-    // Get <Bundle> tag including content
-    private static final Pattern GET_BUNDLE = Pattern.compile("(<Bundle[^>]*>.*?</Bundle>)", Pattern.DOTALL);
     private static final Pattern GET_UUID = Pattern.compile("^urn:uuid:(.*)");
-    private static final FhirContext fhirContext = FhirContext.forR4();
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = createXmlOutputFactory();
 
     public static Bundle[] parseFromString(String xml) {
         List<Bundle> bundles = new ArrayList<>();
-        Matcher m = GET_BUNDLE.matcher(xml);
+        parse(new StringReader(xml), bundles::add);
+        return bundles.toArray(new Bundle[]{});
+    }
+
+    /**
+     * Reads the bundles of an XML document, e.g. the export of a PVS, from the stream
+     * and passes each fixed bundle to the consumer as soon as its end tag was read.
+     * A bundle is a Bundle element that is not part of another bundle. The stream may
+     * contain several documents one after the other, e.g. bundles without a common
+     * root element, and text before the first tag.
+     */
+    public static void parseFromStream(InputStream inputStream, Consumer<Bundle> consumer) {
+        parse(new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)), consumer);
+    }
+
+    private static void parse(Reader reader, Consumer<Bundle> consumer) {
+        try {
+            parse(XML_INPUT_FACTORY.createXMLStreamReader(skipLeadingText(reader)), consumer);
+        } catch (XMLStreamException | IOException e) {
+            throw new WebApplicationException("Could not read XML: " + e.getMessage(), e, Status.NOT_ACCEPTABLE);
+        }
+    }
+
+    /**
+     * Skips the text before the first tag, the parser does not accept text in the prolog.
+     */
+    private static Reader skipLeadingText(Reader reader) throws IOException {
+        PushbackReader pushbackReader = new PushbackReader(reader);
+        int c = pushbackReader.read();
+        while (c != -1 && c != '<') {
+            c = pushbackReader.read();
+        }
+        if (c != -1) {
+            pushbackReader.unread(c);
+        }
+        return pushbackReader;
+    }
+
+    private static void parse(XMLStreamReader reader, Consumer<Bundle> consumer) throws XMLStreamException {
         boolean found = false;
-        while (m.find()) {
-            found = true;
-            String bundleXml = m.group(1);
-            Bundle bundle = createFixedBundleFromString(bundleXml);
-            bundles.add(bundle);
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && "Bundle".equals(reader.getLocalName())) {
+                    found = true;
+                    consumer.accept(createFixedBundleFromString(readElement(reader)));
+                }
+            }
+        } finally {
+            reader.close();
         }
         if (!found) {
             throw new WebApplicationException("Could not extract inner text", Status.NOT_ACCEPTABLE);
         }
-        return bundles.toArray(new Bundle[]{});
+    }
+
+    /**
+     * Copies the element at the reader up to its end tag, the namespaces that are
+     * declared by the parents of the element are declared on it.
+     */
+    private static String readElement(XMLStreamReader reader) throws XMLStreamException {
+        StringWriter stringWriter = new StringWriter();
+        XMLStreamWriter writer = XML_OUTPUT_FACTORY.createXMLStreamWriter(stringWriter);
+        int depth = 0;
+        while (true) {
+            switch (reader.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    writer.writeStartElement(Objects.toString(reader.getPrefix(), ""), reader.getLocalName(),
+                            Objects.toString(reader.getNamespaceURI(), ""));
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        writer.writeNamespace(Objects.toString(reader.getNamespacePrefix(i), ""),
+                                reader.getNamespaceURI(i));
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        writer.writeAttribute(Objects.toString(reader.getAttributePrefix(i), ""),
+                                Objects.toString(reader.getAttributeNamespace(i), ""),
+                                reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getText());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+            if (depth == 0) {
+                break;
+            }
+            reader.next();
+        }
+        writer.close();
+        return stringWriter.toString();
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory xmlInputFactory = new WstxInputFactory();
+        // several root elements, each of them may have its own XML declaration
+        xmlInputFactory.setProperty(WstxInputProperties.P_INPUT_PARSING_MODE,
+                WstxInputProperties.PARSING_MODE_DOCUMENTS);
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return xmlInputFactory;
+    }
 
+    private static XMLOutputFactory createXmlOutputFactory() {
+        XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newFactory();
+        // declares the namespaces of the element that were declared by its parents
+        xmlOutputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+        return xmlOutputFactory;
     }
 
     public static Bundle createFixedBundleFromString(String bundleXml) {
 
         bundleXml = bundleXml.replaceAll("\\|1.0.1", "|1.0.2");
 
-        Bundle bundle = fhirContext.newXmlParser().parseResource(Bundle.class, bundleXml);
+        Bundle bundle = FhirContextProducer.xmlParser().parseResource(Bundle.class, bundleXml);
         fixFullUrls(bundle);
         fixRefencesInComposition(bundle);
 
@@ -0,0 +1,87 @@
+package health.ere.ps.service.fhir.bundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bundle template with placeholders like $PATIENT_ID. The template is split once
+ * into literal text and placeholders, rendering appends the literals and the values
+ * of the placeholders in one pass.
+ *
+ * A placeholder is a $ followed by the longest run of upper case letters, digits and
+ * underscores, $DOSAGE_TEXT is not $DOSAGE followed by _TEXT. Placeholders without a
+ * value are rendered as they are, values are inserted as they are and are not searched
+ * for placeholders.
+ */
+public class BundleTemplate {
+
+    // renders into a buffer of the thread that keeps its capacity between the bundles
+    private static final ThreadLocal<StringBuilder> buffer = ThreadLocal.withInitial(StringBuilder::new);
+
+    private final List<String> literals = new ArrayList<>();
+    private final List<String> placeholders = new ArrayList<>();
+    private final int length;
+
+    public BundleTemplate(String template) {
+        int literalStart = 0;
+        int i = 0;
+        while (i < template.length()) {
+            int end = template.charAt(i) == '$' ? placeholderEnd(template, i + 1) : i + 1;
+            if (end > i + 1) {
+                literals.add(template.substring(literalStart, i));
+                placeholders.add(template.substring(i, end));
+                literalStart = end;
+            }
+            i = end;
+        }
+        literals.add(template.substring(literalStart));
+        length = template.length();
+    }
+
+    public static BundleTemplate fromResource(String name) throws IOException {
+        try (InputStream is = BundleTemplate.class.getResourceAsStream(name)) {
+            if (is == null) {
+                throw new IOException("Template " + name + " not found");
+            }
+            return new BundleTemplate(new String(is.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    public String render(Map<String, String> values) {
+        StringBuilder sb = buffer.get();
+        sb.setLength(0);
+        sb.ensureCapacity(length);
+        render(values, sb);
+        return sb.toString();
+    }
+
+    public void render(Map<String, String> values, StringBuilder sb) {
+        for (int i = 0; i < placeholders.size(); i++) {
+            sb.append(literals.get(i));
+            String placeholder = placeholders.get(i);
+            String value = values.get(placeholder);
+            sb.append(value != null ? value : placeholder);
+        }
+        sb.append(literals.get(placeholders.size()));
+    }
+
+    List<String> getPlaceholders() {
+        return placeholders;
+    }
+
+    private static int placeholderEnd(String template, int start) {
+        int end = start;
+        while (end < template.length() && isPlaceholderChar(template.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean isPlaceholderChar(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
@@ -5,8 +5,6 @@ import org.apache.commons.lang3.StringUtils;
 import org.hl7.fhir.r4.model.Bundle;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
@@ -17,6 +15,10 @@ import health.ere.ps.exception.bundle.EreParseException;
 
 public class EreBundle extends Bundle {
 
+    private static final String BUNDLE_TEMPLATE = "/bundle-samples/FEbundleTemplate.json";
+    // parsed on the first use and shared by all bundles
+    private static volatile BundleTemplate bundleTemplate;
+
     protected Bundle bundle;
     protected Map<String, String> templateMap = new HashMap<>();
     protected String jsonTemplateForBundle;
@@ -34,25 +36,31 @@ public class EreBundle extends Bundle {
     }
 
     public String encodeToJson() {
+        if(MapUtils.isEmpty(templateMap)) {
+            throw new IllegalStateException("Error: Unable to serialise bundle to json!",
+                    new EreParseException("Error. Bundle object must not have a null or empty " +
+                            " template map object!"));
+        }
+        jsonTemplateForBundle = getBundleTemplate().render(templateMap);
 
-        try (InputStream is = getClass().getResourceAsStream(
-                "/bundle-samples/FEbundleTemplate.json")) {
+        return jsonTemplateForBundle;
+    }
 
-            if(MapUtils.isEmpty(templateMap)) {
-                throw new EreParseException("Error. Bundle object must not have a null or empty " +
-                        " template map object!");
+    static BundleTemplate getBundleTemplate() {
+        BundleTemplate template = bundleTemplate;
+        if (template == null) {
+            synchronized (EreBundle.class) {
+                if (bundleTemplate == null) {
+                    try {
+                        bundleTemplate = BundleTemplate.fromResource(BUNDLE_TEMPLATE);
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Error: Unable to serialise bundle to json!", e);
+                    }
+                }
+                template = bundleTemplate;
             }
-
-            jsonTemplateForBundle = new String(is.readAllBytes(), StandardCharsets.UTF_8);
-
-            templateMap.keySet().forEach(key ->
-                    jsonTemplateForBundle = jsonTemplateForBundle.replace(
-                            key, templateMap.get(key)));
-        } catch (EreParseException | IOException e) {
-            throw new IllegalStateException("Error: Unable to serialise bundle to json!", e);
         }
-
-        return jsonTemplateForBundle;
+        return template;
     }
 
     public void setTimestampOnField(String fieldName, Date date) {
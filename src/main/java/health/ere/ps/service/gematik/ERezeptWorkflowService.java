@@ -16,6 +16,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -36,6 +37,7 @@ import javax.ws.rs.core.MediaType;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.ws.Holder;
+import javax.xml.ws.WebServiceException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.xml.security.c14n.CanonicalizationException;
@@ -54,7 +56,6 @@ import org.jose4j.jwt.consumer.InvalidJwtException;
 import org.jose4j.jwt.consumer.JwtConsumer;
 import org.jose4j.jwt.consumer.JwtConsumerBuilder;
 
-import ca.uhn.fhir.context.FhirContext;
 import de.gematik.ws.conn.connectorcommon.v5.Status;
 import de.gematik.ws.conn.connectorcontext.v2.ContextType;
 import de.gematik.ws.conn.eventservice.v7.GetCards;
@@ -67,6 +68,8 @@ import de.gematik.ws.conn.signatureservice.v7_5_5.ComfortSignatureStatusEnum;
 import de.gematik.ws.conn.signatureservice.v7_5_5.SessionInfo;
 import de.gematik.ws.conn.signatureservice.v7_5_5.SignatureModeEnum;
 import de.gematik.ws.conn.signatureservice.wsdl.v7.FaultMessage;
+import de.gematik.ws.conn.signatureservice.wsdl.v7.SignatureServicePortTypeV740;
+import de.gematik.ws.conn.signatureservice.wsdl.v7.SignatureServicePortTypeV755;
 import health.ere.ps.config.AppConfig;
 import health.ere.ps.config.RuntimeConfig;
 import health.ere.ps.config.UserConfig;
@@ -87,8 +90,13 @@ import health.ere.ps.exception.common.security.SecretsManagerException;
 import health.ere.ps.exception.connector.ConnectorCardsException;
 import health.ere.ps.exception.gematik.ERezeptWorkflowException;
 import health.ere.ps.model.gematik.BundleWithAccessCodeOrThrowable;
+import health.ere.ps.model.gematik.ParsedBundle;
 import health.ere.ps.service.connector.cards.ConnectorCardsService;
+import health.ere.ps.service.connector.provider.ConnectorPool;
+import health.ere.ps.service.connector.provider.ConnectorSession;
 import health.ere.ps.service.connector.provider.MultiConnectorServicesProvider;
+import health.ere.ps.service.fhir.BundleParser;
+import health.ere.ps.service.fhir.FhirContextProducer;
 import health.ere.ps.service.idp.BearerTokenService;
 import health.ere.ps.vau.VAUEngine;
 import health.ere.ps.websocket.ExceptionWithReplyToExcetion;
@@ -99,7 +107,6 @@ public class ERezeptWorkflowService {
 
     private static final String EREZEPT_IDENTIFIER_SYSTEM = "https://gematik.de/fhir/NamingSystem/PrescriptionID";
     private static final Logger log = Logger.getLogger(ERezeptWorkflowService.class.getName());
-    private static final FhirContext fhirContext = FhirContext.forR4();
 
     static {
         org.apache.xml.security.Init.init();
@@ -112,6 +119,9 @@ public class ERezeptWorkflowService {
 
     @Inject
     MultiConnectorServicesProvider connectorServicesProvider;
+
+    @Inject
+    ConnectorPool connectorPool;
     @Inject
     ConnectorCardsService connectorCardsService;
     @Inject
@@ -365,7 +375,7 @@ public class ERezeptWorkflowService {
                 .path("/" + taskId).path("/$activate").request()
                 .header("User-Agent", appConfig.getUserAgent())
                 .header("Authorization", "Bearer " + bearerToken.get(runtimeConfig)).header("X-AccessCode", accessCode)
-                .post(Entity.entity(fhirContext.newXmlParser().encodeResourceToString(parameters),
+                .post(Entity.entity(FhirContextProducer.xmlParser().encodeResourceToString(parameters),
                         "application/fhir+xml; charset=utf-8"))) {
 
             String taskString = response.readEntity(String.class);
@@ -396,6 +406,10 @@ public class ERezeptWorkflowService {
         identifier.setSystem(EREZEPT_IDENTIFIER_SYSTEM);
         identifier.setValue(prescriptionID);
         bundle.setIdentifier(identifier);
+        ParsedBundle parsedBundle = ParsedBundle.of(bundle);
+        if (parsedBundle != null) {
+            parsedBundle.modified();
+        }
 
         String accessCode = ERezeptWorkflowService.getAccessCode(task);
         return new BundleWithAccessCodeOrThrowable(bundle, accessCode);
@@ -444,14 +458,31 @@ public class ERezeptWorkflowService {
      * @return
      * @throws ERezeptWorkflowException
      */
-    public List<SignResponse> signBundleWithIdentifiers(List<Bundle> bundles, boolean wait10secondsAfterJobNumber, RuntimeConfig runtimeConfig, Session replyTo, String replyToMessageId, boolean firstTry)
+    public List<SignResponse> signBundleWithIdentifiers(List<Bundle> bundles, boolean wait10secondsAfterJobNumber, RuntimeConfig requestedRuntimeConfig, Session replyTo, String replyToMessageId, boolean firstTry)
             throws ERezeptWorkflowException {
 
         List<SignResponse> signResponses = null;
+        // all connector calls of this signature go to the same connector, the card handle is only valid there
+        RuntimeConfig runtimeConfig = connectorPool.pin(requestedRuntimeConfig);
 
         readyToSignBundlesEvent.fireAsync(new ReadyToSignBundlesEvent(bundles, replyTo, replyToMessageId));
 
         try {
+            // ports, context and signature mode are resolved once for all bundles of this request
+            ConnectorSession session = connectorServicesProvider.openSession(runtimeConfig);
+            boolean ptv4Plus = session.isPtv4Plus();
+            String tvMode = session.getTvMode();
+            ContextType contextType = session.getContextType();
+            // The card handle lookup and, for batch signing, the job number are independent
+            // of the canonicalization of the bundles, so they run on the connector executor meanwhile
+            CompletableFuture<String> signatureServiceCardHandleFuture = connectorServicesProvider.supplyAsync(() -> getSignatureServiceCardHandle(session));
+            CompletableFuture<String> batchJobNumberFuture = null;
+            if(appConfig.enableBatchSign() && !wait10secondsAfterJobNumber) {
+                batchJobNumberFuture = ptv4Plus
+                        ? connectorServicesProvider.supplyAsync(() -> session.getSignatureServicePortTypeV755().getJobNumber(contextType))
+                        : connectorServicesProvider.supplyAsync(() -> session.getSignatureServicePortType().getJobNumber(contextType));
+            }
+
             OptionalInputs optionalInputs = new OptionalInputs();
             optionalInputs.setSignatureType("urn:ietf:rfc:5652");
             optionalInputs.setIncludeEContent(true);
@@ -490,8 +521,9 @@ public class ERezeptWorkflowService {
                     log.log(Level.SEVERE, "Could not wait", e);
                 }
             }
-            String signatureServiceCardHandle = getSignatureServiceCardHandle(runtimeConfig);
-            if ("PTV4+".equals(runtimeConfig != null && runtimeConfig.getConnectorVersion() != null ? runtimeConfig.getConnectorVersion() : userConfig.getConnectorVersion())) {
+            long connectorCallsStart = System.currentTimeMillis();
+            String signatureServiceCardHandle = MultiConnectorServicesProvider.await(signatureServiceCardHandleFuture, ConnectorCardsException.class);
+            if (ptv4Plus) {
                 List<de.gematik.ws.conn.signatureservice.v7_5_5.SignRequest> signRequestsV755 = signRequests.stream().map(signRequest -> {
                     de.gematik.ws.conn.signatureservice.v7_5_5.SignRequest signRequestV755 = new de.gematik.ws.conn.signatureservice.v7_5_5.SignRequest();
                     de.gematik.ws.conn.signatureservice.v7_5_5.SignRequest.OptionalInputs optionalInputsC755 = new de.gematik.ws.conn.signatureservice.v7_5_5.SignRequest.OptionalInputs();
@@ -508,24 +540,23 @@ public class ERezeptWorkflowService {
                 }).collect(Collectors.toList());
 
                 List<de.gematik.ws.conn.signatureservice.v7_5_5.SignResponse> signResponsesV755;
-                ContextType contextType = connectorServicesProvider.getContextType(runtimeConfig);
-                if(userIdForComfortSignature != null) {
-                    contextType.setUserId(userIdForComfortSignature);
-                }
+                SignatureServicePortTypeV755 signatureServicePortTypeV755 = session.getSignatureServicePortTypeV755();
+                ContextType comfortSignatureContextType = session.getContextType(userIdForComfortSignature);
                 if(appConfig.enableBatchSign()) {
-                    String jobNumber = connectorServicesProvider.getSignatureServicePortTypeV755(runtimeConfig).getJobNumber(connectorServicesProvider.getContextType(runtimeConfig));
+                    String jobNumber = batchJobNumberFuture != null ? MultiConnectorServicesProvider.await(batchJobNumberFuture, FaultMessage.class)
+                            : signatureServicePortTypeV755.getJobNumber(contextType);
             
-                    signResponsesV755 = connectorServicesProvider.getSignatureServicePortTypeV755(runtimeConfig).signDocument(signatureServiceCardHandle,
-                            appConfig.getConnectorCrypt(),contextType, (runtimeConfig != null && runtimeConfig.getTvMode() != null) ? runtimeConfig.getTvMode() : userConfig.getTvMode(),
+                    signResponsesV755 = signatureServicePortTypeV755.signDocument(signatureServiceCardHandle,
+                            appConfig.getConnectorCrypt(), comfortSignatureContextType, tvMode,
                             jobNumber, signRequestsV755);
                 } else {
                     signResponsesV755 = signRequestsV755.stream().map(signRequestV755 -> {
                         String jobNumber;
                         try {
-                            jobNumber = connectorServicesProvider.getSignatureServicePortTypeV755(runtimeConfig).getJobNumber(connectorServicesProvider.getContextType(runtimeConfig));
+                            jobNumber = signatureServicePortTypeV755.getJobNumber(contextType);
                             
-                            List<de.gematik.ws.conn.signatureservice.v7_5_5.SignResponse> list = connectorServicesProvider.getSignatureServicePortTypeV755(runtimeConfig).signDocument(signatureServiceCardHandle,
-                            appConfig.getConnectorCrypt(), contextType, (runtimeConfig != null && runtimeConfig.getTvMode() != null) ? runtimeConfig.getTvMode() : userConfig.getTvMode(),
+                            List<de.gematik.ws.conn.signatureservice.v7_5_5.SignResponse> list = signatureServicePortTypeV755.signDocument(signatureServiceCardHandle,
+                            appConfig.getConnectorCrypt(), comfortSignatureContextType, tvMode,
                             jobNumber, Arrays.asList(signRequestV755));
                             return list.get(0);
                         } catch (FaultMessage e) {
@@ -548,17 +579,20 @@ public class ERezeptWorkflowService {
                 signResponses = signResponses744;
                 // PTV4, could be PTV3 as well, to be refactored in a future task
             } else {
+                SignatureServicePortTypeV740 signatureServicePortType = session.getSignatureServicePortType();
                 if(appConfig.enableBatchSign()) {
-                    signResponses = connectorServicesProvider.getSignatureServicePortType(runtimeConfig).signDocument(signatureServiceCardHandle,
-                            connectorServicesProvider.getContextType(runtimeConfig), (runtimeConfig != null && runtimeConfig.getTvMode() != null) ? runtimeConfig.getTvMode() : userConfig.getTvMode(),
-                            connectorServicesProvider.getSignatureServicePortType(runtimeConfig).getJobNumber(connectorServicesProvider.getContextType(runtimeConfig)), signRequests);
+                    String jobNumber = batchJobNumberFuture != null ? MultiConnectorServicesProvider.await(batchJobNumberFuture, FaultMessage.class)
+                            : signatureServicePortType.getJobNumber(contextType);
+                    signResponses = signatureServicePortType.signDocument(signatureServiceCardHandle,
+                            contextType, tvMode,
+                            jobNumber, signRequests);
                  } else {
                     signResponses = signRequests.stream().map(signRequest-> {
                         List<SignResponse> list;
                         try {
-                            list = connectorServicesProvider.getSignatureServicePortType(runtimeConfig).signDocument(signatureServiceCardHandle,
-                            connectorServicesProvider.getContextType(runtimeConfig), (runtimeConfig != null && runtimeConfig.getTvMode() != null) ? runtimeConfig.getTvMode() : userConfig.getTvMode(),
-                            connectorServicesProvider.getSignatureServicePortType(runtimeConfig).getJobNumber(connectorServicesProvider.getContextType(runtimeConfig)), Arrays.asList(signRequest));
+                            list = signatureServicePortType.signDocument(signatureServiceCardHandle,
+                            contextType, tvMode,
+                            signatureServicePortType.getJobNumber(contextType), Arrays.asList(signRequest));
                         } catch (FaultMessage e) {
                             exceptionEvent.fireAsync(new ExceptionWithReplyToExcetion(e, replyTo, replyToMessageId));
                             return null;
@@ -567,10 +601,15 @@ public class ERezeptWorkflowService {
                     }).collect(Collectors.toList());
                  } 
             }
-        } catch (ConnectorCardsException | FaultMessage e) {
+            connectorPool.reportSuccess(runtimeConfig, System.currentTimeMillis() - connectorCallsStart);
+        } catch (ConnectorCardsException | FaultMessage | WebServiceException e) {
+            // a fault, e.g. a missing card or a wrong PIN, is an answer of a working connector
+            if (ConnectorPool.isTransportFailure(e)) {
+                connectorPool.reportFailure(runtimeConfig);
+            }
             if(firstTry) {
                 log.log(Level.WARNING, "Exception signing bundles with identifiers on first try.", e);
-                return signBundleWithIdentifiers(bundles, wait10secondsAfterJobNumber, runtimeConfig, replyTo, replyToMessageId, false);
+                return signBundleWithIdentifiers(bundles, wait10secondsAfterJobNumber, requestedRuntimeConfig, replyTo, replyToMessageId, false);
             } else {
                 throw new ERezeptWorkflowException("Exception signing bundles with identifiers.", e);
             }
@@ -606,7 +645,13 @@ public class ERezeptWorkflowService {
      */
     public static byte[] getCanonicalXmlBytes(Bundle bundle)
             throws InvalidCanonicalizerException, XMLParserException, IOException, CanonicalizationException {
-        String bundleXml = fhirContext.newXmlParser().encodeResourceToString(bundle);
+        // bundles from the websocket share the XML with the rendering and keep the canonical bytes
+        ParsedBundle parsedBundle = ParsedBundle.of(bundle);
+        if (parsedBundle != null && parsedBundle.getCanonicalXmlBytes() != null) {
+            return parsedBundle.getCanonicalXmlBytes();
+        }
+        String bundleXml = parsedBundle != null ? BundleParser.getXml(parsedBundle)
+                : FhirContextProducer.xmlParser().encodeResourceToString(bundle);
 
         log.fine(bundleXml);
 
@@ -617,6 +662,9 @@ public class ERezeptWorkflowService {
 
         String canonicalByteString = new String(canonXmlBytes);
         log.fine("Canonical: " + canonicalByteString);
+        if (parsedBundle != null) {
+            parsedBundle.setCanonicalXmlBytes(canonXmlBytes);
+        }
         return canonXmlBytes;
     }
 
@@ -647,7 +695,7 @@ public class ERezeptWorkflowService {
         valueCoding.setCode("160");
         parameters.addParameter(workflowTypeParameter);
 
-        String parameterString = fhirContext.newXmlParser().encodeResourceToString(parameters);
+        String parameterString = FhirContextProducer.xmlParser().encodeResourceToString(parameters);
         log.fine("Parameter String: " + parameterString);
 
         try (Response response = client.target(appConfig.getPrescriptionServiceURL()).path("/Task/$create").request()
@@ -667,7 +715,7 @@ public class ERezeptWorkflowService {
                 throw new WebApplicationException("Error on "+appConfig.getPrescriptionServiceURL()+" "+taskString+" Status: "+response.getStatus(), response.getStatus());
             }
             log.info("Task Response: " + taskString);
-            return fhirContext.newXmlParser().parseResource(Task.class, new StringReader(taskString));
+            return FhirContextProducer.xmlParser().parseResource(Task.class, new StringReader(taskString));
         }
     }
 
@@ -791,10 +839,10 @@ public class ERezeptWorkflowService {
 
         try {
             userIdForComfortSignature = UUID.randomUUID().toString();
-            ContextType contextType = connectorServicesProvider.getContextType(runtimeConfig);
-            contextType.setUserId(userIdForComfortSignature);
-            signatureServiceCardHandle = getSignatureServiceCardHandle(runtimeConfig);
-            connectorServicesProvider.getSignatureServicePortTypeV755(runtimeConfig).activateComfortSignature(signatureServiceCardHandle, contextType,
+            ConnectorSession session = connectorServicesProvider.openSession(runtimeConfig);
+            ContextType contextType = session.getContextType(userIdForComfortSignature);
+            signatureServiceCardHandle = getSignatureServiceCardHandle(session);
+            session.getSignatureServicePortTypeV755().activateComfortSignature(signatureServiceCardHandle, contextType,
                     status, signatureMode);
         } catch (ConnectorCardsException | FaultMessage e) {
             log.log(Level.WARNING, "Could not enable comfort signature", e);
@@ -803,10 +851,10 @@ public class ERezeptWorkflowService {
         return userIdForComfortSignature;
     }
 
-    private String getSignatureServiceCardHandle(RuntimeConfig runtimeConfig) throws ConnectorCardsException {
+    private String getSignatureServiceCardHandle(ConnectorSession session) throws ConnectorCardsException {
         String signatureServiceCardHandle;
-        signatureServiceCardHandle = (runtimeConfig != null && runtimeConfig.getEHBAHandle() != null) ? runtimeConfig.getEHBAHandle() : connectorCardsService.getConnectorCardHandle( 
-                ConnectorCardsService.CardHandleType.HBA, runtimeConfig);
+        signatureServiceCardHandle = session.getEHBAHandle() != null ? session.getEHBAHandle() : connectorCardsService.getConnectorCardHandle( 
+                ConnectorCardsService.CardHandleType.HBA, session);
         return signatureServiceCardHandle;
     }
 
@@ -858,10 +906,10 @@ public class ERezeptWorkflowService {
 
         String signatureServiceCardHandle;
         try {
-            signatureServiceCardHandle = getSignatureServiceCardHandle(runtimeConfig);;
-            ContextType contextType = connectorServicesProvider.getContextType(runtimeConfig);
-            contextType.setUserId(userIdForComfortSignature);
-            connectorServicesProvider.getSignatureServicePortTypeV755(runtimeConfig).getSignatureMode(signatureServiceCardHandle, contextType, status, comfortSignatureStatus,
+            ConnectorSession session = connectorServicesProvider.openSession(runtimeConfig);
+            signatureServiceCardHandle = getSignatureServiceCardHandle(session);
+            ContextType contextType = session.getContextType(userIdForComfortSignature);
+            session.getSignatureServicePortTypeV755().getSignatureMode(signatureServiceCardHandle, contextType, status, comfortSignatureStatus,
                     comfortSignatureMax, comfortSignatureTimer, sessionInfo);
             return new GetSignatureModeResponseEvent(status.value, comfortSignatureStatus.value, comfortSignatureMax.value, comfortSignatureTimer.value, sessionInfo.value);
         } catch (ConnectorCardsException | FaultMessage e) {
@@ -893,11 +941,10 @@ public class ERezeptWorkflowService {
     public void deactivateComfortSignature(RuntimeConfig runtimeConfig, Session replyTo, String replyToMessageId) {
         String signatureServiceCardHandle = null;
         try {
-            signatureServiceCardHandle = getSignatureServiceCardHandle(runtimeConfig);
-            ContextType contextType = connectorServicesProvider.getContextType(runtimeConfig);
-            contextType.setUserId(userIdForComfortSignature);
+            ConnectorSession session = connectorServicesProvider.openSession(runtimeConfig);
+            signatureServiceCardHandle = getSignatureServiceCardHandle(session);
             
-            connectorServicesProvider.getSignatureServicePortTypeV755(runtimeConfig).deactivateComfortSignature(Arrays.asList(signatureServiceCardHandle));
+            session.getSignatureServicePortTypeV755().deactivateComfortSignature(Arrays.asList(signatureServiceCardHandle));
             userIdForComfortSignature = null;
         } catch (ConnectorCardsException | FaultMessage e) {
             log.log(Level.WARNING, "Could not deactivate comfort signature", e);
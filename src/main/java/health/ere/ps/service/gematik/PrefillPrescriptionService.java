@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -25,7 +26,6 @@ import javax.inject.Inject;
 import javax.naming.InvalidNameException;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
-import javax.xml.ws.Holder;
 
 import org.bouncycastle.asn1.ASN1ObjectIdentifier;
 import org.bouncycastle.asn1.x500.X500Name;
@@ -61,22 +61,20 @@ import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
 import de.gematik.ws.conn.cardservice.v8.CardInfoType;
 import de.gematik.ws.conn.cardservicecommon.v2.CardTypeType;
 import de.gematik.ws.conn.certificateservice.v6.ReadCardCertificate;
-import de.gematik.ws.conn.certificateservice.wsdl.v6.CertificateServicePortType;
+import de.gematik.ws.conn.certificateservice.v6.ReadCardCertificateResponse;
 import de.gematik.ws.conn.certificateservicecommon.v2.CertRefEnum;
-import de.gematik.ws.conn.certificateservicecommon.v2.X509DataInfoListType;
-import de.gematik.ws.conn.connectorcommon.v5.Status;
 import de.gematik.ws.conn.connectorcontext.v2.ContextType;
 import de.gematik.ws.conn.eventservice.v7.GetCards;
 import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
-import de.gematik.ws.conn.eventservice.wsdl.v7.EventServicePortType;
 import de.gematik.ws.conn.eventservice.wsdl.v7.FaultMessage;
-import de.gematik.ws.conn.vsds.vsdservice.v5.VSDStatusType;
+import de.gematik.ws.conn.vsds.vsdservice.v5.ReadVSDResponse;
 import de.gematik.ws.fa.vsdm.vsd.v5.UCAllgemeineVersicherungsdatenXML;
 import de.gematik.ws.fa.vsdm.vsd.v5.UCGeschuetzteVersichertendatenXML;
 import de.gematik.ws.fa.vsdm.vsd.v5.UCPersoenlicheVersichertendatenXML;
 import health.ere.ps.config.RuntimeConfig;
 import health.ere.ps.event.BundlesEvent;
 import health.ere.ps.event.PrefillBundleEvent;
+import health.ere.ps.service.connector.provider.ConnectorPool;
 import health.ere.ps.service.connector.provider.MultiConnectorServicesProvider;
 import health.ere.ps.service.idp.crypto.CryptoLoader;
 import health.ere.ps.service.kbv.KBVFHIRUtil;
@@ -103,68 +101,79 @@ public class PrefillPrescriptionService {
 	@Inject
 	MultiConnectorServicesProvider connectorServicesProvider;
 
+	@Inject
+	ConnectorPool connectorPool;
+
 	@Inject
 	Event<BundlesEvent> bundleEvent;
 
 	@Inject
 	Event<Exception> exceptionEvent;
 
-	public Bundle get(RuntimeConfig runtimeConfig)
+	public Bundle get(RuntimeConfig requestedRuntimeConfig)
 			throws FaultMessage, de.gematik.ws.conn.vsds.vsdservice.v5.FaultMessage, JAXBException,
 			de.gematik.ws.conn.certificateservice.wsdl.v6.FaultMessage, CryptoException, IOException,
 			InvalidNameException, CertificateEncodingException {
+		// the card handles are only valid on the connector they were read from
+		RuntimeConfig runtimeConfig = connectorPool.pin(requestedRuntimeConfig);
+
 		// Get data from egk
 		ContextType context = connectorServicesProvider.getContextType(runtimeConfig);
 
-		EventServicePortType eventService = connectorServicesProvider.getEventServicePortType(runtimeConfig);
-
-		String egkHandle = getFirstCardOfType(eventService, CardTypeType.EGK, context);
-		String smcbHandle = getFirstCardOfType(eventService, CardTypeType.SMC_B, context);
-		String hbaHandle = getFirstCardOfType(eventService, CardTypeType.HBA, context);
+		// The card lookups are independent of each other, so they are sent to the connector concurrently
+		CompletableFuture<String> egkHandleFuture = getFirstCardOfTypeAsync(CardTypeType.EGK, context, runtimeConfig);
+		CompletableFuture<String> smcbHandleFuture = getFirstCardOfTypeAsync(CardTypeType.SMC_B, context, runtimeConfig);
+		CompletableFuture<String> hbaHandleFuture = getFirstCardOfTypeAsync(CardTypeType.HBA, context, runtimeConfig);
+
+		String egkHandle = MultiConnectorServicesProvider.await(egkHandleFuture, FaultMessage.class);
+		String smcbHandle = MultiConnectorServicesProvider.await(smcbHandleFuture, FaultMessage.class);
+		String hbaHandle = MultiConnectorServicesProvider.await(hbaHandleFuture, FaultMessage.class);
+
+		// Reading the VSD and the certificates only depends on the card handles
+		CompletableFuture<ReadVSDResponse> readVSDFuture = egkHandle != null
+				? connectorServicesProvider.readVSDAsync(egkHandle, smcbHandle, false, false, context, runtimeConfig)
+				: null;
+		CompletableFuture<ReadCardCertificateResponse> hbaCertificateFuture = hbaHandle != null
+				? readCardCertificateAsync(hbaHandle, CertRefEnum.C_QES, context, runtimeConfig)
+				: null;
+		CompletableFuture<ReadCardCertificateResponse> smcbCertificateFuture = smcbHandle != null
+				? readCardCertificateAsync(smcbHandle, CertRefEnum.C_AUT, context, runtimeConfig)
+				: null;
 
 		Patient patient = null;
 		Coverage coverage = null;
-		if (egkHandle != null) {
-			Holder<byte[]> persoenlicheVersichertendaten = new Holder<>();
-			Holder<byte[]> allgemeineVersicherungsdaten = new Holder<>();
-			Holder<byte[]> geschuetzteVersichertendaten = new Holder<>();
-			Holder<VSDStatusType> vSD_Status = new Holder<>();
-			Holder<byte[]> pruefungsnachweis = new Holder<>();
-			connectorServicesProvider.getVSDServicePortType(runtimeConfig).readVSD(egkHandle, smcbHandle, false, false,
-					context, persoenlicheVersichertendaten, allgemeineVersicherungsdaten, geschuetzteVersichertendaten,
-					vSD_Status, pruefungsnachweis);
+		if (readVSDFuture != null) {
+			ReadVSDResponse readVSDResponse = MultiConnectorServicesProvider.await(readVSDFuture,
+					de.gematik.ws.conn.vsds.vsdservice.v5.FaultMessage.class);
 
 			InputStream isPersoenlicheVersichertendaten = new GZIPInputStream(
-					new ByteArrayInputStream(persoenlicheVersichertendaten.value));
+					new ByteArrayInputStream(readVSDResponse.getPersoenlicheVersichertendaten()));
 			UCPersoenlicheVersichertendatenXML schaumberg = (UCPersoenlicheVersichertendatenXML) jaxbContext
 					.createUnmarshaller().unmarshal(isPersoenlicheVersichertendaten);
 			patient = KBVFHIRUtil.UCPersoenlicheVersichertendatenXML2Patient(schaumberg);
 
 			InputStream isAllgemeineVersicherungsdaten = new GZIPInputStream(
-					new ByteArrayInputStream(allgemeineVersicherungsdaten.value));
+					new ByteArrayInputStream(readVSDResponse.getAllgemeineVersicherungsdaten()));
 			UCAllgemeineVersicherungsdatenXML versicherung = (UCAllgemeineVersicherungsdatenXML) jaxbContext
 					.createUnmarshaller().unmarshal(isAllgemeineVersicherungsdaten);
 			InputStream isVersichungKennzeichen = new GZIPInputStream(
-					new ByteArrayInputStream(geschuetzteVersichertendaten.value));
+					new ByteArrayInputStream(readVSDResponse.getGeschuetzteVersichertendaten()));
 			UCGeschuetzteVersichertendatenXML versichungKennzeichen = (UCGeschuetzteVersichertendatenXML) jaxbContext
 					.createUnmarshaller().unmarshal(isVersichungKennzeichen);
 			coverage = KBVFHIRUtil.UCAllgemeineVersicherungsdatenXML2Coverage(versicherung,
 					patient.getIdElement().getIdPart(), versichungKennzeichen);
 		}
 
-		CertificateServicePortType certificateService = connectorServicesProvider
-				.getCertificateServicePortType(runtimeConfig);
-
 		Practitioner practitioner = null;
 
-		if (hbaHandle != null) {
-			practitioner = hbaHandle2Practitioner(hbaHandle, runtimeConfig, certificateService, context);
+		if (hbaCertificateFuture != null) {
+			practitioner = hbaCertificate2Practitioner(getCertificateFor(hbaCertificateFuture));
 		}
 
 		Organization organization = null;
 
-		if (smcbHandle != null) {
-			organization = smcbHandle2Organization(smcbHandle, runtimeConfig, certificateService, context);
+		if (smcbCertificateFuture != null) {
+			organization = smcbCertificate2Organization(getCertificateFor(smcbCertificateFuture));
 		}
 
 		Medication medication = createMedicationResource();
@@ -179,14 +188,9 @@ public class PrefillPrescriptionService {
 		return bundle;
 	}
 
-	private Organization smcbHandle2Organization(String hbaHandle, RuntimeConfig runtimeConfig,
-			CertificateServicePortType certificateService, ContextType context)
-			throws de.gematik.ws.conn.certificateservice.wsdl.v6.FaultMessage, CryptoException,
-			CertificateEncodingException {
-
-		CertRefEnum certRef = CertRefEnum.C_AUT;
+	private Organization smcbCertificate2Organization(X509Certificate x509Certificate)
+			throws CertificateEncodingException {
 
-		X509Certificate x509Certificate = getCertificateFor(hbaHandle, certificateService, context, certRef);
 		X500Name x500name = new JcaX509CertificateHolder(x509Certificate).getSubject();
 
 		// C=DE,L=Freiburg,PostalCode=79114,STREET=Sundgauallee
@@ -241,13 +245,8 @@ public class PrefillPrescriptionService {
 		return organization;
 	}
 
-	private Practitioner hbaHandle2Practitioner(String hbaHandle, RuntimeConfig runtimeConfig,
-			CertificateServicePortType certificateService, ContextType context)
-			throws de.gematik.ws.conn.certificateservice.wsdl.v6.FaultMessage, CryptoException, InvalidNameException,
-			CertificateEncodingException {
-		CertRefEnum certRef = CertRefEnum.C_QES;
-
-		X509Certificate x509Certificate = getCertificateFor(hbaHandle, certificateService, context, certRef);
+	private Practitioner hbaCertificate2Practitioner(X509Certificate x509Certificate)
+			throws InvalidNameException, CertificateEncodingException {
 
 		X500Name x500name = new JcaX509CertificateHolder(x509Certificate).getSubject();
 
@@ -309,27 +308,34 @@ public class PrefillPrescriptionService {
 				.filter(tv -> tv.getType() == rdnType).findFirst().get().getValue());
 	}
 
-	private X509Certificate getCertificateFor(String hbaHandle, CertificateServicePortType certificateService,
-			ContextType context, CertRefEnum certRef)
-			throws de.gematik.ws.conn.certificateservice.wsdl.v6.FaultMessage, CryptoException {
+	private CompletableFuture<ReadCardCertificateResponse> readCardCertificateAsync(String cardHandle,
+			CertRefEnum certRef, ContextType context, RuntimeConfig runtimeConfig) {
 		ReadCardCertificate.CertRefList certRefList = new ReadCardCertificate.CertRefList();
 		certRefList.getCertRef().add(certRef);
 
-		Holder<Status> statusHolder = new Holder<>();
-		Holder<X509DataInfoListType> certHolder = new Holder<>();
-		certificateService.readCardCertificate(hbaHandle, context, certRefList, statusHolder, certHolder);
+		return connectorServicesProvider.readCardCertificateAsync(cardHandle, context, certRefList, runtimeConfig);
+	}
+
+	private X509Certificate getCertificateFor(CompletableFuture<ReadCardCertificateResponse> readCardCertificateFuture)
+			throws de.gematik.ws.conn.certificateservice.wsdl.v6.FaultMessage, CryptoException {
+		ReadCardCertificateResponse readCardCertificateResponse = MultiConnectorServicesProvider.await(
+				readCardCertificateFuture, de.gematik.ws.conn.certificateservice.wsdl.v6.FaultMessage.class);
 
-		return CryptoLoader.getCertificateFromAsn1DERCertBytes(
-				certHolder.value.getX509DataInfo().get(0).getX509Data().getX509Certificate());
+		return CryptoLoader.getCertificateFromAsn1DERCertBytes(readCardCertificateResponse.getX509DataInfoList()
+				.getX509DataInfo().get(0).getX509Data().getX509Certificate());
 	}
 
-	private String getFirstCardOfType(EventServicePortType eventService, CardTypeType type, ContextType context)
-			throws FaultMessage {
+	private CompletableFuture<String> getFirstCardOfTypeAsync(CardTypeType type, ContextType context,
+			RuntimeConfig runtimeConfig) {
 		GetCards parameter = new GetCards();
 		parameter.setContext(context);
 		parameter.setCardType(type);
-		GetCardsResponse getCardsResponse = eventService.getCards(parameter);
 
+		return connectorServicesProvider.getCardsAsync(parameter, runtimeConfig)
+				.thenApply(PrefillPrescriptionService::getFirstCardHandle);
+	}
+
+	private static String getFirstCardHandle(GetCardsResponse getCardsResponse) {
 		List<CardInfoType> cards = getCardsResponse.getCards().getCard();
 		if (cards.size() > 0) {
 			String ehcHandle = cards.get(0).getCardHandle();
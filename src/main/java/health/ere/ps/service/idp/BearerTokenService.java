@@ -1,20 +1,31 @@
 package health.ere.ps.service.idp;
 
 import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
+import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import javax.websocket.Session;
+import javax.xml.ws.WebServiceException;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import health.ere.ps.config.AppConfig;
 import health.ere.ps.config.RuntimeConfig;
 import health.ere.ps.model.idp.client.IdpTokenResult;
 import health.ere.ps.service.connector.cards.ConnectorCardsService;
 import health.ere.ps.service.connector.certificate.CardCertificateReaderService;
+import health.ere.ps.service.connector.provider.ConnectorPool;
+import health.ere.ps.service.connector.provider.ConnectorSession;
+import health.ere.ps.service.connector.provider.MultiConnectorServicesProvider;
 import health.ere.ps.service.idp.client.IdpClient;
 import health.ere.ps.service.idp.client.IdpHttpClientService;
 import health.ere.ps.websocket.ExceptionWithReplyToExcetion;
@@ -28,28 +39,80 @@ public class BearerTokenService {
     @Inject
     AppConfig appConfig;
     @Inject
-    IdpClient idpClient;
+    Instance<IdpClient> idpClientFactory;
     @Inject
     CardCertificateReaderService cardCertificateReaderService;
     @Inject
     ConnectorCardsService connectorCardsService;
     @Inject
+    ConnectorPool connectorPool;
+    @Inject
+    MultiConnectorServicesProvider connectorServicesProvider;
+    @Inject
     Event<Exception> exceptionEvent;
 
+    // the least recently used client is dropped when more tenants log in
+    @ConfigProperty(name = "idp.client-cache.max-size", defaultValue = "100")
+    int idpClientCacheMaxSize = 100;
+
+    // IdpClients by tenant, a client keeps the discovery document and the SSO token of one SMC-B
+    final Map<TenantKey, IdpClient> idpClients = new LinkedHashMap<>(16, 0.75f, true);
 
     @PostConstruct
     public void init() {
-        String discoveryDocumentUrl = appConfig.getIdpBaseURL() + IdpHttpClientService.DISCOVERY_DOCUMENT_URI;
         try {
-            idpClient.init(appConfig.getIdpClientId(), appConfig.getIdpAuthRequestRedirectURL(), discoveryDocumentUrl, true);
-            idpClient.initializeClient();
+            getIdpClient(null).initializeClient();
         } catch (Exception e) {
             log.log(Level.WARNING, "Idp init did not work", e);
         }
     }
 
+    @PreDestroy
+    void destroy() {
+        synchronized (idpClients) {
+            idpClients.values().forEach(idpClientFactory::destroy);
+            idpClients.clear();
+        }
+    }
+
+    /**
+     * @return the client for the IDP and the client id of the given config
+     */
     public IdpClient getIdpClient(RuntimeConfig runtimeConfig) {
-        return idpClient;
+        return getIdpClient(runtimeConfig, null);
+    }
+
+    /**
+     * Returns the client of the tenant, i.e. of the IDP base URL, the client id
+     * and the SMC-B. Logins of different tenants use different clients and can
+     * run in parallel.
+     *
+     * @param smcbCertificate the certificate of the SMC-B that logs in, null if not known
+     */
+    public IdpClient getIdpClient(RuntimeConfig runtimeConfig, X509Certificate smcbCertificate) {
+        String idpBaseURL = runtimeConfig != null && runtimeConfig.getIdpBaseURL() != null
+                ? runtimeConfig.getIdpBaseURL() : appConfig.getIdpBaseURL();
+        String idpClientId = runtimeConfig != null && runtimeConfig.getIdpClientId() != null
+                ? runtimeConfig.getIdpClientId() : appConfig.getIdpClientId();
+        String redirectURL = runtimeConfig != null && runtimeConfig.getIdpAuthRequestRedirectURL() != null
+                ? runtimeConfig.getIdpAuthRequestRedirectURL() : appConfig.getIdpAuthRequestRedirectURL();
+        TenantKey tenantKey = new TenantKey(idpBaseURL, idpClientId, redirectURL, smcbCertificate);
+
+        synchronized (idpClients) {
+            IdpClient idpClient = idpClients.get(tenantKey);
+            if (idpClient == null) {
+                idpClient = idpClientFactory.get();
+                // the discovery document is loaded by the first login from the shared cache
+                idpClient.init(idpClientId, redirectURL, idpBaseURL + IdpHttpClientService.DISCOVERY_DOCUMENT_URI, true);
+                idpClients.put(tenantKey, idpClient);
+                if (idpClients.size() > idpClientCacheMaxSize) {
+                    Map.Entry<TenantKey, IdpClient> eldest = idpClients.entrySet().iterator().next();
+                    idpClients.remove(eldest.getKey());
+                    idpClientFactory.destroy(eldest.getValue());
+                }
+            }
+            return idpClient;
+        }
     }
 
     public String requestBearerToken() {
@@ -60,20 +123,74 @@ public class BearerTokenService {
         return requestBearerToken(runtimeConfig, null, null);
     }
 
-    public String requestBearerToken(RuntimeConfig runtimeConfig, Session replyTo, String replyToMessageId) {
+    public String requestBearerToken(RuntimeConfig requestedRuntimeConfig, Session replyTo, String replyToMessageId) {
+        // the SMC-B handle, its certificate and the authentication have to use the same connector
+        RuntimeConfig runtimeConfig = connectorPool.pin(requestedRuntimeConfig);
         try {
-            String cardHandle = (runtimeConfig!= null && runtimeConfig.getSMCBHandle() != null) ?  runtimeConfig.getSMCBHandle(): connectorCardsService.getConnectorCardHandle(
-                    ConnectorCardsService.CardHandleType.SMC_B);
+            ConnectorSession session = connectorServicesProvider.openSession(runtimeConfig);
+            String cardHandle = session.getSMCBHandle() != null ? session.getSMCBHandle() : connectorCardsService.getConnectorCardHandle(
+                    ConnectorCardsService.CardHandleType.SMC_B, session);
 
             X509Certificate x509Certificate =
-                    cardCertificateReaderService.retrieveSmcbCardCertificate(cardHandle, runtimeConfig);
-            IdpTokenResult idpTokenResult = idpClient.login(x509Certificate, runtimeConfig);
+                    cardCertificateReaderService.retrieveSmcbCardCertificate(cardHandle, session);
+            IdpTokenResult idpTokenResult = getIdpClient(runtimeConfig, x509Certificate)
+                    .login(x509Certificate, runtimeConfig);
 
             return idpTokenResult.getAccessToken().getRawString();
         } catch (Exception e) {
+            // an IDP that is not reachable says nothing about the connector
+            if (isConnectorFailure(e)) {
+                connectorPool.reportFailure(runtimeConfig);
+            }
             log.log(Level.WARNING, "Idp login did not work, couldn't request bearer token", e);
             exceptionEvent.fireAsync(new ExceptionWithReplyToExcetion(e, replyTo, replyToMessageId));
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * @return true if the connector was not reachable or did not answer, and not the
+     *         IDP. A fault of the connector, e.g. a missing card, is not a failure.
+     */
+    static boolean isConnectorFailure(Throwable e) {
+        // the connector is called over SOAP, the IDP is not
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof WebServiceException) {
+                return ConnectorPool.isTransportFailure(cause);
+            }
+        }
+        return false;
+    }
+
+    static final class TenantKey {
+        private final String idpBaseURL;
+        private final String idpClientId;
+        private final String redirectURL;
+        private final String smcb;
+
+        TenantKey(String idpBaseURL, String idpClientId, String redirectURL, X509Certificate smcbCertificate) {
+            this.idpBaseURL = idpBaseURL;
+            this.idpClientId = idpClientId;
+            this.redirectURL = redirectURL;
+            this.smcb = smcbCertificate != null
+                    ? smcbCertificate.getIssuerX500Principal().getName() + "/" + smcbCertificate.getSerialNumber()
+                    : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof TenantKey)) {
+                return false;
+            }
+            TenantKey tenantKey = (TenantKey) o;
+            return Objects.equals(idpBaseURL, tenantKey.idpBaseURL) && Objects.equals(idpClientId, tenantKey.idpClientId) && Objects.equals(redirectURL, tenantKey.redirectURL) && Objects.equals(smcb, tenantKey.smcb);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(idpBaseURL, idpClientId, redirectURL, smcb);
+        }
+    }
 }
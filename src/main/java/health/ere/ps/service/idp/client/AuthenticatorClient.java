@@ -16,17 +16,35 @@ import health.ere.ps.model.idp.client.token.TokenClaimExtraction;
 import health.ere.ps.service.idp.client.authentication.UriUtils;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.ssl.SSLContexts;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.rest.client.RestClientBuilder;
+import org.jboss.resteasy.client.jaxrs.engines.ApacheHttpClient43Engine;
 import org.jose4j.jwt.JwtClaims;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import javax.json.JsonString;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
 import java.io.StringReader;
 import java.math.BigInteger;
 import java.net.MalformedURLException;
@@ -41,6 +59,10 @@ import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
 import static health.ere.ps.model.idp.client.field.ClaimName.*;
@@ -49,6 +71,21 @@ import static health.ere.ps.service.idp.crypto.CryptoLoader.getCertificateFromPe
 
 @ApplicationScoped
 public class AuthenticatorClient {
+    private static final Logger log = Logger.getLogger(AuthenticatorClient.class.getName());
+
+    @ConfigProperty(name = "idp.http.max-connections", defaultValue = "20")
+    int maxConnections = 20;
+
+    @ConfigProperty(name = "idp.http.max-connections-per-route", defaultValue = "10")
+    int maxConnectionsPerRoute = 10;
+
+    // idle pooled connections are closed after this time, also when the IDP allows a longer keep-alive
+    @ConfigProperty(name = "idp.http.keep-alive-seconds", defaultValue = "60")
+    long keepAliveSeconds = 60;
+
+    final Map<String, IdpHttpClientService> idpHttpClientServices = new ConcurrentHashMap<>();
+    final IdpHttpClientStatistics statistics = new IdpHttpClientStatistics();
+    private volatile CloseableHttpClient httpClient;
 
     public AuthenticatorClient() {
 
@@ -116,7 +153,7 @@ public class AuthenticatorClient {
         return AuthenticationResponse.builder()
                 .code(extractParameterValue(location, "code"))
                 .location(location)
-                /*.ssoToken(extractParameterValue(location, "ssotoken"))*/
+                .ssoToken(UriUtils.extractParameterValueOptional(location, "ssotoken").orElse(null))
                 .build();
     }
 
@@ -253,6 +290,7 @@ public class AuthenticatorClient {
         return DiscoveryDocumentResponse.builder()
                 .authorizationEndpoint(discoveryClaims.get("authorization_endpoint").toString())
                 .tokenEndpoint(discoveryClaims.get("token_endpoint").toString())
+                .ssoEndpoint(Optional.ofNullable(discoveryClaims.get("sso_endpoint")).map(Object::toString).orElse(null))
                 .idpSig(retrieveServerCertFromLocation(discoveryClaims.get("uri_puk_idp_sig").toString()))
                 .idpEnc(retrieveServerPuKFromLocation(discoveryClaims.get("uri_puk_idp_enc").toString()))
                 .build();
@@ -320,19 +358,96 @@ public class AuthenticatorClient {
         }
     }
 
+    /**
+     * Returns the client proxy for the given URL. The proxies are cached and
+     * share one connection pool, so the requests of a login reuse the
+     * connections and the TLS sessions to the IDP.
+     */
     public IdpHttpClientService getIdpHttpClientInstanceByUrl(String url)
             throws IdpClientException {
-        IdpHttpClientService idpHttpClientService;
+        IdpHttpClientService idpHttpClientService = idpHttpClientServices.get(url);
+        if (idpHttpClientService != null) {
+            statistics.proxyReused();
+            return idpHttpClientService;
+        }
 
+        URL baseUrl;
         try {
-            idpHttpClientService = RestClientBuilder.newBuilder()
-                    .baseUrl(new URL(url))
-                    .build(IdpHttpClientService.class);
+            baseUrl = new URL(url);
         } catch (MalformedURLException e) {
             throw new IdpClientException("Bad URL: " + url, e);
         }
 
-        return idpHttpClientService;
+        return idpHttpClientServices.computeIfAbsent(url, key -> {
+            statistics.proxyCreated();
+            // the engine does not close the shared client when a proxy is closed
+            return RestClientBuilder.newBuilder()
+                    .baseUrl(baseUrl)
+                    .property("resteasy.httpEngine", new ApacheHttpClient43Engine(getHttpClient(), false))
+                    .build(IdpHttpClientService.class);
+        });
+    }
+
+    private CloseableHttpClient getHttpClient() {
+        if (httpClient == null) {
+            synchronized (this) {
+                if (httpClient == null) {
+                    httpClient = createHttpClient();
+                }
+            }
+        }
+        return httpClient;
+    }
+
+    CloseableHttpClient createHttpClient() {
+        HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connectionFactory = (route, config) -> {
+            statistics.connectionCreated();
+            return ManagedHttpClientConnectionFactory.INSTANCE.create(route, config);
+        };
+        // one SSL context for all connections, so the JSSE session cache resumes the TLS sessions
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(
+                RegistryBuilder.<ConnectionSocketFactory>create()
+                        .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                        .register("https", new SSLConnectionSocketFactory(SSLContexts.createSystemDefault(),
+                                SSLConnectionSocketFactory.getDefaultHostnameVerifier()))
+                        .build(),
+                connectionFactory);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setValidateAfterInactivity(2000);
+
+        long keepAliveMillis = TimeUnit.SECONDS.toMillis(keepAliveSeconds);
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy((response, context) -> {
+                    long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAlive > 0 ? Math.min(keepAlive, keepAliveMillis) : keepAliveMillis;
+                })
+                .evictIdleConnections(keepAliveSeconds, TimeUnit.SECONDS)
+                .evictExpiredConnections()
+                // the client is shared by all tenants
+                .disableCookieManagement()
+                .addInterceptorFirst((HttpRequestInterceptor) (request, context) -> statistics.requestSent())
+                .build();
+    }
+
+    /**
+     * @return the counters of the proxies and the pooled connections
+     */
+    public IdpHttpClientStatistics getStatistics() {
+        return statistics;
+    }
+
+    @PreDestroy
+    void close() {
+        idpHttpClientServices.clear();
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Could not close IDP http client", e);
+            }
+        }
     }
 
     public JsonObject getJsonObject(Response response) {
@@ -0,0 +1,151 @@
+package health.ere.ps.service.idp.client;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import health.ere.ps.exception.idp.IdpClientException;
+import health.ere.ps.exception.idp.IdpException;
+import health.ere.ps.exception.idp.IdpJoseException;
+import health.ere.ps.model.idp.client.DiscoveryDocumentResponse;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
+
+/**
+ * Caches the discovery document of the IDP together with the signature
+ * certificate and the encryption key it points to. Fetching the document takes
+ * three HTTP calls, so logins and status probes share the cached document.
+ *
+ * Documents are refreshed in the background before they expire. A refresh on
+ * the request path only happens when no document is cached yet or when a
+ * caller suspects that the IDP rotated its keys, see {@link #refresh(String)}.
+ * An expired document is still used while the IDP can not be reached.
+ */
+@ApplicationScoped
+public class DiscoveryDocumentCache {
+    private static final Logger log = Logger.getLogger(DiscoveryDocumentCache.class.getName());
+
+    @Inject
+    AuthenticatorClient authenticatorClient;
+
+    @ConfigProperty(name = "idp.discovery-document.ttl-seconds", defaultValue = "3600")
+    long ttlSeconds = 3600;
+
+    // forced refreshes of the same document are not repeated within this time
+    @ConfigProperty(name = "idp.discovery-document.min-refresh-seconds", defaultValue = "30")
+    long minRefreshSeconds = 30;
+
+    final Map<String, CachedDiscoveryDocument> documents = new ConcurrentHashMap<>();
+
+    // one lock per document, a slow IDP only blocks the logins that use it
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    /**
+     * @return the cached document, it is fetched if it is not cached or expired.
+     *         When the IDP can not be reached the expired document is returned.
+     */
+    public DiscoveryDocumentResponse get(String discoveryDocumentUrl)
+            throws IdpClientException, IdpException, IdpJoseException {
+        CachedDiscoveryDocument cached = documents.get(discoveryDocumentUrl);
+        if (cached != null && !cached.isOlderThan(ttlSeconds)) {
+            return cached.document;
+        }
+        synchronized (lock(discoveryDocumentUrl)) {
+            cached = documents.get(discoveryDocumentUrl);
+            if (cached != null && (!cached.isOlderThan(ttlSeconds) || cached.failedRecently(minRefreshSeconds))) {
+                return cached.document;
+            }
+            try {
+                return load(discoveryDocumentUrl);
+            } catch (IdpClientException | IdpException | IdpJoseException | RuntimeException e) {
+                if (cached == null) {
+                    throw e;
+                }
+                log.log(Level.WARNING, "Could not refresh discovery document from: " + discoveryDocumentUrl
+                        + ", using the expired one", e);
+                cached.failedAt = Instant.now();
+                return cached.document;
+            }
+        }
+    }
+
+    /**
+     * Fetches the document again, e.g. after the IDP rejected an encrypted or
+     * signed request because it rotated its keys.
+     *
+     * @return the new document or the cached one if it was fetched just now
+     */
+    public DiscoveryDocumentResponse refresh(String discoveryDocumentUrl)
+            throws IdpClientException, IdpException, IdpJoseException {
+        synchronized (lock(discoveryDocumentUrl)) {
+            CachedDiscoveryDocument cached = documents.get(discoveryDocumentUrl);
+            if (cached != null && !cached.isOlderThan(minRefreshSeconds)) {
+                return cached.document;
+            }
+            return load(discoveryDocumentUrl);
+        }
+    }
+
+    private Object lock(String discoveryDocumentUrl) {
+        return locks.computeIfAbsent(discoveryDocumentUrl, url -> new Object());
+    }
+
+    private DiscoveryDocumentResponse load(String discoveryDocumentUrl)
+            throws IdpClientException, IdpException, IdpJoseException {
+        log.info("Loading discovery document from: " + discoveryDocumentUrl);
+        DiscoveryDocumentResponse document = authenticatorClient.retrieveDiscoveryDocument(discoveryDocumentUrl);
+        documents.put(discoveryDocumentUrl, new CachedDiscoveryDocument(document, Instant.now()));
+        return document;
+    }
+
+    /**
+     * Refreshes the documents that reached most of their time to live, so the
+     * request path does not have to wait for the IDP. When the IDP is not
+     * reachable the old document stays in the cache.
+     */
+    @Scheduled(every = "{idp.discovery-document.refresh-interval}", delay = 60, delayUnit = TimeUnit.SECONDS, concurrentExecution = ConcurrentExecution.SKIP)
+    void refreshExpiring() {
+        long refreshAfterSeconds = ttlSeconds * 3 / 4;
+        for (Map.Entry<String, CachedDiscoveryDocument> entry : documents.entrySet()) {
+            if (entry.getValue().isOlderThan(refreshAfterSeconds)) {
+                try {
+                    synchronized (lock(entry.getKey())) {
+                        load(entry.getKey());
+                    }
+                } catch (Exception e) {
+                    log.log(Level.WARNING, "Could not refresh discovery document from: " + entry.getKey(), e);
+                }
+            }
+        }
+    }
+
+    static class CachedDiscoveryDocument {
+        final DiscoveryDocumentResponse document;
+        final Instant fetchedAt;
+        // the last failed refresh of an expired document, the IDP is not asked again right away
+        volatile Instant failedAt;
+
+        CachedDiscoveryDocument(DiscoveryDocumentResponse document, Instant fetchedAt) {
+            this.document = document;
+            this.fetchedAt = fetchedAt;
+        }
+
+        boolean isOlderThan(long seconds) {
+            return Duration.between(fetchedAt, Instant.now()).getSeconds() >= seconds;
+        }
+
+        boolean failedRecently(long seconds) {
+            Instant failed = failedAt;
+            return failed != null && Duration.between(failed, Instant.now()).getSeconds() < seconds;
+        }
+    }
+}
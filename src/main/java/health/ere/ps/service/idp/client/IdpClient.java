@@ -5,10 +5,13 @@ import static org.jose4j.jws.AlgorithmIdentifiers.RSA_PSS_USING_SHA256;
 import java.security.PublicKey;
 import java.security.Security;
 import java.security.cert.X509Certificate;
+import java.time.ZonedDateTime;
 import java.util.Base64;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 import javax.enterprise.context.Dependent;
@@ -24,6 +27,7 @@ import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.logging.Logger;
 import org.jose4j.jws.JsonWebSignature;
 import org.jose4j.jwt.JwtClaims;
@@ -41,6 +45,7 @@ import health.ere.ps.model.idp.client.DiscoveryDocumentResponse;
 import health.ere.ps.model.idp.client.IdpTokenResult;
 import health.ere.ps.model.idp.client.TokenRequest;
 import health.ere.ps.model.idp.client.brainPoolExtension.BrainpoolAlgorithmSuiteIdentifiers;
+import health.ere.ps.model.idp.client.brainPoolExtension.BrainpoolCurves;
 import health.ere.ps.model.idp.client.field.ClaimName;
 import health.ere.ps.model.idp.client.field.CodeChallengeMethod;
 import health.ere.ps.model.idp.client.field.IdpScope;
@@ -66,13 +71,29 @@ public class IdpClient implements IIdpClient {
     @Inject
     SmcbAuthenticatorService smcbAuthenticatorService;
     @Inject
+    DiscoveryDocumentCache discoveryDocumentCache;
+    @Inject
     Logger logger;
 
+    @ConfigProperty(name = "idp.sso-token.enabled", defaultValue = "true")
+    boolean ssoTokenEnabled = true;
+
+    // used when the IDP does not put an exp claim into the header of the SSO token
+    @ConfigProperty(name = "idp.sso-token.max-age-seconds", defaultValue = "43200")
+    long ssoTokenMaxAgeSeconds = 43200;
+
+    // an SSO token that expires within this time is not used anymore
+    @ConfigProperty(name = "idp.sso-token.expiry-margin-seconds", defaultValue = "60")
+    long ssoTokenExpiryMarginSeconds = 60;
+
+    // SSO tokens by SMC-B certificate, a login with a valid SSO token needs no card operation
+    final Map<String, SsoToken> ssoTokens = new ConcurrentHashMap<>();
+
     private String clientId;
     private String redirectUrl;
     private String discoveryDocumentUrl;
     private boolean shouldVerifyState;
-    private DiscoveryDocumentResponse discoveryDocumentResponse;
+    private volatile DiscoveryDocumentResponse discoveryDocumentResponse;
 
     public IdpClient() {
     }
@@ -84,7 +105,7 @@ public class IdpClient implements IIdpClient {
         this.shouldVerifyState = shouldVerifyState;
     }
 
-    private String signServerChallenge(final String challengeToSign, final X509Certificate certificate,
+    String signServerChallenge(final String challengeToSign, final X509Certificate certificate,
                                        final Function<Pair<String, String>, String> contentSigner)
             throws IdpJoseException {
         final JwtClaims claims = new JwtClaims();
@@ -134,6 +155,9 @@ public class IdpClient implements IIdpClient {
 
                     jws.setCertificateChainHeaderValue(idpIdentity.getCertificate());
                     jws.setKey(idpIdentity.getPrivateKey());
+                    if (KeyAnalysis.isEcKey(idpIdentity.getCertificate().getPublicKey())) {
+                        jws.setProviderContext(BrainpoolCurves.signatureProviderContext());
+                    }
                     try {
                         return jws.getCompactSerialization();
                     } catch (JoseException e) {
@@ -147,36 +171,47 @@ public class IdpClient implements IIdpClient {
 
     public IdpTokenResult login(X509Certificate x509Certificate, RuntimeConfig runtimeConfig) throws IdpJoseException,
             IdpClientException, IdpException {
-        smcbAuthenticatorService.setX509Certificate(x509Certificate);
+        String ssoTokenKey = ssoTokenKey(x509Certificate);
+        IdpJwe ssoToken = getValidSsoToken(ssoTokenKey);
+        if (ssoToken != null) {
+            try {
+                return loginWithSsoToken(ssoToken);
+            } catch (IdpClientException | IdpException | RuntimeException e) {
+                // e.g. the IDP was restarted or the token was revoked, the card can still authenticate
+                logger.warn("Login with SSO token failed, authenticating with the SMC-B", e);
+                ssoTokens.remove(ssoTokenKey);
+            }
+        }
         return login(x509Certificate, (pair) -> {
-            return smcbAuthenticatorService.signIdpChallenge(pair, runtimeConfig);
+            return smcbAuthenticatorService.signIdpChallenge(pair, x509Certificate, runtimeConfig);
         });
     }
 
     private IdpTokenResult login(final X509Certificate certificate,
                                 final Function<Pair<String, String>, String> contentSigner)
             throws IdpClientException, IdpException, IdpJoseException {
+        updateDiscoveryDocument();
+        try {
+            return loginWithCard(certificate, contentSigner);
+        } catch (IdpClientException e) {
+            // the challenge and the key verifier are encrypted with the key of the discovery
+            // document, if the IDP rejects them it may have rotated its keys
+            if (keysRotated()) {
+                logger.info("IDP keys changed, repeating login with the new discovery document");
+                return loginWithCard(certificate, contentSigner);
+            }
+            throw e;
+        }
+    }
+
+    private IdpTokenResult loginWithCard(final X509Certificate certificate,
+                                         final Function<Pair<String, String>, String> contentSigner)
+            throws IdpClientException, IdpException, IdpJoseException {
         assertThatClientIsInitialized();
 
         final String codeVerifier = ClientUtilities.generateCodeVerifier();
-        final String nonce = RandomStringUtils.randomAlphanumeric(20);
-
-        // Authorization
         final String state = RandomStringUtils.randomAlphanumeric(20);
-        logger.debug("Performing Authorization with remote-URL: " +
-                discoveryDocumentResponse.getAuthorizationEndpoint());
-        final AuthorizationResponse authorizationResponse =
-                authenticatorClient
-                        .doAuthorizationRequest(AuthorizationRequest.builder()
-                                .clientId(clientId)
-                                .link(discoveryDocumentResponse.getAuthorizationEndpoint())
-                                .codeChallenge(ClientUtilities.generateCodeChallenge(codeVerifier))
-                                .codeChallengeMethod(codeChallengeMethod)
-                                .redirectUri(redirectUrl)
-                                .state(state)
-                                .scopes(scopes)
-                                .nonce(nonce)
-                                .build());
+        final AuthorizationResponse authorizationResponse = doAuthorizationRequest(codeVerifier, state);
 
         IdpJwe idpJwe = new IdpJwe(signServerChallenge(
                 authorizationResponse.getAuthenticationChallenge().getChallenge().getRawString(),
@@ -192,6 +227,65 @@ public class IdpClient implements IIdpClient {
                                         discoveryDocumentResponse.getAuthorizationEndpoint())
                                 .signedChallenge(idpJwe)
                                 .build());
+        verifyState(authenticationResponse, state);
+        if (authenticationResponse.getSsoToken() != null) {
+            rememberSsoToken(ssoTokenKey(certificate), new IdpJwe(authenticationResponse.getSsoToken()));
+        }
+
+        return retrieveAccessToken(authenticationResponse, codeVerifier);
+    }
+
+    /**
+     * Logs in without the card: the IDP accepts the unsigned challenge together
+     * with the SSO token of an earlier login.
+     */
+    private IdpTokenResult loginWithSsoToken(final IdpJwe ssoToken)
+            throws IdpClientException, IdpException, IdpJoseException {
+        updateDiscoveryDocument();
+        assertThatClientIsInitialized();
+
+        final String codeVerifier = ClientUtilities.generateCodeVerifier();
+        final String state = RandomStringUtils.randomAlphanumeric(20);
+        final AuthorizationResponse authorizationResponse = doAuthorizationRequest(codeVerifier, state);
+
+        // Authentication
+        logger.debug("Performing Authentication with SSO token with remote-URL: " +
+                discoveryDocumentResponse.getSsoEndpoint());
+        final AuthenticationResponse authenticationResponse =
+                authenticatorClient
+                        .performAuthenticationWithSsoToken(AuthenticationRequest.builder()
+                                .authenticationEndpointUrl(discoveryDocumentResponse.getSsoEndpoint())
+                                .ssoToken(ssoToken.getRawString())
+                                .challengeToken(authorizationResponse.getAuthenticationChallenge().getChallenge())
+                                .build());
+        verifyState(authenticationResponse, state);
+        authenticationResponse.setSsoToken(ssoToken.getRawString());
+
+        return retrieveAccessToken(authenticationResponse, codeVerifier);
+    }
+
+    private AuthorizationResponse doAuthorizationRequest(final String codeVerifier, final String state)
+            throws IdpClientException, IdpException {
+        final String nonce = RandomStringUtils.randomAlphanumeric(20);
+
+        // Authorization
+        logger.debug("Performing Authorization with remote-URL: " +
+                discoveryDocumentResponse.getAuthorizationEndpoint());
+        return authenticatorClient
+                .doAuthorizationRequest(AuthorizationRequest.builder()
+                        .clientId(clientId)
+                        .link(discoveryDocumentResponse.getAuthorizationEndpoint())
+                        .codeChallenge(ClientUtilities.generateCodeChallenge(codeVerifier))
+                        .codeChallengeMethod(codeChallengeMethod)
+                        .redirectUri(redirectUrl)
+                        .state(state)
+                        .scopes(scopes)
+                        .nonce(nonce)
+                        .build());
+    }
+
+    private void verifyState(final AuthenticationResponse authenticationResponse, final String state)
+            throws IdpClientException, IdpException {
         if (shouldVerifyState) {
             final String stringInTokenUrl = UriUtils
                     .extractParameterValue(authenticationResponse.getLocation(), "state");
@@ -199,7 +293,11 @@ public class IdpClient implements IIdpClient {
                 throw new IdpClientException("state-parameter unexpected changed");
             }
         }
+    }
 
+    private IdpTokenResult retrieveAccessToken(final AuthenticationResponse authenticationResponse,
+                                               final String codeVerifier)
+            throws IdpClientException, IdpException {
         // get Token
         logger.debug("Performing getToken with remote-URL: " +
                 discoveryDocumentResponse.getTokenEndpoint());
@@ -214,6 +312,41 @@ public class IdpClient implements IIdpClient {
                 .build());
     }
 
+    static String ssoTokenKey(final X509Certificate certificate) {
+        return certificate.getIssuerX500Principal().getName() + "/" + certificate.getSerialNumber();
+    }
+
+    void rememberSsoToken(final String ssoTokenKey, final IdpJwe ssoToken) {
+        ZonedDateTime expiresAt;
+        try {
+            expiresAt = ssoToken.getHeaderDateTimeClaim(ClaimName.EXPIRES_AT)
+                    .orElseGet(() -> ZonedDateTime.now().plusSeconds(ssoTokenMaxAgeSeconds));
+        } catch (RuntimeException e) {
+            logger.debug("Could not read the expiry of the SSO token", e);
+            expiresAt = ZonedDateTime.now().plusSeconds(ssoTokenMaxAgeSeconds);
+        }
+        ssoTokens.put(ssoTokenKey, new SsoToken(ssoToken, expiresAt));
+    }
+
+    /**
+     * @return the SSO token of the SMC-B if it can still be used, otherwise null
+     */
+    IdpJwe getValidSsoToken(final String ssoTokenKey) {
+        if (!ssoTokenEnabled || discoveryDocumentResponse == null
+                || StringUtils.isEmpty(discoveryDocumentResponse.getSsoEndpoint())) {
+            return null;
+        }
+        SsoToken ssoToken = ssoTokens.get(ssoTokenKey);
+        if (ssoToken == null) {
+            return null;
+        }
+        if (ssoToken.expiresAt.isBefore(ZonedDateTime.now().plusSeconds(ssoTokenExpiryMarginSeconds))) {
+            ssoTokens.remove(ssoTokenKey, ssoToken);
+            return null;
+        }
+        return ssoToken.token;
+    }
+
     private void assertThatIdpIdentityIsValid(final PkiIdentity idpIdentity) {
         Objects.requireNonNull(idpIdentity);
         Objects.requireNonNull(idpIdentity.getCertificate());
@@ -233,11 +366,67 @@ public class IdpClient implements IIdpClient {
     @Override
     public IIdpClient initializeClient() throws IdpClientException, IdpException, IdpJoseException {
         logger.info("Initializing using url: " + discoveryDocumentUrl);
-        discoveryDocumentResponse = authenticatorClient.retrieveDiscoveryDocument(discoveryDocumentUrl);
+        if (discoveryDocumentCache != null) {
+            discoveryDocumentResponse = discoveryDocumentCache.get(discoveryDocumentUrl);
+        } else {
+            discoveryDocumentResponse = authenticatorClient.retrieveDiscoveryDocument(discoveryDocumentUrl);
+        }
         return this;
     }
 
+    /**
+     * @return the discovery document of the cache, it is only fetched from the IDP
+     *         when it is not cached yet or expired
+     */
+    public DiscoveryDocumentResponse getDiscoveryDocument() throws IdpClientException, IdpException, IdpJoseException {
+        if (discoveryDocumentCache != null) {
+            discoveryDocumentResponse = discoveryDocumentCache.get(discoveryDocumentUrl);
+        } else if (discoveryDocumentResponse == null) {
+            discoveryDocumentResponse = authenticatorClient.retrieveDiscoveryDocument(discoveryDocumentUrl);
+        }
+        return discoveryDocumentResponse;
+    }
+
+    /**
+     * Takes the current document from the cache, it is refreshed in the background.
+     */
+    private void updateDiscoveryDocument() throws IdpClientException, IdpException, IdpJoseException {
+        if (discoveryDocumentCache != null && discoveryDocumentUrl != null) {
+            discoveryDocumentResponse = discoveryDocumentCache.get(discoveryDocumentUrl);
+        }
+    }
+
+    /**
+     * Fetches the discovery document again and compares the keys.
+     *
+     * @return true if the IDP uses other keys than the ones of the last document
+     */
+    private boolean keysRotated() {
+        if (discoveryDocumentCache == null || discoveryDocumentUrl == null) {
+            return false;
+        }
+        DiscoveryDocumentResponse previous = discoveryDocumentResponse;
+        try {
+            discoveryDocumentResponse = discoveryDocumentCache.refresh(discoveryDocumentUrl);
+        } catch (IdpClientException | IdpException | IdpJoseException e) {
+            logger.warn("Could not refresh discovery document", e);
+            return false;
+        }
+        return previous == null || !Objects.equals(previous.getIdpEnc(), discoveryDocumentResponse.getIdpEnc())
+                || !Objects.equals(previous.getIdpSig(), discoveryDocumentResponse.getIdpSig());
+    }
+
     public String getDiscoveryDocumentUrl() {
         return discoveryDocumentUrl;
     }
+
+    static class SsoToken {
+        final IdpJwe token;
+        final ZonedDateTime expiresAt;
+
+        SsoToken(IdpJwe token, ZonedDateTime expiresAt) {
+            this.token = token;
+            this.expiresAt = expiresAt;
+        }
+    }
 }
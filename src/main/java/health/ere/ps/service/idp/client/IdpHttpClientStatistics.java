@@ -0,0 +1,51 @@
+package health.ere.ps.service.idp.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the HTTP clients that talk to the IDP. A request that did not
+ * need a new connection reused a pooled one.
+ */
+public class IdpHttpClientStatistics {
+
+    private final AtomicLong proxiesCreated = new AtomicLong();
+    private final AtomicLong proxiesReused = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong connectionsCreated = new AtomicLong();
+
+    void proxyCreated() {
+        proxiesCreated.incrementAndGet();
+    }
+
+    void proxyReused() {
+        proxiesReused.incrementAndGet();
+    }
+
+    void requestSent() {
+        requests.incrementAndGet();
+    }
+
+    void connectionCreated() {
+        connectionsCreated.incrementAndGet();
+    }
+
+    public long getProxiesCreated() {
+        return proxiesCreated.get();
+    }
+
+    public long getProxiesReused() {
+        return proxiesReused.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getConnectionsCreated() {
+        return connectionsCreated.get();
+    }
+
+    public long getConnectionsReused() {
+        return Math.max(0, requests.get() - connectionsCreated.get());
+    }
+}
@@ -47,20 +47,18 @@ import org.hl7.fhir.r4.model.Quantity;
 import org.hl7.fhir.r4.model.Ratio;
 import org.hl7.fhir.r4.model.Resource;
 
-import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.model.api.TemporalPrecisionEnum;
 import ca.uhn.fhir.parser.DataFormatException;
 import de.gematik.ws.fa.vsdm.vsd.v5.UCAllgemeineVersicherungsdatenXML;
 import de.gematik.ws.fa.vsdm.vsd.v5.UCGeschuetzteVersichertendatenXML;
 import de.gematik.ws.fa.vsdm.vsd.v5.UCPersoenlicheVersichertendatenXML;
+import health.ere.ps.service.fhir.FhirContextProducer;
 
 @ApplicationScoped
 public class GenerateKBVCertificationBundlesService {
 
     private static Logger log = Logger.getLogger(GenerateKBVCertificationBundlesService.class.getName());
 
-    private final FhirContext fhirContext = FhirContext.forR4();
-
     static JAXBContext jaxbContext; 
 
     static {
@@ -339,7 +337,7 @@ public class GenerateKBVCertificationBundlesService {
     }
 
     public List<Resource> getDoctor(String doctorFileName) throws DataFormatException, FileNotFoundException {
-        Bundle doctor = fhirContext.newXmlParser().parseResource(Bundle.class, new FileInputStream(doctorFileName));
+        Bundle doctor = FhirContextProducer.xmlParser().parseResource(Bundle.class, new FileInputStream(doctorFileName));
         Resource practitioner = doctor.getEntry().stream().filter(d -> d.getResource() instanceof Practitioner).findAny().get().getResource();
         Optional<Bundle.BundleEntryComponent> organization = doctor.getEntry().stream().filter(d -> d.getResource() instanceof Organization).findAny();
         Optional<Bundle.BundleEntryComponent> practitionerRole = doctor.getEntry().stream().filter(d -> d.getResource() instanceof PractitionerRole).findAny();
@@ -28,9 +28,11 @@ import javax.xml.transform.stream.StreamSource;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.hl7.fhir.r4.model.Bundle;
 
-import ca.uhn.fhir.context.FhirContext;
 import health.ere.ps.event.HTMLBundlesEvent;
 import health.ere.ps.event.ReadyToSignBundlesEvent;
+import health.ere.ps.model.gematik.ParsedBundle;
+import health.ere.ps.service.fhir.BundleParser;
+import health.ere.ps.service.fhir.FhirContextProducer;
 import health.ere.ps.websocket.ExceptionWithReplyToExcetion;
 
 @ApplicationScoped
@@ -38,8 +40,6 @@ public class XSLTService {
 
     private static Logger log = Logger.getLogger(XSLTService.class.getName());
 
-    private final FhirContext fhirContext = FhirContext.forR4();
-
     @Inject
     Event<Exception> exceptionEvent;
 
@@ -93,7 +93,9 @@ public class XSLTService {
     }
 
     public String generateHtmlForBundle(Bundle bundle) throws IOException, TransformerException {
-        String xmlString = fhirContext.newXmlParser().encodeResourceToString(bundle);
+        ParsedBundle parsedBundle = ParsedBundle.of(bundle);
+        String xmlString = parsedBundle != null ? BundleParser.getXml(parsedBundle)
+                : FhirContextProducer.xmlParser().encodeResourceToString(bundle);
         File xml = Files.createTempFile("bundle-", ".xml").toFile();
         Files.write(xml.toPath(), xmlString.getBytes(StandardCharsets.UTF_8));
 
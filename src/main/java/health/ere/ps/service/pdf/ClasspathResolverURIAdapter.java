@@ -1,20 +1,31 @@
 package health.ere.ps.service.pdf;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.apache.fop.apps.io.ResourceResolverFactory;
 import org.apache.xmlgraphics.io.Resource;
 import org.apache.xmlgraphics.io.ResourceResolver;
 
+/**
+ * Resolves the resources of Apache FOP: classpath: URIs from the classpath, memory: URIs
+ * from the documents that were put in memory for a rendering and other URIs with the default
+ * resolver.
+ */
 public class ClasspathResolverURIAdapter implements ResourceResolver {
 
+  static final String MEMORY_SCHEME = "memory";
+
   private static Logger log = Logger.getLogger(ClasspathResolverURIAdapter.class.getName());
 
   private final ResourceResolver wrapped;
+  private final Map<String, byte[]> memoryResources = new ConcurrentHashMap<>();
 
 
   public ClasspathResolverURIAdapter() {
@@ -25,8 +36,19 @@ public class ClasspathResolverURIAdapter implements ResourceResolver {
   @Override
   public Resource getResource(URI uri) throws IOException {
     log.info("Search resource for Apache FOP: "+uri.toString());
-    if (uri.getScheme().equals("classpath")) {
-      URL url = getClass().getClassLoader().getResource(uri.getSchemeSpecificPart());
+    if (MEMORY_SCHEME.equals(uri.getScheme())) {
+      byte[] content = memoryResources.get(uri.getSchemeSpecificPart());
+      if (content == null) {
+        throw new IOException("Resource " + uri + " not found in memory");
+      }
+      return new Resource(new ByteArrayInputStream(content));
+    } else if (uri.getScheme().equals("classpath")) {
+      // class loaders do not resolve names with a leading slash, e.g. classpath:/fop/img/erezept-app-note.svg
+      String name = uri.getSchemeSpecificPart().replaceFirst("^/+", "");
+      URL url = getClass().getClassLoader().getResource(name);
+      if (url == null) {
+        throw new IOException("Resource " + uri + " not found in the classpath");
+      }
 
       return new Resource(url.openStream());
     } else {
@@ -34,6 +56,24 @@ public class ClasspathResolverURIAdapter implements ResourceResolver {
     }
   }
 
+  /**
+   * Makes the content available to FOP until it is removed.
+   *
+   * @return the memory: URI of the content
+   */
+  public URI putInMemory(String name, byte[] content) {
+    memoryResources.put(name, content);
+    return URI.create(MEMORY_SCHEME + ":" + name);
+  }
+
+  public void removeFromMemory(URI uri) {
+    memoryResources.remove(uri.getSchemeSpecificPart());
+  }
+
+  int getMemoryResourceCount() {
+    return memoryResources.size();
+  }
+
   @Override
   public OutputStream getOutputStream(URI uri) throws IOException {
     return wrapped.getOutputStream(uri);
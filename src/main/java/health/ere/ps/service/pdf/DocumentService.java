@@ -5,6 +5,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
@@ -17,10 +19,10 @@ import java.time.Instant;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.UUID;
 import java.util.jar.JarEntry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ApplicationScoped;
@@ -31,6 +33,7 @@ import javax.xml.XMLConstants;
 import javax.xml.transform.ErrorListener;
 import javax.xml.transform.Result;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -47,11 +50,11 @@ import org.apache.fop.configuration.ConfigurationException;
 import org.apache.fop.configuration.DefaultConfigurationBuilder;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
-import ca.uhn.fhir.context.FhirContext;
 import health.ere.ps.event.BundlesWithAccessCodeEvent;
 import health.ere.ps.event.ERezeptWithDocumentsEvent;
 import health.ere.ps.model.gematik.BundleWithAccessCodeOrThrowable;
 import health.ere.ps.model.pdf.ERezeptDocument;
+import health.ere.ps.service.fhir.FhirContextProducer;
 import health.ere.ps.websocket.ExceptionWithReplyToExcetion;
 
 @ApplicationScoped
@@ -59,7 +62,27 @@ public class DocumentService {
 
     private static final Logger log = Logger.getLogger(DocumentService.class.getName());
     private static final int MAX_NUMBER_OF_MEDICINES_PER_PRESCRIPTIONS = 9;
-    private final FhirContext ctx = FhirContext.forR4();
+    private static final String EREZEPT_TEMPLATE_XSL_PATH = "/fop/ERezeptTemplate.xsl";
+    private static final ErrorListener XSLT_ERROR_LISTENER = new ErrorListener() {
+        private static final String MSG = "Error in XSLT:";
+
+        @Override
+        public void warning(TransformerException exception) {
+            log.warning(MSG + exception);
+
+        }
+
+        @Override
+        public void fatalError(TransformerException exception) {
+            log.severe(MSG + exception);
+
+        }
+
+        @Override
+        public void error(TransformerException exception) {
+            log.severe(MSG + exception);
+        }
+    };
 
     @Inject
     Event<ERezeptWithDocumentsEvent> eRezeptDocumentsEvent;
@@ -70,12 +93,22 @@ public class DocumentService {
     boolean writePdfFile = false;
 
     private FopFactory fopFactory;
+    // resolves the bundles XML that is embedded into the PDF from memory
+    private final ClasspathResolverURIAdapter resourceResolver = new ClasspathResolverURIAdapter();
+    // the compiled stylesheet is thread safe, every PDF gets its own transformer from it
+    volatile Templates eRezeptTemplates;
 
     @PostConstruct
     public void init() {
+        try {
+            eRezeptTemplates = compileERezeptTemplates();
+        } catch (TransformerException ex) {
+            log.severe("ERezept stylesheet not compilable:" + ex);
+            exceptionEvent.fireAsync(ex);
+        }
         try {
             URI baseURI = getClass().getResource("/fop/").toURI();
-            FopFactoryBuilder fopFactoryBuilder = new FopFactoryBuilder(baseURI, new ClasspathResolverURIAdapter());
+            FopFactoryBuilder fopFactoryBuilder = new FopFactoryBuilder(baseURI, resourceResolver);
             initConfiguration(fopFactoryBuilder);
             fopFactory = fopFactoryBuilder.build();
             //fopFactory.getFontManager().setResourceResolver(new LoggingResolver(fopFactory.getFontManager().getResourceResolver()));
@@ -213,26 +246,35 @@ public class DocumentService {
             log.severe("Cannot generate prescriptions pdf for an empty bundle");
             return new ByteArrayOutputStream();
         }
-        File xml = createTemporaryXmlFileFromBundles(bundles);
-        return generatePdfInOutputStream(xml);
+        return generatePdfInOutputStream(serializeBundles(bundles));
     }
 
-    private File createTemporaryXmlFileFromBundles(List<BundleWithAccessCodeOrThrowable> bundles) throws IOException {
-        String serialized = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root xmlns=\"http://hl7.org/fhir\">\n" +
-                bundles.stream().filter(bundle -> bundle.getBundle() != null).map(bundle ->
-                        "    <bundle>\n" +
-                                "        <accessCode>" + bundle.getAccessCode() + "</accessCode>\n" +
-                                "        " + ctx.newXmlParser().encodeResourceToString(bundle.getBundle()) + "\n" +
-                                "    </bundle>")
-                        .collect(Collectors.joining("\n")) +
-                "\n</root>";
-
-        File tmpFile = Files.createTempFile("bundle-", ".xml").toFile();
-        Files.write(tmpFile.toPath(), serialized.getBytes(StandardCharsets.UTF_8));
-        return tmpFile;
+    /**
+     * @return the XML of the bundles, the input of the stylesheet and the file embedded into the PDF
+     */
+    byte[] serializeBundles(List<BundleWithAccessCodeOrThrowable> bundles) throws IOException {
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(xml, StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root xmlns=\"http://hl7.org/fhir\">\n");
+            boolean first = true;
+            for (BundleWithAccessCodeOrThrowable bundle : bundles) {
+                if (bundle.getBundle() == null) {
+                    continue;
+                }
+                if (!first) {
+                    writer.write("\n");
+                }
+                first = false;
+                writer.write("    <bundle>\n        <accessCode>" + bundle.getAccessCode() + "</accessCode>\n        ");
+                FhirContextProducer.xmlParser().encodeResourceToWriter(bundle.getBundle(), writer);
+                writer.write("\n    </bundle>");
+            }
+            writer.write("\n</root>");
+        }
+        return xml.toByteArray();
     }
 
-    private ByteArrayOutputStream generatePdfInOutputStream(File xml) throws FOPException, TransformerException,
+    private ByteArrayOutputStream generatePdfInOutputStream(byte[] bundlesXml) throws FOPException, TransformerException,
             IOException {
         // Step 2: Set up output stream.
         // Note: Using BufferedOutputStream for performance reasons (helpful with
@@ -242,51 +284,25 @@ public class DocumentService {
         // Step 3: Construct fop with desired output format
         Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, out);
 
-        // Step 4: Setup JAXP using identity transformer
-        TransformerFactory factory = TransformerFactory.newInstance("net.sf.saxon.TransformerFactoryImpl", null);
-        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
-
-        // with XSLT:
-        String xslPath = "/fop/ERezeptTemplate.xsl";
-
-        InputStream inputStream = getClass().getResourceAsStream(xslPath);
-        String systemId = this.getClass().getResource(xslPath).toExternalForm();
-        StreamSource xslt = new StreamSource(inputStream, systemId);
-        xslt.setPublicId(systemId);
-        factory.setErrorListener(new ErrorListener() {
-            private static final String MSG = "Error in XSLT:";
-
-            @Override
-            public void warning(TransformerException exception) {
-                log.warning(MSG + exception);
-
-            }
-
-            @Override
-            public void fatalError(TransformerException exception) {
-                log.severe(MSG + exception);
-
-            }
-
-            @Override
-            public void error(TransformerException exception) {
-                log.severe(MSG + exception);
-            }
-        });
-
-        Transformer transformer = factory.newTransformer(xslt);
-        transformer.setParameter("bundleFileUrl", xml.toURI().toURL().toString());
+        // Step 4: Setup JAXP with the compiled stylesheet
+        Transformer transformer = getERezeptTemplates().newTransformer();
+        transformer.setErrorListener(XSLT_ERROR_LISTENER);
+        URI bundlesUri = resourceResolver.putInMemory("bundles-" + UUID.randomUUID() + ".xml", bundlesXml);
+        try {
+            transformer.setParameter("bundleFileUrl", bundlesUri.toString());
 
-        // Step 5: Setup input and output for XSLT transformation
-        // Setup input stream
-        Source src = new StreamSource(xml);
+            // Step 5: Setup input and output for XSLT transformation
+            // Setup input stream
+            Source src = new StreamSource(new ByteArrayInputStream(bundlesXml));
 
-        // Resulting SAX events (the generated FO) must be piped through to FOP
-        Result res = new SAXResult(fop.getDefaultHandler());
+            // Resulting SAX events (the generated FO) must be piped through to FOP
+            Result res = new SAXResult(fop.getDefaultHandler());
 
-        // Step 6: Start XSLT transformation and FOP processing
-        transformer.transform(src, res);
+            // Step 6: Start XSLT transformation and FOP processing
+            transformer.transform(src, res);
+        } finally {
+            resourceResolver.removeFromMemory(bundlesUri);
+        }
 
         if(isWritePdfFile()) {
             String thisMoment = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH_mm_ssX")
@@ -305,6 +321,34 @@ public class DocumentService {
 
     }
 
+    private Templates getERezeptTemplates() throws TransformerException {
+        // compiled again only if the compilation in init failed
+        if (eRezeptTemplates == null) {
+            synchronized (this) {
+                if (eRezeptTemplates == null) {
+                    eRezeptTemplates = compileERezeptTemplates();
+                }
+            }
+        }
+        return eRezeptTemplates;
+    }
+
+    static Templates compileERezeptTemplates() throws TransformerException {
+        TransformerFactory factory = TransformerFactory.newInstance("net.sf.saxon.TransformerFactoryImpl", null);
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_STYLESHEET, "");
+        factory.setErrorListener(XSLT_ERROR_LISTENER);
+
+        String systemId = DocumentService.class.getResource(EREZEPT_TEMPLATE_XSL_PATH).toExternalForm();
+        try (InputStream inputStream = DocumentService.class.getResourceAsStream(EREZEPT_TEMPLATE_XSL_PATH)) {
+            StreamSource xslt = new StreamSource(inputStream, systemId);
+            xslt.setPublicId(systemId);
+            return factory.newTemplates(xslt);
+        } catch (IOException e) {
+            throw new TransformerException("Could not read " + EREZEPT_TEMPLATE_XSL_PATH, e);
+        }
+    }
+
     /**
      * Used only to inject a mocked Event for tests
      *
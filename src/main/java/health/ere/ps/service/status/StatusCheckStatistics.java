@@ -0,0 +1,86 @@
+package health.ere.ps.service.status;
+
+import java.io.Serializable;
+
+/**
+ * Rolling latency and availability statistics of one status check over the
+ * last probes.
+ */
+public class StatusCheckStatistics implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long[] latencies;
+    private final boolean[] successes;
+    private int next = 0;
+    private int count = 0;
+    private long lastLatencyMillis;
+    private boolean lastSuccess;
+    private long lastCheckedAt;
+
+    public StatusCheckStatistics(int windowSize) {
+        this.latencies = new long[windowSize];
+        this.successes = new boolean[windowSize];
+    }
+
+    public synchronized void record(long latencyMillis, boolean success) {
+        latencies[next] = latencyMillis;
+        successes[next] = success;
+        next = (next + 1) % latencies.length;
+        count = Math.min(count + 1, latencies.length);
+        lastLatencyMillis = latencyMillis;
+        lastSuccess = success;
+        lastCheckedAt = System.currentTimeMillis();
+    }
+
+    public synchronized int getSampleCount() {
+        return count;
+    }
+
+    public synchronized long getAverageLatencyMillis() {
+        if (count == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += latencies[i];
+        }
+        return sum / count;
+    }
+
+    public synchronized long getMaxLatencyMillis() {
+        long max = 0;
+        for (int i = 0; i < count; i++) {
+            max = Math.max(max, latencies[i]);
+        }
+        return max;
+    }
+
+    /**
+     * @return the share of successful probes in the window between 0 and 1
+     */
+    public synchronized double getAvailability() {
+        if (count == 0) {
+            return 0;
+        }
+        int ok = 0;
+        for (int i = 0; i < count; i++) {
+            if (successes[i]) {
+                ok++;
+            }
+        }
+        return (double) ok / count;
+    }
+
+    public synchronized long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    public synchronized boolean getLastSuccess() {
+        return lastSuccess;
+    }
+
+    public synchronized long getLastCheckedAt() {
+        return lastCheckedAt;
+    }
+}
@@ -1,25 +1,39 @@
 package health.ere.ps.service.status;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.event.Event;
 import javax.enterprise.event.ObservesAsync;
 import javax.inject.Inject;
 import javax.websocket.Session;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
 import de.gematik.ws.conn.eventservice.v7.GetCards;
 import health.ere.ps.config.AppConfig;
 import health.ere.ps.config.RuntimeConfig;
 import health.ere.ps.config.UserConfig;
 import health.ere.ps.event.RequestStatusEvent;
 import health.ere.ps.event.StatusResponseEvent;
-import health.ere.ps.exception.connector.ConnectorCardsException;
-import health.ere.ps.exception.idp.IdpClientException;
-import health.ere.ps.exception.idp.IdpException;
-import health.ere.ps.exception.idp.IdpJoseException;
 import health.ere.ps.model.config.UserConfigurations;
 import health.ere.ps.model.status.Status;
 import health.ere.ps.service.common.security.SecretsManagerService;
@@ -27,9 +41,15 @@ import health.ere.ps.service.connector.cards.ConnectorCardsService;
 import health.ere.ps.service.connector.cards.ConnectorCardsService.CardHandleType;
 import health.ere.ps.service.connector.certificate.CardCertificateReaderService;
 import health.ere.ps.service.connector.provider.MultiConnectorServicesProvider;
+import health.ere.ps.service.connector.provider.MultiConnectorServicesProvider.TenantKey;
 import health.ere.ps.service.gematik.ERezeptWorkflowService;
 import health.ere.ps.service.idp.BearerTokenService;
+import health.ere.ps.service.idp.client.IdpClient;
+import health.ere.ps.validation.fhir.bundle.ValidatorWarmUp;
+import health.ere.ps.validation.fhir.bundle.ValidatorWarmUpStatus;
 import health.ere.ps.websocket.ExceptionWithReplyToExcetion;
+import io.quarkus.scheduler.Scheduled;
+import io.quarkus.scheduler.Scheduled.ConcurrentExecution;
 
 @ApplicationScoped
 public class StatusService {
@@ -60,6 +80,9 @@ public class StatusService {
     @Inject
     ERezeptWorkflowService eRezeptWorkflowService;
 
+    @Inject
+    ValidatorWarmUp validatorWarmUp;
+
     @Inject
     Event<Exception> exceptionEvent;
 
@@ -67,9 +90,39 @@ public class StatusService {
     Event<StatusResponseEvent> statusResponseEvent;
 
 
+    @ConfigProperty(name = "status.probe.enabled", defaultValue = "true")
+    boolean probeEnabled = true;
+
+    @ConfigProperty(name = "status.probe.threads", defaultValue = "4")
+    int probeThreads = 4;
+
+    @ConfigProperty(name = "status.probe.statistics-window", defaultValue = "20")
+    int statisticsWindow = 20;
+
+    @ConfigProperty(name = "status.cache.max-age-seconds", defaultValue = "120")
+    long cacheMaxAgeSeconds = 120;
+
+    @ConfigProperty(name = "status.cache.idle-timeout-seconds", defaultValue = "600")
+    long cacheIdleTimeoutSeconds = 600;
+
+    static final String CHECK_CONNECTOR = "connector";
+    static final String CHECK_IDP = "idp";
+    static final String CHECK_ACCESS_TOKEN = "idpaccesstoken";
+    static final String CHECK_SMCB = "smcb";
+    static final String CHECK_CAUT = "caut";
+    static final String CHECK_EHBA = "ehba";
+    static final String CHECK_FACHDIENST = "fachdienst";
+
+    // keyed by the values of the runtime config, a new RuntimeConfig is created for every request
+    private final Map<StatusKey, CachedStatus> statusCache = new HashMap<>();
+    private final Map<StatusKey, CompletableFuture<Status>> probesInFlight = new HashMap<>();
+    private final Map<StatusKey, Map<String, StatusCheckStatistics>> statistics = new ConcurrentHashMap<>();
+
+    private volatile ExecutorService probeExecutor;
+
     public void onRequestStatus(@ObservesAsync RequestStatusEvent requestStatusEvent) {
         try {
-            Status  status  = getStatus(requestStatusEvent.getRuntimeConfig());
+            Status  status  = getStatus(requestStatusEvent.getRuntimeConfig(), requestStatusEvent.isForceRefresh());
             Session session = requestStatusEvent.getReplyTo();
             String  id      = requestStatusEvent.getId();
             // create status response event with the data
@@ -81,6 +134,120 @@ public class StatusService {
     }
 
     public Status getStatus(RuntimeConfig runtimeConfig) {
+        return getStatus(runtimeConfig, false);
+    }
+
+    /**
+     * Returns the last probed status for the given configuration. A new probe is
+     * only done when there is no status yet, when it is older than
+     * status.cache.max-age-seconds or when forceRefresh is set.
+     */
+    public Status getStatus(RuntimeConfig runtimeConfig, boolean forceRefresh) {
+        StatusKey statusKey = StatusKey.of(runtimeConfig);
+        CachedStatus cachedStatus;
+        synchronized (statusCache) {
+            cachedStatus = statusCache.get(statusKey);
+        }
+        if (cachedStatus != null) {
+            cachedStatus.lastRequestedAt = System.currentTimeMillis();
+            if (!forceRefresh && !cachedStatus.isOlderThan(TimeUnit.SECONDS.toMillis(cacheMaxAgeSeconds))) {
+                return updateValidatorStatus(cachedStatus.status);
+            }
+        }
+        return updateValidatorStatus(refreshStatus(runtimeConfig).join());
+    }
+
+    /**
+     * The warm-up runs once after the start and is not probed, so a cached status
+     * shows its current state as well.
+     */
+    private Status updateValidatorStatus(Status status) {
+        ValidatorWarmUpStatus warmUpStatus = validatorWarmUp.getStatus();
+        String information = warmUpStatus.getState() + ", " + warmUpStatus.getValidatedSamples() + " of "
+                + warmUpStatus.getSamples() + " sample bundles validated";
+        if (warmUpStatus.getError() != null) {
+            information += ", Exception: " + warmUpStatus.getError();
+        }
+        status.setValidatorReady(warmUpStatus.isReady(), information);
+        return status;
+    }
+
+    /**
+     * @return the statistics of the checks of the default configuration
+     */
+    public Map<String, StatusCheckStatistics> getStatistics() {
+        return getStatistics(null);
+    }
+
+    /**
+     * @return the statistics of the checks of the given configuration
+     */
+    public Map<String, StatusCheckStatistics> getStatistics(RuntimeConfig runtimeConfig) {
+        return Collections.unmodifiableMap(statistics.getOrDefault(StatusKey.of(runtimeConfig), Collections.emptyMap()));
+    }
+
+    /**
+     * Refreshes the status of the default configuration and of all runtime
+     * configurations that requested their status recently.
+     */
+    @Scheduled(every = "{status.probe.interval}", delay = 30, delayUnit = TimeUnit.SECONDS, concurrentExecution = ConcurrentExecution.SKIP)
+    void probe() {
+        if (!probeEnabled) {
+            return;
+        }
+        List<RuntimeConfig> runtimeConfigs = new ArrayList<>();
+        runtimeConfigs.add(null);
+        synchronized (statusCache) {
+            long idleTimeout = TimeUnit.SECONDS.toMillis(cacheIdleTimeoutSeconds);
+            statusCache.entrySet().removeIf(entry -> entry.getKey() != StatusKey.DEFAULT
+                    && System.currentTimeMillis() - entry.getValue().lastRequestedAt > idleTimeout);
+            statistics.keySet().retainAll(statusCache.keySet());
+            statusCache.values().stream().map(cachedStatus -> cachedStatus.runtimeConfig)
+                    .filter(runtimeConfig -> runtimeConfig != null).forEach(runtimeConfigs::add);
+        }
+        for (RuntimeConfig runtimeConfig : runtimeConfigs) {
+            try {
+                refreshStatus(runtimeConfig).join();
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Could not probe status", e);
+            }
+        }
+    }
+
+    CompletableFuture<Status> refreshStatus(RuntimeConfig runtimeConfig) {
+        StatusKey statusKey = StatusKey.of(runtimeConfig);
+        CompletableFuture<Status> probe;
+        boolean owner = false;
+        synchronized (statusCache) {
+            probe = probesInFlight.get(statusKey);
+            if (probe == null) {
+                probe = new CompletableFuture<>();
+                probesInFlight.put(statusKey, probe);
+                owner = true;
+            }
+        }
+        // concurrent requests for the same configuration share one probe
+        if (owner) {
+            try {
+                Status status = probeStatus(runtimeConfig);
+                synchronized (statusCache) {
+                    CachedStatus previous = statusCache.get(statusKey);
+                    statusCache.put(statusKey, new CachedStatus(runtimeConfig, status,
+                            previous != null ? previous.lastRequestedAt : System.currentTimeMillis()));
+                }
+                probe.complete(status);
+            } catch (RuntimeException e) {
+                probe.completeExceptionally(e);
+            } finally {
+                synchronized (statusCache) {
+                    probesInFlight.remove(statusKey);
+                }
+            }
+        }
+        return probe;
+    }
+
+    Status probeStatus(RuntimeConfig runtimeConfig) {
         Status status = new Status();
         String connectorBaseURL = userConfig.getConnectorBaseURL();
 
@@ -101,83 +268,248 @@ public class StatusService {
         } catch(Exception ex) {
             log.info("Did not find client certificate in app config.");
         }
+        String connectorInformation = connectorBaseURL+", "
+                                        +clientCertificate+":"+clientCertificatePassword+", "
+                                        +basicAuthUsername+":"+basicAuthPassword+", "+
+                                        secretsManagerService.getSslContext();
+
+        Map<String, StatusCheckStatistics> checkStatistics = statistics.computeIfAbsent(StatusKey.of(runtimeConfig),
+                key -> new ConcurrentHashMap<>());
 
         // ConnectorReachable
-        try {
-            connectorServicesProvider.getSingleConnectorServicesProvider(runtimeConfig).initializeServices(true);
+        CompletableFuture<Void> connectorCheck = check(checkStatistics, CHECK_CONNECTOR, () -> {
             GetCards parameter = new GetCards();
             parameter.setContext(connectorServicesProvider.getContextType(runtimeConfig));
-            connectorServicesProvider.getEventServicePortType(runtimeConfig).getCards(parameter);
-            status.setConnectorReachable(true, connectorBaseURL);
-        } catch(Exception ex) {
-            status.setConnectorReachable(false, connectorBaseURL+", "
-                                                +clientCertificate+":"+clientCertificatePassword+", "
-                                                +basicAuthUsername+":"+basicAuthPassword+", "+
-                                                secretsManagerService.getSslContext());
-        }
+            return connectorServicesProvider.getEventServicePortType(runtimeConfig).getCards(parameter);
+        }).handle((getCardsResponse, e) -> {
+            if (e == null) {
+                status.setConnectorReachable(true, connectorBaseURL);
+            } else {
+                status.setConnectorReachable(false, connectorInformation);
+            }
+            return null;
+        });
 
-        // IdpReachable
-        String discoveryUrl = "Not given";
-        try {
-            bearerTokenService.getIdpClient(runtimeConfig).initializeClient();
-            discoveryUrl = bearerTokenService.getIdpClient(runtimeConfig).getDiscoveryDocumentUrl();
-            status.setIdpReachable(true, discoveryUrl);
-        } catch (Exception e) {
-            status.setIdpReachable(false, discoveryUrl+" Exception: "+e.getMessage());
-        }
+        // IdpReachable, the discovery document is taken from the cache, the IDP is only
+        // asked when no document is cached or it expired
+        CompletableFuture<Void> idpCheck = check(checkStatistics, CHECK_IDP, () -> {
+            IdpClient idpClient = bearerTokenService.getIdpClient(runtimeConfig);
+            idpClient.getDiscoveryDocument();
+            return idpClient.getDiscoveryDocumentUrl();
+        }).handle((discoveryUrl, e) -> {
+            if (e == null) {
+                status.setIdpReachable(true, discoveryUrl);
+            } else {
+                status.setIdpReachable(false, "Not given Exception: "+rootMessage(e));
+            }
+            return null;
+        });
 
-        String bearerToken = "";
-        try {
-            // IdpaccesstokenObtainable
-            bearerToken = bearerTokenService.requestBearerToken(runtimeConfig);
-            if (bearerToken != null && bearerToken.length() > 0 )
+        // IdpaccesstokenObtainable, a still valid bearer token is reused instead of a new login
+        CompletableFuture<String> bearerTokenFuture = check(checkStatistics, CHECK_ACCESS_TOKEN, () -> {
+            eRezeptWorkflowService.requestNewAccessTokenIfNecessary(runtimeConfig, null, null);
+            return eRezeptWorkflowService.getBearerToken(runtimeConfig);
+        }, bearerToken -> bearerToken != null && bearerToken.length() > 0);
+        CompletableFuture<Void> bearerTokenCheck = bearerTokenFuture.handle((bearerToken, e) -> {
+            if (e == null && bearerToken != null && bearerToken.length() > 0) {
                 status.setIdpaccesstokenObtainable(true, "Bearer Token: "+bearerToken, bearerToken);
-            else
-                status.setIdpaccesstokenObtainable(false,"");
-        } catch(Exception e) {
-            status.setIdpReachable(false, discoveryUrl+" Exception: "+e.getMessage());
-        }
-
-        // SmcbAvailable
-        String smcbHandle = null;
-        try {
-            smcbHandle = connectorCardsService.getConnectorCardHandle(CardHandleType.SMC_B, runtimeConfig);
-            status.setSmcbAvailable(true, "Card Handle: "+smcbHandle);
-        } catch (Exception e) {
-            status.setSmcbAvailable(false, "Exception: "+e.getMessage()+" Cause: "+(e.getCause() != null ? e.getCause().getMessage() : ""));
-        }
+            } else {
+                status.setIdpaccesstokenObtainable(false, e != null ? "Exception: "+rootMessage(e) : "");
+            }
+            return null;
+        });
 
-        // CautReadable
-        try {
-            cardCertificateReaderService.doReadCardCertificate(smcbHandle, runtimeConfig);
-            status.setCautReadable(true, "");
-        } catch(Exception e) {
-            status.setCautReadable(false, "Exception: "+e.getMessage()+" Cause: "+(e.getCause() != null ? e.getCause().getMessage() : ""));
-        }
+        // SmcbAvailable and CautReadable
+        CompletableFuture<String> smcbHandleFuture = check(checkStatistics, CHECK_SMCB,
+                () -> connectorCardsService.getConnectorCardHandle(CardHandleType.SMC_B, runtimeConfig));
+        CompletableFuture<Void> smcbCheck = smcbHandleFuture.handle((smcbHandle, e) -> {
+            if (e == null) {
+                status.setSmcbAvailable(true, "Card Handle: "+smcbHandle);
+            } else {
+                status.setSmcbAvailable(false, exceptionInformation(e));
+            }
+            return null;
+        });
+        CompletableFuture<Void> cautCheck = smcbHandleFuture.handle((smcbHandle, e) -> smcbHandle)
+                .thenCompose(smcbHandle -> check(checkStatistics, CHECK_CAUT,
+                        () -> cardCertificateReaderService.doReadCardCertificate(smcbHandle, runtimeConfig)))
+                .handle((certificate, e) -> {
+                    if (e == null) {
+                        status.setCautReadable(true, "");
+                    } else {
+                        status.setCautReadable(false, exceptionInformation(e));
+                    }
+                    return null;
+                });
 
         // EhbaAvailable
-        String ehbaHandle = null;
-        try {
-            ehbaHandle = connectorCardsService.getConnectorCardHandle(CardHandleType.HBA, runtimeConfig);
-            status.setEhbaAvailable(true, "Card Handle: "+ehbaHandle);
-        } catch (Exception e) {
-            status.setEhbaAvailable(false, "Exception: "+e.getMessage()+" Cause: "+(e.getCause() != null ? e.getCause().getMessage() : ""));
-        }
+        CompletableFuture<Void> ehbaCheck = check(checkStatistics, CHECK_EHBA,
+                () -> connectorCardsService.getConnectorCardHandle(CardHandleType.HBA, runtimeConfig))
+                .handle((ehbaHandle, e) -> {
+                    if (e == null) {
+                        status.setEhbaAvailable(true, "Card Handle: "+ehbaHandle);
+                    } else {
+                        status.setEhbaAvailable(false, exceptionInformation(e));
+                    }
+                    return null;
+                });
+
         // ComfortsignatureAvailable
         // Connector is PTV4+
         // check if basic auth or ssl certificate is enabled
         String connectorVersion = runtimeConfig != null ? runtimeConfig.getConnectorVersion() : null;
-        connectorVersion = connectorVersion == null ? userConfig.getConnectorVersion() : null;
+        connectorVersion = connectorVersion == null ? userConfig.getConnectorVersion() : connectorVersion;
         if ("PTV4+".equals(connectorVersion) && (basicAuthUsername != null || clientCertificate != null)) {
             status.setComfortsignatureAvailable(true, "");
         } else {
             status.setComfortsignatureAvailable(false, "");
         }
-            
+
         // FachdienstReachable
-        status.setFachdienstReachable(eRezeptWorkflowService.isERezeptServiceReachable(runtimeConfig, bearerToken), "");
+        CompletableFuture<Void> fachdienstCheck = bearerTokenFuture.handle((bearerToken, e) -> bearerToken != null ? bearerToken : "")
+                .thenCompose(bearerToken -> check(checkStatistics, CHECK_FACHDIENST,
+                        () -> eRezeptWorkflowService.isERezeptServiceReachable(runtimeConfig, bearerToken),
+                        reachable -> reachable))
+                .handle((reachable, e) -> {
+                    status.setFachdienstReachable(e == null && reachable, "");
+                    return null;
+                });
+
+        CompletableFuture.allOf(connectorCheck, idpCheck, bearerTokenCheck, smcbCheck, cautCheck, ehbaCheck,
+                fachdienstCheck).join();
 
         return status;
     }
-    
+
+    private <T> CompletableFuture<T> check(Map<String, StatusCheckStatistics> checkStatistics, String name,
+            Callable<T> callable) {
+        return check(checkStatistics, name, callable, result -> true);
+    }
+
+    /**
+     * Runs a single check on the probe executor and records its latency and
+     * result in the rolling statistics of the check.
+     */
+    private <T> CompletableFuture<T> check(Map<String, StatusCheckStatistics> checkStatistics, String name,
+            Callable<T> callable, Predicate<T> healthy) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                T result = callable.call();
+                success = healthy.test(result);
+                return result;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                checkStatistics.computeIfAbsent(name, key -> new StatusCheckStatistics(statisticsWindow))
+                        .record(System.currentTimeMillis() - start, success);
+            }
+        }, getProbeExecutor());
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static String rootMessage(Throwable e) {
+        return unwrap(e).getMessage();
+    }
+
+    private static String exceptionInformation(Throwable e) {
+        Throwable exception = unwrap(e);
+        return "Exception: "+exception.getMessage()+" Cause: "+(exception.getCause() != null ? exception.getCause().getMessage() : "");
+    }
+
+    ExecutorService getProbeExecutor() {
+        if (probeExecutor == null) {
+            synchronized (this) {
+                if (probeExecutor == null) {
+                    AtomicInteger counter = new AtomicInteger();
+                    probeExecutor = Executors.newFixedThreadPool(probeThreads, runnable -> {
+                        Thread thread = new Thread(runnable, "status-probe-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return probeExecutor;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (probeExecutor != null) {
+            probeExecutor.shutdown();
+        }
+    }
+
+    private static class CachedStatus {
+        final RuntimeConfig runtimeConfig;
+        final Status status;
+        final long probedAt = System.currentTimeMillis();
+        volatile long lastRequestedAt;
+
+        CachedStatus(RuntimeConfig runtimeConfig, Status status, long lastRequestedAt) {
+            this.runtimeConfig = runtimeConfig;
+            this.status = status;
+            this.lastRequestedAt = lastRequestedAt;
+        }
+
+        boolean isOlderThan(long maxAgeMillis) {
+            return System.currentTimeMillis() - probedAt > maxAgeMillis;
+        }
+    }
+
+    /**
+     * Identifies the configuration a status is probed for, i.e. the connector
+     * and the identity used to talk to it, the card handles, the IDP and the
+     * prescription server.
+     */
+    static final class StatusKey {
+        // the configuration of the application, it is used when there is no runtime config
+        static final StatusKey DEFAULT = new StatusKey(null);
+
+        private final TenantKey tenantKey;
+        private final String connectorVersion;
+        private final String eHBAHandle;
+        private final String SMCBHandle;
+        private final String idpBaseURL;
+        private final String idpClientId;
+        private final String idpAuthRequestRedirectURL;
+        private final String prescriptionServerURL;
+
+        private StatusKey(RuntimeConfig runtimeConfig) {
+            this.tenantKey = runtimeConfig != null ? TenantKey.of(runtimeConfig) : null;
+            this.connectorVersion = runtimeConfig != null ? runtimeConfig.getConnectorVersion() : null;
+            this.eHBAHandle = runtimeConfig != null ? runtimeConfig.getEHBAHandle() : null;
+            this.SMCBHandle = runtimeConfig != null ? runtimeConfig.getSMCBHandle() : null;
+            this.idpBaseURL = runtimeConfig != null ? runtimeConfig.getIdpBaseURL() : null;
+            this.idpClientId = runtimeConfig != null ? runtimeConfig.getIdpClientId() : null;
+            this.idpAuthRequestRedirectURL = runtimeConfig != null ? runtimeConfig.getIdpAuthRequestRedirectURL() : null;
+            this.prescriptionServerURL = runtimeConfig != null ? runtimeConfig.getPrescriptionServerURL() : null;
+        }
+
+        static StatusKey of(RuntimeConfig runtimeConfig) {
+            return runtimeConfig == null ? DEFAULT : new StatusKey(runtimeConfig);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (!(o instanceof StatusKey)) {
+                return false;
+            }
+            StatusKey statusKey = (StatusKey) o;
+            return Objects.equals(tenantKey, statusKey.tenantKey) && Objects.equals(connectorVersion, statusKey.connectorVersion) && Objects.equals(eHBAHandle, statusKey.eHBAHandle) && Objects.equals(SMCBHandle, statusKey.SMCBHandle) && Objects.equals(idpBaseURL, statusKey.idpBaseURL) && Objects.equals(idpClientId, statusKey.idpClientId) && Objects.equals(idpAuthRequestRedirectURL, statusKey.idpAuthRequestRedirectURL) && Objects.equals(prescriptionServerURL, statusKey.prescriptionServerURL);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tenantKey, connectorVersion, eHBAHandle, SMCBHandle, idpBaseURL, idpClientId, idpAuthRequestRedirectURL, prescriptionServerURL);
+        }
+    }
 }
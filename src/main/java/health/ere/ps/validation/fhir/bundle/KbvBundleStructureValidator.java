@@ -0,0 +1,225 @@
+package health.ere.ps.validation.fhir.bundle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.JsonArray;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+import ca.uhn.fhir.validation.ResultSeverityEnum;
+import ca.uhn.fhir.validation.SingleValidationMessage;
+
+/**
+ * Checks the mandatory structure of a KBV_PR_ERP_Bundle on the JSON before the
+ * profile based validation runs: the Composition, the references of its
+ * sections, the Coverage and the Medication of the prescription, the PZN and
+ * the quantity.
+ *
+ * These are the errors most rejected bundles have, they are found without
+ * running the FhirInstanceValidator. A bundle without findings is validated
+ * completely by HAPI. Bundles with other profiles are not checked.
+ */
+public class KbvBundleStructureValidator {
+
+    static final String BUNDLE_PROFILE = "https://fhir.kbv.de/StructureDefinition/KBV_PR_ERP_Bundle";
+    static final String PRESCRIPTION_PROFILE = "https://fhir.kbv.de/StructureDefinition/KBV_PR_ERP_Prescription";
+    static final String MEDICATION_PZN_PROFILE = "https://fhir.kbv.de/StructureDefinition/KBV_PR_ERP_Medication_PZN";
+    static final String PZN_SYSTEM = "http://fhir.de/CodeSystem/ifa/pzn";
+
+    /**
+     * @return the errors found or an empty list if the bundle has to be validated by HAPI
+     */
+    public List<SingleValidationMessage> validate(JsonValue bundleJson) {
+        List<SingleValidationMessage> messages = new ArrayList<>(0);
+        if (!(bundleJson instanceof JsonObject)) {
+            return messages;
+        }
+        JsonObject bundle = (JsonObject) bundleJson;
+        if (!"Bundle".equals(string(bundle, "resourceType")) || !hasProfile(bundle, BUNDLE_PROFILE)) {
+            return messages;
+        }
+        if (!"document".equals(string(bundle, "type"))) {
+            error(messages, "Bundle.type", "Bundle.type must be 'document'");
+        }
+        JsonArray entries = array(bundle, "entry");
+        if (entries == null || entries.isEmpty()) {
+            error(messages, "Bundle", "Bundle.entry: minimum required = 1, but only found 0");
+            return messages;
+        }
+
+        int compositions = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            JsonObject resource = resource(entries, i);
+            String resourceType = resource == null ? null : string(resource, "resourceType");
+            if (resourceType == null) {
+                error(messages, "Bundle.entry[" + i + "]", "Bundle.entry.resource: minimum required = 1, but only found 0");
+                continue;
+            }
+            String location = "Bundle.entry[" + i + "].resource/*" + resourceType + "/" + string(resource, "id") + "*/";
+            switch (resourceType) {
+                case "Composition":
+                    compositions++;
+                    validateComposition(messages, entries, resource, location);
+                    break;
+                case "MedicationRequest":
+                    validateMedicationRequest(messages, entries, resource, location);
+                    break;
+                case "Medication":
+                    validateMedication(messages, resource, location);
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (compositions != 1) {
+            error(messages, "Bundle", "Bundle must contain exactly one Composition, found " + compositions);
+        }
+        return messages;
+    }
+
+    private void validateComposition(List<SingleValidationMessage> messages, JsonArray entries,
+                                     JsonObject composition, String location) {
+        JsonArray sections = array(composition, "section");
+        if (sections == null || sections.isEmpty()) {
+            error(messages, location + ".section", "Composition.section: minimum required = 1, but only found 0");
+            return;
+        }
+        for (int i = 0; i < sections.size(); i++) {
+            JsonArray sectionEntries = sections.get(i) instanceof JsonObject
+                    ? array(sections.getJsonObject(i), "entry") : null;
+            if (sectionEntries == null || sectionEntries.isEmpty()) {
+                error(messages, location + ".section[" + i + "]",
+                        "Composition.section.entry: minimum required = 1, but only found 0");
+                continue;
+            }
+            for (int j = 0; j < sectionEntries.size(); j++) {
+                String reference = sectionEntries.get(j) instanceof JsonObject
+                        ? string(sectionEntries.getJsonObject(j), "reference") : null;
+                validateReference(messages, entries, reference, location + ".section[" + i + "].entry[" + j + "]");
+            }
+        }
+    }
+
+    private void validateMedicationRequest(List<SingleValidationMessage> messages, JsonArray entries,
+                                           JsonObject medicationRequest, String location) {
+        if (hasProfile(medicationRequest, PRESCRIPTION_PROFILE)) {
+            JsonValue medicationReference = medicationRequest.get("medicationReference");
+            validateReference(messages, entries, medicationReference instanceof JsonObject
+                    ? string((JsonObject) medicationReference, "reference") : null,
+                    location + ".medication.ofType(Reference)");
+            JsonArray insurances = array(medicationRequest, "insurance");
+            if (insurances == null || insurances.isEmpty()) {
+                error(messages, location + ".insurance", "MedicationRequest.insurance: minimum required = 1, but only found 0");
+            } else {
+                for (int i = 0; i < insurances.size(); i++) {
+                    validateReference(messages, entries, insurances.get(i) instanceof JsonObject
+                            ? string(insurances.getJsonObject(i), "reference") : null,
+                            location + ".insurance[" + i + "]");
+                }
+            }
+        }
+        JsonValue dispenseRequest = medicationRequest.get("dispenseRequest");
+        if (dispenseRequest instanceof JsonObject) {
+            JsonValue quantity = ((JsonObject) dispenseRequest).get("quantity");
+            if (quantity instanceof JsonObject) {
+                JsonValue value = ((JsonObject) quantity).get("value");
+                if (value instanceof JsonNumber && ((JsonNumber) value).doubleValue() < 1) {
+                    error(messages, location + ".dispenseRequest.quantity.value",
+                            "MedicationRequest.dispenseRequest.quantity.value: the number of packages must be at least 1, but is " + value);
+                }
+            }
+        }
+    }
+
+    private void validateMedication(List<SingleValidationMessage> messages, JsonObject medication, String location) {
+        if (!hasProfile(medication, MEDICATION_PZN_PROFILE)) {
+            return;
+        }
+        JsonValue code = medication.get("code");
+        JsonArray codings = code instanceof JsonObject ? array((JsonObject) code, "coding") : null;
+        if (codings != null) {
+            for (int i = 0; i < codings.size(); i++) {
+                JsonValue coding = codings.get(i);
+                if (coding instanceof JsonObject && PZN_SYSTEM.equals(string((JsonObject) coding, "system"))) {
+                    String pzn = string((JsonObject) coding, "code");
+                    if (pzn == null || pzn.isBlank()) {
+                        error(messages, location + ".code.coding[" + i + "].code", "Medication.code: the PZN is empty");
+                    }
+                    return;
+                }
+            }
+        }
+        error(messages, location + ".code", "Medication.code: a coding with the system " + PZN_SYSTEM + " is required");
+    }
+
+    private void validateReference(List<SingleValidationMessage> messages, JsonArray entries, String reference,
+                                   String location) {
+        if (reference == null || reference.isBlank()) {
+            error(messages, location, "Reference.reference is missing");
+        } else if (!resolves(entries, reference)) {
+            error(messages, location, "Unable to resolve reference '" + reference + "' to an entry of the bundle");
+        }
+    }
+
+    private static boolean resolves(JsonArray entries, String reference) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (!(entries.get(i) instanceof JsonObject)) {
+                continue;
+            }
+            String fullUrl = string(entries.getJsonObject(i), "fullUrl");
+            if (fullUrl != null && (fullUrl.equals(reference)
+                    || (fullUrl.endsWith(reference) && fullUrl.charAt(fullUrl.length() - reference.length() - 1) == '/'))) {
+                return true;
+            }
+            JsonObject resource = resource(entries, i);
+            if (resource != null && reference.equals(string(resource, "resourceType") + "/" + string(resource, "id"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasProfile(JsonObject resource, String profile) {
+        JsonValue meta = resource.get("meta");
+        JsonArray profiles = meta instanceof JsonObject ? array((JsonObject) meta, "profile") : null;
+        if (profiles == null) {
+            return false;
+        }
+        for (JsonValue value : profiles) {
+            if (value instanceof JsonString) {
+                String url = ((JsonString) value).getString();
+                if (url.equals(profile) || (url.startsWith(profile) && url.charAt(profile.length()) == '|')) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static JsonObject resource(JsonArray entries, int i) {
+        JsonValue entry = entries.get(i);
+        JsonValue resource = entry instanceof JsonObject ? ((JsonObject) entry).get("resource") : null;
+        return resource instanceof JsonObject ? (JsonObject) resource : null;
+    }
+
+    private static JsonArray array(JsonObject jsonObject, String name) {
+        JsonValue value = jsonObject.get(name);
+        return value instanceof JsonArray ? (JsonArray) value : null;
+    }
+
+    private static String string(JsonObject jsonObject, String name) {
+        JsonValue value = jsonObject.get(name);
+        return value instanceof JsonString ? ((JsonString) value).getString() : null;
+    }
+
+    private static void error(List<SingleValidationMessage> messages, String location, String message) {
+        SingleValidationMessage singleValidationMessage = new SingleValidationMessage();
+        singleValidationMessage.setSeverity(ResultSeverityEnum.ERROR);
+        singleValidationMessage.setLocationString(location);
+        singleValidationMessage.setMessage(message);
+        messages.add(singleValidationMessage);
+    }
+}
@@ -2,11 +2,22 @@ package health.ere.ps.validation.fhir.bundle;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.json.Json;
-import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
@@ -18,6 +29,7 @@ import org.hl7.fhir.common.hapi.validation.support.InMemoryTerminologyServerVali
 import org.hl7.fhir.common.hapi.validation.support.SnapshotGeneratingValidationSupport;
 import org.hl7.fhir.common.hapi.validation.support.ValidationSupportChain;
 import org.hl7.fhir.common.hapi.validation.validator.FhirInstanceValidator;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.jboss.logging.Logger;
 
@@ -26,18 +38,48 @@ import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
 import ca.uhn.fhir.validation.FhirValidator;
 import ca.uhn.fhir.validation.SingleValidationMessage;
 import ca.uhn.fhir.validation.ValidationResult;
+import health.ere.ps.model.gematik.ParsedBundle;
+import health.ere.ps.service.fhir.FhirContextProducer;
 import health.ere.ps.validation.fhir.context.support.ErePrePopulatedValidationSupport;
+import health.ere.ps.validation.fhir.context.support.KbvTerminologyValidationSupport;
 
 @ApplicationScoped
 public class PrescriptionBundleValidator {
 
     private static final Logger log =
             Logger.getLogger(PrescriptionBundleValidator.class.getName());
-    private FhirValidator validator;
+    // 0 disables the cache
+    @ConfigProperty(name = "validation.cache.max-entries", defaultValue = "500")
+    int cacheMaxEntries = 500;
+
+    // bundles of one message that are validated at the same time
+    @ConfigProperty(name = "validation.parallelism", defaultValue = "4")
+    int parallelism = 4;
+
+    @ConfigProperty(name = "validation.queue-size", defaultValue = "64")
+    int queueSize = 64;
+
+    // checks the mandatory structure of KBV bundles before the FhirInstanceValidator runs
+    @ConfigProperty(name = "validation.structure-check.enabled", defaultValue = "true")
+    boolean structureCheckEnabled = true;
+
+    // codes are checked against the pre-expanded KBV ValueSets, see KbvTerminologyValidationSupport
+    @ConfigProperty(name = "validation.terminology-checks.enabled", defaultValue = "true")
+    boolean terminologyChecksEnabled = true;
+
+    FhirContext ctx;
+    FhirValidator validator;
+    ValidationResultCache validationResultCache;
+    KbvBundleStructureValidator structureValidator = new KbvBundleStructureValidator();
+    private volatile ExecutorService validationExecutor;
+    // the first validation generates the snapshots of the profiles, no other validation runs before it completed
+    private final CompletableFuture<Void> firstValidation = new CompletableFuture<>();
+    private final AtomicBoolean firstValidationStarted = new AtomicBoolean();
 
     @PostConstruct
     void init() {
-        FhirContext ctx = FhirContext.forR4();
+        ctx = FhirContextProducer.getFhirContext();
+        validationResultCache = new ValidationResultCache(cacheMaxEntries);
 
         // Create a chain that will hold our modules
         ValidationSupportChain validationSupportChain = new ValidationSupportChain();
@@ -46,10 +88,19 @@ public class PrescriptionBundleValidator {
         // even if you are using custom profiles, since those profiles will derive from the base
         // definitions.
         validationSupportChain.addValidationSupport(new DefaultProfileValidationSupport(ctx));
-        validationSupportChain.addValidationSupport(new ErePrePopulatedValidationSupport(ctx));
+        ErePrePopulatedValidationSupport erePrePopulatedValidationSupport = new ErePrePopulatedValidationSupport(ctx);
+        validationSupportChain.addValidationSupport(erePrePopulatedValidationSupport);
         validationSupportChain.addValidationSupport(new CommonCodeSystemsTerminologyService(ctx));
+        KbvTerminologyValidationSupport kbvTerminologyValidationSupport =
+                erePrePopulatedValidationSupport.createTerminologyValidationSupport();
+        validationSupportChain.addValidationSupport(kbvTerminologyValidationSupport);
         validationSupportChain.addValidationSupport(new InMemoryTerminologyServerValidationSupport(ctx));
         validationSupportChain.addValidationSupport(new SnapshotGeneratingValidationSupport(ctx));
+        // on the first start and after a change of the KBV files, later starts load the snapshot archive
+        erePrePopulatedValidationSupport.precompileSnapshots(validationSupportChain);
+        if (terminologyChecksEnabled) {
+            kbvTerminologyValidationSupport.expandValueSets(validationSupportChain);
+        }
 
         CachingValidationSupport cache = new CachingValidationSupport(validationSupportChain);
 
@@ -57,14 +108,14 @@ public class PrescriptionBundleValidator {
 
         validatorModule.setAnyExtensionsAllowed(true);
         validatorModule.setErrorForUnknownProfiles(false);
-        validatorModule.setNoTerminologyChecks(true); // TODO: Fix issues when set to false.
+        validatorModule.setNoTerminologyChecks(!terminologyChecksEnabled);
         validatorModule.setCustomExtensionDomains("http://fhir.de", "https://fhir.kbv.de");
 
         validator = ctx.newValidator().registerValidatorModule(validatorModule);
     }
 
     public ValidationResult validateResource(IBaseResource resource, boolean showIssues) {
-        ValidationResult validationResult = validator.validateWithResult(resource);
+        ValidationResult validationResult = runValidation(() -> validator.validateWithResult(resource));
 
         if(showIssues) {
             showIssues(validationResult);
@@ -84,7 +135,25 @@ public class PrescriptionBundleValidator {
 
     public ValidationResult validateResource(String resourceText, boolean showIssues,
                                              List<String> validationErrorsCollectorList) {
-        ValidationResult validationResult = validator.validateWithResult(resourceText);
+        return validateResource(resourceText, ValidationResultCache.contentHash(resourceText), showIssues,
+                validationErrorsCollectorList);
+    }
+
+    /**
+     * Validates the bundle or takes the result of an earlier validation of the
+     * same content from the cache.
+     */
+    ValidationResult validateResource(String resourceText, String contentHash, boolean showIssues,
+                                      List<String> validationErrorsCollectorList) {
+        List<SingleValidationMessage> cachedMessages = validationResultCache.get(contentHash);
+        ValidationResult validationResult;
+        if(cachedMessages != null) {
+            log.debug("Validation result taken from cache");
+            validationResult = new ValidationResult(ctx, cachedMessages);
+        } else {
+            validationResult = runValidation(() -> validator.validateWithResult(resourceText));
+            validationResultCache.put(contentHash, validationResult.getMessages());
+        }
 
         if(showIssues || validationErrorsCollectorList != null) {
             showIssues(validationResult, validationErrorsCollectorList);
@@ -93,6 +162,43 @@ public class PrescriptionBundleValidator {
         return validationResult;
     }
 
+    /**
+     * Validates a sample bundle to load the profiles and snapshots, the result is
+     * not cached. Bundles of later messages are validated in parallel right away.
+     */
+    void warmUp(String resourceText) {
+        ValidationResult validationResult = runValidation(() -> validator.validateWithResult(resourceText));
+        if (!validationResult.isSuccessful()) {
+            log.debugf("Sample bundle has %d validation messages", validationResult.getMessages().size());
+        }
+    }
+
+    /**
+     * Runs a validation of the FhirValidator. The first validation of the application
+     * generates the snapshots of the profiles, which is not thread safe, so every other
+     * validation, also of other sessions and of the warm up, waits until it completed.
+     */
+    private ValidationResult runValidation(Supplier<ValidationResult> validation) {
+        if (!firstValidation.isDone()) {
+            if (firstValidationStarted.compareAndSet(false, true)) {
+                try {
+                    return validation.get();
+                } finally {
+                    firstValidation.complete(null);
+                }
+            }
+            firstValidation.join();
+        }
+        return validation.get();
+    }
+
+    /**
+     * @return the cache of the validation results with its hit rate
+     */
+    public ValidationResultCache getValidationResultCache() {
+        return validationResultCache;
+    }
+
     protected void showIssues(ValidationResult validationResult) {
         showIssues(validationResult, null);
     }
@@ -115,35 +221,107 @@ public class PrescriptionBundleValidator {
     }
 
     public JsonObject bundlesValidationResult(JsonObject bundlePayload) {
-        JsonObjectBuilder builder = Json.createObjectBuilder();
-        builder.add("type", "BundlesValidationResult");
-        JsonArrayBuilder payload = Json.createArrayBuilder();
-        for (JsonValue jsonValue : bundlePayload.getJsonArray("payload")) {
-            if (jsonValue instanceof JsonArray) {
-                for (JsonValue singleBundle : (JsonArray) jsonValue) {
-                    JsonObjectBuilder singleBundleResults = validateBundle(singleBundle);
-                    payload.add(singleBundleResults);
+        return bundlesValidationResultAsync(bundlePayload).join();
+    }
+
+    /**
+     * Validates the bundles of the payload concurrently on the validation
+     * executor. The results are in the order of the bundles in the payload.
+     *
+     * @return a future that completes with the BundlesValidationResult message
+     */
+    public CompletableFuture<JsonObject> bundlesValidationResultAsync(JsonObject bundlePayload) {
+        String replyToMessageId = bundlePayload.containsKey("id") ? bundlePayload.getString("id", null) : "";
+        return bundlesValidationResultAsync(ParsedBundle.fromPayload(bundlePayload), replyToMessageId);
+    }
+
+    /**
+     * Validates the parsed bundles and stores the result of each bundle in it.
+     *
+     * @return a future that completes with the BundlesValidationResult message
+     */
+    public CompletableFuture<JsonObject> bundlesValidationResultAsync(List<List<ParsedBundle>> listOfListOfBundles,
+                                                                      String replyToMessageId) {
+        List<CompletableFuture<JsonObject>> results = new ArrayList<>();
+        for (List<ParsedBundle> bundles : listOfListOfBundles) {
+            for (ParsedBundle singleBundle : bundles) {
+                try {
+                    results.add(CompletableFuture.supplyAsync(() -> validateBundle(singleBundle),
+                            getValidationExecutor()));
+                } catch (RejectedExecutionException e) {
+                    // the caller, e.g. the websocket thread, does not validate the bundles itself
+                    log.warn("Validation queue is full, rejecting the bundles of message " + replyToMessageId);
+                    return CompletableFuture.failedFuture(
+                            new RejectedExecutionException("Too many bundles are being validated, please try again later", e));
                 }
             }
         }
-        builder.add("payload", payload);
-        if(bundlePayload.containsKey("id")) {
-            builder.add("replyToMessageId", bundlePayload.getString("id", null));
-        } else {
-            builder.add("replyToMessageId", "");
+
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).thenApply(v -> {
+            JsonObjectBuilder builder = Json.createObjectBuilder();
+            builder.add("type", "BundlesValidationResult");
+            JsonArrayBuilder payload = Json.createArrayBuilder();
+            results.forEach(result -> payload.add(result.join()));
+            builder.add("payload", payload);
+            builder.add("replyToMessageId", Objects.toString(replyToMessageId, ""));
+            return builder.build();
+        });
+    }
+
+    ExecutorService getValidationExecutor() {
+        if (validationExecutor == null) {
+            synchronized (this) {
+                if (validationExecutor == null) {
+                    log.info("Starting validation executor with " + parallelism + " threads");
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism,
+                            60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize),
+                            new ValidationThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+                    executor.allowCoreThreadTimeOut(true);
+                    validationExecutor = executor;
+                }
+            }
+        }
+        return validationExecutor;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (validationExecutor != null) {
+            validationExecutor.shutdown();
         }
-        return builder.build();
     }
 
     public JsonObjectBuilder validateBundle(JsonValue singleBundle) {
-        log.info("Now validating incoming sign and upload bundle:\n" +
-                    singleBundle.toString());
+        return Json.createObjectBuilder(validateBundle(new ParsedBundle(singleBundle)));
+    }
+
+    /**
+     * Validates the JSON of the bundle and stores the result in the parsed bundle.
+     * An edited bundle is always validated completely: the validator checks each
+     * referenced entry against the target profiles of the reference and reports it at
+     * the referencing entry, and the Composition references every entry. Only the
+     * result of an unchanged bundle is reused, from the content hash cache.
+     *
+     * @return the result of the bundle in the BundlesValidationResult message
+     */
+    public JsonObject validateBundle(ParsedBundle singleBundle) {
+        String bundleJson = singleBundle.getJsonString();
+        log.info("Now validating incoming sign and upload bundle:\n" + bundleJson);
         JsonObjectBuilder singleBundleResults = Json.createObjectBuilder();
-        String bundleJson = singleBundle.toString();
         List<String> errorsList = new ArrayList<>(1);
 
-        if (!validateResource(bundleJson,
-        true, errorsList).isSuccessful()) {
+        List<SingleValidationMessage> structureErrors = structureCheckEnabled
+                ? structureValidator.validate(singleBundle.getJson()) : List.of();
+        ValidationResult validationResult;
+        if (!structureErrors.isEmpty()) {
+            log.debug("Bundle rejected by the structure check");
+            validationResult = new ValidationResult(ctx, structureErrors);
+            showIssues(validationResult, errorsList);
+        } else {
+            validationResult = validateResource(bundleJson, contentHash(singleBundle), true, errorsList);
+        }
+
+        if (!validationResult.isSuccessful()) {
             JsonArrayBuilder errorsJson = Json.createArrayBuilder();
             errorsList.stream().forEach(s -> errorsJson.add(s));
             singleBundleResults.add("errors", errorsJson);
@@ -151,9 +329,30 @@ public class PrescriptionBundleValidator {
         } else {
             singleBundleResults.add("valid", true);
             log.info("Validation for the following incoming sign and " +
-            "upload bundle passed:\n" +
-            singleBundle.toString());
+            "upload bundle passed:\n" + bundleJson);
+        }
+        JsonObject bundleResult = singleBundleResults.build();
+        singleBundle.setValidationResult(bundleResult);
+        return bundleResult;
+    }
+
+    private static String contentHash(ParsedBundle parsedBundle) {
+        synchronized (parsedBundle) {
+            if (parsedBundle.getContentHash() == null) {
+                parsedBundle.setContentHash(ValidationResultCache.contentHash(parsedBundle.getJson()));
+            }
+            return parsedBundle.getContentHash();
+        }
+    }
+
+    private static class ValidationThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "validation-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
         }
-        return singleBundleResults;
     }
 }
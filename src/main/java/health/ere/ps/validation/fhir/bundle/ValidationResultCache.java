@@ -0,0 +1,173 @@
+package health.ere.ps.validation.fhir.bundle;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+
+import ca.uhn.fhir.validation.SingleValidationMessage;
+
+/**
+ * Remembers the validation messages of bundles by a hash of their normalized
+ * content. The front-end sends the same bundles with "ValidateBundles" and
+ * then with "SignAndUploadBundles", the second validation is answered from
+ * the cache.
+ *
+ * JSON is normalized by sorting the keys of all objects, so the formatting and
+ * the key order do not matter. Other content, i.e. XML, is only trimmed and
+ * gets the same line endings. The least recently used results are dropped
+ * when the cache is full.
+ */
+public class ValidationResultCache {
+
+    private final int maxEntries;
+    private final Map<String, List<SingleValidationMessage>> results;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ValidationResultCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<SingleValidationMessage>> eldest) {
+                return size() > ValidationResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the hash of the normalized bundle
+     */
+    public static String contentHash(String resourceText) {
+        String trimmed = resourceText.trim();
+        if (trimmed.startsWith("{")) {
+            try (JsonReader jsonReader = Json.createReader(new StringReader(trimmed))) {
+                return contentHash(jsonReader.readValue());
+            } catch (RuntimeException e) {
+                // not valid JSON, the validator will report it
+            }
+        }
+        return sha256(trimmed.replace("\r\n", "\n"));
+    }
+
+    /**
+     * @return the hash of the normalized bundle
+     */
+    public static String contentHash(JsonValue jsonValue) {
+        StringBuilder normalized = new StringBuilder();
+        appendNormalized(jsonValue, normalized);
+        return sha256(normalized.toString());
+    }
+
+    private static void appendNormalized(JsonValue jsonValue, StringBuilder normalized) {
+        if (jsonValue instanceof JsonObject) {
+            normalized.append('{');
+            boolean first = true;
+            for (Map.Entry<String, JsonValue> entry : new TreeMap<>((JsonObject) jsonValue).entrySet()) {
+                if (!first) {
+                    normalized.append(',');
+                }
+                first = false;
+                normalized.append(Json.createValue(entry.getKey())).append(':');
+                appendNormalized(entry.getValue(), normalized);
+            }
+            normalized.append('}');
+        } else if (jsonValue instanceof JsonArray) {
+            normalized.append('[');
+            boolean first = true;
+            for (JsonValue value : (JsonArray) jsonValue) {
+                if (!first) {
+                    normalized.append(',');
+                }
+                first = false;
+                appendNormalized(value, normalized);
+            }
+            normalized.append(']');
+        } else {
+            normalized.append(jsonValue);
+        }
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return a copy of the cached messages or null if the bundle was not validated yet
+     */
+    public List<SingleValidationMessage> get(String contentHash) {
+        List<SingleValidationMessage> messages;
+        synchronized (results) {
+            messages = results.get(contentHash);
+        }
+        if (messages == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ArrayList<>(messages);
+    }
+
+    public void put(String contentHash, List<SingleValidationMessage> messages) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        List<SingleValidationMessage> copy = Collections.unmodifiableList(new ArrayList<>(messages));
+        synchronized (results) {
+            results.put(contentHash, copy);
+        }
+    }
+
+    public void clear() {
+        synchronized (results) {
+            results.clear();
+        }
+    }
+
+    public int getSize() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the share of validations answered from the cache between 0 and 1
+     */
+    public double getHitRate() {
+        long lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+}
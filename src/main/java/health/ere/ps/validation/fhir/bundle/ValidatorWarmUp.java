@@ -0,0 +1,91 @@
+package health.ere.ps.validation.fhir.bundle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.inject.Instance;
+import javax.inject.Inject;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.quarkus.runtime.Startup;
+
+/**
+ * Creates the {@link PrescriptionBundleValidator} and validates the bundled
+ * KBV sample bundles on a background thread after the start. The profiles,
+ * snapshots and the validator caches are loaded before the first bundle of
+ * the front-end arrives and the startup is not delayed.
+ */
+@ApplicationScoped
+@Startup
+public class ValidatorWarmUp {
+
+    private static final Logger log = Logger.getLogger(ValidatorWarmUp.class.getName());
+
+    @ConfigProperty(name = "validation.warm-up.enabled", defaultValue = "true")
+    boolean enabled = true;
+
+    // classpath resources, JSON or XML
+    @ConfigProperty(name = "validation.warm-up.samples",
+            defaultValue = "/bundle-samples/kbv-pf-example.json,/bundle-samples/kbv-pf-example.xml")
+    List<String> samples = List.of("/bundle-samples/kbv-pf-example.json", "/bundle-samples/kbv-pf-example.xml");
+
+    @Inject
+    Instance<PrescriptionBundleValidator> prescriptionBundleValidator;
+
+    final ValidatorWarmUpStatus status = new ValidatorWarmUpStatus();
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            status.setState(ValidatorWarmUpStatus.State.DISABLED);
+            return;
+        }
+        Thread thread = new Thread(this::warmUp, "validation-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void warmUp() {
+        status.setSamples(samples.size());
+        status.setState(ValidatorWarmUpStatus.State.RUNNING);
+        long start = System.currentTimeMillis();
+        try {
+            PrescriptionBundleValidator validator = prescriptionBundleValidator.get();
+            for (String sample : samples) {
+                validator.warmUp(readSample(sample));
+                status.setValidatedSamples(status.getValidatedSamples() + 1);
+            }
+            status.setDurationMillis(System.currentTimeMillis() - start);
+            status.setState(ValidatorWarmUpStatus.State.READY);
+            log.infof("Validator warmed up with %d sample bundles in %d ms", samples.size(),
+                    status.getDurationMillis());
+        } catch (Exception e) {
+            status.setDurationMillis(System.currentTimeMillis() - start);
+            status.setError(e.getMessage());
+            status.setState(ValidatorWarmUpStatus.State.FAILED);
+            log.warn("Could not warm up the validator", e);
+        }
+    }
+
+    private String readSample(String sample) throws IOException {
+        try (InputStream inputStream = getClass().getResourceAsStream(sample)) {
+            if (inputStream == null) {
+                throw new IOException("Sample bundle " + sample + " not found");
+            }
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @return the progress of the warm-up, the validator is ready when the state is READY or DISABLED
+     */
+    public ValidatorWarmUpStatus getStatus() {
+        return status;
+    }
+}
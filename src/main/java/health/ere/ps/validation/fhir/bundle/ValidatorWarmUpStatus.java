@@ -0,0 +1,65 @@
+package health.ere.ps.validation.fhir.bundle;
+
+/**
+ * Progress of the validator warm-up, shown under /status/validation-warm-up and as
+ * validatorReady in the status.
+ */
+public class ValidatorWarmUpStatus {
+
+    public enum State {
+        DISABLED, PENDING, RUNNING, READY, FAILED
+    }
+
+    private volatile State state = State.PENDING;
+    private volatile int samples;
+    private volatile int validatedSamples;
+    private volatile long durationMillis;
+    private volatile String error;
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    /**
+     * @return true when the first validation of a bundle does not have to load the profiles
+     */
+    public boolean isReady() {
+        return state == State.READY || state == State.DISABLED;
+    }
+
+    public int getSamples() {
+        return samples;
+    }
+
+    void setSamples(int samples) {
+        this.samples = samples;
+    }
+
+    public int getValidatedSamples() {
+        return validatedSamples;
+    }
+
+    void setValidatedSamples(int validatedSamples) {
+        this.validatedSamples = validatedSamples;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    void setDurationMillis(long durationMillis) {
+        this.durationMillis = durationMillis;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    void setError(String error) {
+        this.error = error;
+    }
+}
@@ -8,16 +8,22 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.microprofile.config.ConfigProvider;
 import org.hl7.fhir.common.hapi.validation.support.PrePopulatedValidationSupport;
+import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.CodeSystem;
 import org.hl7.fhir.r4.model.StructureDefinition;
 import org.hl7.fhir.r4.model.ValueSet;
 
 import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.IValidationSupport;
+import ca.uhn.fhir.context.support.ValidationSupportContext;
 import ca.uhn.fhir.parser.IParser;
 import health.ere.ps.service.logging.EreLogger;
 
@@ -27,18 +33,193 @@ public class ErePrePopulatedValidationSupport extends PrePopulatedValidationSupp
     private static final List<EreLogger.SystemContext> systemContextList = List.of(
             EreLogger.SystemContext.KbvBundleValidator,
             EreLogger.SystemContext.KbvBundleValidatorConfiguration);
-    private IParser xmlParser = FhirContext.forR4().newXmlParser();
+    private final IParser xmlParser;
+    private final FhirContext fhirContext;
+    private final Path kbvValidatorConfigDirectory;
+    private final Path snapshotArchiveFile;
+    private final Map<String, IBaseResource> structureDefinitions;
+    private final Map<String, IBaseResource> valueSets;
+    private final Map<String, IBaseResource> codeSystems;
+    private final KbvSnapshotArchive snapshotArchive;
 
     protected enum ConfigType {
         PROFILE, EXTENSION, VALUE_SET, CODE_SYSTEM, NAMING_SYSTEM, UNKNOWN
     }
 
     public ErePrePopulatedValidationSupport(FhirContext theContext) {
-        super(theContext);
+        this(theContext, Path.of(ConfigProvider.getConfig()
+                        .getValue("kbv.validator.config.dir", String.class)).toAbsolutePath(),
+                ConfigProvider.getConfig().getOptionalValue("kbv.validator.snapshot.file", String.class)
+                        .map(Path::of).orElse(null));
+    }
+
+    /**
+     * @param snapshotArchiveFile archive with the precompiled configuration, null to always
+     *                            load the XML files of the configuration directory
+     */
+    public ErePrePopulatedValidationSupport(FhirContext theContext, Path kbvValidatorConfigDirectory,
+                                            Path snapshotArchiveFile) {
+        this(theContext, kbvValidatorConfigDirectory, snapshotArchiveFile,
+                readSnapshotArchive(theContext, kbvValidatorConfigDirectory, snapshotArchiveFile));
+    }
+
+    private ErePrePopulatedValidationSupport(FhirContext theContext, Path kbvValidatorConfigDirectory,
+                                             Path snapshotArchiveFile, KbvSnapshotArchive snapshotArchive) {
+        this(theContext, kbvValidatorConfigDirectory, snapshotArchiveFile, snapshotArchive,
+                snapshotArchive != null ? snapshotArchive.getStructureDefinitions() : new HashMap<>(),
+                snapshotArchive != null ? snapshotArchive.getValueSets() : new HashMap<>(),
+                snapshotArchive != null ? snapshotArchive.getCodeSystems() : new HashMap<>());
+    }
+
+    private ErePrePopulatedValidationSupport(FhirContext theContext, Path kbvValidatorConfigDirectory,
+                                             Path snapshotArchiveFile, KbvSnapshotArchive snapshotArchive,
+                                             Map<String, IBaseResource> structureDefinitions,
+                                             Map<String, IBaseResource> valueSets,
+                                             Map<String, IBaseResource> codeSystems) {
+        super(theContext, structureDefinitions, valueSets, codeSystems);
+        this.fhirContext = theContext;
+        this.xmlParser = theContext.newXmlParser();
+        this.kbvValidatorConfigDirectory = kbvValidatorConfigDirectory;
+        this.snapshotArchiveFile = snapshotArchiveFile;
+        this.snapshotArchive = snapshotArchive;
+        this.structureDefinitions = structureDefinitions;
+        this.valueSets = valueSets;
+        this.codeSystems = codeSystems;
+
+        if (snapshotArchive != null) {
+            ereLogger.setLoggingContext(systemContextList)
+                    .infof("Loaded KBV Validator configuration from %s", snapshotArchiveFile);
+        } else {
+            ereLogger.setLoggingContext(systemContextList)
+                    .info("Loading KBV Validator configuration");
+            initKbvValidatorConfiguration();
+        }
+    }
+
+    private static String fingerprint(Path kbvValidatorConfigDirectory) {
+        try {
+            return KbvSnapshotArchive.fingerprint(kbvValidatorConfigDirectory);
+        } catch (IOException e) {
+            ereLogger.setLoggingContext(systemContextList)
+                    .warnf(e, "Cannot compute fingerprint of %s", kbvValidatorConfigDirectory);
+            return null;
+        }
+    }
+
+    private static KbvSnapshotArchive readSnapshotArchive(FhirContext theContext, Path kbvValidatorConfigDirectory,
+                                                          Path snapshotArchiveFile) {
+        if (snapshotArchiveFile == null || !Files.isDirectory(kbvValidatorConfigDirectory)) {
+            return null;
+        }
+        String fingerprint = fingerprint(kbvValidatorConfigDirectory);
+        if (fingerprint == null) {
+            return null;
+        }
+        try {
+            return KbvSnapshotArchive.readIfCurrent(theContext, snapshotArchiveFile, fingerprint);
+        } catch (IOException | RuntimeException e) {
+            ereLogger.setLoggingContext(systemContextList)
+                    .warnf(e, "Cannot read KBV snapshot archive %s, loading the XML files", snapshotArchiveFile);
+            return null;
+        }
+    }
 
+    /**
+     * @return true if the configuration was loaded from the snapshot archive
+     */
+    public boolean isLoadedFromSnapshotArchive() {
+        return snapshotArchive != null;
+    }
+
+    /**
+     * @return the archive the configuration was loaded from or null
+     */
+    public KbvSnapshotArchive getSnapshotArchive() {
+        return snapshotArchive;
+    }
+
+    /**
+     * @return the terminology service over the ValueSets and CodeSystems of the configuration,
+     *         it looks them up by url and does not decode the archived ones in advance
+     */
+    public KbvTerminologyValidationSupport createTerminologyValidationSupport() {
+        return new KbvTerminologyValidationSupport(fhirContext, codeSystems, valueSets);
+    }
+
+    /**
+     * Generates the snapshots of the KBV profiles that the validator would otherwise
+     * generate on the first validation and writes them with the rest of the
+     * configuration to the snapshot archive. Nothing is done if the configuration
+     * was loaded from the archive or if the archive can not be written: every start
+     * would then generate all snapshots, while the first validation only generates
+     * the ones it needs.
+     *
+     * @param rootValidationSupport the chain with the base FHIR definitions and this support
+     */
+    public void precompileSnapshots(IValidationSupport rootValidationSupport) {
+        if (snapshotArchive != null || snapshotArchiveFile == null
+                || !Files.isDirectory(kbvValidatorConfigDirectory)) {
+            return;
+        }
+        if (!isWritable(snapshotArchiveFile)) {
+            ereLogger.setLoggingContext(systemContextList)
+                    .infof("Cannot write KBV snapshot archive %s, snapshots are generated on the first validation",
+                            snapshotArchiveFile);
+            return;
+        }
+        long start = System.currentTimeMillis();
+        ValidationSupportContext validationSupportContext = new ValidationSupportContext(rootValidationSupport);
+        Map<IBaseResource, IBaseResource> snapshots = new IdentityHashMap<>();
+        for (Map.Entry<String, IBaseResource> entry : structureDefinitions.entrySet()) {
+            StructureDefinition structureDefinition = (StructureDefinition) entry.getValue();
+            if (structureDefinition.hasSnapshot()) {
+                continue;
+            }
+            IBaseResource snapshot = snapshots.get(structureDefinition);
+            if (snapshot == null) {
+                try {
+                    snapshot = rootValidationSupport.generateSnapshot(validationSupportContext,
+                            structureDefinition, structureDefinition.getUrl(), null, structureDefinition.getName());
+                } catch (RuntimeException e) {
+                    ereLogger.setLoggingContext(systemContextList)
+                            .warnf(e, "Cannot generate snapshot of %s", structureDefinition.getUrl());
+                }
+                if (snapshot == null) {
+                    continue;
+                }
+                snapshots.put(structureDefinition, snapshot);
+            }
+            // derived profiles find the snapshot of their base
+            entry.setValue(snapshot);
+        }
         ereLogger.setLoggingContext(systemContextList)
-                .info("Loading KBV Validator configuration");
-        initKbvValidatorConfiguration();
+                .infof("Generated %d KBV snapshots in %d ms", snapshots.size(), System.currentTimeMillis() - start);
+
+        String fingerprint = fingerprint(kbvValidatorConfigDirectory);
+        if (fingerprint == null) {
+            return;
+        }
+        try {
+            KbvSnapshotArchive.write(fhirContext, snapshotArchiveFile, fingerprint, structureDefinitions,
+                    valueSets, codeSystems);
+            ereLogger.setLoggingContext(systemContextList)
+                    .infof("Wrote KBV snapshot archive %s", snapshotArchiveFile);
+        } catch (IOException | RuntimeException e) {
+            ereLogger.setLoggingContext(systemContextList)
+                    .warnf(e, "Cannot write KBV snapshot archive %s", snapshotArchiveFile);
+        }
+    }
+
+    /**
+     * @return true if the archive can be created or replaced, i.e. its directory or the
+     *         nearest existing parent of it is a writable directory
+     */
+    static boolean isWritable(Path archiveFile) {
+        Path directory = archiveFile.toAbsolutePath().getParent();
+        while (directory != null && !Files.exists(directory)) {
+            directory = directory.getParent();
+        }
+        return directory != null && Files.isDirectory(directory) && Files.isWritable(directory);
     }
 
     protected void addKbvProfile(InputStream configDefinitionInputStream) {
@@ -136,9 +317,7 @@ public class ErePrePopulatedValidationSupport extends PrePopulatedValidationSupp
     }
 
     public void initKbvValidatorConfiguration() {
-        String kbvValidatorConfigDirectory =
-                ConfigProvider.getConfig().getValue("kbv.validator.config.dir", String.class);
-        Path start = Path.of(kbvValidatorConfigDirectory).toAbsolutePath();
+        Path start = kbvValidatorConfigDirectory;
 
         try {
             Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
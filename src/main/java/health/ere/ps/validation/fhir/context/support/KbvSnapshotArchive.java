@@ -0,0 +1,267 @@
+package health.ere.ps.validation.fhir.context.support;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.util.VersionUtil;
+
+/**
+ * Zip archive with the KBV StructureDefinitions, ValueSets and CodeSystems of
+ * the validator configuration including their generated snapshots.
+ *
+ * The resources are stored as FHIR JSON and are only parsed when the validator
+ * asks for them. The archive remembers a fingerprint of the configuration
+ * directory and of the HAPI version, {@link #readIfCurrent} ignores an archive
+ * that was written for other files.
+ */
+public class KbvSnapshotArchive {
+
+    static final String FORMAT_VERSION = "1";
+    static final String FINGERPRINT_ENTRY = "fingerprint";
+    static final String INDEX_ENTRY = "index";
+    static final String RESOURCE_ENTRY_PREFIX = "resources/";
+
+    static final String STRUCTURE_DEFINITIONS = "StructureDefinition";
+    static final String VALUE_SETS = "ValueSet";
+    static final String CODE_SYSTEMS = "CodeSystem";
+
+    private final FhirContext fhirContext;
+    private final Map<String, byte[]> encodedResources;
+    private final Map<String, IBaseResource> decodedResources = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> entriesByUrl;
+
+    private KbvSnapshotArchive(FhirContext fhirContext, Map<String, byte[]> encodedResources,
+                               Map<String, Map<String, String>> entriesByUrl) {
+        this.fhirContext = fhirContext;
+        this.encodedResources = encodedResources;
+        this.entriesByUrl = entriesByUrl;
+    }
+
+    /**
+     * @return the hash of the names, sizes and modification times of the files in the
+     * configuration directory and of the HAPI version
+     */
+    public static String fingerprint(Path configDirectory) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((FORMAT_VERSION + "\n" + VersionUtil.getVersion() + "\n").getBytes(StandardCharsets.UTF_8));
+            List<Path> files;
+            try (Stream<Path> walk = Files.walk(configDirectory)) {
+                files = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+            for (Path file : files) {
+                String line = configDirectory.relativize(file).toString().replace('\\', '/') + "\t"
+                        + Files.size(file) + "\t" + Files.getLastModifiedTime(file).toMillis() + "\n";
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+            }
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the archive or null if it does not exist or was written for another fingerprint
+     */
+    public static KbvSnapshotArchive readIfCurrent(FhirContext fhirContext, Path archiveFile,
+                                                   String fingerprint) throws IOException {
+        if (!Files.isRegularFile(archiveFile)) {
+            return null;
+        }
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(Files.newInputStream(archiveFile))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                entries.put(zipEntry.getName(), zipInputStream.readAllBytes());
+            }
+        }
+        byte[] archiveFingerprint = entries.remove(FINGERPRINT_ENTRY);
+        byte[] index = entries.remove(INDEX_ENTRY);
+        if (archiveFingerprint == null || index == null
+                || !fingerprint.equals(new String(archiveFingerprint, StandardCharsets.UTF_8))) {
+            return null;
+        }
+
+        Map<String, Map<String, String>> entriesByUrl = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(index),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split("\t");
+                if (columns.length != 3 || !entries.containsKey(columns[2])) {
+                    throw new IOException("Invalid index line in " + archiveFile + ": " + line);
+                }
+                entriesByUrl.computeIfAbsent(columns[0], type -> new HashMap<>()).put(columns[1], columns[2]);
+            }
+        }
+        return new KbvSnapshotArchive(fhirContext, entries, entriesByUrl);
+    }
+
+    /**
+     * Writes the resources of the given maps by url. The file is replaced at
+     * the end, so a running instance never reads a half written archive.
+     */
+    public static void write(FhirContext fhirContext, Path archiveFile, String fingerprint,
+                             Map<String, IBaseResource> structureDefinitions,
+                             Map<String, IBaseResource> valueSets,
+                             Map<String, IBaseResource> codeSystems) throws IOException {
+        Path parent = archiveFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, archiveFile.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(tempFile);
+                 ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
+                Writer writer = new OutputStreamWriter(zipOutputStream, StandardCharsets.UTF_8);
+                Map<IBaseResource, String> entryNames = new IdentityHashMap<>();
+                StringBuilder index = new StringBuilder();
+                Map<String, Map<String, IBaseResource>> maps = new LinkedHashMap<>();
+                maps.put(STRUCTURE_DEFINITIONS, structureDefinitions);
+                maps.put(VALUE_SETS, valueSets);
+                maps.put(CODE_SYSTEMS, codeSystems);
+                for (Map.Entry<String, Map<String, IBaseResource>> map : maps.entrySet()) {
+                    for (Map.Entry<String, IBaseResource> resource : map.getValue().entrySet()) {
+                        // the resources are registered under several urls, they are stored once
+                        String entryName = entryNames.get(resource.getValue());
+                        if (entryName == null) {
+                            entryName = RESOURCE_ENTRY_PREFIX + entryNames.size() + ".json";
+                            entryNames.put(resource.getValue(), entryName);
+                            zipOutputStream.putNextEntry(new ZipEntry(entryName));
+                            fhirContext.newJsonParser().encodeResourceToWriter(resource.getValue(), writer);
+                            writer.flush();
+                            zipOutputStream.closeEntry();
+                        }
+                        index.append(map.getKey()).append('\t').append(resource.getKey()).append('\t')
+                                .append(entryName).append('\n');
+                    }
+                }
+                zipOutputStream.putNextEntry(new ZipEntry(INDEX_ENTRY));
+                writer.write(index.toString());
+                writer.flush();
+                zipOutputStream.closeEntry();
+                zipOutputStream.putNextEntry(new ZipEntry(FINGERPRINT_ENTRY));
+                writer.write(fingerprint);
+                writer.flush();
+                zipOutputStream.closeEntry();
+            }
+            Files.move(tempFile, archiveFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    public Map<String, IBaseResource> getStructureDefinitions() {
+        return new LazyResourceMap(STRUCTURE_DEFINITIONS);
+    }
+
+    public Map<String, IBaseResource> getValueSets() {
+        return new LazyResourceMap(VALUE_SETS);
+    }
+
+    public Map<String, IBaseResource> getCodeSystems() {
+        return new LazyResourceMap(CODE_SYSTEMS);
+    }
+
+    /**
+     * @return the number of parsed resources, resources that were never asked for stay undecoded
+     */
+    public int getDecodedResourceCount() {
+        return decodedResources.size();
+    }
+
+    private IBaseResource decode(String entryName) {
+        return decodedResources.computeIfAbsent(entryName, name -> {
+            try (InputStream inputStream = new ByteArrayInputStream(encodedResources.get(name))) {
+                return fhirContext.newJsonParser().parseResource(inputStream);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /**
+     * Map by url as the PrePopulatedValidationSupport expects it, a resource is
+     * parsed on the first get. Resources that are added later are kept as they are.
+     */
+    private class LazyResourceMap extends AbstractMap<String, IBaseResource> {
+        private final Map<String, String> entries;
+        private final Map<String, IBaseResource> added = new ConcurrentHashMap<>();
+
+        LazyResourceMap(String type) {
+            this.entries = entriesByUrl.getOrDefault(type, Map.of());
+        }
+
+        @Override
+        public IBaseResource get(Object url) {
+            IBaseResource resource = added.get(url);
+            if (resource != null) {
+                return resource;
+            }
+            String entryName = entries.get(url);
+            return entryName == null ? null : decode(entryName);
+        }
+
+        @Override
+        public boolean containsKey(Object url) {
+            return added.containsKey(url) || entries.containsKey(url);
+        }
+
+        @Override
+        public IBaseResource put(String url, IBaseResource resource) {
+            IBaseResource previous = get(url);
+            added.put(url, resource);
+            return previous;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            // the urls without decoding the resources
+            Set<String> keySet = new LinkedHashSet<>(entries.keySet());
+            keySet.addAll(added.keySet());
+            return keySet;
+        }
+
+        @Override
+        public Set<Entry<String, IBaseResource>> entrySet() {
+            Set<Entry<String, IBaseResource>> entrySet = new LinkedHashSet<>();
+            for (String url : entries.keySet()) {
+                if (!added.containsKey(url)) {
+                    entrySet.add(new SimpleImmutableEntry<>(url, decode(entries.get(url))));
+                }
+            }
+            for (Entry<String, IBaseResource> entry : added.entrySet()) {
+                entrySet.add(new SimpleImmutableEntry<>(entry));
+            }
+            return entrySet;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package health.ere.ps.validation.fhir.context.support;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CanonicalType;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.ValueSet;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.ConceptValidationOptions;
+import ca.uhn.fhir.context.support.IValidationSupport;
+import ca.uhn.fhir.context.support.ValidationSupportContext;
+import health.ere.ps.service.logging.EreLogger;
+
+/**
+ * Terminology service over the CodeSystems and ValueSets of the KBV validator
+ * configuration. The ValueSets are expanded once into hashed sets of
+ * system|code, a code is checked with one lookup instead of the expansion the
+ * {@link org.hl7.fhir.common.hapi.validation.support.InMemoryTerminologyServerValidationSupport}
+ * does for every check.
+ *
+ * The KBV ValueSets include whole external catalogs (PZN, ICD-10-GM, ATC,
+ * SNOMED CT) or filter on them. These catalogs are not part of the
+ * configuration, every code of such a system is accepted, as is every code of
+ * the CodeSystems the configuration declares with content "not-present". Other ValueSets,
+ * e.g. of the FHIR base profiles, are expanded on their first use and are only
+ * answered here if all their codes are known. Everything else is left to the
+ * next support of the chain.
+ *
+ * The CodeSystems and ValueSets of the configuration are looked up by their url
+ * when they are used, the ones of the snapshot archive are only decoded then.
+ */
+public class KbvTerminologyValidationSupport implements IValidationSupport {
+    private static final EreLogger ereLogger =
+            EreLogger.getLogger(KbvTerminologyValidationSupport.class);
+    private static final List<EreLogger.SystemContext> systemContextList = List.of(
+            EreLogger.SystemContext.KbvBundleValidator,
+            EreLogger.SystemContext.KbvBundleValidatorConfiguration);
+
+    private final FhirContext fhirContext;
+    // CodeSystems and ValueSets of the configuration by url
+    private final Map<String, IBaseResource> kbvCodeSystems;
+    private final Map<String, IBaseResource> kbvValueSets;
+    // code -> display of the complete code systems by url
+    private final Map<String, Map<String, String>> codeSystems = new ConcurrentHashMap<>();
+    // empty for value sets that cannot be expanded
+    private final Map<String, Optional<ExpandedValueSet>> expandedValueSets = new ConcurrentHashMap<>();
+
+    /**
+     * @param codeSystems the CodeSystems of the configuration by url
+     * @param valueSets the ValueSets of the configuration by url
+     */
+    public KbvTerminologyValidationSupport(FhirContext fhirContext, Map<String, IBaseResource> codeSystems,
+                                           Map<String, IBaseResource> valueSets) {
+        this.fhirContext = fhirContext;
+        this.kbvCodeSystems = codeSystems;
+        this.kbvValueSets = valueSets;
+    }
+
+    /**
+     * Expands all KBV ValueSets, the code systems of the FHIR base definitions
+     * are taken from the given chain. This decodes the ValueSets and the
+     * CodeSystems they include, the other CodeSystems stay undecoded.
+     */
+    public void expandValueSets(IValidationSupport rootValidationSupport) {
+        long start = System.currentTimeMillis();
+        ValidationSupportContext validationSupportContext = new ValidationSupportContext(rootValidationSupport);
+        int codes = 0;
+        Set<String> urls = new HashSet<>();
+        // the PrePopulatedValidationSupport also keys the resources by their id
+        kbvValueSets.keySet().stream().filter(url -> url.contains("/")).forEach(url -> urls.add(withoutVersion(url)));
+        for (String url : urls) {
+            ExpandedValueSet expandedValueSet = getExpandedValueSet(validationSupportContext, url);
+            codes += expandedValueSet != null ? expandedValueSet.codes.size() : 0;
+        }
+        ereLogger.setLoggingContext(systemContextList)
+                .infof("Expanded %d KBV ValueSets with %d codes in %d ms", urls.size(), codes,
+                        System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public FhirContext getFhirContext() {
+        return fhirContext;
+    }
+
+    @Override
+    public boolean isCodeSystemSupported(ValidationSupportContext theValidationSupportContext, String theSystem) {
+        return theSystem != null && (getConcepts(withoutVersion(theSystem)) != null
+                || isOpenCodeSystem(withoutVersion(theSystem)));
+    }
+
+    @Override
+    public boolean isValueSetSupported(ValidationSupportContext theValidationSupportContext, String theValueSetUrl) {
+        return getExpandedValueSet(theValidationSupportContext, theValueSetUrl) != null;
+    }
+
+    @Override
+    public CodeValidationResult validateCode(ValidationSupportContext theValidationSupportContext,
+                                             ConceptValidationOptions theOptions, String theCodeSystem,
+                                             String theCode, String theDisplay, String theValueSetUrl) {
+        if (theValueSetUrl != null) {
+            ExpandedValueSet expandedValueSet = getExpandedValueSet(theValidationSupportContext, theValueSetUrl);
+            return expandedValueSet == null ? null
+                    : expandedValueSet.validateCode(theOptions, theCodeSystem, theCode, theValueSetUrl);
+        }
+        if (theCodeSystem == null) {
+            return null;
+        }
+        if (isOpenCodeSystem(withoutVersion(theCodeSystem))) {
+            return new CodeValidationResult().setCode(theCode);
+        }
+        Map<String, String> concepts = getConcepts(withoutVersion(theCodeSystem));
+        if (concepts == null) {
+            return null;
+        }
+        if (!concepts.containsKey(theCode)) {
+            return error("Unknown code '" + theCodeSystem + "#" + theCode + "'");
+        }
+        return new CodeValidationResult().setCode(theCode).setDisplay(concepts.get(theCode));
+    }
+
+    @Override
+    public CodeValidationResult validateCodeInValueSet(ValidationSupportContext theValidationSupportContext,
+                                                       ConceptValidationOptions theOptions, String theCodeSystem,
+                                                       String theCode, String theDisplay,
+                                                       IBaseResource theValueSet) {
+        if (!(theValueSet instanceof ValueSet) || !((ValueSet) theValueSet).hasUrl()) {
+            return null;
+        }
+        return validateCode(theValidationSupportContext, theOptions, theCodeSystem, theCode, theDisplay,
+                ((ValueSet) theValueSet).getUrl());
+    }
+
+    /**
+     * @return the number of ValueSets that are answered from their expansion
+     */
+    public int getExpandedValueSetCount() {
+        return (int) expandedValueSets.values().stream().filter(Optional::isPresent).count();
+    }
+
+    ExpandedValueSet getExpandedValueSet(ValidationSupportContext validationSupportContext, String valueSetUrl) {
+        if (valueSetUrl == null) {
+            return null;
+        }
+        String url = withoutVersion(valueSetUrl);
+        Optional<ExpandedValueSet> expandedValueSet = expandedValueSets.get(url);
+        if (expandedValueSet == null) {
+            // no computeIfAbsent, value sets include other value sets
+            expandedValueSet = Optional.ofNullable(expand(validationSupportContext, url, new HashSet<>()));
+            expandedValueSets.put(url, expandedValueSet);
+        }
+        return expandedValueSet.orElse(null);
+    }
+
+    private ExpandedValueSet expand(ValidationSupportContext validationSupportContext, String url, Set<String> path) {
+        ValueSet kbvValueSet = kbvResource(kbvValueSets, url, ValueSet.class);
+        ValueSet valueSet = kbvValueSet != null ? kbvValueSet : fetchValueSet(validationSupportContext, url);
+        if (valueSet == null || !path.add(url)) {
+            return null;
+        }
+        ExpandedValueSet expandedValueSet = new ExpandedValueSet();
+        try {
+            if (valueSet.hasExpansion() && !valueSet.hasCompose()) {
+                addContains(expandedValueSet, valueSet.getExpansion().getContains());
+                return expandedValueSet;
+            }
+            for (ValueSet.ConceptSetComponent include : valueSet.getCompose().getInclude()) {
+                if (!include(validationSupportContext, expandedValueSet, include, kbvValueSet != null, path)) {
+                    return null;
+                }
+            }
+            for (ValueSet.ConceptSetComponent exclude : valueSet.getCompose().getExclude()) {
+                if (!exclude.hasSystem() || !exclude.hasConcept() || exclude.hasFilter() || exclude.hasValueSet()) {
+                    return null;
+                }
+                for (ValueSet.ConceptReferenceComponent concept : exclude.getConcept()) {
+                    expandedValueSet.remove(exclude.getSystem(), concept.getCode());
+                }
+            }
+            return expandedValueSet;
+        } finally {
+            path.remove(url);
+        }
+    }
+
+    private boolean include(ValidationSupportContext validationSupportContext, ExpandedValueSet expandedValueSet,
+                            ValueSet.ConceptSetComponent include, boolean openSystemsAllowed, Set<String> path) {
+        if (include.hasValueSet()) {
+            if (include.hasSystem()) {
+                // the intersection of a system and value sets is not supported
+                return false;
+            }
+            for (CanonicalType valueSetUrl : include.getValueSet()) {
+                ExpandedValueSet included = expandedValueSets.containsKey(withoutVersion(valueSetUrl.getValue()))
+                        ? expandedValueSets.get(withoutVersion(valueSetUrl.getValue())).orElse(null)
+                        : expand(validationSupportContext, withoutVersion(valueSetUrl.getValue()), path);
+                if (included == null) {
+                    return false;
+                }
+                expandedValueSet.addAll(included);
+            }
+            return true;
+        }
+        if (!include.hasSystem()) {
+            return false;
+        }
+        String system = withoutVersion(include.getSystem());
+        if (include.hasConcept()) {
+            Map<String, String> concepts = getConcepts(system);
+            for (ValueSet.ConceptReferenceComponent concept : include.getConcept()) {
+                expandedValueSet.add(system, concept.getCode(), concept.hasDisplay() ? concept.getDisplay()
+                        : concepts != null ? concepts.get(concept.getCode()) : null);
+            }
+            return true;
+        }
+        Map<String, String> concepts = include.hasFilter() ? null : getCodeSystem(validationSupportContext, system);
+        if (concepts != null) {
+            concepts.forEach((code, display) -> expandedValueSet.add(system, code, display));
+            return true;
+        }
+        if (openSystemsAllowed || isOpenCodeSystem(system)) {
+            expandedValueSet.openSystems.add(system);
+            return true;
+        }
+        return false;
+    }
+
+    private Map<String, String> getCodeSystem(ValidationSupportContext validationSupportContext, String system) {
+        Map<String, String> concepts = getConcepts(system);
+        if (concepts == null && validationSupportContext != null) {
+            IBaseResource codeSystem = validationSupportContext.getRootValidationSupport().fetchCodeSystem(system);
+            if (codeSystem instanceof CodeSystem) {
+                concepts = indexCodeSystem((CodeSystem) codeSystem);
+            }
+        }
+        return concepts;
+    }
+
+    /**
+     * @return the codes of a complete code system of the configuration or of one
+     *         that was fetched from the chain before, null for other systems
+     */
+    private Map<String, String> getConcepts(String system) {
+        Map<String, String> concepts = codeSystems.get(system);
+        if (concepts == null) {
+            CodeSystem codeSystem = kbvResource(kbvCodeSystems, system, CodeSystem.class);
+            if (codeSystem != null) {
+                concepts = indexCodeSystem(codeSystem);
+            }
+        }
+        return concepts;
+    }
+
+    /**
+     * @return true for catalogs the configuration declares without their codes, e.g. PZN and ICD-10-GM
+     */
+    private boolean isOpenCodeSystem(String system) {
+        CodeSystem codeSystem = kbvResource(kbvCodeSystems, system, CodeSystem.class);
+        return codeSystem != null && codeSystem.getContent() == CodeSystem.CodeSystemContentMode.NOTPRESENT;
+    }
+
+    private static <T extends IBaseResource> T kbvResource(Map<String, IBaseResource> resources, String url,
+                                                           Class<T> type) {
+        IBaseResource resource = resources.get(url);
+        return type.isInstance(resource) ? type.cast(resource) : null;
+    }
+
+    private static ValueSet fetchValueSet(ValidationSupportContext validationSupportContext, String url) {
+        if (validationSupportContext == null) {
+            return null;
+        }
+        IBaseResource valueSet = validationSupportContext.getRootValidationSupport().fetchValueSet(url);
+        return valueSet instanceof ValueSet ? (ValueSet) valueSet : null;
+    }
+
+    private Map<String, String> indexCodeSystem(CodeSystem codeSystem) {
+        if (!codeSystem.hasUrl() || codeSystem.getContent() != CodeSystem.CodeSystemContentMode.COMPLETE) {
+            return null;
+        }
+        Map<String, String> concepts = new HashMap<>();
+        addConcepts(concepts, codeSystem.getConcept());
+        codeSystems.put(withoutVersion(codeSystem.getUrl()), concepts);
+        return concepts;
+    }
+
+    private static void addConcepts(Map<String, String> concepts, List<CodeSystem.ConceptDefinitionComponent> definitions) {
+        for (CodeSystem.ConceptDefinitionComponent definition : definitions) {
+            concepts.put(definition.getCode(), definition.getDisplay());
+            addConcepts(concepts, definition.getConcept());
+        }
+    }
+
+    private static void addContains(ExpandedValueSet expandedValueSet,
+                                    List<ValueSet.ValueSetExpansionContainsComponent> contains) {
+        for (ValueSet.ValueSetExpansionContainsComponent contained : contains) {
+            if (contained.hasSystem() && contained.hasCode()) {
+                expandedValueSet.add(contained.getSystem(), contained.getCode(), contained.getDisplay());
+            }
+            addContains(expandedValueSet, contained.getContains());
+        }
+    }
+
+    private static String withoutVersion(String url) {
+        int versionSeparator = url.indexOf('|');
+        return versionSeparator < 0 ? url : url.substring(0, versionSeparator);
+    }
+
+    private static CodeValidationResult error(String message) {
+        return new CodeValidationResult().setSeverity(IssueSeverity.ERROR).setMessage(message);
+    }
+
+    /**
+     * The codes of a ValueSet by system|code and the systems of which every code is accepted.
+     */
+    static class ExpandedValueSet {
+        final Map<String, String> codes = new HashMap<>();
+        // system of a code if it is only in one system, for codes without a system
+        final Map<String, String> systemsByCode = new HashMap<>();
+        final Set<String> openSystems = new HashSet<>();
+
+        void add(String system, String code, String display) {
+            codes.put(withoutVersion(system) + "|" + code, display);
+            addSystem(code, withoutVersion(system));
+        }
+
+        void addAll(ExpandedValueSet expandedValueSet) {
+            codes.putAll(expandedValueSet.codes);
+            expandedValueSet.systemsByCode.forEach(this::addSystem);
+            openSystems.addAll(expandedValueSet.openSystems);
+        }
+
+        private void addSystem(String code, String system) {
+            // an empty system marks a code of several systems
+            systemsByCode.merge(code, system, (first, second) -> first.equals(second) ? first : "");
+        }
+
+        void remove(String system, String code) {
+            codes.remove(withoutVersion(system) + "|" + code);
+        }
+
+        CodeValidationResult validateCode(ConceptValidationOptions options, String system, String code,
+                                          String valueSetUrl) {
+            if (code == null) {
+                return null;
+            }
+            if (system == null && options != null && options.isInferSystem()) {
+                system = systemsByCode.get(code);
+            }
+            if (system == null || system.isEmpty()) {
+                return error("Unable to infer the system of code '" + code + "' in ValueSet '" + valueSetUrl + "'");
+            }
+            String key = withoutVersion(system) + "|" + code;
+            if (codes.containsKey(key)) {
+                return new CodeValidationResult().setCode(code).setDisplay(codes.get(key));
+            }
+            if (openSystems.contains(withoutVersion(system))) {
+                return new CodeValidationResult().setCode(code);
+            }
+            return error("Unknown code '" + system + "#" + code + "' for ValueSet '" + valueSetUrl + "'");
+        }
+    }
+}
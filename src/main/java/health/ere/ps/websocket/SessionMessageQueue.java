@@ -0,0 +1,150 @@
+package health.ere.ps.websocket;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.websocket.CloseReason;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import health.ere.ps.service.logging.EreLogger;
+import health.ere.ps.websocket.encoder.WebsocketMessageWriter.PayloadWriter;
+
+/**
+ * Sends the messages of one websocket session one after the other. A message is only
+ * handed to the container when the previous one was written, so the frames of two
+ * messages do not interleave and the caller, e.g. a CDI observer, does not wait for
+ * the socket.
+ *
+ * Small messages go over the async remote. Large messages, e.g. the PDFs of
+ * ERezeptWithDocuments, are streamed into the send writer of the basic remote on the
+ * stream executor, their JSON is not built as a string.
+ */
+public class SessionMessageQueue {
+
+    private static final EreLogger ereLog = EreLogger.getLogger(SessionMessageQueue.class);
+
+    private final Session session;
+    private final Executor streamExecutor;
+    private final Queue<PendingMessage> pendingMessages = new ArrayDeque<>();
+    private boolean sending = false;
+
+    /**
+     * @param streamExecutor runs the streamed messages, they block until they are written
+     */
+    public SessionMessageQueue(Session session, Executor streamExecutor) {
+        this.session = session;
+        this.streamExecutor = streamExecutor;
+    }
+
+    /**
+     * @param message the text of the message or an object for the encoders of the endpoint
+     * @param sendHandler is notified when the message was written or could not be sent
+     */
+    public void send(Object message, SendHandler sendHandler) {
+        enqueue(new PendingMessage(message, null, sendHandler));
+    }
+
+    /**
+     * @param messageWriter writes the whole message into the send writer of the session
+     * @param sendHandler is notified when the message was written or could not be sent
+     */
+    public void stream(PayloadWriter messageWriter, SendHandler sendHandler) {
+        enqueue(new PendingMessage(null, messageWriter, sendHandler));
+    }
+
+    private void enqueue(PendingMessage pendingMessage) {
+        synchronized (this) {
+            if (sending) {
+                pendingMessages.add(pendingMessage);
+                return;
+            }
+            sending = true;
+        }
+        sendPending(pendingMessage);
+    }
+
+    private void sendPending(PendingMessage pendingMessage) {
+        if (pendingMessage.messageWriter != null) {
+            try {
+                streamExecutor.execute(() -> complete(pendingMessage, write(pendingMessage.messageWriter)));
+            } catch (RejectedExecutionException e) {
+                complete(pendingMessage, new SendResult(e));
+            }
+            return;
+        }
+        try {
+            session.getAsyncRemote().sendObject(pendingMessage.message, result -> complete(pendingMessage, result));
+        } catch (RuntimeException e) {
+            // e.g. the session was closed, the next message fails the same way
+            complete(pendingMessage, new SendResult(e));
+        }
+    }
+
+    private SendResult write(PayloadWriter messageWriter) {
+        Writer writer;
+        try {
+            writer = session.getBasicRemote().getSendWriter();
+        } catch (IOException | RuntimeException e) {
+            return new SendResult(e);
+        }
+        try (writer) {
+            messageWriter.write(writer);
+            return new SendResult();
+        } catch (IOException | RuntimeException e) {
+            // the frames written so far end the message, the client could not parse it
+            closeSession(e);
+            return new SendResult(e);
+        }
+    }
+
+    private void closeSession(Exception cause) {
+        try {
+            session.close(new CloseReason(CloseReason.CloseCodes.UNEXPECTED_CONDITION,
+                    "Message could not be written"));
+        } catch (IOException | RuntimeException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    private void complete(PendingMessage pendingMessage, SendResult result) {
+        try {
+            pendingMessage.sendHandler.onResult(result);
+        } finally {
+            sendNext();
+        }
+    }
+
+    private void sendNext() {
+        PendingMessage next;
+        synchronized (this) {
+            next = pendingMessages.poll();
+            if (next == null) {
+                sending = false;
+                return;
+            }
+        }
+        sendPending(next);
+    }
+
+    private static class PendingMessage {
+        final Object message;
+        final PayloadWriter messageWriter;
+        final SendHandler sendHandler;
+
+        PendingMessage(Object message, PayloadWriter messageWriter, SendHandler sendHandler) {
+            this.message = message;
+            this.messageWriter = messageWriter;
+            this.sendHandler = sendHandler != null ? sendHandler : result -> {
+                if (!result.isOK()) {
+                    ereLog.fatal("Unable to send message: " + result.getException());
+                }
+            };
+        }
+    }
+}
@@ -5,19 +5,27 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.io.Writer;
 import java.math.BigInteger;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Stream;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -35,13 +43,13 @@ import javax.websocket.OnClose;
 import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
+import javax.websocket.SendHandler;
 import javax.websocket.Session;
 import javax.websocket.server.ServerEndpoint;
 
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.hl7.fhir.r4.model.Bundle;
 
-import ca.uhn.fhir.context.FhirContext;
 import de.gematik.ws.conn.cardservice.wsdl.v8.FaultMessage;
 import de.gematik.ws.tel.error.v2.Error;
 import de.gematik.ws.tel.error.v2.Error.Trace;
@@ -73,13 +81,17 @@ import health.ere.ps.jsonb.ByteAdapter;
 import health.ere.ps.jsonb.DurationAdapter;
 import health.ere.ps.jsonb.ThrowableAdapter;
 import health.ere.ps.model.config.UserConfigurations;
+import health.ere.ps.model.gematik.ParsedBundle;
 import health.ere.ps.model.websocket.OutgoingPayload;
 import health.ere.ps.service.config.UserConfigurationService;
+import health.ere.ps.service.fhir.FhirContextProducer;
 import health.ere.ps.service.fhir.XmlPrescriptionProcessor;
 import health.ere.ps.service.fhir.bundle.EreBundle;
 import health.ere.ps.service.logging.EreLogger;
 import health.ere.ps.validation.fhir.bundle.PrescriptionBundleValidator;
 import health.ere.ps.websocket.encoder.ResponseEventEncoder;
+import health.ere.ps.websocket.encoder.WebsocketMessageWriter;
+import health.ere.ps.websocket.encoder.WebsocketMessageWriter.PayloadWriter;
 import message.processor.incoming.IncomingBundleMessageProcessor;
 import message.processor.incoming.IncomingMessageProcessor;
 import message.processor.outgoing.OutgoingMessageProcessor;
@@ -141,22 +153,32 @@ public class Websocket {
     @ConfigProperty(name = "ere.websocket.erezeptdocuments.reply-to-all", defaultValue = "false")
     boolean erezeptdocumentsReplyToAll = false;
 
-    static JsonbConfig customConfig = new JsonbConfig()
-            .setProperty(JsonbConfig.FORMATTING, true)
-            .withAdapters(new BundleAdapter())
-            .withAdapters(new ByteAdapter())
-            .withAdapters(new ThrowableAdapter())
-            .withAdapters(new DurationAdapter());
+    // indents the outgoing messages for debugging
+    @ConfigProperty(name = "ere.websocket.pretty-print", defaultValue = "false")
+    boolean prettyPrint = false;
+
+    static JsonbConfig customConfig = jsonbConfig();
     public static Jsonb jsonbFactory = JsonbBuilder.create(customConfig);
+    static final WebsocketMessageWriter compactMessageWriter = new WebsocketMessageWriter(jsonbFactory);
+    static final WebsocketMessageWriter prettyMessageWriter = new WebsocketMessageWriter(
+            JsonbBuilder.create(jsonbConfig().setProperty(JsonbConfig.FORMATTING, true)));
     private static final String CHROME_X86_PATH = "C:\\Program Files (x86)\\Google\\Chrome\\Application\\chrome.exe";
     private static final String CHROME_X64_PATH = "C:\\Program Files\\Google\\Chrome\\Application\\chrome.exe";
     private static final EreLogger ereLog = EreLogger.getLogger(Websocket.class);
 
-    private final FhirContext ctx = FhirContext.forR4();
     private final static Set<Session> sessions = new CopyOnWriteArraySet<>();
+    // the messages of a session are sent one after the other
+    private final static Map<Session, SessionMessageQueue> messageQueues = new ConcurrentHashMap<>();
+    // large messages block on the send writer of their session, not on the CDI async threads
+    private final static ExecutorService streamExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "websocket-stream");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     @OnOpen
     public void onOpen(Session session) {
+        messageQueues.put(session, new SessionMessageQueue(session, streamExecutor));
         sessions.add(session);
         ereLog.info("Websocket opened");
     }
@@ -164,36 +186,36 @@ public class Websocket {
     void sendAllKBVExamples(String folder, Session senderSession) {
         if(folder.equals("../src/test/resources/kbv-zip")) {
             try {
-                Bundle bundle = ctx.newXmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF01.xml"));
+                Bundle bundle = FhirContextProducer.xmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF01.xml"));
                 bundle.setId(UUID.randomUUID().toString());
                 onFhirBundle(new BundlesEvent(Collections.singletonList(bundle), senderSession, ""));
 
-                bundle = ctx.newXmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF02.xml"));
+                bundle = FhirContextProducer.xmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF02.xml"));
                 bundle.setId(UUID.randomUUID().toString());
                 onFhirBundle(new BundlesEvent(Collections.singletonList(bundle), senderSession, ""));
 
-                Bundle bundle03 = ctx.newXmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF03.xml"));
+                Bundle bundle03 = FhirContextProducer.xmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF03.xml"));
                 bundle03.setId(UUID.randomUUID().toString());
 
-                Bundle bundle04 = ctx.newXmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF04.xml"));
+                Bundle bundle04 = FhirContextProducer.xmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF04.xml"));
                 bundle04.setId(UUID.randomUUID().toString());
 
-                Bundle bundle05 = ctx.newXmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF05.xml"));
+                Bundle bundle05 = FhirContextProducer.xmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF05.xml"));
                 bundle05.setId(UUID.randomUUID().toString());
 
                 onFhirBundle(new BundlesEvent(Arrays.asList(bundle03, bundle04, bundle05), senderSession, ""));
 
-                bundle = ctx.newXmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF07.xml"));
+                bundle = FhirContextProducer.xmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF07.xml"));
                 bundle.setId(UUID.randomUUID().toString());
                 onFhirBundle(new BundlesEvent(Collections.singletonList(bundle), senderSession, ""));
 
-                Bundle bundle08_1 = ctx.newXmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF08_1.xml"));
+                Bundle bundle08_1 = FhirContextProducer.xmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF08_1.xml"));
                 bundle08_1.setId(UUID.randomUUID().toString());
 
-                Bundle bundle08_2 = ctx.newXmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF08_2.xml"));
+                Bundle bundle08_2 = FhirContextProducer.xmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF08_2.xml"));
                 bundle08_2.setId(UUID.randomUUID().toString());
 
-                Bundle bundle08_3 = ctx.newXmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF08_3.xml"));
+                Bundle bundle08_3 = FhirContextProducer.xmlParser().parseResource(Bundle.class, getXmlString(folder + "/PF08_3.xml"));
                 bundle08_3.setId(UUID.randomUUID().toString());
 
                 onFhirBundle(new BundlesEvent(Arrays.asList(bundle08_1, bundle08_2, bundle08_3), senderSession, ""));
@@ -207,7 +229,7 @@ public class Websocket {
                         .forEach(f -> {
                             try (InputStream inputStream = new FileInputStream(f.toFile())) {
                                 String xml = new String(inputStream.readAllBytes(), "UTF-8").replaceAll("<!--.*-->", "");
-                                Bundle bundle = ctx.newXmlParser().parseResource(Bundle.class, xml);
+                                Bundle bundle = FhirContextProducer.xmlParser().parseResource(Bundle.class, xml);
                                 bundle.setId(UUID.randomUUID().toString());
                                 onFhirBundle(new BundlesEvent(Collections.singletonList(bundle)));
                             } catch (IOException ex) {
@@ -227,12 +249,14 @@ public class Websocket {
     @OnClose
     public void onClose(Session session) {
         sessions.remove(session);
+        messageQueues.remove(session);
         ereLog.info("Websocket closed");
     }
 
     @OnError
     public void onError(Session session, Throwable throwable) {
         sessions.remove(session);
+        messageQueues.remove(session);
 
         throwable.printStackTrace();
 
@@ -253,14 +277,22 @@ public class Websocket {
             if ("SignAndUploadBundles".equals(object.getString("type"))) {
                 processSignAndUploadBundles(senderSession, messageId, object);
             } else if ("ValidateBundles".equals(object.getString("type"))) {
-                JsonObject bundlesValidationResultMessage = prescriptionBundleValidator.bundlesValidationResult(object);
-                senderSession.getAsyncRemote().sendObject(
-                    bundlesValidationResultMessage.toString(),
-                    result -> {
-                        if (!result.isOK()) {
-                            ereLog.fatal("Unable to sent bundlesValidationResult event: " + result.getException());
-                        }
-                    });
+                String replyToMessageId = messageId;
+                // the bundles are validated on the validation executor, the socket can receive further messages
+                prescriptionBundleValidator.bundlesValidationResultAsync(object).whenComplete((bundlesValidationResultMessage, ex) -> {
+                    if (ex != null) {
+                        ereLog.warn("Could not validate bundles", ex);
+                        onException(new ExceptionWithReplyToExcetion(unwrap(ex), senderSession, replyToMessageId));
+                        return;
+                    }
+                    send(senderSession,
+                        bundlesValidationResultMessage.toString(),
+                        result -> {
+                            if (!result.isOK()) {
+                                ereLog.fatal("Unable to sent bundlesValidationResult event: " + result.getException());
+                            }
+                        });
+                });
             } else if ("XMLBundle".equals(object.getString("type"))) {
                 Bundle[] bundles = XmlPrescriptionProcessor.parseFromString(object.getString("payload"));
                 if(appConfig.getXmlBundleDirectProcess()) {
@@ -296,9 +328,8 @@ public class Websocket {
                 prefillBundleEvent.fireAsync(event);
             }  else if ("RequestSettings".equals(object.getString("type"))) {
                 UserConfigurations userConfigurations = userConfigurationService.getConfig();
-                String payload = jsonbFactory.toJson(userConfigurations);
-                senderSession.getAsyncRemote().sendObject(
-                    "{\"type\": \"Settings\", \"payload\": " + payload + ", \"replyToMessageId\": \""+messageId+"\"}",
+                send(senderSession,
+                    messageWriter().toString("Settings", userConfigurations, messageId),
                     result -> {
                         if (!result.isOK()) {
                             ereLog.fatal("Unable to send settings event: " + result.getException());
@@ -326,29 +357,40 @@ public class Websocket {
     }
 
     private void processSignAndUploadBundles(Session senderSession, String messageId, JsonObject object) {
-        boolean bundlesValid = true;
-        JsonObject bundlesValidationResultMessage = null;
-        if(!object.getBoolean("ignoreValidation", false)) {
-            bundlesValidationResultMessage = prescriptionBundleValidator.bundlesValidationResult(object);
-            
-            bundlesValid = bundlesValidationResultMessage.getJsonArray("payload")
-            .stream().filter(jo -> jo instanceof JsonObject)
-                .map(jo -> ((JsonObject) jo).getBoolean("valid"))
-                .filter(b -> !b)
-                .count() == 0;
-        }
-        if(bundlesValid) {
-            SignAndUploadBundlesEvent event = new SignAndUploadBundlesEvent(object, senderSession, messageId);
+        // every bundle is parsed once, the validation and the signature share it
+        List<List<ParsedBundle>> parsedBundles = ParsedBundle.fromPayload(object);
+        if(object.getBoolean("ignoreValidation", false)) {
+            SignAndUploadBundlesEvent event = new SignAndUploadBundlesEvent(object, parsedBundles, senderSession, messageId);
             signAndUploadBundlesEvent.fireAsync(event);
-        } else {
-            senderSession.getAsyncRemote().sendObject(
-                bundlesValidationResultMessage == null ? "{}" : bundlesValidationResultMessage.toString(),
-                result -> {
-                    if (!result.isOK()) {
-                        ereLog.fatal("Unable to send bundlesValidationResult event: " + result.getException());
-                    }
-                });
+            return;
         }
+        // a message without an id is answered with an empty replyToMessageId
+        prescriptionBundleValidator.bundlesValidationResultAsync(parsedBundles, Objects.toString(messageId, "")).whenComplete((bundlesValidationResultMessage, ex) -> {
+            if (ex != null) {
+                ereLog.warn("Could not validate bundles", ex);
+                onException(new ExceptionWithReplyToExcetion(unwrap(ex), senderSession, messageId));
+                return;
+            }
+            boolean bundlesValid = parsedBundles.stream().flatMap(List::stream).allMatch(ParsedBundle::isValid);
+            if(bundlesValid) {
+                SignAndUploadBundlesEvent event = new SignAndUploadBundlesEvent(object, parsedBundles, senderSession, messageId);
+                signAndUploadBundlesEvent.fireAsync(event);
+            } else {
+                send(senderSession,
+                    bundlesValidationResultMessage.toString(),
+                    result -> {
+                        if (!result.isOK()) {
+                            ereLog.fatal("Unable to send bundlesValidationResult event: " + result.getException());
+                        }
+                    });
+            }
+        });
+    }
+
+    private static Exception unwrap(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+        return cause instanceof Exception ? (Exception) cause : new RuntimeException(cause);
     }
 
     Exception simulateException(JsonObject object) {
@@ -363,28 +405,27 @@ public class Websocket {
 
     public void onFhirBundle(@ObservesAsync BundlesEvent bundlesEvent) {
         assureChromeIsOpen();
-        String bundlesString = generateJson(bundlesEvent);
+        List<String> ereBundlesJson = encodeEreBundles(bundlesEvent);
         Set<Session> localSessions = new HashSet<>();
         if(bundlesEvent.getReplyTo() != null) {
             localSessions.add(bundlesEvent.getReplyTo());
         } else {
             localSessions = sessions;
         }
-        localSessions.forEach(session -> session.getAsyncRemote().sendObject(
-                "{\"type\": \"Bundles\", \"payload\": " + bundlesString + ", \"replyToMessageId\": \""+bundlesEvent.getReplyToMessageId()+"\"}",
-                result -> {
-                    if (!result.isOK()) {
-                        ereLog.fatal("Unable to send bundlesEvent: " + result.getException());
-                    }
-                }));
+        WebsocketMessageWriter messageWriter = messageWriter();
+        localSessions.forEach(session -> stream(session, writer -> messageWriter.write(writer, "Bundles",
+                bundlesWriter -> writeBundles(bundlesEvent, ereBundlesJson, bundlesWriter),
+                bundlesEvent.getReplyToMessageId()), result -> {
+            if (!result.isOK()) {
+                ereLog.fatal("Unable to send bundlesEvent: " + result.getException());
+            }
+        }));
     }
 
     public void onAbortTasksStatusEvent(@ObservesAsync AbortTasksStatusEvent abortTasksStatusEvent) {
         assureChromeIsOpen();
-        String abortTasksStatusString = generateJson(abortTasksStatusEvent);
-        
-        abortTasksStatusEvent.getReplyTo().getAsyncRemote().sendObject(
-                "{\"type\": \"AbortTasksStatus\", \"payload\": " + abortTasksStatusString + ", \"replyToMessageId\": \""+abortTasksStatusEvent.getReplyToMessageId()+"\"}",
+        send(abortTasksStatusEvent.getReplyTo(),
+                messageWriter().toString("AbortTasksStatus", abortTasksStatusEvent.getTasks(), abortTasksStatusEvent.getReplyToMessageId()),
                 result -> {
                     if (!result.isOK()) {
                         ereLog.fatal("Unable to send bundlesEvent: " + result.getException());
@@ -394,10 +435,8 @@ public class Websocket {
 
     public void onGetCardsResponseEvent(@ObservesAsync GetCardsResponseEvent getCardsResponseEvent) {
         assureChromeIsOpen();
-        String abortTasksStatusString = generateJson(getCardsResponseEvent);
-        
-        getCardsResponseEvent.getReplyTo().getAsyncRemote().sendObject(
-                "{\"type\": \"GetCardsResponse\", \"payload\": " + abortTasksStatusString + ", \"replyToMessageId\": \""+getCardsResponseEvent.getReplyToMessageId()+"\"}",
+        send(getCardsResponseEvent.getReplyTo(),
+                messageWriter().toString("GetCardsResponse", getCardsResponseEvent, getCardsResponseEvent.getReplyToMessageId()),
                 result -> {
                     if (!result.isOK()) {
                         ereLog.fatal("Unable to get cards response: " + result.getException());
@@ -407,9 +446,8 @@ public class Websocket {
 
     public void onGetSignatureModeResponseEvent(@ObservesAsync GetSignatureModeResponseEvent getSignatureModeResponseEvent) {
         assureChromeIsOpen();
-        String abortTasksStatusString = generateJson(getSignatureModeResponseEvent);
-        getSignatureModeResponseEvent.getReplyTo().getAsyncRemote().sendObject(
-                "{\"type\": \"GetSignatureModeResponse\", \"payload\": " + abortTasksStatusString + ", \"replyToMessageId\": \""+getSignatureModeResponseEvent.getReplyToMessageId()+"\"}",
+        send(getSignatureModeResponseEvent.getReplyTo(),
+                messageWriter().toString("GetSignatureModeResponse", getSignatureModeResponseEvent, getSignatureModeResponseEvent.getReplyToMessageId()),
                 result -> {
                     if (!result.isOK()) {
                         ereLog.fatal("Unable to send getSignatureModeResponseEvent: " + result.getException());
@@ -419,9 +457,8 @@ public class Websocket {
 
     public void onChangePinResponseEvent(@ObservesAsync ChangePinResponseEvent changePinResponseEvent) {
         assureChromeIsOpen();
-        String changePinResponseString = generateJson(changePinResponseEvent);
-        changePinResponseEvent.getReplyTo().getAsyncRemote().sendObject(
-                "{\"type\": \"ChangePinResponse\", \"payload\": " + changePinResponseString + ", \"replyToMessageId\": \""+changePinResponseEvent.getReplyToMessageId()+"\"}",
+        send(changePinResponseEvent.getReplyTo(),
+                messageWriter().toString("ChangePinResponse", changePinResponseEvent.getChangePinResponse(), changePinResponseEvent.getReplyToMessageId()),
                 result -> {
                     if (!result.isOK()) {
                         ereLog.fatal("Unable to send changePinResponseEvent: " + result.getException());
@@ -431,7 +468,7 @@ public class Websocket {
 
     public void onStatusResponseEvent(@ObservesAsync StatusResponseEvent statusResponseEvent) {
         assureChromeIsOpen();
-        statusResponseEvent.getReplyTo().getAsyncRemote().sendObject(statusResponseEvent,
+        send(statusResponseEvent.getReplyTo(), statusResponseEvent,
                 result -> {
                     if (!result.isOK()) {
                         ereLog.fatal("Unable to send StatusResponseEvent: " + result.getException());
@@ -439,20 +476,47 @@ public class Websocket {
                 });
     }
 
-    String generateJson(GetSignatureModeResponseEvent getSignatureModeResponseEvent) {
-        return jsonbFactory.toJson(getSignatureModeResponseEvent);
+    static JsonbConfig jsonbConfig() {
+        return new JsonbConfig()
+                .withAdapters(new BundleAdapter())
+                .withAdapters(new ByteAdapter())
+                .withAdapters(new ThrowableAdapter())
+                .withAdapters(new DurationAdapter());
     }
 
-    String generateJson(GetCardsResponseEvent getCardsResponseEvent) {
-        return jsonbFactory.toJson(getCardsResponseEvent);
+    /**
+     * Sends the message after the messages that were sent to the session before, the
+     * call does not wait until it is written.
+     */
+    void send(Session session, Object message, SendHandler sendHandler) {
+        SessionMessageQueue messageQueue = messageQueue(session);
+        if (messageQueue != null) {
+            messageQueue.send(message, sendHandler);
+        }
     }
 
-    String generateJson(AbortTasksStatusEvent abortTasksStatusEvent) {
-        return jsonbFactory.toJson(abortTasksStatusEvent.getTasks());
+    /**
+     * Streams the message into the session after the messages that were sent to it before,
+     * the call does not wait until it is written.
+     */
+    void stream(Session session, PayloadWriter messageWriter, SendHandler sendHandler) {
+        SessionMessageQueue messageQueue = messageQueue(session);
+        if (messageQueue != null) {
+            messageQueue.stream(messageWriter, sendHandler);
+        }
     }
 
-    String generateJson(ChangePinResponseEvent changePinResponseEvent) {
-        return jsonbFactory.toJson(changePinResponseEvent.getChangePinResponse());
+    private SessionMessageQueue messageQueue(Session session) {
+        // the queue is created when the session opens and removed when it closes
+        SessionMessageQueue messageQueue = messageQueues.get(session);
+        if (messageQueue == null) {
+            ereLog.warn("Dropping a message for a closed websocket session");
+        }
+        return messageQueue;
+    }
+
+    WebsocketMessageWriter messageWriter() {
+        return prettyPrint ? prettyMessageWriter : compactMessageWriter;
     }
 
     void assureChromeIsOpen() {
@@ -468,9 +532,9 @@ public class Websocket {
     }
 
     public void onERezeptDocuments(@ObservesAsync ERezeptWithDocumentsEvent eRezeptDocumentsEvent) {
-        String jsonPayload = generateJson(eRezeptDocumentsEvent);
+        removeSignatures(eRezeptDocumentsEvent);
         ereLog.info("Sending prescription receipt payload to front-end: " +
-                jsonPayload);
+                eRezeptDocumentsEvent.getERezeptWithDocuments().size() + " documents");
 
                 Set<Session> localSessions = new HashSet<>();
         if(eRezeptDocumentsEvent.getReplyTo() != null && !erezeptdocumentsReplyToAll) {
@@ -478,51 +542,65 @@ public class Websocket {
         } else {
             localSessions = sessions;
         }
-        localSessions.forEach(session -> {
-
-            session.getAsyncRemote().sendObject(
-                jsonPayload,
-                result -> {
-                    if (!result.isOK()) {
-                        ereLog.fatal("Unable to send eRezeptWithDocumentsEvent: " +
-                                result.getException());
-                    }
-                });
-        });
+        // the PDFs are serialized straight into the send writer of each session
+        WebsocketMessageWriter messageWriter = messageWriter();
+        localSessions.forEach(session -> stream(session, writer -> messageWriter.write(writer, "ERezeptWithDocuments",
+                eRezeptDocumentsEvent.getERezeptWithDocuments(), eRezeptDocumentsEvent.getReplyToMessageId()), result -> {
+            if (!result.isOK()) {
+                ereLog.fatal("Unable to send eRezeptWithDocumentsEvent: " + result.getException());
+            }
+        }));
     }
 
     public String generateJson(ERezeptWithDocumentsEvent eRezeptDocumentsEvent) {
+        removeSignatures(eRezeptDocumentsEvent);
+        return messageWriter().toString("ERezeptWithDocuments", eRezeptDocumentsEvent.getERezeptWithDocuments(),
+                eRezeptDocumentsEvent.getReplyToMessageId());
+    }
+
+    private void removeSignatures(ERezeptWithDocumentsEvent eRezeptDocumentsEvent) {
         if(removeSignatureFromMessage) {
             eRezeptDocumentsEvent.getERezeptWithDocuments().stream()
                 .flatMap(ezd -> ezd.getBundleWithAccessCodeOrThrowables().stream())
                 .forEach(bundleWithAccessCodeOrThrowables -> bundleWithAccessCodeOrThrowables.setSignedBundle(null));
         }
-
-        return "{\"type\": \"ERezeptWithDocuments\", \"payload\": " +
-                jsonbFactory.toJson(eRezeptDocumentsEvent.getERezeptWithDocuments()) + ", \"replyToMessageId\": \""+eRezeptDocumentsEvent.getReplyToMessageId()+"\"}";
     }
 
-    String generateJson(BundlesEvent bundlesEvent) {
-
+    /**
+     * @return the rendered templates of the bundles, once for all sessions, or null if the
+     * event has no EreBundle
+     */
+    private List<String> encodeEreBundles(BundlesEvent bundlesEvent) {
+        if (bundlesEvent.getBundles().stream().noneMatch(b -> b instanceof EreBundle)) {
+            return null;
+        }
+        List<String> ereBundlesJson = new ArrayList<>();
         bundlesEvent.getBundles().forEach(bundle -> {
-            if (bundle instanceof EreBundle) {
-                ereLog.info("Filled bundle json template result shown below. Null value place" +
-                        " holders present.");
-                ereLog.info("==============================================");
+            String json = ((EreBundle) bundle).encodeToJson();
+            ereLog.info("Filled bundle json template result shown below. Null value place" +
+                    " holders present.");
+            ereLog.info("==============================================");
 
-                ereLog.info(((EreBundle) bundle).encodeToJson());
-            }
+            ereLog.info(json);
+            ereBundlesJson.add(json);
         });
+        return ereBundlesJson;
+    }
 
-        if (bundlesEvent.getBundles().stream().anyMatch(b -> b instanceof EreBundle)) {
-            return bundlesEvent.getBundles().stream().map(bundle ->
-                            ((EreBundle) bundle).encodeToJson())
-                    .collect(Collectors.joining(",\n", "[", "]"));
-        } else {
-            return bundlesEvent.getBundles().stream().map(bundle ->
-                            ctx.newJsonParser().encodeResourceToString(bundle))
-                    .collect(Collectors.joining(",\n", "[", "]"));
+    void writeBundles(BundlesEvent bundlesEvent, List<String> ereBundlesJson, Writer writer) throws IOException {
+        writer.write("[");
+        for (int i = 0; i < bundlesEvent.getBundles().size(); i++) {
+            Bundle bundle = bundlesEvent.getBundles().get(i);
+            if (i > 0) {
+                writer.write(",");
+            }
+            if (ereBundlesJson != null) {
+                writer.write(ereBundlesJson.get(i));
+            } else {
+                FhirContextProducer.jsonParser().encodeResourceToWriter(bundle, writer);
+            }
         }
+        writer.write("]");
     }
 
     public void onException(@ObservesAsync Exception exceptionParam) {
@@ -547,12 +625,11 @@ public class Websocket {
         final String replyToMessageId = replyToMessageIdFromException != null ? replyToMessageIdFromException : "";
 
         localSessions.forEach(session -> {
-            session.getAsyncRemote()
-                .sendObject("{\"type\": \"Exception\", \"payload\": "+jsonbFactory.toJson(exception)+", \"replyToMessageId\": \""+replyToMessageId+"\"}", result -> {
-                    if (result.getException() != null) {
-                        ereLog.fatal("Unable to send message: " + result.getException());
-                    }
-                });
+            send(session, messageWriter().toString("Exception", exception, replyToMessageId), result -> {
+                if (result.getException() != null) {
+                    ereLog.fatal("Unable to send message: " + result.getException());
+                }
+            });
         });
     }
 
@@ -562,23 +639,21 @@ public class Websocket {
 
             outgoingPayload.setType("Notification");
 
-            session.getAsyncRemote()
-                    .sendObject(outgoingPayload.toString(), result -> {
-                        if (result.getException() != null) {
-                            ereLog.fatal("Unable to send message: " + result.getException());
-                        }
-                    });
+            send(session, outgoingPayload.toString(), result -> {
+                if (result.getException() != null) {
+                    ereLog.fatal("Unable to send message: " + result.getException());
+                }
+            });
         });
     }
 
     public void onHTMLBundlesEvent(@ObservesAsync HTMLBundlesEvent event) {
-        event.getReplyTo().getAsyncRemote()
-        .sendObject("{\"type\": \"HTMLBundles\", \"payload\": " +
-        jsonbFactory.toJson(event.getBundles()) + ", \"replyToMessageId\": \""+event.getReplyToMessageId()+"\"}", result -> {
-            if (result.getException() != null) {
-                ereLog.fatal("Unable to send message: " + result.getException());
-            }
-        });
+        send(event.getReplyTo(), messageWriter().toString("HTMLBundles", event.getBundles(), event.getReplyToMessageId()),
+                result -> {
+                    if (!result.isOK()) {
+                        ereLog.fatal("Unable to send message: " + result.getException());
+                    }
+                });
     }
 
     private void processIncomingMessage(JsonObject object, Session senderSession) {
@@ -598,7 +673,7 @@ public class Websocket {
 
     private void sendMessage(String message, String errorMessage) {
         final String processedMessage = processOutgoing(message);
-        sessions.forEach(session -> session.getAsyncRemote().sendObject(processedMessage, result -> {
+        sessions.forEach(session -> send(session, processedMessage, result -> {
             if (result.getException() != null)
                 ereLog.fatal(errorMessage);
         }));
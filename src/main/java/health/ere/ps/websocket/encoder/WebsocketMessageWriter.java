@@ -0,0 +1,80 @@
+package health.ere.ps.websocket.encoder;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import javax.json.Json;
+import javax.json.bind.Jsonb;
+
+/**
+ * Writes the messages of the websocket, {"type": ..., "payload": ..., "replyToMessageId": ...},
+ * straight to a writer. The payload is serialized into the writer of the message, large
+ * payloads like the PDFs of ERezeptWithDocuments are written into the send writer of the
+ * session and not copied into intermediate strings.
+ */
+public class WebsocketMessageWriter {
+
+    /**
+     * Writes the JSON of a payload that is not serialized with JSON-B, e.g. FHIR bundles.
+     */
+    @FunctionalInterface
+    public interface PayloadWriter {
+        void write(Writer writer) throws IOException;
+    }
+
+    private final Jsonb jsonb;
+
+    public WebsocketMessageWriter(Jsonb jsonb) {
+        this.jsonb = jsonb;
+    }
+
+    public void write(Writer writer, String type, Object payload, String replyToMessageId) throws IOException {
+        write(writer, type, payloadWriter -> jsonb.toJson(payload, payloadWriter), replyToMessageId);
+    }
+
+    public void write(Writer writer, String type, PayloadWriter payloadWriter, String replyToMessageId)
+            throws IOException {
+        writer.write("{\"type\":");
+        writer.write(Json.createValue(type).toString());
+        writer.write(",\"payload\":");
+        payloadWriter.write(new NonClosingWriter(writer));
+        writer.write(",\"replyToMessageId\":");
+        writer.write(Json.createValue(String.valueOf(replyToMessageId)).toString());
+        writer.write("}");
+    }
+
+    /**
+     * @return the message as a string for the async remote of a session
+     */
+    public String toString(String type, Object payload, String replyToMessageId) {
+        return writeToString(type, payloadWriter -> jsonb.toJson(payload, payloadWriter), replyToMessageId);
+    }
+
+    public String writeToString(String type, PayloadWriter payloadWriter, String replyToMessageId) {
+        StringWriter stringWriter = new StringWriter();
+        try {
+            write(stringWriter, type, payloadWriter, replyToMessageId);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return stringWriter.toString();
+    }
+
+    /**
+     * JSON-B closes the writer it serialized to, the message continues after the payload.
+     */
+    private static class NonClosingWriter extends FilterWriter {
+
+        NonClosingWriter(Writer writer) {
+            super(writer);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -1,5 +1,12 @@
 package health.ere.ps.resource.xml;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -8,6 +15,9 @@ import javax.enterprise.event.Event;
 
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import health.ere.ps.event.BundlesEvent;
 
 public class XmlPrescriptionResourceTest {
     /*
@@ -18,4 +28,21 @@ public class XmlPrescriptionResourceTest {
         xmlPrescriptionResource.bundleEvent = mock(Event.class);
         xmlPrescriptionResource.post(new String(Files.readAllBytes(Paths.get("/home/manuel/git/secret-test-print-samples/CGM-Turbomed/XML/Kaiser_Bella_20210630113252.xml"))));
     }*/
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testPostFiresAnEventPerBundle() throws IOException {
+        XmlPrescriptionResource xmlPrescriptionResource = new XmlPrescriptionResource();
+        xmlPrescriptionResource.bundleEvent = mock(Event.class);
+        byte[] bundleXml = Files.readAllBytes(Paths.get("src/main/resources/bundle-samples/kbv-pf-example.xml"));
+        byte[] export = new byte[bundleXml.length * 2];
+        System.arraycopy(bundleXml, 0, export, 0, bundleXml.length);
+        System.arraycopy(bundleXml, 0, export, bundleXml.length, bundleXml.length);
+
+        xmlPrescriptionResource.post(new ByteArrayInputStream(export));
+
+        ArgumentCaptor<BundlesEvent> bundlesEvents = ArgumentCaptor.forClass(BundlesEvent.class);
+        verify(xmlPrescriptionResource.bundleEvent, times(2)).fireAsync(bundlesEvents.capture());
+        assertEquals(1, bundlesEvents.getAllValues().get(0).getBundles().size());
+    }
 }
@@ -0,0 +1,143 @@
+package health.ere.ps.service.connector.cards;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.xml.ws.Holder;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.gematik.ws.conn.cardservice.v8.CardInfoType;
+import de.gematik.ws.conn.cardservice.v8.Cards;
+import de.gematik.ws.conn.cardservice.v8.PinStatusEnum;
+import de.gematik.ws.conn.cardservice.wsdl.v8.CardServicePortType;
+import de.gematik.ws.conn.cardservice.wsdl.v8.FaultMessage;
+import de.gematik.ws.conn.cardservicecommon.v2.PinResultEnum;
+import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
+import de.gematik.ws.conn.eventservice.wsdl.v7.EventServicePortType;
+import health.ere.ps.config.RuntimeConfig;
+import health.ere.ps.config.UserConfig;
+import health.ere.ps.exception.connector.ConnectorCardsException;
+import health.ere.ps.service.connector.provider.ConnectorPool;
+import health.ere.ps.service.connector.provider.ConnectorSession;
+import health.ere.ps.service.connector.provider.MultiConnectorServicesProvider;
+
+public class ConnectorCardsServiceUnitTest {
+
+    static final String SMCB_HANDLE = "SMC-B-1";
+
+    ConnectorCardsService connectorCardsService;
+    CardServicePortType cardServicePortType;
+    EventServicePortType eventServicePortType;
+    ConnectorSession session;
+
+    @BeforeEach
+    void setUp() {
+        connectorCardsService = new ConnectorCardsService();
+        connectorCardsService.userConfig = mock(UserConfig.class);
+        when(connectorCardsService.userConfig.getConnectorBaseURL()).thenReturn("https://konnektor.local");
+
+        MultiConnectorServicesProvider connectorServicesProvider = mock(MultiConnectorServicesProvider.class);
+        cardServicePortType = mock(CardServicePortType.class);
+        eventServicePortType = mock(EventServicePortType.class);
+        when(connectorServicesProvider.getContextType(any())).thenReturn(new ContextType());
+        when(connectorServicesProvider.getCardServicePortType(any())).thenReturn(cardServicePortType);
+        when(connectorServicesProvider.getEventServicePortType(any())).thenReturn(eventServicePortType);
+        session = mock(ConnectorSession.class);
+        when(session.getContextType()).thenReturn(new ContextType());
+        when(session.getCardServicePortType()).thenReturn(cardServicePortType);
+        when(session.getEventServicePortType()).thenReturn(eventServicePortType);
+        when(connectorServicesProvider.openSession(any())).thenReturn(session);
+        connectorCardsService.connectorServicesProvider = connectorServicesProvider;
+        connectorCardsService.connectorPool = mock(ConnectorPool.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    void mockPinStatus(PinStatusEnum pinStatus) throws FaultMessage {
+        doAnswer(invocation -> {
+            ((Holder<PinStatusEnum>) invocation.getArgument(4)).value = pinStatus;
+            return null;
+        }).when(cardServicePortType).getPinStatus(any(), eq(SMCB_HANDLE), eq("PIN.SMC"), any(), any(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    void mockVerifyPin(PinResultEnum pinResult) throws FaultMessage {
+        doAnswer(invocation -> {
+            ((Holder<PinResultEnum>) invocation.getArgument(4)).value = pinResult;
+            return null;
+        }).when(cardServicePortType).verifyPin(any(), eq(SMCB_HANDLE), eq("PIN.SMC"), any(), any(), any());
+    }
+
+    @Test
+    void testVerifiedPinIsRemembered() throws Exception {
+        mockPinStatus(PinStatusEnum.VERIFIED);
+
+        connectorCardsService.ensurePinVerified(SMCB_HANDLE, session);
+        connectorCardsService.ensurePinVerified(SMCB_HANDLE, session);
+
+        verify(cardServicePortType, times(1)).getPinStatus(any(), any(), any(), any(), any(), any());
+        verify(cardServicePortType, never()).verifyPin(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void testVerifiablePinIsVerifiedOnce() throws Exception {
+        mockPinStatus(PinStatusEnum.VERIFIABLE);
+        mockVerifyPin(PinResultEnum.OK);
+
+        connectorCardsService.ensurePinVerified(SMCB_HANDLE, session);
+        connectorCardsService.ensurePinVerified(SMCB_HANDLE, session);
+
+        verify(cardServicePortType, times(1)).verifyPin(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void testOneSessionForAllCallsOfAnOperation() throws Exception {
+        mockPinStatus(PinStatusEnum.VERIFIABLE);
+        mockVerifyPin(PinResultEnum.OK);
+
+        connectorCardsService.ensurePinVerified(SMCB_HANDLE, (RuntimeConfig) null);
+
+        verify(connectorCardsService.connectorServicesProvider, times(1)).openSession(any());
+        verify(connectorCardsService.connectorServicesProvider, never()).getCardServicePortType(any());
+        verify(cardServicePortType, times(1)).verifyPin(any(), any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void testBlockedPinIsNotSentToConnector() throws Exception {
+        mockPinStatus(PinStatusEnum.BLOCKED);
+
+        assertThrows(ConnectorCardsException.class, () -> connectorCardsService.ensurePinVerified(SMCB_HANDLE, session));
+        verify(cardServicePortType, never()).verifyPin(any(), any(), any(), any(), any(), any());
+        assertTrue(connectorCardsService.pinStatusLocks.isEmpty());
+    }
+
+    @Test
+    void testRemovedCardIsForgotten() throws Exception {
+        mockPinStatus(PinStatusEnum.VERIFIED);
+        connectorCardsService.ensurePinVerified(SMCB_HANDLE, session);
+
+        GetCardsResponse getCardsResponse = new GetCardsResponse();
+        Cards cards = new Cards();
+        CardInfoType card = new CardInfoType();
+        card.setCardHandle("HBA-1");
+        cards.getCard().add(card);
+        getCardsResponse.setCards(cards);
+        when(eventServicePortType.getCards(any())).thenReturn(getCardsResponse);
+        assertThrows(ConnectorCardsException.class, () -> connectorCardsService.getConnectorCardHandle("unknown", null));
+        assertTrue(connectorCardsService.pinStatusLocks.isEmpty());
+
+        connectorCardsService.ensurePinVerified(SMCB_HANDLE, session);
+
+        verify(cardServicePortType, times(2)).getPinStatus(any(), any(), any(), any(), any(), any());
+    }
+}
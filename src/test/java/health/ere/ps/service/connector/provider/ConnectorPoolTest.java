@@ -0,0 +1,127 @@
+package health.ere.ps.service.connector.provider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Optional;
+
+import javax.xml.soap.SOAPFault;
+import javax.xml.ws.WebServiceException;
+import javax.xml.ws.http.HTTPException;
+import javax.xml.ws.soap.SOAPFaultException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.gematik.ws.conn.cardservice.v8.CardInfoType;
+import de.gematik.ws.conn.cardservice.v8.Cards;
+import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
+import health.ere.ps.config.RuntimeConfig;
+import health.ere.ps.config.UserConfig;
+import health.ere.ps.exception.connector.ConnectorCardsException;
+import health.ere.ps.model.config.UserConfigurations;
+
+public class ConnectorPoolTest {
+
+    static final String PRIMARY = "https://konnektor1.local";
+    static final String SECONDARY = "https://konnektor2.local";
+
+    ConnectorPool connectorPool;
+    UserConfig userConfig;
+
+    @BeforeEach
+    void setUp() {
+        userConfig = mock(UserConfig.class);
+        when(userConfig.getConnectorBaseURL()).thenReturn(PRIMARY);
+        when(userConfig.getMandantId()).thenReturn("mandant");
+        when(userConfig.getConfigurations()).thenReturn(new UserConfigurations());
+
+        connectorPool = new ConnectorPool();
+        connectorPool.userConfig = userConfig;
+        connectorPool.poolBaseURIs = Optional.of(List.of(SECONDARY));
+        connectorPool.init();
+    }
+
+    @Test
+    void testDisabledWithoutFurtherConnectors() {
+        ConnectorPool singleConnectorPool = new ConnectorPool();
+        singleConnectorPool.userConfig = userConfig;
+        singleConnectorPool.init();
+
+        assertFalse(singleConnectorPool.isEnabled());
+        assertNull(singleConnectorPool.pin(null));
+    }
+
+    @Test
+    void testFastestConnectorIsSelected() {
+        connectorPool.members.get(PRIMARY).recordSuccess(200);
+        connectorPool.members.get(SECONDARY).recordSuccess(20);
+
+        RuntimeConfig pinned = connectorPool.pin(null);
+
+        assertEquals(SECONDARY, pinned.getConnectorBaseURL());
+        assertEquals("mandant", pinned.getMandantId());
+        // the config is reused so the services provider is reused as well
+        assertSame(pinned, connectorPool.pin(null));
+    }
+
+    @Test
+    void testFailingConnectorIsEjectedAndReadmitted() {
+        connectorPool.ejectionSeconds = 0;
+        connectorPool.members.get(PRIMARY).recordSuccess(200);
+        connectorPool.members.get(SECONDARY).recordSuccess(20);
+        RuntimeConfig pinned = connectorPool.pin(null);
+
+        connectorPool.ejectionSeconds = 60;
+        for (int i = 0; i < connectorPool.ejectionThreshold; i++) {
+            connectorPool.reportFailure(pinned);
+        }
+
+        assertTrue(connectorPool.members.get(SECONDARY).isEjected());
+        assertNull(connectorPool.pin(null));
+
+        connectorPool.members.get(SECONDARY).recordSuccess(20);
+
+        assertFalse(connectorPool.members.get(SECONDARY).isEjected());
+        assertEquals(SECONDARY, connectorPool.pin(null).getConnectorBaseURL());
+    }
+
+    @Test
+    void testCardHandleStaysOnItsConnector() {
+        connectorPool.members.get(PRIMARY).recordSuccess(20);
+        connectorPool.members.get(SECONDARY).recordSuccess(200);
+
+        GetCardsResponse getCardsResponse = new GetCardsResponse();
+        Cards cards = new Cards();
+        CardInfoType card = new CardInfoType();
+        card.setCardHandle("HBA-1");
+        cards.getCard().add(card);
+        getCardsResponse.setCards(cards);
+        connectorPool.updateCardAffinity(connectorPool.members.get(SECONDARY), getCardsResponse);
+
+        RuntimeConfig runtimeConfig = RuntimeConfig.copyWithConnectorBaseURL(userConfig, PRIMARY);
+        runtimeConfig.setEHBAHandle("HBA-1");
+
+        RuntimeConfig pinned = connectorPool.pin(runtimeConfig);
+
+        assertEquals(SECONDARY, pinned.getConnectorBaseURL());
+        assertEquals("HBA-1", pinned.getEHBAHandle());
+    }
+
+    @Test
+    void testOnlyTransportFailuresCount() {
+        assertTrue(ConnectorPool.isTransportFailure(new ConnectorCardsException("Error getting connector card handles.",
+                new WebServiceException(new SocketTimeoutException("Read timed out")))));
+        assertTrue(ConnectorPool.isTransportFailure(new HTTPException(503)));
+        assertFalse(ConnectorPool.isTransportFailure(new HTTPException(404)));
+        assertFalse(ConnectorPool.isTransportFailure(new SOAPFaultException(mock(SOAPFault.class))));
+        assertFalse(ConnectorPool.isTransportFailure(new ConnectorCardsException("No card handle found for card.")));
+    }
+}
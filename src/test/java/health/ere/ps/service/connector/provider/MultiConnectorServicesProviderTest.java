@@ -0,0 +1,126 @@
+package health.ere.ps.service.connector.provider;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+import de.gematik.ws.conn.eventservice.v7.GetCards;
+import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
+import de.gematik.ws.conn.eventservice.wsdl.v7.EventServicePortType;
+import de.gematik.ws.conn.eventservice.wsdl.v7.FaultMessage;
+import de.gematik.ws.conn.signatureservice.wsdl.v7.SignatureServicePortTypeV755;
+import health.ere.ps.config.RuntimeConfig;
+import health.ere.ps.config.UserConfig;
+import health.ere.ps.model.config.UserConfigurations;
+
+public class MultiConnectorServicesProviderTest {
+
+    MultiConnectorServicesProvider multiConnectorServicesProvider;
+    EventServicePortType eventServicePortType;
+    SignatureServicePortTypeV755 signatureServicePortTypeV755;
+    ImmutableContextType contextType;
+
+    @BeforeEach
+    void setUp() {
+        multiConnectorServicesProvider = new MultiConnectorServicesProvider();
+        DefaultConnectorServicesProvider defaultConnectorServicesProvider = mock(DefaultConnectorServicesProvider.class);
+        eventServicePortType = mock(EventServicePortType.class);
+        when(defaultConnectorServicesProvider.getEventServicePortType()).thenReturn(eventServicePortType);
+        signatureServicePortTypeV755 = mock(SignatureServicePortTypeV755.class);
+        when(defaultConnectorServicesProvider.getSignatureServicePortTypeV755()).thenReturn(signatureServicePortTypeV755);
+        contextType = new ImmutableContextType("mandant", "client", "workplace", "user");
+        when(defaultConnectorServicesProvider.getContextType()).thenReturn(contextType);
+        UserConfig userConfig = mock(UserConfig.class);
+        when(userConfig.getConnectorVersion()).thenReturn("PTV4+");
+        when(userConfig.getTvMode()).thenReturn("NONE");
+        when(defaultConnectorServicesProvider.getUserConfig()).thenReturn(userConfig);
+        multiConnectorServicesProvider.defaultConnectorServicesProvider = defaultConnectorServicesProvider;
+    }
+
+    @AfterEach
+    void tearDown() {
+        multiConnectorServicesProvider.shutdown();
+    }
+
+    @Test
+    void testGetCardsAsync() throws FaultMessage {
+        GetCardsResponse getCardsResponse = new GetCardsResponse();
+        when(eventServicePortType.getCards(any())).thenReturn(getCardsResponse);
+
+        CompletableFuture<GetCardsResponse> future = multiConnectorServicesProvider.getCardsAsync(new GetCards(), null);
+
+        assertSame(getCardsResponse, MultiConnectorServicesProvider.await(future, FaultMessage.class));
+    }
+
+    @Test
+    void testGetCardsAsyncRethrowsFault() throws FaultMessage {
+        when(eventServicePortType.getCards(any())).thenThrow(new FaultMessage("Card not found", null));
+
+        CompletableFuture<GetCardsResponse> future = multiConnectorServicesProvider.getCardsAsync(new GetCards(), null);
+
+        FaultMessage faultMessage = assertThrows(FaultMessage.class,
+                () -> MultiConnectorServicesProvider.await(future, FaultMessage.class));
+        assertEquals("Card not found", faultMessage.getMessage());
+    }
+
+    @Test
+    void testSupplyAsyncRunsOnConnectorThread() {
+        CompletableFuture<String> future = multiConnectorServicesProvider.supplyAsync(() -> Thread.currentThread().getName());
+
+        assertEquals(true, future.join().startsWith("connector-async-"));
+    }
+
+    @Test
+    void testContextTypeIsImmutable() {
+        assertThrows(UnsupportedOperationException.class, () -> contextType.setUserId("comfort"));
+
+        ContextType comfortContextType = contextType.withUserId("comfort");
+
+        assertEquals("comfort", comfortContextType.getUserId());
+        assertEquals("mandant", comfortContextType.getMandantId());
+        assertEquals("user", contextType.getUserId());
+        assertSame(contextType, contextType.withUserId("user"));
+    }
+
+    @Test
+    void testSessionResolvesDefaultProviderOnce() {
+        ConnectorSession session = multiConnectorServicesProvider.openSession(null);
+
+        assertSame(eventServicePortType, session.getEventServicePortType());
+        assertSame(signatureServicePortTypeV755, session.getSignatureServicePortTypeV755());
+        assertSame(contextType, session.getContextType());
+        assertSame(contextType, multiConnectorServicesProvider.getContextType(null));
+        assertTrue(session.isPtv4Plus());
+        assertEquals("NONE", session.getTvMode());
+
+        assertEquals("comfort", session.getContextType("comfort").getUserId());
+        assertEquals("user", session.getContextType().getUserId());
+    }
+
+    @Test
+    void testConfigsOfTheSameTenantShareTheKey() {
+        RuntimeConfig runtimeConfig = new RuntimeConfig("https://konnektor.local");
+        runtimeConfig.updateProperties(new UserConfigurations());
+        RuntimeConfig sameTenant = new RuntimeConfig("https://konnektor.local");
+        sameTenant.updateProperties(new UserConfigurations());
+        // the endpoint discovery writes the version into the config
+        sameTenant.getConfigurations().setVersion("PTV4+");
+        RuntimeConfig otherConnector = new RuntimeConfig("https://konnektor2.local");
+        otherConnector.updateProperties(new UserConfigurations());
+
+        assertEquals(MultiConnectorServicesProvider.TenantKey.of(runtimeConfig), MultiConnectorServicesProvider.TenantKey.of(sameTenant));
+        assertNotEquals(MultiConnectorServicesProvider.TenantKey.of(runtimeConfig), MultiConnectorServicesProvider.TenantKey.of(otherConnector));
+    }
+}
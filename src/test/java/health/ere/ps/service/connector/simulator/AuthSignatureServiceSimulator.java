@@ -0,0 +1,62 @@
+package health.ere.ps.service.connector.simulator;
+
+import java.security.GeneralSecurityException;
+
+import javax.jws.WebService;
+import javax.xml.ws.Holder;
+
+import de.gematik.ws.conn.authsignatureservice.wsdl.v7.AuthSignatureServicePortType;
+import de.gematik.ws.conn.authsignatureservice.wsdl.v7.FaultMessage;
+import de.gematik.ws.conn.connectorcommon.v5.Status;
+import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+import de.gematik.ws.conn.signatureservice.v7.BinaryDocumentType;
+import de.gematik.ws.conn.signatureservice.v7.ExternalAuthenticate;
+import oasis.names.tc.dss._1_0.core.schema.Base64Signature;
+import oasis.names.tc.dss._1_0.core.schema.SignatureObject;
+
+@WebService(endpointInterface = "de.gematik.ws.conn.authsignatureservice.wsdl.v7.AuthSignatureServicePortType",
+        serviceName = "AuthSignatureService", portName = "AuthSignatureServicePort",
+        targetNamespace = "http://ws.gematik.de/conn/AuthSignatureService/WSDL/v7.4",
+        wsdlLocation = "AuthSignatureService_v7_4_1.wsdl")
+public class AuthSignatureServiceSimulator implements AuthSignatureServicePortType {
+
+    private final KonnektorSimulator simulator;
+
+    AuthSignatureServiceSimulator(KonnektorSimulator simulator) {
+        this.simulator = simulator;
+    }
+
+    /**
+     * Signs the given hash with RSASSA-PSS. Like a real connector this needs a
+     * verified PIN on the card and fails with 4085 otherwise.
+     */
+    @Override
+    public void externalAuthenticate(String cardHandle, ContextType context,
+                                     ExternalAuthenticate.OptionalInputs optionalInputs,
+                                     BinaryDocumentType binaryString, Holder<Status> status,
+                                     Holder<SignatureObject> signatureObject) throws FaultMessage {
+        simulator.simulate(KonnektorSimulator.EXTERNAL_AUTHENTICATE);
+        SimulatedCard card = simulator.getCard(cardHandle);
+        if (card == null) {
+            throw new FaultMessage("Unknown card handle " + cardHandle,
+                    KonnektorSimulator.error(KonnektorSimulator.ERROR_INVALID_CARD_HANDLE, "Kartenhandle ungültig"));
+        }
+        if (!card.isUnlocked()) {
+            throw new FaultMessage("PIN of " + cardHandle + " is not verified",
+                    KonnektorSimulator.error(KonnektorSimulator.ERROR_ACCESS_CONDITIONS, "Zugriffsbedingungen nicht erfüllt"));
+        }
+
+        Base64Signature base64Signature = new Base64Signature();
+        base64Signature.setType("urn:ietf:rfc:3447");
+        try {
+            base64Signature.setValue(card.authenticate(binaryString.getBase64Data().getValue()));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        SignatureObject result = new SignatureObject();
+        result.setBase64Signature(base64Signature);
+
+        status.value = KonnektorSimulator.ok();
+        signatureObject.value = result;
+    }
+}
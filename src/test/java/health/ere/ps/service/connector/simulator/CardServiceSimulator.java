@@ -0,0 +1,86 @@
+package health.ere.ps.service.connector.simulator;
+
+import java.math.BigInteger;
+
+import javax.jws.WebService;
+import javax.xml.ws.Holder;
+
+import de.gematik.ws.conn.cardservice.v8.AuthorizeSmc;
+import de.gematik.ws.conn.cardservice.v8.AuthorizeSmcResponse;
+import de.gematik.ws.conn.cardservice.v8.PinStatusEnum;
+import de.gematik.ws.conn.cardservice.wsdl.v8.CardServicePortType;
+import de.gematik.ws.conn.cardservice.wsdl.v8.FaultMessage;
+import de.gematik.ws.conn.cardservicecommon.v2.PinResultEnum;
+import de.gematik.ws.conn.connectorcommon.v5.Status;
+import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+
+@WebService(endpointInterface = "de.gematik.ws.conn.cardservice.wsdl.v8.CardServicePortType",
+        serviceName = "CardService", portName = "CardServicePort",
+        targetNamespace = "http://ws.gematik.de/conn/CardService/WSDL/v8.1", wsdlLocation = "CardService.wsdl")
+public class CardServiceSimulator implements CardServicePortType {
+
+    static final BigInteger LEFT_TRIES = BigInteger.valueOf(3);
+
+    private final KonnektorSimulator simulator;
+
+    CardServiceSimulator(KonnektorSimulator simulator) {
+        this.simulator = simulator;
+    }
+
+    private SimulatedCard card(String cardHandle) throws FaultMessage {
+        SimulatedCard card = simulator.getCard(cardHandle);
+        if (card == null) {
+            throw new FaultMessage("Unknown card handle " + cardHandle,
+                    KonnektorSimulator.error(KonnektorSimulator.ERROR_INVALID_CARD_HANDLE, "Kartenhandle ungültig"));
+        }
+        return card;
+    }
+
+    @Override
+    public void verifyPin(ContextType context, String cardHandle, String pinTyp, Holder<Status> status,
+                          Holder<PinResultEnum> pinResult, Holder<BigInteger> leftTries) throws FaultMessage {
+        simulator.simulate(KonnektorSimulator.VERIFY_PIN);
+        SimulatedCard card = card(cardHandle);
+        status.value = KonnektorSimulator.ok();
+        if (card.getPinStatus(pinTyp) == PinStatusEnum.BLOCKED) {
+            pinResult.value = PinResultEnum.WASBLOCKED;
+            leftTries.value = BigInteger.ZERO;
+        } else {
+            card.setPinStatus(pinTyp, PinStatusEnum.VERIFIED);
+            pinResult.value = PinResultEnum.OK;
+            leftTries.value = LEFT_TRIES;
+        }
+    }
+
+    @Override
+    public void changePin(ContextType context, String cardHandle, String pinTyp, Holder<Status> status,
+                          Holder<PinResultEnum> pinResult, Holder<BigInteger> leftTries) throws FaultMessage {
+        simulator.simulate(KonnektorSimulator.CHANGE_PIN);
+        SimulatedCard card = card(cardHandle);
+        card.setPinStatus(pinTyp, PinStatusEnum.VERIFIABLE);
+        status.value = KonnektorSimulator.ok();
+        pinResult.value = PinResultEnum.OK;
+        leftTries.value = LEFT_TRIES;
+    }
+
+    @Override
+    public void unblockPin(ContextType context, String cardHandle, String pinTyp, Boolean setNewPin,
+                           Holder<Status> status, Holder<PinResultEnum> pinResult, Holder<BigInteger> leftTries) {
+        throw new UnsupportedOperationException("UnblockPin is not simulated");
+    }
+
+    @Override
+    public void getPinStatus(ContextType context, String cardHandle, String pinTyp, Holder<Status> status,
+                             Holder<PinStatusEnum> pinStatus, Holder<BigInteger> leftTries) throws FaultMessage {
+        simulator.simulate(KonnektorSimulator.GET_PIN_STATUS);
+        SimulatedCard card = card(cardHandle);
+        status.value = KonnektorSimulator.ok();
+        pinStatus.value = card.getPinStatus(pinTyp);
+        leftTries.value = pinStatus.value == PinStatusEnum.BLOCKED ? BigInteger.ZERO : LEFT_TRIES;
+    }
+
+    @Override
+    public AuthorizeSmcResponse authorizeSMC(AuthorizeSmc parameter) {
+        throw new UnsupportedOperationException("AuthorizeSMC is not simulated");
+    }
+}
@@ -0,0 +1,74 @@
+package health.ere.ps.service.connector.simulator;
+
+import java.security.cert.CertificateEncodingException;
+import java.util.List;
+
+import javax.jws.WebService;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.ws.Holder;
+
+import de.gematik.ws.conn.certificateservice.v6.CertificateExpirationType;
+import de.gematik.ws.conn.certificateservice.v6.ReadCardCertificate;
+import de.gematik.ws.conn.certificateservice.v6.VerifyCertificateResponse;
+import de.gematik.ws.conn.certificateservice.wsdl.v6.CertificateServicePortType;
+import de.gematik.ws.conn.certificateservice.wsdl.v6.FaultMessage;
+import de.gematik.ws.conn.certificateservicecommon.v2.CertRefEnum;
+import de.gematik.ws.conn.certificateservicecommon.v2.X509DataInfoListType;
+import de.gematik.ws.conn.connectorcommon.v5.Status;
+import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+
+@WebService(endpointInterface = "de.gematik.ws.conn.certificateservice.wsdl.v6.CertificateServicePortType",
+        serviceName = "CertificateService", portName = "CertificateServicePort",
+        targetNamespace = "http://ws.gematik.de/conn/CertificateService/WSDL/v6.0",
+        wsdlLocation = "CertificateService_v6_0_1.wsdl")
+public class CertificateServiceSimulator implements CertificateServicePortType {
+
+    private final KonnektorSimulator simulator;
+
+    CertificateServiceSimulator(KonnektorSimulator simulator) {
+        this.simulator = simulator;
+    }
+
+    @Override
+    public void readCardCertificate(String cardHandle, ContextType context, ReadCardCertificate.CertRefList certRefList,
+                                    Holder<Status> status, Holder<X509DataInfoListType> x509DataInfoList)
+            throws FaultMessage {
+        simulator.simulate(KonnektorSimulator.READ_CARD_CERTIFICATE);
+        SimulatedCard card = simulator.getCard(cardHandle);
+        if (card == null) {
+            throw new FaultMessage("Unknown card handle " + cardHandle,
+                    KonnektorSimulator.error(KonnektorSimulator.ERROR_INVALID_CARD_HANDLE, "Kartenhandle ungültig"));
+        }
+
+        X509DataInfoListType list = new X509DataInfoListType();
+        for (CertRefEnum certRef : certRefList.getCertRef()) {
+            X509DataInfoListType.X509DataInfo.X509Data x509Data = new X509DataInfoListType.X509DataInfo.X509Data();
+            try {
+                x509Data.setX509Certificate(card.getCertificate().getEncoded());
+            } catch (CertificateEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            x509Data.setX509SubjectName(card.getCertificate().getSubjectX500Principal().getName());
+            X509DataInfoListType.X509DataInfo x509DataInfo = new X509DataInfoListType.X509DataInfo();
+            x509DataInfo.setCertRef(certRef);
+            x509DataInfo.setX509Data(x509Data);
+            list.getX509DataInfo().add(x509DataInfo);
+        }
+        status.value = KonnektorSimulator.ok();
+        x509DataInfoList.value = list;
+    }
+
+    @Override
+    public void checkCertificateExpiration(String cardHandle, ContextType context, Holder<Status> status,
+                                           Holder<List<CertificateExpirationType>> certificateExpiration) {
+        throw new UnsupportedOperationException("CheckCertificateExpiration is not simulated");
+    }
+
+    @Override
+    public void verifyCertificate(ContextType context, byte[] x509Certificate, XMLGregorianCalendar verificationTime,
+                                  Holder<Status> status,
+                                  Holder<VerifyCertificateResponse.VerificationStatus> verificationStatus,
+                                  Holder<VerifyCertificateResponse.RoleList> roleList) {
+        throw new UnsupportedOperationException("VerifyCertificate is not simulated");
+    }
+}
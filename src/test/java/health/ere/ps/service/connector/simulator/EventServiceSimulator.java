@@ -0,0 +1,87 @@
+package health.ere.ps.service.connector.simulator;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import javax.jws.WebService;
+import javax.xml.datatype.XMLGregorianCalendar;
+import javax.xml.ws.Holder;
+
+import de.gematik.ws.conn.cardservice.v8.CardInfoType;
+import de.gematik.ws.conn.cardservice.v8.Cards;
+import de.gematik.ws.conn.cardterminalinfo.v8.CardTerminalInfoType;
+import de.gematik.ws.conn.connectorcommon.v5.Connector;
+import de.gematik.ws.conn.connectorcommon.v5.Status;
+import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+import de.gematik.ws.conn.eventservice.v7.GetCardTerminals;
+import de.gematik.ws.conn.eventservice.v7.GetCardTerminalsResponse;
+import de.gematik.ws.conn.eventservice.v7.GetCards;
+import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
+import de.gematik.ws.conn.eventservice.v7.GetSubscription;
+import de.gematik.ws.conn.eventservice.v7.GetSubscriptionResponse;
+import de.gematik.ws.conn.eventservice.v7.RenewSubscriptionsResponse;
+import de.gematik.ws.conn.eventservice.v7.SubscriptionType;
+import de.gematik.ws.conn.eventservice.wsdl.v7.EventServicePortType;
+
+@WebService(endpointInterface = "de.gematik.ws.conn.eventservice.wsdl.v7.EventServicePortType",
+        serviceName = "EventService", portName = "EventServicePort",
+        targetNamespace = "http://ws.gematik.de/conn/EventService/WSDL/v7.2", wsdlLocation = "EventService.wsdl")
+public class EventServiceSimulator implements EventServicePortType {
+
+    private final KonnektorSimulator simulator;
+
+    EventServiceSimulator(KonnektorSimulator simulator) {
+        this.simulator = simulator;
+    }
+
+    @Override
+    public GetCardsResponse getCards(GetCards parameter) {
+        simulator.simulate(KonnektorSimulator.GET_CARDS);
+        Cards cards = new Cards();
+        int slotId = 1;
+        for (SimulatedCard card : simulator.getCards()) {
+            CardInfoType cardInfo = card.toCardInfo(KonnektorSimulator.CT_ID, slotId++);
+            if (parameter.getCardType() == null || parameter.getCardType() == card.getCardType()) {
+                cards.getCard().add(cardInfo);
+            }
+        }
+        GetCardsResponse getCardsResponse = new GetCardsResponse();
+        getCardsResponse.setStatus(KonnektorSimulator.ok());
+        getCardsResponse.setCards(cards);
+        return getCardsResponse;
+    }
+
+    @Override
+    public void subscribe(ContextType context, SubscriptionType subscription, Holder<Status> status,
+                          Holder<String> subscriptionID, Holder<XMLGregorianCalendar> terminationTime) {
+        throw new UnsupportedOperationException("Subscribe is not simulated");
+    }
+
+    @Override
+    public Status unsubscribe(ContextType context, String subscriptionID, String eventTo) {
+        throw new UnsupportedOperationException("Unsubscribe is not simulated");
+    }
+
+    @Override
+    public GetSubscriptionResponse getSubscription(GetSubscription parameter) {
+        throw new UnsupportedOperationException("GetSubscription is not simulated");
+    }
+
+    @Override
+    public void getResourceInformation(ContextType context, String ctId, BigInteger slotId, String iccsn,
+                                       String cardHandle, Holder<Status> status, Holder<CardInfoType> card,
+                                       Holder<CardTerminalInfoType> cardTerminal, Holder<Connector> connector) {
+        throw new UnsupportedOperationException("GetResourceInformation is not simulated");
+    }
+
+    @Override
+    public GetCardTerminalsResponse getCardTerminals(GetCardTerminals parameter) {
+        throw new UnsupportedOperationException("GetCardTerminals is not simulated");
+    }
+
+    @Override
+    public void renewSubscriptions(ContextType context, List<String> subscriptionID, Holder<Status> status,
+                                   Holder<RenewSubscriptionsResponse.SubscribeRenewals> subscribeRenewals) {
+        throw new UnsupportedOperationException("RenewSubscriptions is not simulated");
+    }
+}
@@ -0,0 +1,295 @@
+package health.ere.ps.service.connector.simulator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import javax.xml.ws.Endpoint;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import de.gematik.ws.conn.cardservicecommon.v2.CardTypeType;
+import de.gematik.ws.conn.connectorcommon.v5.DocumentType;
+import de.gematik.ws.conn.connectorcommon.v5.Status;
+import de.gematik.ws.tel.error.v2.Error;
+
+/**
+ * Embeddable connector for benchmarks and load tests that cannot use real TI
+ * hardware. The simulator serves the connector.sds and the Event, Card,
+ * Certificate, AuthSignature and Signature (V740 and V755) services over plain
+ * HTTP with the WSDLs of api-telematik-service. Cards live in memory and sign
+ * with software keys.
+ *
+ * Every operation can be slowed down to the latency of a real connector with
+ * {@link #setLatency(String, long)}, the operation names are the ones of the
+ * WSDLs, e.g. "GetCards" or "SignDocument".
+ *
+ * <pre>
+ * try (KonnektorSimulator simulator = new KonnektorSimulator().withDefaultCards().start()) {
+ *     simulator.setLatency(KonnektorSimulator.SIGN_DOCUMENT, 500);
+ *     UserConfig userConfig = new RuntimeConfig(simulator.getBaseURL());
+ *     ...
+ * }
+ * </pre>
+ */
+public class KonnektorSimulator implements AutoCloseable {
+    private static final Logger log = Logger.getLogger(KonnektorSimulator.class.getName());
+
+    public static final String GET_CARDS = "GetCards";
+    public static final String GET_PIN_STATUS = "GetPinStatus";
+    public static final String VERIFY_PIN = "VerifyPin";
+    public static final String CHANGE_PIN = "ChangePin";
+    public static final String READ_CARD_CERTIFICATE = "ReadCardCertificate";
+    public static final String EXTERNAL_AUTHENTICATE = "ExternalAuthenticate";
+    public static final String GET_JOB_NUMBER = "GetJobNumber";
+    public static final String SIGN_DOCUMENT = "SignDocument";
+    public static final String STOP_SIGNATURE = "StopSignature";
+
+    static final String STATUS_OK = "OK";
+    static final long ERROR_INVALID_CARD_HANDLE = 4101;
+    static final long ERROR_ACCESS_CONDITIONS = 4085;
+
+    public static final String CT_ID = "CT-SIMULATOR";
+
+    private final Map<String, SimulatedCard> cards = new LinkedHashMap<>();
+    private final Map<String, Long> latencyMillis = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> invocations = new ConcurrentHashMap<>();
+    private final AtomicInteger jobNumber = new AtomicInteger();
+    private final List<Endpoint> endpoints = new ArrayList<>();
+
+    private volatile long defaultLatencyMillis = 0;
+    private String productType = "PTV4";
+    private int port = 0;
+    private int threads = 16;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Inserts an SMC-B with the handle "SMC-B-1" and an HBA with the handle "HBA-1".
+     */
+    public KonnektorSimulator withDefaultCards() {
+        addCard(SimulatedCard.create("SMC-B-1", CardTypeType.SMC_B, "Praxis Dr. Simulator"));
+        addCard(SimulatedCard.create("HBA-1", CardTypeType.HBA, "Dr. Simulator"));
+        return this;
+    }
+
+    /**
+     * @param productType the product type announced in the connector.sds, "PTV4"
+     *                    or "PTV4+", the latter makes clients use the V755
+     *                    signature service
+     */
+    public KonnektorSimulator withProductType(String productType) {
+        this.productType = productType;
+        return this;
+    }
+
+    /**
+     * @param port the port to listen on, 0 picks a free port
+     */
+    public KonnektorSimulator withPort(int port) {
+        this.port = port;
+        return this;
+    }
+
+    /**
+     * @param threads the number of requests that are handled at the same time
+     */
+    public KonnektorSimulator withThreads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+
+    public KonnektorSimulator start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+
+        server.createContext("/connector.sds", this::serveConnectorSds);
+        publish("/eventservice", new EventServiceSimulator(this));
+        publish("/cardservice", new CardServiceSimulator(this));
+        publish("/certificateservice", new CertificateServiceSimulator(this));
+        publish("/authsignatureservice", new AuthSignatureServiceSimulator(this));
+        publish("/signatureservice", new SignatureServiceV740Simulator(this));
+        publish("/signatureservice755", new SignatureServiceV755Simulator(this));
+
+        server.start();
+        log.info("Konnektor simulator listening on " + getBaseURL());
+        return this;
+    }
+
+    private void publish(String path, Object implementor) {
+        Endpoint endpoint = Endpoint.create(implementor);
+        endpoint.publish(server.createContext(path));
+        endpoints.add(endpoint);
+    }
+
+    @Override
+    public void close() {
+        endpoints.forEach(Endpoint::stop);
+        endpoints.clear();
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    public String getBaseURL() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public synchronized void addCard(SimulatedCard card) {
+        cards.put(card.getCardHandle(), card);
+    }
+
+    public synchronized void removeCard(String cardHandle) {
+        cards.remove(cardHandle);
+    }
+
+    public synchronized List<SimulatedCard> getCards() {
+        return new ArrayList<>(cards.values());
+    }
+
+    public synchronized SimulatedCard getCard(String cardHandle) {
+        return cards.get(cardHandle);
+    }
+
+    /**
+     * Sets the latency of one operation, it is added to every call of the operation.
+     */
+    public void setLatency(String operation, long millis) {
+        latencyMillis.put(operation, millis);
+    }
+
+    /**
+     * Sets the latency of all operations without an own latency.
+     */
+    public void setDefaultLatency(long millis) {
+        this.defaultLatencyMillis = millis;
+    }
+
+    public long getInvocationCount(String operation) {
+        LongAdder counter = invocations.get(operation);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    public void resetInvocationCounts() {
+        invocations.clear();
+    }
+
+    /**
+     * Counts the call and waits for the configured latency of the operation.
+     */
+    void simulate(String operation) {
+        invocations.computeIfAbsent(operation, o -> new LongAdder()).increment();
+        long latency = latencyMillis.getOrDefault(operation, defaultLatencyMillis);
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    String nextJobNumber() {
+        int number = jobNumber.incrementAndGet() % 1000;
+        return "SIM-" + String.format("%03d", number);
+    }
+
+    /**
+     * @return the bytes to sign of a SignRequest document
+     */
+    static byte[] content(DocumentType document) {
+        return document.getBase64Data() != null ? document.getBase64Data().getValue() : document.getBase64XML();
+    }
+
+    static Status ok() {
+        Status status = new Status();
+        status.setResult(STATUS_OK);
+        return status;
+    }
+
+    static Error error(long code, String errorText) {
+        Error.Trace trace = new Error.Trace();
+        trace.setCode(BigInteger.valueOf(code));
+        trace.setErrorText(errorText);
+        trace.setCompType("KON");
+        trace.setSeverity("Error");
+        trace.setErrorType("Technical");
+        Error error = new Error();
+        error.setMessageID("simulator");
+        error.getTrace().add(trace);
+        return error;
+    }
+
+    private void serveConnectorSds(HttpExchange exchange) throws IOException {
+        simulate("ConnectorSds");
+        byte[] body = connectorSds().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    String connectorSds() {
+        String baseURL = getBaseURL();
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<CONN:ConnectorServices xmlns:CONN=\"http://ws.gematik.de/conn/ServiceDirectory/v3.1\""
+                + " xmlns:SI=\"http://ws.gematik.de/conn/ServiceInformation/v2.0\""
+                + " xmlns:PI=\"http://ws.gematik.de/int/version/ProductInformation/v1.1\">\n"
+                + "  <PI:ProductInformation>\n"
+                + "    <PI:ProductTypeInformation>\n"
+                + "      <PI:ProductType>Konnektor " + productType + "</PI:ProductType>\n"
+                + "    </PI:ProductTypeInformation>\n"
+                + "    <PI:ProductMiscellaneous>\n"
+                + "      <PI:ProductName>KonnektorSimulator " + productType + "</PI:ProductName>\n"
+                + "    </PI:ProductMiscellaneous>\n"
+                + "  </PI:ProductInformation>\n"
+                + "  <CONN:TLSMandatory>false</CONN:TLSMandatory>\n"
+                + "  <CONN:ClientAutMandatory>false</CONN:ClientAutMandatory>\n"
+                + "  <SI:ServiceInformation>\n"
+                + service("EventService", "7.2.0", "http://ws.gematik.de/conn/EventService/WSDL/v7.2", baseURL + "/eventservice")
+                + service("CardService", "8.1.2", "http://ws.gematik.de/conn/CardService/WSDL/v8.1", baseURL + "/cardservice")
+                + service("CertificateService", "6.0.1", "http://ws.gematik.de/conn/CertificateService/WSDL/v6.0", baseURL + "/certificateservice")
+                + service("AuthSignatureService", "7.4.1", "http://ws.gematik.de/conn/AuthSignatureService/WSDL/v7.4", baseURL + "/authsignatureservice")
+                + "    <SI:Service Name=\"SignatureService\">\n"
+                + "      <SI:Versions>\n"
+                + version("7.4.0", "http://ws.gematik.de/conn/SignatureService/WSDL/v7.4", baseURL + "/signatureservice")
+                + version("7.5.5", "http://ws.gematik.de/conn/SignatureService/WSDL/v7.5", baseURL + "/signatureservice755")
+                + "      </SI:Versions>\n"
+                + "    </SI:Service>\n"
+                + "  </SI:ServiceInformation>\n"
+                + "</CONN:ConnectorServices>\n";
+    }
+
+    private static String service(String name, String version, String targetNamespace, String location) {
+        return "    <SI:Service Name=\"" + name + "\">\n"
+                + "      <SI:Versions>\n"
+                + version(version, targetNamespace, location)
+                + "      </SI:Versions>\n"
+                + "    </SI:Service>\n";
+    }
+
+    private static String version(String version, String targetNamespace, String location) {
+        return "        <SI:Version TargetNamespace=\"" + targetNamespace + "\" Version=\"" + version + "\">\n"
+                + "          <SI:EndpointTLS Location=\"" + location + "\"/>\n"
+                + "          <SI:WSDL Location=\"" + location + "?wsdl\"/>\n"
+                + "        </SI:Version>\n";
+    }
+}
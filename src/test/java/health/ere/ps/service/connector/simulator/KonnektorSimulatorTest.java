@@ -0,0 +1,228 @@
+package health.ere.ps.service.connector.simulator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.Signature;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import javax.xml.ws.Holder;
+
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.gematik.ws.conn.authsignatureservice.wsdl.v7.FaultMessage;
+import de.gematik.ws.conn.cardservice.v8.PinStatusEnum;
+import de.gematik.ws.conn.cardservicecommon.v2.PinResultEnum;
+import de.gematik.ws.conn.connectorcommon.v5.Status;
+import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+import de.gematik.ws.conn.eventservice.v7.GetCards;
+import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
+import de.gematik.ws.conn.signatureservice.v7.BinaryDocumentType;
+import de.gematik.ws.conn.signatureservice.v7.DocumentType;
+import de.gematik.ws.conn.signatureservice.v7.ExternalAuthenticate;
+import de.gematik.ws.conn.signatureservice.v7.SignRequest;
+import de.gematik.ws.conn.signatureservice.v7.SignResponse;
+import health.ere.ps.config.RuntimeConfig;
+import health.ere.ps.model.config.UserConfigurations;
+import health.ere.ps.service.connector.provider.SingleConnectorServicesProvider;
+import oasis.names.tc.dss._1_0.core.schema.Base64Data;
+import oasis.names.tc.dss._1_0.core.schema.SignatureObject;
+
+public class KonnektorSimulatorTest {
+    private static final Logger log = Logger.getLogger(KonnektorSimulatorTest.class.getName());
+
+    static KonnektorSimulator simulator;
+    static SingleConnectorServicesProvider servicesProvider;
+
+    @BeforeAll
+    static void startSimulator() throws Exception {
+        simulator = new KonnektorSimulator().withDefaultCards().start();
+        servicesProvider = new SingleConnectorServicesProvider(runtimeConfig(simulator), null);
+    }
+
+    @AfterAll
+    static void stopSimulator() {
+        simulator.close();
+    }
+
+    static RuntimeConfig runtimeConfig(KonnektorSimulator simulator) {
+        RuntimeConfig runtimeConfig = new RuntimeConfig(simulator.getBaseURL());
+        runtimeConfig.updateProperties(new UserConfigurations());
+        return runtimeConfig;
+    }
+
+    static DocumentType document(String content) {
+        Base64Data base64Data = new Base64Data();
+        base64Data.setMimeType("text/plain");
+        base64Data.setValue(content.getBytes(StandardCharsets.UTF_8));
+        DocumentType document = new DocumentType();
+        document.setBase64Data(base64Data);
+        return document;
+    }
+
+    static void assertSignature(byte[] cms, SimulatedCard card, String content) throws Exception {
+        CMSSignedData signedData = new CMSSignedData(cms);
+        SignerInformation signerInformation = signedData.getSignerInfos().getSigners().iterator().next();
+        assertTrue(signerInformation.verify(new JcaSimpleSignerInfoVerifierBuilder().build(card.getCertificate())));
+        assertArrayEquals(content.getBytes(StandardCharsets.UTF_8), (byte[]) signedData.getSignedContent().getContent());
+    }
+
+    @Test
+    void testCardsAreDiscovered() throws Exception {
+        GetCards getCards = new GetCards();
+        getCards.setContext(servicesProvider.getContextType());
+
+        GetCardsResponse getCardsResponse = servicesProvider.getEventServicePortType().getCards(getCards);
+
+        assertEquals("OK", getCardsResponse.getStatus().getResult());
+        assertEquals(2, getCardsResponse.getCards().getCard().size());
+        assertEquals("SMC-B-1", getCardsResponse.getCards().getCard().get(0).getCardHandle());
+    }
+
+    @Test
+    void testExternalAuthenticateNeedsVerifiedPin() throws Exception {
+        byte[] message = "challenge".getBytes(StandardCharsets.UTF_8);
+        ExternalAuthenticate.OptionalInputs optionalInputs = new ExternalAuthenticate.OptionalInputs();
+        optionalInputs.setSignatureSchemes("RSASSA-PSS");
+        Base64Data base64Data = new Base64Data();
+        base64Data.setValue(MessageDigest.getInstance("SHA-256").digest(message));
+        BinaryDocumentType binaryDocument = new BinaryDocumentType();
+        binaryDocument.setBase64Data(base64Data);
+        Holder<Status> status = new Holder<>();
+        Holder<SignatureObject> signatureObject = new Holder<>();
+        ContextType context = servicesProvider.getContextType();
+
+        simulator.getCard("SMC-B-1").setPinStatus("PIN.SMC", PinStatusEnum.VERIFIABLE);
+        FaultMessage faultMessage = assertThrows(FaultMessage.class, () -> servicesProvider.getAuthSignatureServicePortType()
+                .externalAuthenticate("SMC-B-1", context, optionalInputs, binaryDocument, status, signatureObject));
+        assertEquals(BigInteger.valueOf(4085), faultMessage.getFaultInfo().getTrace().get(0).getCode());
+
+        Holder<PinResultEnum> pinResult = new Holder<>();
+        servicesProvider.getCardServicePortType().verifyPin(context, "SMC-B-1", "PIN.SMC", new Holder<>(), pinResult,
+                new Holder<>());
+        assertEquals(PinResultEnum.OK, pinResult.value);
+
+        servicesProvider.getAuthSignatureServicePortType()
+                .externalAuthenticate("SMC-B-1", context, optionalInputs, binaryDocument, status, signatureObject);
+
+        Signature signature = Signature.getInstance("RSASSA-PSS");
+        signature.setParameter(new PSSParameterSpec("SHA-256", "MGF1", MGF1ParameterSpec.SHA256, 32, 1));
+        signature.initVerify(simulator.getCard("SMC-B-1").getCertificate());
+        signature.update(message);
+        assertTrue(signature.verify(signatureObject.value.getBase64Signature().getValue()));
+    }
+
+    @Test
+    void testSignDocumentV740() throws Exception {
+        SignRequest signRequest = new SignRequest();
+        signRequest.setRequestID("request-1");
+        signRequest.setDocument(document("bundle"));
+        ContextType context = servicesProvider.getContextType();
+        String jobNumber = servicesProvider.getSignatureServicePortType().getJobNumber(context);
+
+        List<SignResponse> signResponses = servicesProvider.getSignatureServicePortType()
+                .signDocument("HBA-1", context, "NONE", jobNumber, List.of(signRequest));
+
+        assertEquals("request-1", signResponses.get(0).getRequestID());
+        assertSignature(signResponses.get(0).getSignatureObject().getBase64Signature().getValue(),
+                simulator.getCard("HBA-1"), "bundle");
+    }
+
+    @Test
+    void testSignDocumentV755() throws Exception {
+        try (KonnektorSimulator ptv4PlusSimulator = new KonnektorSimulator().withProductType("PTV4+")
+                .withDefaultCards().start()) {
+            RuntimeConfig runtimeConfig = runtimeConfig(ptv4PlusSimulator);
+            SingleConnectorServicesProvider ptv4PlusServicesProvider = new SingleConnectorServicesProvider(runtimeConfig, null);
+            assertEquals("PTV4+", runtimeConfig.getConnectorVersion());
+
+            de.gematik.ws.conn.signatureservice.v7_5_5.DocumentType document = new de.gematik.ws.conn.signatureservice.v7_5_5.DocumentType();
+            document.setBase64Data(document("bundle").getBase64Data());
+            de.gematik.ws.conn.signatureservice.v7_5_5.SignRequest signRequest = new de.gematik.ws.conn.signatureservice.v7_5_5.SignRequest();
+            signRequest.setRequestID("request-1");
+            signRequest.setDocument(document);
+            ContextType context = ptv4PlusServicesProvider.getContextType();
+            String jobNumber = ptv4PlusServicesProvider.getSignatureServicePortTypeV755().getJobNumber(context);
+
+            List<de.gematik.ws.conn.signatureservice.v7_5_5.SignResponse> signResponses = ptv4PlusServicesProvider
+                    .getSignatureServicePortTypeV755()
+                    .signDocument("HBA-1", "PKCS7", context, "NONE", jobNumber, List.of(signRequest));
+
+            assertSignature(signResponses.get(0).getSignatureObject().getBase64Signature().getValue(),
+                    ptv4PlusSimulator.getCard("HBA-1"), "bundle");
+            assertEquals(1, ptv4PlusSimulator.getInvocationCount(KonnektorSimulator.SIGN_DOCUMENT));
+        }
+    }
+
+    @Test
+    void testLatencyIsApplied() throws Exception {
+        GetCards getCards = new GetCards();
+        getCards.setContext(servicesProvider.getContextType());
+        simulator.setLatency(KonnektorSimulator.GET_CARDS, 200);
+        try {
+            long start = System.currentTimeMillis();
+            servicesProvider.getEventServicePortType().getCards(getCards);
+            assertTrue(System.currentTimeMillis() - start >= 200);
+        } finally {
+            simulator.setLatency(KonnektorSimulator.GET_CARDS, 0);
+        }
+    }
+
+    @Test
+    void testConcurrentSignDocument() throws Exception {
+        int clients = 8;
+        int requestsPerClient = 25;
+        long latency = 20;
+        ContextType context = servicesProvider.getContextType();
+        simulator.setLatency(KonnektorSimulator.SIGN_DOCUMENT, latency);
+        long signDocumentsBefore = simulator.getInvocationCount(KonnektorSimulator.SIGN_DOCUMENT);
+        ExecutorService executorService = Executors.newFixedThreadPool(clients);
+        try {
+            long start = System.currentTimeMillis();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                futures.add(executorService.submit(() -> {
+                    for (int j = 0; j < requestsPerClient; j++) {
+                        SignRequest signRequest = new SignRequest();
+                        signRequest.setRequestID("request-" + j);
+                        signRequest.setDocument(document("bundle-" + j));
+                        servicesProvider.getSignatureServicePortType()
+                                .signDocument("HBA-1", context, "NONE", "SIM-001", List.of(signRequest));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            long duration = System.currentTimeMillis() - start;
+            int requests = clients * requestsPerClient;
+            log.info(requests + " SignDocument calls in " + duration + " ms, "
+                    + (requests * 1000L / Math.max(duration, 1)) + " calls per second");
+
+            assertEquals(requests, simulator.getInvocationCount(KonnektorSimulator.SIGN_DOCUMENT) - signDocumentsBefore);
+            // the calls overlap, sequential calls would need at least requests * latency
+            assertTrue(duration < requests * latency);
+        } finally {
+            executorService.shutdown();
+            simulator.setLatency(KonnektorSimulator.SIGN_DOCUMENT, 0);
+        }
+    }
+}
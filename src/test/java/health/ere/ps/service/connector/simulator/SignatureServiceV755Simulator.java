@@ -0,0 +1,112 @@
+package health.ere.ps.service.connector.simulator;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jws.WebService;
+import javax.xml.datatype.Duration;
+import javax.xml.ws.Holder;
+
+import de.gematik.ws.conn.connectorcommon.v5.Status;
+import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+import de.gematik.ws.conn.signatureservice.v7_5_5.ComfortSignatureStatusEnum;
+import de.gematik.ws.conn.signatureservice.v7_5_5.DocumentType;
+import de.gematik.ws.conn.signatureservice.v7_5_5.SessionInfo;
+import de.gematik.ws.conn.signatureservice.v7_5_5.SignRequest;
+import de.gematik.ws.conn.signatureservice.v7_5_5.SignResponse;
+import de.gematik.ws.conn.signatureservice.v7_5_5.SignatureModeEnum;
+import de.gematik.ws.conn.signatureservice.v7_5_5.VerificationResultType;
+import de.gematik.ws.conn.signatureservice.v7_5_5.VerifyDocument;
+import de.gematik.ws.conn.signatureservice.v7_5_5.VerifyDocumentResponse;
+import de.gematik.ws.conn.signatureservice.wsdl.v7.FaultMessage;
+import de.gematik.ws.conn.signatureservice.wsdl.v7.SignatureServicePortTypeV755;
+import oasis.names.tc.dss._1_0.core.schema.Base64Signature;
+import oasis.names.tc.dss._1_0.core.schema.SignatureObject;
+
+@WebService(endpointInterface = "de.gematik.ws.conn.signatureservice.wsdl.v7.SignatureServicePortTypeV755",
+        serviceName = "SignatureServiceV7_5_5", portName = "SignatureServicePortTypeV7_5_5",
+        targetNamespace = "http://ws.gematik.de/conn/SignatureService/WSDL/v7.5",
+        wsdlLocation = "SignatureService_V7_5_5.wsdl")
+public class SignatureServiceV755Simulator implements SignatureServicePortTypeV755 {
+
+    private final KonnektorSimulator simulator;
+
+    SignatureServiceV755Simulator(KonnektorSimulator simulator) {
+        this.simulator = simulator;
+    }
+
+    @Override
+    public List<SignResponse> signDocument(String cardHandle, String crypt, ContextType context, String tvMode, String jobNumber,
+                                           List<SignRequest> signRequest) throws FaultMessage {
+        simulator.simulate(KonnektorSimulator.SIGN_DOCUMENT);
+        SimulatedCard card = simulator.getCard(cardHandle);
+        if (card == null) {
+            throw new FaultMessage("Unknown card handle " + cardHandle,
+                    KonnektorSimulator.error(KonnektorSimulator.ERROR_INVALID_CARD_HANDLE, "Kartenhandle ungültig"));
+        }
+        if (card.isBlocked()) {
+            throw new FaultMessage("PIN of " + cardHandle + " is blocked",
+                    KonnektorSimulator.error(KonnektorSimulator.ERROR_ACCESS_CONDITIONS, "Zugriffsbedingungen nicht erfüllt"));
+        }
+
+        List<SignResponse> signResponses = new ArrayList<>();
+        for (SignRequest request : signRequest) {
+            Base64Signature base64Signature = new Base64Signature();
+            base64Signature.setType("urn:ietf:rfc:5652");
+            try {
+                base64Signature.setValue(card.signDocument(KonnektorSimulator.content(request.getDocument())));
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            SignatureObject signatureObject = new SignatureObject();
+            signatureObject.setBase64Signature(base64Signature);
+
+            SignResponse signResponse = new SignResponse();
+            signResponse.setRequestID(request.getRequestID());
+            signResponse.setStatus(KonnektorSimulator.ok());
+            signResponse.setSignatureObject(signatureObject);
+            signResponses.add(signResponse);
+        }
+        return signResponses;
+    }
+
+    @Override
+    public String getJobNumber(ContextType context) {
+        simulator.simulate(KonnektorSimulator.GET_JOB_NUMBER);
+        return simulator.nextJobNumber();
+    }
+
+    @Override
+    public Status stopSignature(ContextType context, String jobNumber) {
+        simulator.simulate(KonnektorSimulator.STOP_SIGNATURE);
+        return KonnektorSimulator.ok();
+    }
+
+    @Override
+    public void verifyDocument(ContextType context, String tvMode, VerifyDocument.OptionalInputs optionalInputs,
+                               DocumentType document, SignatureObject signatureObject, boolean includeRevocationInfo,
+                               Holder<Status> status, Holder<VerificationResultType> verificationResult,
+                               Holder<VerifyDocumentResponse.OptionalOutputs> optionalOutputs) {
+        throw new UnsupportedOperationException("VerifyDocument is not simulated");
+    }
+
+    @Override
+    public void activateComfortSignature(String cardHandle, ContextType context, Holder<Status> status,
+                                         Holder<SignatureModeEnum> signatureMode) {
+        throw new UnsupportedOperationException("ActivateComfortSignature is not simulated");
+    }
+
+    @Override
+    public Status deactivateComfortSignature(List<String> cardHandle) {
+        throw new UnsupportedOperationException("DeactivateComfortSignature is not simulated");
+    }
+
+    @Override
+    public void getSignatureMode(String cardHandle, ContextType context, Holder<Status> status,
+                                 Holder<ComfortSignatureStatusEnum> comfortSignatureStatus,
+                                 Holder<Integer> comfortSignatureMax, Holder<Duration> comfortSignatureTimer,
+                                 Holder<SessionInfo> sessionInfo) {
+        throw new UnsupportedOperationException("GetSignatureMode is not simulated");
+    }
+}
@@ -0,0 +1,214 @@
+package health.ere.ps.service.connector.simulator;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import de.gematik.ws.conn.cardservice.v8.CardInfoType;
+import de.gematik.ws.conn.cardservice.v8.PinStatusEnum;
+import de.gematik.ws.conn.cardservicecommon.v2.CardTypeType;
+
+/**
+ * A card inserted into the {@link KonnektorSimulator}. The card holds a software
+ * RSA key and a self signed certificate that is returned for every certificate
+ * reference.
+ */
+public class SimulatedCard {
+
+    private final String cardHandle;
+    private final CardTypeType cardType;
+    private final String cardHolderName;
+    private final String iccsn;
+    private final KeyPair keyPair;
+    private final X509Certificate certificate;
+    private final Map<String, PinStatusEnum> pinStatus = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    SimulatedCard(String cardHandle, CardTypeType cardType, String cardHolderName, String iccsn,
+                  KeyPair keyPair, X509Certificate certificate) {
+        this.cardHandle = cardHandle;
+        this.cardType = cardType;
+        this.cardHolderName = cardHolderName;
+        this.iccsn = iccsn;
+        this.keyPair = keyPair;
+        this.certificate = certificate;
+    }
+
+    /**
+     * Creates a card with a fresh 2048 bit RSA key. The PINs of the card are
+     * verifiable but not verified.
+     */
+    public static SimulatedCard create(String cardHandle, CardTypeType cardType, String cardHolderName) {
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+            KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+            X500Name subject = new X500Name("CN=" + cardHolderName + ",O=Simulated " + cardType.value() + ",C=DE");
+            Instant now = Instant.now();
+            X509Certificate certificate = new JcaX509CertificateConverter().getCertificate(
+                    new JcaX509v3CertificateBuilder(subject, BigInteger.valueOf(now.toEpochMilli()),
+                            Date.from(now.minus(1, ChronoUnit.DAYS)), Date.from(now.plus(365, ChronoUnit.DAYS)),
+                            subject, keyPair.getPublic())
+                            .build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+
+            String iccsn = "80276" + String.format("%015d", Math.abs((long) cardHandle.hashCode()));
+            return new SimulatedCard(cardHandle, cardType, cardHolderName, iccsn, keyPair, certificate);
+        } catch (GeneralSecurityException | OperatorCreationException e) {
+            throw new IllegalStateException("Could not create software key for " + cardHandle, e);
+        }
+    }
+
+    public String getCardHandle() {
+        return cardHandle;
+    }
+
+    public CardTypeType getCardType() {
+        return cardType;
+    }
+
+    public KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    public X509Certificate getCertificate() {
+        return certificate;
+    }
+
+    public PinStatusEnum getPinStatus(String pinType) {
+        return pinStatus.getOrDefault(pinType, PinStatusEnum.VERIFIABLE);
+    }
+
+    public void setPinStatus(String pinType, PinStatusEnum status) {
+        pinStatus.put(pinType, status);
+    }
+
+    /**
+     * @return true if any PIN of the card is verified, the simulator does not
+     *         track which operation needs which PIN
+     */
+    boolean isUnlocked() {
+        return pinStatus.containsValue(PinStatusEnum.VERIFIED);
+    }
+
+    /**
+     * @return true if any PIN of the card is blocked
+     */
+    boolean isBlocked() {
+        return pinStatus.containsValue(PinStatusEnum.BLOCKED);
+    }
+
+    CardInfoType toCardInfo(String ctId, int slotId) {
+        CardInfoType cardInfo = new CardInfoType();
+        cardInfo.setCardHandle(cardHandle);
+        cardInfo.setCardType(cardType);
+        cardInfo.setCardHolderName(cardHolderName);
+        cardInfo.setIccsn(iccsn);
+        cardInfo.setCtId(ctId);
+        cardInfo.setSlotId(BigInteger.valueOf(slotId));
+        try {
+            GregorianCalendar expiration = new GregorianCalendar();
+            expiration.setTime(certificate.getNotAfter());
+            cardInfo.setCertificateExpirationDate(DatatypeFactory.newInstance().newXMLGregorianCalendar(expiration));
+        } catch (DatatypeConfigurationException e) {
+            // the expiration date is optional
+        }
+        return cardInfo;
+    }
+
+    /**
+     * Signs an already computed SHA-256 hash with RSASSA-PSS like the
+     * AuthSignatureService does for ExternalAuthenticate. The JDK only signs
+     * complete messages, so the EMSA-PSS encoding of RFC 8017 is done here.
+     */
+    byte[] authenticate(byte[] sha256Hash) throws GeneralSecurityException {
+        int hashLength = 32;
+        int emBits = ((RSAPublicKey) keyPair.getPublic()).getModulus().bitLength() - 1;
+        int emLength = (emBits + 7) / 8;
+
+        byte[] salt = new byte[hashLength];
+        random.nextBytes(salt);
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(new byte[8]);
+        digest.update(sha256Hash);
+        byte[] h = digest.digest(salt);
+
+        byte[] db = new byte[emLength - hashLength - 1];
+        db[db.length - salt.length - 1] = 0x01;
+        System.arraycopy(salt, 0, db, db.length - salt.length, salt.length);
+        byte[] dbMask = mgf1(h, db.length);
+        for (int i = 0; i < db.length; i++) {
+            db[i] ^= dbMask[i];
+        }
+        db[0] &= (byte) (0xFF >>> (8 * emLength - emBits));
+
+        byte[] em = new byte[emLength];
+        System.arraycopy(db, 0, em, 0, db.length);
+        System.arraycopy(h, 0, em, db.length, h.length);
+        em[emLength - 1] = (byte) 0xbc;
+
+        Cipher cipher = Cipher.getInstance("RSA/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPrivate());
+        return cipher.doFinal(em);
+    }
+
+    private static byte[] mgf1(byte[] seed, int length) throws GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] mask = new byte[length];
+        int offset = 0;
+        for (int counter = 0; offset < length; counter++) {
+            digest.update(seed);
+            digest.update(new byte[]{(byte) (counter >>> 24), (byte) (counter >>> 16), (byte) (counter >>> 8), (byte) counter});
+            byte[] block = digest.digest();
+            System.arraycopy(block, 0, mask, offset, Math.min(block.length, length - offset));
+            offset += block.length;
+        }
+        return mask;
+    }
+
+    /**
+     * Creates an enveloping CMS signature of the document like the
+     * SignatureService does for a CAdES SignDocument request.
+     */
+    byte[] signDocument(byte[] document) throws GeneralSecurityException {
+        try {
+            CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+            generator.addSignerInfoGenerator(new JcaSimpleSignerInfoGeneratorBuilder()
+                    .build("SHA256withRSA", keyPair.getPrivate(), certificate));
+            generator.addCertificates(new JcaCertStore(List.of(certificate)));
+            return generator.generate(new CMSProcessableByteArray(Arrays.copyOf(document, document.length)), true)
+                    .getEncoded();
+        } catch (OperatorCreationException | CMSException | IOException e) {
+            throw new GeneralSecurityException("Could not sign document with " + cardHandle, e);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package health.ere.ps.service.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.hl7.fhir.r4.model.Bundle;
+import org.hl7.fhir.r4.model.Identifier;
+import org.junit.jupiter.api.Test;
+
+import health.ere.ps.event.SignAndUploadBundlesEvent;
+import health.ere.ps.model.gematik.ParsedBundle;
+import health.ere.ps.service.gematik.ERezeptWorkflowService;
+
+public class BundleParserTest {
+
+    static JsonObject signAndUploadBundles() throws Exception {
+        String bundle = Files.readString(Path.of("src/test/resources/bundle-json/0428d416-149e-48a4-977c-394887b3d85c.json"));
+        return Json.createReader(new StringReader("{\"type\":\"SignAndUploadBundles\",\"id\":\"1\",\"payload\":[["
+                + bundle + "," + bundle + "]]}")).readObject();
+    }
+
+    @Test
+    void testBundlesAreParsedOnce() throws Exception {
+        JsonObject message = signAndUploadBundles();
+        List<List<ParsedBundle>> parsedBundles = ParsedBundle.fromPayload(message);
+
+        ParsedBundle parsedBundle = parsedBundles.get(0).get(0);
+        assertNull(parsedBundle.getBundle());
+        Bundle bundle = BundleParser.getBundle(parsedBundle);
+        assertSame(bundle, BundleParser.getBundle(parsedBundle));
+        assertSame(parsedBundle, ParsedBundle.of(bundle));
+        assertSame(parsedBundle.getJsonString(), parsedBundle.getJsonString());
+
+        SignAndUploadBundlesEvent event = new SignAndUploadBundlesEvent(message, parsedBundles);
+        assertEquals(2, event.listOfListOfBundles.get(0).size());
+        assertSame(bundle, event.listOfListOfBundles.get(0).get(0));
+    }
+
+    @Test
+    void testCanonicalBytesAreSharedUntilTheBundleIsModified() throws Exception {
+        ParsedBundle parsedBundle = ParsedBundle.fromPayload(signAndUploadBundles()).get(0).get(0);
+        Bundle bundle = BundleParser.getBundle(parsedBundle);
+
+        byte[] canonicalXmlBytes = ERezeptWorkflowService.getCanonicalXmlBytes(bundle);
+        assertSame(canonicalXmlBytes, ERezeptWorkflowService.getCanonicalXmlBytes(bundle));
+        assertSame(BundleParser.getXml(parsedBundle), BundleParser.getXml(parsedBundle));
+
+        bundle.setIdentifier(new Identifier().setSystem("https://gematik.de/fhir/NamingSystem/PrescriptionID")
+                .setValue("160.000.000.000.000.01"));
+        parsedBundle.modified();
+        byte[] modifiedXmlBytes = ERezeptWorkflowService.getCanonicalXmlBytes(bundle);
+
+        assertNotSame(canonicalXmlBytes, modifiedXmlBytes);
+        assertTrue(new String(modifiedXmlBytes, StandardCharsets.UTF_8).contains("160.000.000.000.000.01"));
+        assertFalse(new String(canonicalXmlBytes, StandardCharsets.UTF_8).contains("160.000.000.000.000.01"));
+    }
+
+    @Test
+    void testBundleWithoutParsedBundleIsEncoded() throws Exception {
+        Bundle bundle = new Bundle();
+        bundle.setId("1");
+
+        assertNull(ParsedBundle.of(bundle));
+        assertNotSame(ERezeptWorkflowService.getCanonicalXmlBytes(bundle), ERezeptWorkflowService.getCanonicalXmlBytes(bundle));
+    }
+}
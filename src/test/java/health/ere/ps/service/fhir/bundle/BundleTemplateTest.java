@@ -0,0 +1,49 @@
+package health.ere.ps.service.fhir.bundle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class BundleTemplateTest {
+
+    @Test
+    void testRender() {
+        BundleTemplate template = new BundleTemplate("{\"text\": \"$DOSAGE_TEXT\", \"dosage\": \"$DOSAGE\","
+                + " \"pzn\": \"$PZN\", \"price\": \"5 $\"}$");
+
+        assertEquals(3, template.getPlaceholders().size());
+        assertEquals("{\"text\": \"1-0-1\", \"dosage\": \"$PZN\", \"pzn\": \"$PZN\", \"price\": \"5 $\"}$",
+                template.render(Map.of("$DOSAGE_TEXT", "1-0-1", "$DOSAGE", "$PZN")));
+        assertEquals("no placeholders", new BundleTemplate("no placeholders").render(Map.of()));
+    }
+
+    @Test
+    void testRenderFrontendBundleTemplate() throws IOException {
+        BundleTemplate template = EreBundle.getBundleTemplate();
+        Map<String, String> values = new HashMap<>();
+        template.getPlaceholders().forEach(placeholder -> values.put(placeholder, "value-" + placeholder.length()));
+
+        String json = template.render(values);
+
+        assertFalse(json.contains("$"));
+        // the same as replacing the placeholders one after the other, longest first
+        String expected = new String(getClass().getResourceAsStream("/bundle-samples/FEbundleTemplate.json")
+                .readAllBytes(), StandardCharsets.UTF_8);
+        for (String placeholder : values.keySet().stream()
+                .sorted(Comparator.comparing(String::length).reversed()).collect(Collectors.toList())) {
+            expected = expected.replace(placeholder, values.get(placeholder));
+        }
+        assertEquals(expected, json);
+        // the buffer of the thread is reused for the next bundle
+        assertEquals(json, template.render(values));
+        assertEquals(json, new EreBundle(values).encodeToJson());
+    }
+}
@@ -1,10 +1,17 @@
 package health.ere.ps.service.fhir.bundle;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
 
 import org.hl7.fhir.r4.model.Bundle;
 import org.junit.jupiter.api.Disabled;
@@ -27,5 +34,54 @@ public class XmlPrescriptionProcessorTest {
             e.printStackTrace();
         }
     }
-    
+
+    @Test
+    public void testParseFromStream() throws IOException {
+        String bundleXml = Files.readString(Paths.get("src/main/resources/bundle-samples/kbv-pf-example.xml"));
+        // the bundles of the export inherit the FHIR namespace of the root element
+        String export = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Export xmlns=\"http://hl7.org/fhir\">\n"
+                + bundleXml.replace("<Bundle xmlns=\"http://hl7.org/fhir\">", "<Bundle>")
+                + bundleXml + "</Export>";
+
+        List<Bundle> bundles = new ArrayList<>();
+        XmlPrescriptionProcessor.parseFromStream(
+                new ByteArrayInputStream(export.getBytes(StandardCharsets.UTF_8)), bundles::add);
+
+        assertEquals(2, bundles.size());
+        for (Bundle bundle : bundles) {
+            assertEquals("160.100.000.000.008.18", bundle.getIdentifier().getValue());
+            assertEquals(7, bundle.getEntry().size());
+            assertEquals("https://fhir.kbv.de/StructureDefinition/KBV_PR_ERP_Bundle|1.0.2",
+                    bundle.getMeta().getProfile().get(0).getValue());
+        }
+        assertEquals(2, XmlPrescriptionProcessor.parseFromString(export).length);
+    }
+
+    @Test
+    public void testParseConcatenatedBundles() throws IOException {
+        String bundleXml = Files.readString(Paths.get("src/main/resources/bundle-samples/kbv-pf-example.xml"));
+
+        // each bundle is a document of its own without a common root element
+        String document = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" + bundleXml;
+        assertEquals(2, XmlPrescriptionProcessor.parseFromString(bundleXml + "\n" + bundleXml).length);
+        assertEquals(2, XmlPrescriptionProcessor.parseFromString(document + "\n" + document).length);
+    }
+
+    @Test
+    public void testParseWithTextBeforeTheBundle() throws IOException {
+        String bundleXml = Files.readString(Paths.get("src/main/resources/bundle-samples/kbv-pf-example.xml"));
+
+        List<Bundle> bundles = new ArrayList<>();
+        XmlPrescriptionProcessor.parseFromStream(new ByteArrayInputStream(("Export PVS 2021-06-30\n" + bundleXml)
+                .getBytes(StandardCharsets.UTF_8)), bundles::add);
+
+        assertEquals(1, bundles.size());
+        assertEquals("160.100.000.000.008.18", bundles.get(0).getIdentifier().getValue());
+    }
+
+    @Test
+    public void testParseFromStreamWithoutBundle() {
+        assertThrows(WebApplicationException.class, () -> XmlPrescriptionProcessor.parseFromString("<Export/>"));
+        assertThrows(WebApplicationException.class, () -> XmlPrescriptionProcessor.parseFromString("<Bundle>"));
+    }
 }
@@ -17,6 +17,7 @@ import health.ere.ps.event.ActivateComfortSignatureEvent;
 import health.ere.ps.event.GetSignatureModeResponseEvent;
 import health.ere.ps.exception.gematik.ERezeptWorkflowException;
 import health.ere.ps.service.connector.cards.ConnectorCardsService;
+import health.ere.ps.service.connector.provider.ConnectorSession;
 import health.ere.ps.service.connector.provider.MultiConnectorServicesProvider;
 
 public class ERezeptWorkflowServiceUnitTest {
@@ -36,6 +37,11 @@ public class ERezeptWorkflowServiceUnitTest {
         SignatureServicePortTypeV755 signatureServicePortTypeV755 = mock(SignatureServicePortTypeV755.class);
         when(connectorServicesProvider.getSignatureServicePortTypeV755(any())).thenReturn(signatureServicePortTypeV755);
 
+        ConnectorSession connectorSession = mock(ConnectorSession.class);
+        when(connectorSession.getContextType(any())).thenReturn(new ContextType());
+        when(connectorSession.getSignatureServicePortTypeV755()).thenReturn(signatureServicePortTypeV755);
+        when(connectorServicesProvider.openSession(any())).thenReturn(connectorSession);
+
         Event<GetSignatureModeResponseEvent> getSignatureModeResponseEvent = (Event<GetSignatureModeResponseEvent>) mock(Event.class);
         eRezeptWorkflowServiceUnit.getSignatureModeResponseEvent = getSignatureModeResponseEvent;
 
@@ -0,0 +1,152 @@
+package health.ere.ps.service.idp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+import java.net.ConnectException;
+import java.security.cert.X509Certificate;
+
+import javax.enterprise.event.Event;
+import javax.enterprise.inject.Instance;
+import javax.security.auth.x500.X500Principal;
+import javax.xml.ws.WebServiceException;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import health.ere.ps.config.AppConfig;
+import health.ere.ps.config.RuntimeConfig;
+import health.ere.ps.exception.connector.ConnectorCardsException;
+import health.ere.ps.exception.idp.IdpClientException;
+import health.ere.ps.service.connector.cards.ConnectorCardsService;
+import health.ere.ps.service.connector.cards.ConnectorCardsService.CardHandleType;
+import health.ere.ps.service.connector.certificate.CardCertificateReaderService;
+import health.ere.ps.service.connector.provider.ConnectorPool;
+import health.ere.ps.service.connector.provider.ConnectorSession;
+import health.ere.ps.service.connector.provider.MultiConnectorServicesProvider;
+import health.ere.ps.service.idp.client.IdpClient;
+
+public class BearerTokenServiceTest {
+
+    BearerTokenService bearerTokenService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        bearerTokenService = new BearerTokenService();
+        bearerTokenService.appConfig = mock(AppConfig.class);
+        when(bearerTokenService.appConfig.getIdpBaseURL()).thenReturn("https://idp");
+        when(bearerTokenService.appConfig.getIdpClientId()).thenReturn("client");
+        when(bearerTokenService.appConfig.getIdpAuthRequestRedirectURL()).thenReturn("https://redirect");
+        bearerTokenService.idpClientFactory = mock(Instance.class);
+        when(bearerTokenService.idpClientFactory.get()).thenAnswer(invocation -> mock(IdpClient.class));
+        bearerTokenService.connectorPool = mock(ConnectorPool.class);
+        bearerTokenService.connectorCardsService = mock(ConnectorCardsService.class);
+        bearerTokenService.cardCertificateReaderService = mock(CardCertificateReaderService.class);
+        bearerTokenService.connectorServicesProvider = mock(MultiConnectorServicesProvider.class);
+        bearerTokenService.exceptionEvent = mock(Event.class);
+    }
+
+    static X509Certificate smcbCertificate(int serialNumber) {
+        X509Certificate certificate = mock(X509Certificate.class);
+        when(certificate.getIssuerX500Principal()).thenReturn(new X500Principal("CN=SMC-B CA"));
+        when(certificate.getSerialNumber()).thenReturn(BigInteger.valueOf(serialNumber));
+        return certificate;
+    }
+
+    ConnectorSession openSession(RuntimeConfig runtimeConfig) {
+        ConnectorSession session = mock(ConnectorSession.class);
+        when(session.getRuntimeConfig()).thenReturn(runtimeConfig);
+        when(bearerTokenService.connectorServicesProvider.openSession(runtimeConfig)).thenReturn(session);
+        return session;
+    }
+
+    @Test
+    void testClientPerSmcb() {
+        IdpClient first = bearerTokenService.getIdpClient(null, smcbCertificate(1));
+
+        assertSame(first, bearerTokenService.getIdpClient(null, smcbCertificate(1)));
+        assertNotSame(first, bearerTokenService.getIdpClient(null, smcbCertificate(2)));
+        verify(first).init(eq("client"), eq("https://redirect"), eq("https://idp/.well-known/openid-configuration"), eq(true));
+    }
+
+    @Test
+    void testClientPerIdpOfRuntimeConfig() {
+        RuntimeConfig runtimeConfig = new RuntimeConfig();
+        runtimeConfig.setIdpBaseURL("https://other-idp");
+        runtimeConfig.setIdpClientId("other-client");
+
+        IdpClient idpClient = bearerTokenService.getIdpClient(runtimeConfig, smcbCertificate(1));
+
+        assertNotSame(bearerTokenService.getIdpClient(null, smcbCertificate(1)), idpClient);
+        verify(idpClient).init(eq("other-client"), eq("https://redirect"), eq("https://other-idp/.well-known/openid-configuration"), any(Boolean.class));
+    }
+
+    @Test
+    void testCacheIsBounded() {
+        bearerTokenService.idpClientCacheMaxSize = 2;
+        IdpClient first = bearerTokenService.getIdpClient(null, smcbCertificate(1));
+        bearerTokenService.getIdpClient(null, smcbCertificate(2));
+        bearerTokenService.getIdpClient(null, smcbCertificate(3));
+
+        assertEquals(2, bearerTokenService.idpClients.size());
+        verify(bearerTokenService.idpClientFactory).destroy(first);
+        assertNotSame(first, bearerTokenService.getIdpClient(null, smcbCertificate(1)));
+    }
+
+    @Test
+    void testSmcbHandleIsReadFromPinnedConnector() throws Exception {
+        RuntimeConfig pinned = new RuntimeConfig("https://connector-2");
+        when(bearerTokenService.connectorPool.pin(null)).thenReturn(pinned);
+        ConnectorSession session = openSession(pinned);
+        when(bearerTokenService.connectorCardsService.getConnectorCardHandle(CardHandleType.SMC_B, session))
+                .thenReturn("SMC-B-1");
+        X509Certificate certificate = smcbCertificate(1);
+        when(bearerTokenService.cardCertificateReaderService.retrieveSmcbCardCertificate("SMC-B-1", session))
+                .thenReturn(certificate);
+        when(bearerTokenService.getIdpClient(pinned, certificate).login(certificate, pinned))
+                .thenThrow(new IdpClientException("IDP not reachable"));
+
+        assertThrows(RuntimeException.class, () -> bearerTokenService.requestBearerToken());
+
+        verify(bearerTokenService.connectorCardsService).getConnectorCardHandle(CardHandleType.SMC_B, session);
+        // the IDP failed, the connector stays in the pool
+        verify(bearerTokenService.connectorPool, never()).reportFailure(any());
+    }
+
+    @Test
+    void testConnectorFailureIsReported() throws Exception {
+        RuntimeConfig pinned = new RuntimeConfig("https://connector-2");
+        when(bearerTokenService.connectorPool.pin(null)).thenReturn(pinned);
+        ConnectorSession session = openSession(pinned);
+        when(bearerTokenService.connectorCardsService.getConnectorCardHandle(CardHandleType.SMC_B, session))
+                .thenThrow(new ConnectorCardsException("Error getting connector card handles.",
+                        new WebServiceException(new ConnectException("Connection refused"))));
+
+        assertThrows(RuntimeException.class, () -> bearerTokenService.requestBearerToken());
+
+        verify(bearerTokenService.connectorPool).reportFailure(pinned);
+    }
+
+    @Test
+    void testMissingCardIsNoConnectorFailure() throws Exception {
+        RuntimeConfig pinned = new RuntimeConfig("https://connector-2");
+        when(bearerTokenService.connectorPool.pin(null)).thenReturn(pinned);
+        ConnectorSession session = openSession(pinned);
+        when(bearerTokenService.connectorCardsService.getConnectorCardHandle(CardHandleType.SMC_B, session))
+                .thenThrow(new ConnectorCardsException("No card handle found for card."));
+
+        assertThrows(RuntimeException.class, () -> bearerTokenService.requestBearerToken());
+
+        verify(bearerTokenService.connectorPool, never()).reportFailure(any());
+    }
+}
@@ -0,0 +1,82 @@
+package health.ere.ps.service.idp.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import javax.ws.rs.core.Response;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import health.ere.ps.exception.idp.IdpClientException;
+
+public class AuthenticatorClientPoolTest {
+
+    HttpServer server;
+    AuthenticatorClient authenticatorClient;
+    String baseUrl;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        });
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort();
+        authenticatorClient = new AuthenticatorClient();
+    }
+
+    @AfterEach
+    void tearDown() {
+        authenticatorClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    void testProxiesAreCachedPerUrl() throws Exception {
+        IdpHttpClientService discovery = authenticatorClient.getIdpHttpClientInstanceByUrl(baseUrl + "/discovery");
+
+        assertSame(discovery, authenticatorClient.getIdpHttpClientInstanceByUrl(baseUrl + "/discovery"));
+        assertNotSame(discovery, authenticatorClient.getIdpHttpClientInstanceByUrl(baseUrl + "/token"));
+        assertEquals(2, authenticatorClient.getStatistics().getProxiesCreated());
+        assertEquals(1, authenticatorClient.getStatistics().getProxiesReused());
+    }
+
+    @Test
+    void testConnectionsAreReused() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            for (String path : new String[] { "/discovery", "/puk_idp_sig", "/puk_idp_enc" }) {
+                try (Response response = authenticatorClient.getIdpHttpClientInstanceByUrl(baseUrl + path)
+                        .doGenericGetRequest()) {
+                    assertEquals("{}", response.readEntity(String.class));
+                }
+            }
+        }
+
+        IdpHttpClientStatistics statistics = authenticatorClient.getStatistics();
+        assertEquals(9, statistics.getRequests());
+        assertEquals(1, statistics.getConnectionsCreated());
+        assertEquals(8, statistics.getConnectionsReused());
+    }
+
+    @Test
+    void testBadUrl() {
+        assertThrows(IdpClientException.class, () -> authenticatorClient.getIdpHttpClientInstanceByUrl("no url"));
+        assertEquals(0, authenticatorClient.getStatistics().getProxiesCreated());
+    }
+}
@@ -0,0 +1,124 @@
+package health.ere.ps.service.idp.client;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeout;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import health.ere.ps.exception.idp.IdpClientException;
+import health.ere.ps.model.idp.client.DiscoveryDocumentResponse;
+
+public class DiscoveryDocumentCacheTest {
+
+    static final String URL = "https://idp.local/.well-known/openid-configuration";
+
+    DiscoveryDocumentCache discoveryDocumentCache;
+    AuthenticatorClient authenticatorClient;
+
+    @BeforeEach
+    void setUp() {
+        authenticatorClient = mock(AuthenticatorClient.class);
+        discoveryDocumentCache = new DiscoveryDocumentCache();
+        discoveryDocumentCache.authenticatorClient = authenticatorClient;
+    }
+
+    @Test
+    void testDocumentIsFetchedOnce() throws Exception {
+        DiscoveryDocumentResponse document = new DiscoveryDocumentResponse();
+        when(authenticatorClient.retrieveDiscoveryDocument(URL)).thenReturn(document);
+
+        assertSame(document, discoveryDocumentCache.get(URL));
+        assertSame(document, discoveryDocumentCache.get(URL));
+
+        verify(authenticatorClient, times(1)).retrieveDiscoveryDocument(URL);
+    }
+
+    @Test
+    void testForcedRefreshIsRateLimited() throws Exception {
+        DiscoveryDocumentResponse document = new DiscoveryDocumentResponse();
+        DiscoveryDocumentResponse rotated = new DiscoveryDocumentResponse();
+        when(authenticatorClient.retrieveDiscoveryDocument(URL)).thenReturn(document, rotated);
+        discoveryDocumentCache.get(URL);
+
+        // fetched just now, a second IDP error must not cause another fetch
+        assertSame(document, discoveryDocumentCache.refresh(URL));
+
+        discoveryDocumentCache.minRefreshSeconds = 0;
+        assertSame(rotated, discoveryDocumentCache.refresh(URL));
+        assertSame(rotated, discoveryDocumentCache.get(URL));
+    }
+
+    @Test
+    void testBackgroundRefreshKeepsDocumentOnFailure() throws Exception {
+        DiscoveryDocumentResponse document = new DiscoveryDocumentResponse();
+        discoveryDocumentCache.documents.put(URL, new DiscoveryDocumentCache.CachedDiscoveryDocument(document,
+                Instant.now().minusSeconds(discoveryDocumentCache.ttlSeconds - 60)));
+        when(authenticatorClient.retrieveDiscoveryDocument(URL)).thenThrow(new IdpClientException("IDP not reachable"));
+
+        discoveryDocumentCache.refreshExpiring();
+
+        verify(authenticatorClient, times(1)).retrieveDiscoveryDocument(URL);
+        assertSame(document, discoveryDocumentCache.get(URL));
+    }
+
+    @Test
+    void testExpiredDocumentIsUsedWhenIdpIsDown() throws Exception {
+        DiscoveryDocumentResponse document = new DiscoveryDocumentResponse();
+        discoveryDocumentCache.documents.put(URL, new DiscoveryDocumentCache.CachedDiscoveryDocument(document,
+                Instant.now().minusSeconds(discoveryDocumentCache.ttlSeconds + 60)));
+        when(authenticatorClient.retrieveDiscoveryDocument(URL)).thenThrow(new IdpClientException("IDP not reachable"));
+
+        assertSame(document, discoveryDocumentCache.get(URL));
+        // the failed refresh is not repeated for every login
+        assertSame(document, discoveryDocumentCache.get(URL));
+        verify(authenticatorClient, times(1)).retrieveDiscoveryDocument(URL);
+    }
+
+    @Test
+    void testSlowIdpDoesNotBlockOtherIdps() throws Exception {
+        String otherUrl = "https://other-idp.local/.well-known/openid-configuration";
+        DiscoveryDocumentResponse otherDocument = new DiscoveryDocumentResponse();
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(authenticatorClient.retrieveDiscoveryDocument(URL)).thenAnswer(invocation -> {
+            fetching.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return new DiscoveryDocumentResponse();
+        });
+        when(authenticatorClient.retrieveDiscoveryDocument(otherUrl)).thenReturn(otherDocument);
+        Thread slowLogin = new Thread(() -> {
+            try {
+                discoveryDocumentCache.get(URL);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        slowLogin.start();
+        fetching.await(10, TimeUnit.SECONDS);
+
+        try {
+            assertSame(otherDocument, assertTimeout(Duration.ofSeconds(5), () -> discoveryDocumentCache.get(otherUrl)));
+        } finally {
+            release.countDown();
+            slowLogin.join();
+        }
+    }
+
+    @Test
+    void testUnreachableIdpWithoutDocumentThrows() throws Exception {
+        when(authenticatorClient.retrieveDiscoveryDocument(URL)).thenThrow(new IdpClientException("IDP not reachable"));
+
+        assertThrows(IdpClientException.class, () -> discoveryDocumentCache.get(URL));
+    }
+}
@@ -0,0 +1,121 @@
+package health.ere.ps.service.idp.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.X509Certificate;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import health.ere.ps.model.idp.client.AuthenticationRequest;
+import health.ere.ps.model.idp.client.AuthenticationResponse;
+import health.ere.ps.model.idp.client.AuthorizationResponse;
+import health.ere.ps.model.idp.client.DiscoveryDocumentResponse;
+import health.ere.ps.model.idp.client.IdpTokenResult;
+import health.ere.ps.model.idp.client.TokenRequest;
+import health.ere.ps.model.idp.client.authentication.AuthenticationChallenge;
+import health.ere.ps.model.idp.client.token.IdpJwe;
+import health.ere.ps.model.idp.client.token.JsonWebToken;
+import health.ere.ps.service.connector.auth.SmcbAuthenticatorService;
+
+public class IdpClientSsoTokenTest {
+
+    IdpClient idpClient;
+    AuthenticatorClient authenticatorClient;
+    SmcbAuthenticatorService smcbAuthenticatorService;
+    X509Certificate certificate;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        authenticatorClient = mock(AuthenticatorClient.class);
+        smcbAuthenticatorService = mock(SmcbAuthenticatorService.class);
+        idpClient = new IdpClient();
+        idpClient.authenticatorClient = authenticatorClient;
+        idpClient.smcbAuthenticatorService = smcbAuthenticatorService;
+        idpClient.logger = Logger.getLogger(IdpClient.class);
+        idpClient.init("client", "https://redirect", "https://idp/discovery", false);
+
+        when(authenticatorClient.retrieveDiscoveryDocument(any())).thenReturn(DiscoveryDocumentResponse.builder()
+                .authorizationEndpoint("https://idp/auth")
+                .tokenEndpoint("https://idp/token")
+                .ssoEndpoint("https://idp/sso")
+                .build());
+        idpClient.initializeClient();
+
+        certificate = mock(X509Certificate.class);
+        when(certificate.getIssuerX500Principal()).thenReturn(new X500Principal("CN=SMC-B CA"));
+        when(certificate.getSerialNumber()).thenReturn(BigInteger.ONE);
+    }
+
+    static IdpJwe ssoToken(ZonedDateTime expiresAt) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        String header = "{\"alg\":\"dir\",\"enc\":\"A256GCM\",\"exp\":" + expiresAt.toEpochSecond() + "}";
+        return new IdpJwe(encoder.encodeToString(header.getBytes(StandardCharsets.UTF_8))
+                + "..aXY.Y2lwaGVy.dGFn");
+    }
+
+    @Test
+    void testLoginWithSsoTokenNeedsNoCard() throws Exception {
+        IdpJwe ssoToken = ssoToken(ZonedDateTime.now().plusHours(12));
+        idpClient.rememberSsoToken(IdpClient.ssoTokenKey(certificate), ssoToken);
+
+        AuthorizationResponse authorizationResponse = new AuthorizationResponse();
+        authorizationResponse.setAuthenticationChallenge(new AuthenticationChallenge(new JsonWebToken("challenge"), null));
+        when(authenticatorClient.doAuthorizationRequest(any())).thenReturn(authorizationResponse);
+        when(authenticatorClient.performAuthenticationWithSsoToken(any())).thenReturn(AuthenticationResponse.builder()
+                .code("code")
+                .location("https://redirect?code=code")
+                .build());
+        IdpTokenResult idpTokenResult = new IdpTokenResult();
+        when(authenticatorClient.retrieveAccessToken(any())).thenReturn(idpTokenResult);
+
+        assertSame(idpTokenResult, idpClient.login(certificate, null));
+
+        ArgumentCaptor<AuthenticationRequest> authenticationRequest = ArgumentCaptor.forClass(AuthenticationRequest.class);
+        verify(authenticatorClient).performAuthenticationWithSsoToken(authenticationRequest.capture());
+        assertEquals("https://idp/sso", authenticationRequest.getValue().getAuthenticationEndpointUrl());
+        assertEquals(ssoToken.getRawString(), authenticationRequest.getValue().getSsoToken());
+        ArgumentCaptor<TokenRequest> tokenRequest = ArgumentCaptor.forClass(TokenRequest.class);
+        verify(authenticatorClient).retrieveAccessToken(tokenRequest.capture());
+        assertEquals("code", tokenRequest.getValue().getCode());
+        verify(authenticatorClient, never()).performAuthentication(any());
+        verifyNoInteractions(smcbAuthenticatorService);
+    }
+
+    @Test
+    void testExpiredSsoTokenIsNotUsed() {
+        String ssoTokenKey = IdpClient.ssoTokenKey(certificate);
+        idpClient.rememberSsoToken(ssoTokenKey, ssoToken(ZonedDateTime.now().plusSeconds(10)));
+
+        assertNull(idpClient.getValidSsoToken(ssoTokenKey));
+        assertNull(idpClient.ssoTokens.get(ssoTokenKey));
+    }
+
+    @Test
+    void testSsoTokenWithoutExpiryUsesMaxAge() {
+        String ssoTokenKey = IdpClient.ssoTokenKey(certificate);
+        IdpJwe ssoToken = new IdpJwe("no-jwe");
+        idpClient.rememberSsoToken(ssoTokenKey, ssoToken);
+
+        assertSame(ssoToken, idpClient.getValidSsoToken(ssoTokenKey));
+
+        idpClient.ssoTokenEnabled = false;
+        assertNull(idpClient.getValidSsoToken(ssoTokenKey));
+    }
+}
@@ -0,0 +1,43 @@
+package health.ere.ps.service.pdf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class ClasspathResolverURIAdapterTest {
+
+    ClasspathResolverURIAdapter resolver = new ClasspathResolverURIAdapter();
+
+    @Test
+    void testMemoryResource() throws IOException {
+        byte[] content = "<root/>".getBytes(StandardCharsets.UTF_8);
+        URI uri = resolver.putInMemory("bundles-1.xml", content);
+
+        assertEquals("memory:bundles-1.xml", uri.toString());
+        // FOP resolves the URI against its base URI
+        URI resolved = URI.create("file:/app/fop/").resolve(uri);
+        try (InputStream inputStream = resolver.getResource(resolved)) {
+            assertArrayEquals(content, inputStream.readAllBytes());
+        }
+
+        resolver.removeFromMemory(uri);
+        assertEquals(0, resolver.getMemoryResourceCount());
+        assertThrows(IOException.class, () -> resolver.getResource(uri));
+    }
+
+    @Test
+    void testClasspathResource() throws IOException {
+        try (InputStream inputStream = resolver.getResource(URI.create("classpath:/fop/img/erezept-app-note.svg"))) {
+            assertTrue(inputStream.readAllBytes().length > 0);
+        }
+        assertThrows(IOException.class, () -> resolver.getResource(URI.create("classpath:/fop/missing.svg")));
+    }
+}
@@ -0,0 +1,144 @@
+package health.ere.ps.service.status;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.gematik.ws.conn.connectorcontext.v2.ContextType;
+import de.gematik.ws.conn.eventservice.v7.GetCardsResponse;
+import de.gematik.ws.conn.eventservice.wsdl.v7.EventServicePortType;
+import de.gematik.ws.conn.eventservice.wsdl.v7.FaultMessage;
+import health.ere.ps.config.AppConfig;
+import health.ere.ps.config.RuntimeConfig;
+import health.ere.ps.config.UserConfig;
+import health.ere.ps.model.config.UserConfigurations;
+import health.ere.ps.model.status.Status;
+import health.ere.ps.service.common.security.SecretsManagerService;
+import health.ere.ps.service.connector.cards.ConnectorCardsService;
+import health.ere.ps.service.connector.certificate.CardCertificateReaderService;
+import health.ere.ps.service.connector.provider.MultiConnectorServicesProvider;
+import health.ere.ps.service.gematik.ERezeptWorkflowService;
+import health.ere.ps.service.idp.BearerTokenService;
+import health.ere.ps.service.idp.client.IdpClient;
+import health.ere.ps.validation.fhir.bundle.ValidatorWarmUp;
+import health.ere.ps.validation.fhir.bundle.ValidatorWarmUpStatus;
+
+public class StatusServiceUnitTest {
+
+    StatusService statusService;
+    EventServicePortType eventServicePortType;
+    ValidatorWarmUpStatus warmUpStatus;
+
+    @BeforeEach
+    void setUp() throws FaultMessage {
+        statusService = new StatusService();
+
+        statusService.connectorServicesProvider = mock(MultiConnectorServicesProvider.class);
+        eventServicePortType = mock(EventServicePortType.class);
+        when(statusService.connectorServicesProvider.getContextType(any())).thenReturn(new ContextType());
+        when(statusService.connectorServicesProvider.getEventServicePortType(any())).thenReturn(eventServicePortType);
+        when(eventServicePortType.getCards(any())).thenReturn(new GetCardsResponse());
+
+        statusService.userConfig = mock(UserConfig.class);
+        when(statusService.userConfig.getConfigurations()).thenReturn(new UserConfigurations());
+        when(statusService.userConfig.getConnectorBaseURL()).thenReturn("https://connector");
+
+        statusService.appConfig = mock(AppConfig.class);
+        statusService.secretsManagerService = mock(SecretsManagerService.class);
+        statusService.bearerTokenService = mock(BearerTokenService.class);
+        when(statusService.bearerTokenService.getIdpClient(any())).thenReturn(mock(IdpClient.class));
+        statusService.connectorCardsService = mock(ConnectorCardsService.class);
+        statusService.cardCertificateReaderService = mock(CardCertificateReaderService.class);
+        statusService.eRezeptWorkflowService = mock(ERezeptWorkflowService.class);
+        statusService.validatorWarmUp = mock(ValidatorWarmUp.class);
+        warmUpStatus = mock(ValidatorWarmUpStatus.class);
+        when(statusService.validatorWarmUp.getStatus()).thenReturn(warmUpStatus);
+        when(warmUpStatus.getState()).thenReturn(ValidatorWarmUpStatus.State.RUNNING);
+    }
+
+    @AfterEach
+    void tearDown() {
+        statusService.shutdown();
+    }
+
+    @Test
+    void testStatusIsCached() throws FaultMessage {
+        Status status = statusService.getStatus(null);
+
+        assertTrue(status.getConnectorReachable());
+        assertSame(status, statusService.getStatus(null));
+        verify(eventServicePortType, times(1)).getCards(any());
+    }
+
+    @Test
+    void testCachedStatusShowsTheValidatorWarmUp() {
+        Status status = statusService.getStatus(null);
+        assertFalse(status.getValidatorReady());
+
+        when(warmUpStatus.isReady()).thenReturn(true);
+        when(warmUpStatus.getState()).thenReturn(ValidatorWarmUpStatus.State.READY);
+
+        assertTrue(statusService.getStatus(null).getValidatorReady());
+        assertTrue(statusService.getStatus(null).getValidatorInformation().startsWith("READY"));
+    }
+
+    @Test
+    void testForceRefreshProbesAgain() throws FaultMessage {
+        Status status = statusService.getStatus(null);
+        when(eventServicePortType.getCards(any())).thenThrow(new FaultMessage("Connector down", null));
+
+        Status refreshed = statusService.getStatus(null, true);
+
+        assertTrue(status.getConnectorReachable());
+        assertFalse(refreshed.getConnectorReachable());
+        verify(eventServicePortType, times(2)).getCards(any());
+    }
+
+    @Test
+    void testStatisticsAreRecorded() throws FaultMessage {
+        statusService.getStatus(null);
+        when(eventServicePortType.getCards(any())).thenThrow(new FaultMessage("Connector down", null));
+        statusService.getStatus(null, true);
+
+        StatusCheckStatistics connectorStatistics = statusService.getStatistics().get(StatusService.CHECK_CONNECTOR);
+        assertEquals(2, connectorStatistics.getSampleCount());
+        assertEquals(0.5, connectorStatistics.getAvailability());
+        assertFalse(connectorStatistics.getLastSuccess());
+    }
+
+    @Test
+    void testStatusIsCachedForEqualRuntimeConfigs() throws Exception {
+        // every request creates its own runtime config
+        Status status = statusService.getStatus(new RuntimeConfig("HBA-1", "SMC-B-1"));
+
+        assertSame(status, statusService.getStatus(new RuntimeConfig("HBA-1", "SMC-B-1")));
+        verify(eventServicePortType, times(1)).getCards(any());
+        verify(statusService.bearerTokenService.getIdpClient(null), times(1)).getDiscoveryDocument();
+
+        statusService.getStatus(new RuntimeConfig("HBA-1", "SMC-B-2"));
+        verify(eventServicePortType, times(2)).getCards(any());
+    }
+
+    @Test
+    void testStatisticsAreRecordedPerConfiguration() throws FaultMessage {
+        statusService.getStatus(null);
+        when(eventServicePortType.getCards(any())).thenThrow(new FaultMessage("Connector down", null));
+        statusService.getStatus(new RuntimeConfig("HBA-1", "SMC-B-1"));
+
+        assertTrue(statusService.getStatistics().get(StatusService.CHECK_CONNECTOR).getLastSuccess());
+        assertFalse(statusService.getStatistics(new RuntimeConfig("HBA-1", "SMC-B-1"))
+                .get(StatusService.CHECK_CONNECTOR).getLastSuccess());
+        assertNull(statusService.getStatistics(new RuntimeConfig("HBA-2", "SMC-B-1")).get(StatusService.CHECK_CONNECTOR));
+    }
+}
@@ -0,0 +1,84 @@
+package health.ere.ps.validation.fhir.bundle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.validation.FhirValidator;
+import ca.uhn.fhir.validation.SingleValidationMessage;
+
+public class KbvBundleStructureValidatorTest {
+
+    static final String BUNDLE_FILE = "src/test/resources/bundle-json/0428d416-149e-48a4-977c-394887b3d85c.json";
+
+    KbvBundleStructureValidator structureValidator = new KbvBundleStructureValidator();
+
+    static JsonObject bundle(String... replacements) throws Exception {
+        String bundle = Files.readString(Path.of(BUNDLE_FILE));
+        for (int i = 0; i < replacements.length; i += 2) {
+            assertTrue(bundle.contains(replacements[i]), replacements[i]);
+            bundle = bundle.replace(replacements[i], replacements[i + 1]);
+        }
+        return Json.createReader(new StringReader(bundle)).readObject();
+    }
+
+    List<String> errors(JsonValue bundle) {
+        return structureValidator.validate(bundle).stream()
+                .map(SingleValidationMessage::getMessage).collect(Collectors.toList());
+    }
+
+    @Test
+    void testValidBundleHasNoFindings() throws Exception {
+        assertEquals(List.of(), errors(bundle()));
+        // other resources are left to HAPI
+        assertEquals(List.of(), errors(Json.createObjectBuilder().add("resourceType", "Patient").build()));
+    }
+
+    @Test
+    void testTypicalErrorsAreFound() throws Exception {
+        assertEquals(List.of("Medication.code: the PZN is empty"), errors(bundle("\"08585997\"", "\"\"")));
+        assertEquals(List.of("MedicationRequest.dispenseRequest.quantity.value: the number of packages must be at least 1, but is 0"),
+                errors(bundle("\"value\": 1,", "\"value\": 0,")));
+        assertEquals(List.of("MedicationRequest.dispenseRequest.quantity.value: the number of packages must be at least 1, but is 0.5"),
+                errors(bundle("\"value\": 1,", "\"value\": 0.5,")));
+        // the Coverage is missing, the section and the MedicationRequest reference it
+        assertEquals(2, errors(bundle("\"fullUrl\": \"http://pvs.praxis.local/fhir/Coverage/df0f2536-97b9-4bae-99cc-83ba2e8371e4\"",
+                "\"fullUrl\": \"http://pvs.praxis.local/fhir/Coverage/other\"", "\"id\": \"df0f2536-97b9-4bae-99cc-83ba2e8371e4\"",
+                "\"id\": \"other\"")).stream().filter(e -> e.contains("Coverage/df0f2536")).count());
+        assertEquals(List.of("Unable to resolve reference 'MedicationRequest/unknown' to an entry of the bundle"),
+                errors(bundle("\"reference\": \"MedicationRequest/06dc1594-509a-4f4c-ada7-dfd477a02d86\"",
+                        "\"reference\": \"MedicationRequest/unknown\"")));
+    }
+
+    @Test
+    void testStructureErrorsSkipTheInstanceValidator() throws Exception {
+        PrescriptionBundleValidator prescriptionBundleValidator = new PrescriptionBundleValidator();
+        prescriptionBundleValidator.ctx = FhirContext.forR4();
+        prescriptionBundleValidator.validationResultCache = new ValidationResultCache(10);
+        prescriptionBundleValidator.validator = mock(FhirValidator.class);
+
+        JsonObject result = prescriptionBundleValidator.validateBundle(bundle("\"08585997\"", "\"\"")).build();
+
+        verify(prescriptionBundleValidator.validator, never()).validateWithResult(anyString());
+        assertFalse(result.getBoolean("valid"));
+        assertEquals(" Next issue ERROR - Bundle.entry[2].resource/*Medication/f568397d-7ba2-46ac-904b-02caec933b42*/"
+                + ".code.coding[0].code - Medication.code: the PZN is empty", result.getJsonArray("errors").getString(0));
+    }
+}
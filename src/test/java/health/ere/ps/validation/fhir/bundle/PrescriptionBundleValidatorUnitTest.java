@@ -0,0 +1,155 @@
+package health.ere.ps.validation.fhir.bundle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.validation.FhirValidator;
+import ca.uhn.fhir.validation.ResultSeverityEnum;
+import ca.uhn.fhir.validation.SingleValidationMessage;
+import ca.uhn.fhir.validation.ValidationResult;
+import health.ere.ps.model.gematik.ParsedBundle;
+
+public class PrescriptionBundleValidatorUnitTest {
+
+    static final long VALIDATION_MILLIS = 200;
+
+    PrescriptionBundleValidator prescriptionBundleValidator;
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        prescriptionBundleValidator = new PrescriptionBundleValidator();
+        prescriptionBundleValidator.ctx = FhirContext.forR4();
+        prescriptionBundleValidator.validationResultCache = new ValidationResultCache(0);
+        prescriptionBundleValidator.parallelism = 4;
+        prescriptionBundleValidator.validator = mock(FhirValidator.class);
+        // bundles with an odd id are invalid
+        when(prescriptionBundleValidator.validator.validateWithResult(anyString())).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(VALIDATION_MILLIS);
+            } finally {
+                running.decrementAndGet();
+            }
+            JsonObject bundle = Json.createReader(new StringReader(invocation.getArgument(0))).readObject();
+            if (Integer.parseInt(bundle.getString("id")) % 2 == 0) {
+                return new ValidationResult(prescriptionBundleValidator.ctx, List.of());
+            }
+            SingleValidationMessage message = new SingleValidationMessage();
+            message.setSeverity(ResultSeverityEnum.ERROR);
+            message.setMessage("invalid " + bundle.getString("id"));
+            return new ValidationResult(prescriptionBundleValidator.ctx, List.of(message));
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        prescriptionBundleValidator.shutdown();
+    }
+
+    static JsonObject validateBundles(int bundles) {
+        JsonArrayBuilder bundleArray = Json.createArrayBuilder();
+        for (int i = 0; i < bundles; i++) {
+            bundleArray.add(Json.createObjectBuilder().add("resourceType", "Bundle").add("id", String.valueOf(i)));
+        }
+        return Json.createObjectBuilder()
+                .add("type", "ValidateBundles")
+                .add("id", "message-1")
+                .add("payload", Json.createArrayBuilder().add(bundleArray))
+                .build();
+    }
+
+    @Test
+    void testBundlesAreValidatedInParallelInPayloadOrder() {
+        long start = System.currentTimeMillis();
+        JsonObject result = prescriptionBundleValidator.bundlesValidationResultAsync(validateBundles(9)).join();
+        long duration = System.currentTimeMillis() - start;
+
+        assertEquals("BundlesValidationResult", result.getString("type"));
+        assertEquals("message-1", result.getString("replyToMessageId"));
+        assertEquals(9, result.getJsonArray("payload").size());
+        for (int i = 0; i < 9; i++) {
+            JsonObject bundleResult = result.getJsonArray("payload").getJsonObject(i);
+            assertEquals(i % 2 == 0, bundleResult.getBoolean("valid"));
+            if (i % 2 != 0) {
+                assertTrue(bundleResult.getJsonArray("errors").getString(0).endsWith("invalid " + i));
+            }
+        }
+        // the first bundle runs alone, the other 8 run on 4 threads
+        assertTrue(maxRunning.get() > 1);
+        assertTrue(maxRunning.get() <= 4);
+        assertTrue(duration < 9 * VALIDATION_MILLIS, "took " + duration + " ms");
+    }
+
+    @Test
+    void testFirstValidationRunsAlone() {
+        prescriptionBundleValidator.bundlesValidationResultAsync(validateBundles(2)).join();
+
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    void testFirstValidationRunsAloneAcrossMessages() {
+        CompletableFuture<JsonObject> first = prescriptionBundleValidator.bundlesValidationResultAsync(validateBundles(1));
+        CompletableFuture<JsonObject> second = prescriptionBundleValidator.bundlesValidationResultAsync(validateBundles(1));
+        CompletableFuture.allOf(first, second).join();
+
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    void testWarmUpWaitsForFirstValidation() {
+        CompletableFuture<JsonObject> first = prescriptionBundleValidator.bundlesValidationResultAsync(validateBundles(1));
+        prescriptionBundleValidator.warmUp("{\"resourceType\":\"Bundle\",\"id\":\"2\"}");
+        first.join();
+
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    void testFullQueueRejectsMessage() {
+        prescriptionBundleValidator.parallelism = 1;
+        prescriptionBundleValidator.queueSize = 1;
+
+        CompletableFuture<JsonObject> result = prescriptionBundleValidator.bundlesValidationResultAsync(validateBundles(3));
+
+        CompletionException exception = assertThrows(CompletionException.class, result::join);
+        // the calling thread, e.g. the websocket thread, did not validate the third bundle itself
+        assertTrue(exception.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    void testResultIsAsynchronous() {
+        assertFalse(prescriptionBundleValidator.bundlesValidationResultAsync(validateBundles(1)).isDone());
+    }
+
+    @Test
+    void testMessageWithoutIdIsAnsweredWithEmptyReplyToMessageId() {
+        JsonObject result = prescriptionBundleValidator
+                .bundlesValidationResultAsync(ParsedBundle.fromPayload(validateBundles(1)), null).join();
+
+        assertEquals("", result.getString("replyToMessageId"));
+    }
+}
@@ -0,0 +1,83 @@
+package health.ere.ps.validation.fhir.bundle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.validation.FhirValidator;
+import ca.uhn.fhir.validation.ResultSeverityEnum;
+import ca.uhn.fhir.validation.SingleValidationMessage;
+import ca.uhn.fhir.validation.ValidationResult;
+
+public class ValidationResultCacheTest {
+
+    static final String BUNDLE = "{\"resourceType\":\"Bundle\",\"id\":\"1\",\"entry\":[{\"fullUrl\":\"a\"},{\"fullUrl\":\"b\"}]}";
+
+    @Test
+    void testJsonIsNormalized() {
+        String reordered = "{\n  \"id\": \"1\",\n  \"entry\": [ {\"fullUrl\": \"a\"}, {\"fullUrl\": \"b\"} ],\n  \"resourceType\": \"Bundle\"\n}";
+        JsonObject parsed = Json.createReader(new StringReader(BUNDLE)).readObject();
+
+        assertEquals(ValidationResultCache.contentHash(BUNDLE), ValidationResultCache.contentHash(reordered));
+        assertEquals(ValidationResultCache.contentHash(BUNDLE), ValidationResultCache.contentHash(parsed));
+        // the order of the entries is part of the content
+        assertNotEquals(ValidationResultCache.contentHash(BUNDLE),
+                ValidationResultCache.contentHash(BUNDLE.replace("\"a\"", "\"c\"").replace("\"b\"", "\"a\"").replace("\"c\"", "\"b\"")));
+        assertEquals(ValidationResultCache.contentHash("<Bundle>\r\n</Bundle>"),
+                ValidationResultCache.contentHash("  <Bundle>\n</Bundle>\n"));
+    }
+
+    @Test
+    void testLeastRecentlyUsedResultIsDropped() {
+        ValidationResultCache cache = new ValidationResultCache(2);
+        cache.put("a", List.of());
+        cache.put("b", List.of());
+        cache.get("a");
+        cache.put("c", List.of());
+
+        assertEquals(2, cache.getSize());
+        assertNull(cache.get("b"));
+        assertEquals(List.of(), cache.get("a"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void testRepeatedValidationUsesCache() {
+        PrescriptionBundleValidator prescriptionBundleValidator = new PrescriptionBundleValidator();
+        prescriptionBundleValidator.ctx = FhirContext.forR4();
+        prescriptionBundleValidator.validationResultCache = new ValidationResultCache(10);
+        prescriptionBundleValidator.validator = mock(FhirValidator.class);
+        SingleValidationMessage message = new SingleValidationMessage();
+        message.setSeverity(ResultSeverityEnum.ERROR);
+        message.setMessage("Bundle.identifier: minimum required = 1");
+        when(prescriptionBundleValidator.validator.validateWithResult(anyString()))
+                .thenReturn(new ValidationResult(prescriptionBundleValidator.ctx, List.of(message)));
+
+        JsonObject bundle = Json.createReader(new StringReader(BUNDLE)).readObject();
+        prescriptionBundleValidator.validateBundle(bundle);
+        List<String> errors = new ArrayList<>();
+        ValidationResult validationResult = prescriptionBundleValidator.validateResource(BUNDLE, errors);
+
+        verify(prescriptionBundleValidator.validator, times(1)).validateWithResult(anyString());
+        assertFalse(validationResult.isSuccessful());
+        assertEquals(1, errors.size());
+        assertEquals(1, prescriptionBundleValidator.getValidationResultCache().getHits());
+    }
+}
@@ -0,0 +1,83 @@
+package health.ere.ps.validation.fhir.bundle;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import javax.enterprise.inject.Instance;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.validation.FhirValidator;
+import ca.uhn.fhir.validation.ValidationResult;
+
+public class ValidatorWarmUpTest {
+
+    ValidatorWarmUp validatorWarmUp;
+    PrescriptionBundleValidator prescriptionBundleValidator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        prescriptionBundleValidator = new PrescriptionBundleValidator();
+        prescriptionBundleValidator.ctx = FhirContext.forR4();
+        prescriptionBundleValidator.validationResultCache = new ValidationResultCache(10);
+        prescriptionBundleValidator.validator = mock(FhirValidator.class);
+        when(prescriptionBundleValidator.validator.validateWithResult(anyString()))
+                .thenReturn(new ValidationResult(prescriptionBundleValidator.ctx, List.of()));
+
+        validatorWarmUp = new ValidatorWarmUp();
+        validatorWarmUp.prescriptionBundleValidator = mock(Instance.class);
+        when(validatorWarmUp.prescriptionBundleValidator.get()).thenReturn(prescriptionBundleValidator);
+    }
+
+    @Test
+    void testSamplesAreValidated() {
+        assertFalse(validatorWarmUp.getStatus().isReady());
+
+        validatorWarmUp.warmUp();
+
+        ValidatorWarmUpStatus status = validatorWarmUp.getStatus();
+        assertEquals(ValidatorWarmUpStatus.State.READY, status.getState());
+        assertTrue(status.isReady());
+        assertEquals(2, status.getSamples());
+        assertEquals(2, status.getValidatedSamples());
+        verify(prescriptionBundleValidator.validator, times(2)).validateWithResult(anyString());
+        // the samples are not cached
+        assertEquals(0, prescriptionBundleValidator.getValidationResultCache().getSize());
+    }
+
+    @Test
+    void testMissingSampleFails() {
+        validatorWarmUp.samples = List.of("/bundle-samples/kbv-pf-example.json", "/bundle-samples/missing.json");
+
+        validatorWarmUp.warmUp();
+
+        ValidatorWarmUpStatus status = validatorWarmUp.getStatus();
+        assertEquals(ValidatorWarmUpStatus.State.FAILED, status.getState());
+        assertFalse(status.isReady());
+        assertEquals(1, status.getValidatedSamples());
+        assertTrue(status.getError().contains("missing.json"));
+    }
+
+    @Test
+    void testDisabled() {
+        validatorWarmUp.enabled = false;
+
+        validatorWarmUp.init();
+
+        assertEquals(ValidatorWarmUpStatus.State.DISABLED, validatorWarmUp.getStatus().getState());
+        assertTrue(validatorWarmUp.getStatus().isReady());
+        verify(validatorWarmUp.prescriptionBundleValidator, never()).get();
+    }
+}
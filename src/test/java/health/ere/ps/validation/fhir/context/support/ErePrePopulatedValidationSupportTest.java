@@ -0,0 +1,103 @@
+package health.ere.ps.validation.fhir.context.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import org.hl7.fhir.common.hapi.validation.support.SnapshotGeneratingValidationSupport;
+import org.hl7.fhir.common.hapi.validation.support.ValidationSupportChain;
+import org.hl7.fhir.common.hapi.validation.validator.FhirInstanceValidator;
+import org.hl7.fhir.r4.model.StructureDefinition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
+import ca.uhn.fhir.validation.FhirValidator;
+import ca.uhn.fhir.validation.ValidationResult;
+
+public class ErePrePopulatedValidationSupportTest {
+
+    static final Path KBV_CONFIG_DIR = Path.of("KBV_FHIR_eRP_V1_0_2");
+    static final String BUNDLE_PROFILE = "https://fhir.kbv.de/StructureDefinition/KBV_PR_ERP_Bundle|1.0.2";
+
+    FhirContext ctx = FhirContext.forR4();
+
+    ValidationSupportChain validationSupportChain(ErePrePopulatedValidationSupport erePrePopulatedValidationSupport) {
+        ValidationSupportChain validationSupportChain = new ValidationSupportChain();
+        validationSupportChain.addValidationSupport(new DefaultProfileValidationSupport(ctx));
+        validationSupportChain.addValidationSupport(erePrePopulatedValidationSupport);
+        validationSupportChain.addValidationSupport(new SnapshotGeneratingValidationSupport(ctx));
+        return validationSupportChain;
+    }
+
+    ValidationResult validate(ValidationSupportChain validationSupportChain, String bundleFile) throws Exception {
+        FhirInstanceValidator validatorModule = new FhirInstanceValidator(validationSupportChain);
+        validatorModule.setAnyExtensionsAllowed(true);
+        validatorModule.setErrorForUnknownProfiles(false);
+        validatorModule.setNoTerminologyChecks(true);
+        FhirValidator validator = ctx.newValidator().registerValidatorModule(validatorModule);
+        return validator.validateWithResult(Files.readString(Path.of("src/test/resources/bundle-json", bundleFile)));
+    }
+
+    @Test
+    void testSnapshotArchiveIsWrittenAndLoadedLazily(@TempDir Path tempDir) throws Exception {
+        Path archiveFile = tempDir.resolve("kbv-snapshot.zip");
+
+        ErePrePopulatedValidationSupport fromXml = new ErePrePopulatedValidationSupport(ctx, KBV_CONFIG_DIR, archiveFile);
+        assertFalse(fromXml.isLoadedFromSnapshotArchive());
+        ValidationSupportChain xmlChain = validationSupportChain(fromXml);
+        fromXml.precompileSnapshots(xmlChain);
+        assertTrue(Files.isRegularFile(archiveFile));
+        assertTrue(((StructureDefinition) fromXml.fetchStructureDefinition(BUNDLE_PROFILE)).hasSnapshot());
+
+        ErePrePopulatedValidationSupport fromArchive = new ErePrePopulatedValidationSupport(ctx, KBV_CONFIG_DIR, archiveFile);
+        assertTrue(fromArchive.isLoadedFromSnapshotArchive());
+        fromArchive.createTerminologyValidationSupport();
+        assertEquals(0, fromArchive.getSnapshotArchive().getDecodedResourceCount());
+        StructureDefinition bundleProfile = (StructureDefinition) fromArchive.fetchStructureDefinition(BUNDLE_PROFILE);
+        assertNotNull(bundleProfile);
+        assertTrue(bundleProfile.hasSnapshot());
+        assertEquals(1, fromArchive.getSnapshotArchive().getDecodedResourceCount());
+        assertEquals(fromXml.fetchAllStructureDefinitions().size(), fromArchive.fetchAllStructureDefinitions().size());
+
+        ValidationSupportChain archiveChain = validationSupportChain(fromArchive);
+        for (String bundleFile : new String[] { "0428d416-149e-48a4-977c-394887b3d85c.json",
+                "0428d416-149e-48a4-977c-394887b3d85c-invalid.json" }) {
+            ValidationResult xmlResult = validate(xmlChain, bundleFile);
+            ValidationResult archiveResult = validate(archiveChain, bundleFile);
+            assertEquals(xmlResult.isSuccessful(), archiveResult.isSuccessful());
+            assertEquals(xmlResult.getMessages().size(), archiveResult.getMessages().size());
+        }
+    }
+
+    @Test
+    void testArchiveOfOtherFilesIsIgnored(@TempDir Path tempDir) throws Exception {
+        Path archiveFile = tempDir.resolve("kbv-snapshot.zip");
+        KbvSnapshotArchive.write(ctx, archiveFile, "other", new HashMap<>(), new HashMap<>(),
+                new HashMap<>());
+
+        ErePrePopulatedValidationSupport support = new ErePrePopulatedValidationSupport(ctx, KBV_CONFIG_DIR, archiveFile);
+
+        assertFalse(support.isLoadedFromSnapshotArchive());
+        assertNotNull(support.fetchStructureDefinition(BUNDLE_PROFILE));
+    }
+
+    @Test
+    void testSnapshotsAreNotPrecompiledWithoutWritableArchive(@TempDir Path tempDir) throws Exception {
+        // the archive would be below a file, its directory can not be created
+        Path archiveFile = Files.createFile(tempDir.resolve("KBV_FHIR_eRP_V1_0_2")).resolve("kbv-snapshot.zip");
+        assertFalse(ErePrePopulatedValidationSupport.isWritable(archiveFile));
+        assertTrue(ErePrePopulatedValidationSupport.isWritable(tempDir.resolve("new-dir").resolve("kbv-snapshot.zip")));
+
+        ErePrePopulatedValidationSupport support = new ErePrePopulatedValidationSupport(ctx, KBV_CONFIG_DIR, archiveFile);
+        support.precompileSnapshots(validationSupportChain(support));
+
+        assertFalse(((StructureDefinition) support.fetchStructureDefinition(BUNDLE_PROFILE)).hasSnapshot());
+    }
+}
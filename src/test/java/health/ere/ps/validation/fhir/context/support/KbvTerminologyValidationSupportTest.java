@@ -0,0 +1,131 @@
+package health.ere.ps.validation.fhir.context.support;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hl7.fhir.common.hapi.validation.support.ValidationSupportChain;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.CodeSystem;
+import org.hl7.fhir.r4.model.MetadataResource;
+import org.hl7.fhir.r4.model.ValueSet;
+import org.junit.jupiter.api.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.support.ConceptValidationOptions;
+import ca.uhn.fhir.context.support.DefaultProfileValidationSupport;
+import ca.uhn.fhir.context.support.ValidationSupportContext;
+
+public class KbvTerminologyValidationSupportTest {
+
+    static final String COLORS = "https://example.org/CodeSystem/colors";
+    static final String CATALOG = "https://example.org/CodeSystem/catalog";
+
+    FhirContext ctx = FhirContext.forR4();
+
+    static CodeSystem colors() {
+        CodeSystem codeSystem = new CodeSystem().setUrl(COLORS).setContent(CodeSystem.CodeSystemContentMode.COMPLETE);
+        codeSystem.addConcept().setCode("red").setDisplay("Red")
+                .addConcept().setCode("dark-red").setDisplay("Dark red");
+        codeSystem.addConcept().setCode("blue").setDisplay("Blue");
+        return codeSystem;
+    }
+
+    static ValueSet valueSet(String url) {
+        return new ValueSet().setUrl(url);
+    }
+
+    static Map<String, IBaseResource> byUrl(MetadataResource... resources) {
+        Map<String, IBaseResource> byUrl = new HashMap<>();
+        for (MetadataResource resource : resources) {
+            byUrl.put(resource.getUrl(), resource);
+        }
+        return byUrl;
+    }
+
+    KbvTerminologyValidationSupport terminologyValidationSupport() {
+        ValueSet allColors = valueSet("https://example.org/ValueSet/colors").setVersion("1.0");
+        allColors.getCompose().addInclude().setSystem(COLORS);
+        ValueSet reds = valueSet("https://example.org/ValueSet/reds");
+        reds.getCompose().addInclude().setSystem(COLORS).addConcept().setCode("red");
+        reds.getCompose().getIncludeFirstRep().addConcept().setCode("dark-red");
+        ValueSet noBlue = valueSet("https://example.org/ValueSet/no-blue");
+        noBlue.getCompose().addInclude().addValueSet("https://example.org/ValueSet/colors");
+        noBlue.getCompose().addExclude().setSystem(COLORS).addConcept().setCode("blue");
+        ValueSet catalog = valueSet("https://example.org/ValueSet/catalog");
+        catalog.getCompose().addInclude().setSystem(CATALOG);
+        CodeSystem catalogCodeSystem = new CodeSystem().setUrl(CATALOG)
+                .setContent(CodeSystem.CodeSystemContentMode.NOTPRESENT);
+
+        KbvTerminologyValidationSupport terminologyValidationSupport = new KbvTerminologyValidationSupport(ctx,
+                byUrl(colors(), catalogCodeSystem), byUrl(allColors, reds, noBlue, catalog));
+        terminologyValidationSupport.expandValueSets(new ValidationSupportChain(terminologyValidationSupport));
+        return terminologyValidationSupport;
+    }
+
+    @Test
+    void testValueSetsAreExpanded() {
+        KbvTerminologyValidationSupport support = terminologyValidationSupport();
+        ValidationSupportContext context = new ValidationSupportContext(support);
+        ConceptValidationOptions options = new ConceptValidationOptions();
+
+        assertEquals(4, support.getExpandedValueSetCount());
+        assertTrue(support.validateCode(context, options, COLORS, "dark-red", null,
+                "https://example.org/ValueSet/colors").isOk());
+        assertEquals("Dark red", support.validateCode(context, options, COLORS, "dark-red", null,
+                "https://example.org/ValueSet/colors|1.0").getDisplay());
+        assertTrue(support.validateCode(context, options, COLORS, "red", null,
+                "https://example.org/ValueSet/reds").isOk());
+        assertFalse(support.validateCode(context, options, COLORS, "blue", null,
+                "https://example.org/ValueSet/reds").isOk());
+        assertTrue(support.validateCode(context, options, COLORS, "red", null,
+                "https://example.org/ValueSet/no-blue").isOk());
+        assertFalse(support.validateCode(context, options, COLORS, "blue", null,
+                "https://example.org/ValueSet/no-blue").isOk());
+        assertTrue(support.validateCode(context, new ConceptValidationOptions().setInferSystem(true), null, "red",
+                null, "https://example.org/ValueSet/reds").isOk());
+        // ValueSets that are not known are left to the next support
+        assertNull(support.validateCode(context, options, COLORS, "red", null, "https://example.org/ValueSet/unknown"));
+    }
+
+    @Test
+    void testCodeSystems() {
+        KbvTerminologyValidationSupport support = terminologyValidationSupport();
+        ValidationSupportContext context = new ValidationSupportContext(support);
+        ConceptValidationOptions options = new ConceptValidationOptions();
+
+        assertTrue(support.isCodeSystemSupported(context, COLORS));
+        assertTrue(support.validateCode(context, options, COLORS, "blue", null, null).isOk());
+        assertFalse(support.validateCode(context, options, COLORS, "green", null, null).isOk());
+        // the codes of a catalog without content are accepted
+        assertTrue(support.isCodeSystemSupported(context, CATALOG));
+        assertTrue(support.validateCode(context, options, CATALOG, "4711", null, null).isOk());
+        assertTrue(support.validateCode(context, options, CATALOG, "4711", null,
+                "https://example.org/ValueSet/catalog").isOk());
+        assertNull(support.validateCode(context, options, "https://example.org/CodeSystem/unknown", "1", null, null));
+    }
+
+    @Test
+    void testKbvConfiguration() {
+        ErePrePopulatedValidationSupport erePrePopulatedValidationSupport = new ErePrePopulatedValidationSupport(ctx,
+                Path.of("KBV_FHIR_eRP_V1_0_2"), null);
+        KbvTerminologyValidationSupport support = erePrePopulatedValidationSupport.createTerminologyValidationSupport();
+        ValidationSupportChain validationSupportChain = new ValidationSupportChain(
+                new DefaultProfileValidationSupport(ctx), erePrePopulatedValidationSupport, support);
+        support.expandValueSets(validationSupportChain);
+        ValidationSupportContext context = new ValidationSupportContext(validationSupportChain);
+        ConceptValidationOptions options = new ConceptValidationOptions();
+
+        String statusCoPayment = "https://fhir.kbv.de/ValueSet/KBV_VS_ERP_StatusCoPayment";
+        String statusCoPaymentSystem = "https://fhir.kbv.de/CodeSystem/KBV_CS_ERP_StatusCoPayment";
+        assertTrue(support.validateCode(context, options, statusCoPaymentSystem, "1", null, statusCoPayment).isOk());
+        assertFalse(support.validateCode(context, options, statusCoPaymentSystem, "3", null, statusCoPayment).isOk());
+        assertTrue(support.validateCode(context, options, "http://fhir.de/CodeSystem/ifa/pzn", "08585997", null,
+                null).isOk());
+    }
+}
@@ -0,0 +1,126 @@
+package health.ere.ps.websocket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.websocket.CloseReason;
+import javax.websocket.RemoteEndpoint.Async;
+import javax.websocket.RemoteEndpoint.Basic;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class SessionMessageQueueTest {
+
+    Session session;
+    Async async;
+    List<Object> sentMessages = new ArrayList<>();
+    List<SendHandler> writing = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        session = mock(Session.class);
+        async = mock(Async.class);
+        when(session.getAsyncRemote()).thenReturn(async);
+        // the container writes the message later and calls the handler then
+        doAnswer(invocation -> {
+            sentMessages.add(invocation.getArgument(0));
+            writing.add(invocation.getArgument(1));
+            return null;
+        }).when(async).sendObject(any(), any(SendHandler.class));
+    }
+
+    @Test
+    void testMessagesAreSentOneAfterTheOther() {
+        SessionMessageQueue messageQueue = new SessionMessageQueue(session, Runnable::run);
+        List<SendResult> results = new ArrayList<>();
+
+        messageQueue.send("first", results::add);
+        messageQueue.send("second", results::add);
+        messageQueue.send("third", results::add);
+
+        // the call does not wait, the second message waits for the first
+        assertEquals(List.of("first"), sentMessages);
+        writing.get(0).onResult(new SendResult());
+        assertEquals(List.of("first", "second"), sentMessages);
+        writing.get(1).onResult(new SendResult(new IllegalStateException("Connection reset")));
+        assertEquals(List.of("first", "second", "third"), sentMessages);
+        writing.get(2).onResult(new SendResult());
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isOK());
+        assertFalse(results.get(1).isOK());
+
+        messageQueue.send("fourth", null);
+        assertEquals(List.of("first", "second", "third", "fourth"), sentMessages);
+    }
+
+    @Test
+    void testFailedSendDoesNotBlockTheQueue() {
+        SessionMessageQueue messageQueue = new SessionMessageQueue(session, Runnable::run);
+        List<SendResult> results = new ArrayList<>();
+        doThrow(new IllegalStateException("Session closed")).when(async).sendObject(any(), any(SendHandler.class));
+
+        messageQueue.send("first", results::add);
+        messageQueue.send("second", results::add);
+
+        assertEquals(2, results.size());
+        assertFalse(results.get(1).isOK());
+    }
+
+    @Test
+    void testStreamedMessageWaitsForThePreviousMessage() throws IOException {
+        StringWriter sendWriter = new StringWriter();
+        Basic basic = mock(Basic.class);
+        when(session.getBasicRemote()).thenReturn(basic);
+        when(basic.getSendWriter()).thenReturn(sendWriter);
+        SessionMessageQueue messageQueue = new SessionMessageQueue(session, Runnable::run);
+        List<SendResult> results = new ArrayList<>();
+
+        messageQueue.send("first", results::add);
+        messageQueue.stream(writer -> writer.write("second"), results::add);
+        messageQueue.send("third", results::add);
+
+        assertEquals("", sendWriter.toString());
+        writing.get(0).onResult(new SendResult());
+        assertEquals("second", sendWriter.toString());
+        assertEquals(List.of("first", "third"), sentMessages);
+        writing.get(1).onResult(new SendResult());
+        assertEquals(3, results.size());
+        assertTrue(results.get(1).isOK());
+    }
+
+    @Test
+    void testFailedStreamClosesTheSession() throws IOException {
+        Basic basic = mock(Basic.class);
+        when(session.getBasicRemote()).thenReturn(basic);
+        when(basic.getSendWriter()).thenReturn(new StringWriter());
+        SessionMessageQueue messageQueue = new SessionMessageQueue(session, Runnable::run);
+        List<SendResult> results = new ArrayList<>();
+
+        messageQueue.stream(writer -> {
+            writer.write("{\"type\":");
+            throw new IOException("PDF not readable");
+        }, results::add);
+        messageQueue.send("second", results::add);
+
+        assertFalse(results.get(0).isOK());
+        verify(session).close(any(CloseReason.class));
+        assertEquals(List.of("second"), sentMessages);
+    }
+}
@@ -2,7 +2,9 @@ package health.ere.ps.websocket;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -14,6 +16,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.enterprise.event.Event;
 import javax.json.Json;
@@ -29,7 +32,9 @@ import org.mockito.ArgumentCaptor;
 import ca.uhn.fhir.context.FhirContext;
 import health.ere.ps.event.ERezeptWithDocumentsEvent;
 import health.ere.ps.model.gematik.BundleWithAccessCodeOrThrowable;
+import health.ere.ps.model.gematik.ParsedBundle;
 import health.ere.ps.model.pdf.ERezeptDocument;
+import health.ere.ps.validation.fhir.bundle.PrescriptionBundleValidator;
 
 class WebsocketTest {
 
@@ -45,6 +50,28 @@ class WebsocketTest {
       verify(websocket.signAndUploadBundlesEvent, times(1)).fireAsync(any());
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  void testSignAndUploadBundlesWithoutId() throws IOException {
+      Websocket websocket = new Websocket();
+      websocket.signAndUploadBundlesEvent = mock(Event.class);
+      websocket.prescriptionBundleValidator = mock(PrescriptionBundleValidator.class);
+      when(websocket.prescriptionBundleValidator.bundlesValidationResultAsync(any(List.class), eq("")))
+              .thenAnswer(invocation -> {
+                  List<List<ParsedBundle>> bundles = invocation.getArgument(0);
+                  bundles.forEach(list -> list.forEach(bundle -> bundle.setValidationResult(
+                          Json.createObjectBuilder().add("valid", true).build())));
+                  return CompletableFuture.completedFuture(Json.createObjectBuilder()
+                          .add("type", "BundlesValidationResult").build());
+              });
+      String signAndUploadBundles = new String(getClass().getResourceAsStream("/websocket" +
+              "-messages/SignAndUploadBundles.json").readAllBytes(), StandardCharsets.UTF_8);
+
+      websocket.onMessage(signAndUploadBundles, mock(Session.class));
+
+      verify(websocket.signAndUploadBundlesEvent, times(1)).fireAsync(any());
+  }
+
   // Passing but also generating LogManager errors since the introduction of the validation checks
   // in the websocket.
   @Test
@@ -79,6 +106,7 @@ class WebsocketTest {
 
     when(mockedSession.getAsyncRemote()).thenReturn(mockedAsync);
 
+    websocket.onOpen(mockedSession);
     websocket.onMessage("asdasdsad", mockedSession);
 
     ArgumentCaptor<String> exceptionMessageCaptor = ArgumentCaptor.forClass(String.class);
@@ -92,4 +120,18 @@ class WebsocketTest {
     assertEquals("Exception", exceptionObject.getString("type"));
 
   }
+
+  @Test
+  void testMessageToClosedSessionIsDropped() {
+    Websocket websocket = new Websocket();
+    Session mockedSession = mock(Session.class);
+    Async mockedAsync = mock(Async.class);
+    when(mockedSession.getAsyncRemote()).thenReturn(mockedAsync);
+
+    websocket.onOpen(mockedSession);
+    websocket.onClose(mockedSession);
+    websocket.send(mockedSession, "{}", null);
+
+    verify(mockedAsync, never()).sendObject(any(), any(SendHandler.class));
+  }
 }
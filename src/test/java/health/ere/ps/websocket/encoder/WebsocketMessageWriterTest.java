@@ -0,0 +1,38 @@
+package health.ere.ps.websocket.encoder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.bind.JsonbBuilder;
+
+import org.junit.jupiter.api.Test;
+
+public class WebsocketMessageWriterTest {
+
+    WebsocketMessageWriter messageWriter = new WebsocketMessageWriter(JsonbBuilder.create());
+
+    @Test
+    void testToString() {
+        String message = messageWriter.toString("Settings", Map.of("name", "Dr. \"Müller\""), "4711");
+
+        assertEquals("{\"type\":\"Settings\",\"payload\":{\"name\":\"Dr. \\\"Müller\\\"\"},\"replyToMessageId\":\"4711\"}",
+                message);
+        assertEquals("{\"type\":\"Settings\",\"payload\":null,\"replyToMessageId\":\"null\"}",
+                messageWriter.toString("Settings", null, null));
+    }
+
+    @Test
+    void testWriteToString() {
+        String message = messageWriter.writeToString("Bundles", writer -> writer.write("[{\"resourceType\":\"Bundle\"}]"), "2");
+
+        JsonObject bundles = Json.createReader(new StringReader(message)).readObject();
+        assertEquals("Bundle", bundles.getJsonArray("payload").getJsonObject(0).getString("resourceType"));
+        assertEquals("2", bundles.getString("replyToMessageId"));
+        assertFalse(message.contains("\n"));
+    }
+}